@@ -0,0 +1,152 @@
+/*
+ * The MIT License Copyright (c) 2014 Krayushkin Konstantin (jangokvk@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ru.jango.j0util.benchmark;
+
+import android.graphics.BitmapFactory;
+import android.graphics.Point;
+import android.graphics.PointF;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import ru.jango.j0util.BmpUtil;
+import ru.jango.j0util.BmpUtil.ScaleType;
+import ru.jango.j0util.DecodePlan;
+
+/**
+ * Decoding options and scales, as BmpUtil calculates them before every decoding:
+ * genBFOptions(...), genSubsampleOptions(...), resolveScale(...) and {@link ru.jango.j0util.DecodePlan}.
+ * BitmapFactory.Options, Point and PointF come from the shims, so allocations are the same as
+ * on Android.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BmpUtilBenchmark {
+
+    /**
+     * Typical requests: {destW, destH, srcW, srcH}.
+     */
+    private static final int[][] CASES = {
+            { 100, 100, 6150, 2500 },
+            { 2000, 2000, 2738, 1500 },
+            { 300, 400, 1600, 1000 },
+            { 640, 480, 4032, 3024 },
+            { 128, 128, 425, 554 },
+            { 1080, 1920, 3000, 4000 },
+            { 50, 70, 1000, 1000 },
+            { 2048, 2048, 8000, 6000 } };
+
+    @Param({ "PROPORTIONAL_FIT", "PROPORTIONAL_CROP", "FIT_XY" })
+    public ScaleType scaleType;
+
+    private final PointF scales = new PointF();
+    private final Point size = new Point();
+    private int index;
+
+    @Setup
+    public void setUp() {
+        // don't probe EGL on the JVM
+        BmpUtil.setMaxTextureSize(BmpUtil.MAX_TEXTURE_SIZE);
+    }
+
+    @TearDown
+    public void tearDown() {
+        BmpUtil.setMaxTextureSize(0);
+    }
+
+    @Benchmark
+    public int genBFOptions() {
+        final int[] c = next();
+        return Access.bfOptions(scaleType, c[0], c[1], c[2], c[3]).inSampleSize;
+    }
+
+    @Benchmark
+    public int genSubsampleOptions() {
+        final int[] c = next();
+        size.set(c[2], c[3]);
+        return Access.subsampleOptions(size, scaleType, c[0], c[1]).inSampleSize;
+    }
+
+    @Benchmark
+    public float resolveScale() {
+        final int[] c = next();
+        final PointF ret = Access.scales(scaleType, c[0], c[1], c[2], c[3]);
+        return ret.x + ret.y;
+    }
+
+    @Benchmark
+    public float resolveScaleInto() {
+        final int[] c = next();
+        Access.scales(scaleType, c[0], c[1], c[2], c[3], scales);
+        return scales.x + scales.y;
+    }
+
+    @Benchmark
+    public long decodePlan() {
+        final int[] c = next();
+        size.set(c[2], c[3]);
+        return DecodePlan.scale(size, scaleType, c[0], c[1], null).getPeakBytes();
+    }
+
+    private int[] next() {
+        index = (index + 1) & (CASES.length - 1);
+        return CASES[index];
+    }
+
+    /**
+     * Opens protected BmpUtil helpers.
+     */
+    private static class Access extends BmpUtil {
+
+        static BitmapFactory.Options bfOptions(ScaleType scaleType, int destW, int destH, int srcW, int srcH) {
+            return BmpUtil.genBFOptions(scaleType, destW, destH, srcW, srcH);
+        }
+
+        static BitmapFactory.Options subsampleOptions(Point size, ScaleType scaleType, int w, int h) {
+            return BmpUtil.genSubsampleOptions(size, scaleType, w, h);
+        }
+
+        static PointF scales(ScaleType scaleType, int destW, int destH, int srcW, int srcH) {
+            return BmpUtil.resolveScale(scaleType, destW, destH, srcW, srcH);
+        }
+
+        static PointF scales(ScaleType scaleType, int destW, int destH, int srcW, int srcH, PointF out) {
+            return BmpUtil.resolveScale(scaleType, destW, destH, srcW, srcH, out);
+        }
+
+    }
+
+}
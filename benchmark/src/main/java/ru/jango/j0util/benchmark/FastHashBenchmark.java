@@ -0,0 +1,90 @@
+/*
+ * The MIT License Copyright (c) 2014 Krayushkin Konstantin (jangokvk@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ru.jango.j0util.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import ru.jango.j0util.Crc32c;
+import ru.jango.j0util.MurmurHash3;
+import ru.jango.j0util.SecurityUtil;
+import ru.jango.j0util.XxHash64;
+
+/**
+ * Non-cryptographic hashes against MD5 and SHA-1 on the same data: through the common
+ * {@link ru.jango.j0util.SecurityUtil#hashToBytes(byte[], int, int, String, byte[], int)}
+ * path, and through the allocation free static methods of the fast hashes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FastHashBenchmark {
+
+    @Param({ "MD5", "SHA-1", "XXH64", "MURMUR3-128", "CRC32C" })
+    public String algorithm;
+
+    @Param({ "32", "1024", "65536" })
+    public int length;
+
+    private byte[] data;
+    private final byte[] dest = new byte[64];
+
+    @Setup
+    public void setUp() {
+        data = new byte[length];
+        new Random(42).nextBytes(data);
+    }
+
+    @Benchmark
+    public int hashToBytes() {
+        return SecurityUtil.hashToBytes(data, 0, data.length, algorithm, dest, 0);
+    }
+
+    @Benchmark
+    public long xxHash64() {
+        return XxHash64.hash(data, 0, data.length, 0);
+    }
+
+    @Benchmark
+    public long murmur3() {
+        return MurmurHash3.hash64(data, 0, data.length, 0);
+    }
+
+    @Benchmark
+    public int crc32c() {
+        return Crc32c.hash(data, 0, data.length);
+    }
+
+}
@@ -0,0 +1,97 @@
+/*
+ * The MIT License Copyright (c) 2014 Krayushkin Konstantin (jangokvk@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ru.jango.j0util.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import ru.jango.j0util.MultiHasher;
+import ru.jango.j0util.SecurityUtil;
+
+/**
+ * MD5 and SHA-256 of the same stream: read twice, read once with
+ * {@link ru.jango.j0util.MultiHasher}, and read once with hashing in parallel.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MultiHashBenchmark {
+
+    private static final String[] ALGORITHMS = { "MD5", "SHA-256" };
+
+    @Param({ "65536", "4194304" })
+    public int length;
+
+    private byte[] data;
+    private MultiHasher serial;
+    private MultiHasher parallel;
+
+    @Setup
+    public void setUp() {
+        data = new byte[length];
+        new Random(42).nextBytes(data);
+        serial = SecurityUtil.newMultiHasher(ALGORITHMS);
+        parallel = SecurityUtil.newMultiHasher(ALGORITHMS).setParallel(true);
+    }
+
+    @TearDown
+    public void tearDown() {
+        parallel.shutdown();
+    }
+
+    @Benchmark
+    public String[] separate() throws IOException {
+        final String[] ret = new String[ALGORITHMS.length];
+        for (int i = 0; i < ret.length; i++)
+            ret[i] = SecurityUtil.hash(new ByteArrayInputStream(data), ALGORITHMS[i]);
+        return ret;
+    }
+
+    @Benchmark
+    public String[] singlePass() throws IOException {
+        serial.update(new ByteArrayInputStream(data));
+        return serial.digestHexAll();
+    }
+
+    @Benchmark
+    public String[] singlePassParallel() throws IOException {
+        parallel.update(new ByteArrayInputStream(data));
+        return parallel.digestHexAll();
+    }
+
+}
@@ -0,0 +1,98 @@
+/*
+ * The MIT License Copyright (c) 2014 Krayushkin Konstantin (jangokvk@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ru.jango.j0util.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+import ru.jango.j0util.PathUtil;
+
+/**
+ * Path parsing with {@link ru.jango.j0util.PathUtil}. Methods for URI's go through
+ * android.net.Uri encode/decode, that is replaced by the shim with the same behaviour.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PathUtilBenchmark {
+
+    private static final String[] PATHS = {
+            "/storage/emulated/0/DCIM/Camera/IMG_20140512_183402.jpg",
+            "http://example.com/images/thumbnails/photo%20of%20the%20day.png?size=large",
+            "/data/data/ru.jango.j0util/cache/",
+            "relative/path/without_extension" };
+
+    private final URI[] uris = new URI[PATHS.length];
+    private int index;
+
+    public PathUtilBenchmark() {
+        for (int i = 0; i < PATHS.length; i++) uris[i] = URI.create(PATHS[i]);
+    }
+
+    @Benchmark
+    public String getLastPathSegment() {
+        return PathUtil.getLastPathSegment(PATHS[next()]);
+    }
+
+    @Benchmark
+    public String getFilenameWithoutExt() {
+        return PathUtil.getFilenameWithoutExt(PATHS[next()]);
+    }
+
+    @Benchmark
+    public String getExt() {
+        return PathUtil.getExt(PATHS[next()]);
+    }
+
+    @Benchmark
+    public String getLastPathSegmentURI() {
+        return PathUtil.getLastPathSegment(uris[next()]);
+    }
+
+    @Benchmark
+    public URI stringToURI() {
+        return PathUtil.safeStringToURI(PATHS[next()]);
+    }
+
+    @Benchmark
+    public boolean uriEquals() {
+        final int i = next();
+        return PathUtil.uriEquals(uris[i], uris[(i + 1) & (PATHS.length - 1)]);
+    }
+
+    private int next() {
+        index = (index + 1) & (PATHS.length - 1);
+        return index;
+    }
+
+}
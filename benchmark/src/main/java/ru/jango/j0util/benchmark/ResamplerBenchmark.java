@@ -0,0 +1,91 @@
+/*
+ * The MIT License Copyright (c) 2014 Krayushkin Konstantin (jangokvk@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ru.jango.j0util.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import ru.jango.j0util.Resampler;
+
+/**
+ * Downscaling of a 12 MP image to a 512x384 thumbnail with different filters, prepass and
+ * thread count.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResamplerBenchmark {
+
+    private static final int SRC_W = 4000;
+    private static final int SRC_H = 3000;
+    private static final int DST_W = 512;
+    private static final int DST_H = 384;
+
+    @Param({ "BOX", "BILINEAR", "MITCHELL", "LANCZOS3" })
+    public Resampler.Filter filter;
+
+    @Param({ "true", "false" })
+    public boolean progressive;
+
+    @Param({ "1", "4" })
+    public int threads;
+
+    private int[] src;
+    private int[] dst;
+    private Resampler resampler;
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(42);
+        src = new int[SRC_W * SRC_H];
+        for (int i = 0; i < src.length; i++) src[i] = 0xFF000000 | random.nextInt(0x1000000);
+
+        dst = new int[DST_W * DST_H];
+        resampler = new Resampler(filter).setProgressive(progressive).setThreadCount(threads);
+    }
+
+    @TearDown
+    public void tearDown() {
+        resampler.shutdown();
+    }
+
+    @Benchmark
+    public int[] resample() {
+        resampler.resample(src, SRC_W, SRC_H, dst, DST_W, DST_H);
+        return dst;
+    }
+
+}
@@ -0,0 +1,152 @@
+/*
+ * The MIT License Copyright (c) 2014 Krayushkin Konstantin (jangokvk@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ru.jango.j0util.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import ru.jango.j0util.BmpUtil.ScaleType;
+import ru.jango.j0util.ScaleSolver;
+
+/**
+ * Sample size and scale resolving: {@link ru.jango.j0util.ScaleSolver} against the previous
+ * floating point implementation. Previous implementation is copied here with
+ * android.graphics.PointF replaced by float[2], so it allocates just like before.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScaleSolverBenchmark {
+
+    /**
+     * Typical requests: {destW, destH, srcW, srcH}.
+     */
+    private static final int[][] CASES = {
+            { 100, 100, 6150, 2500 },
+            { 2000, 2000, 2738, 1500 },
+            { 300, 400, 1600, 1000 },
+            { 640, 480, 4032, 3024 },
+            { 128, 128, 425, 554 },
+            { 1080, 1920, 3000, 4000 },
+            { 50, 70, 1000, 1000 },
+            { 2048, 2048, 8000, 6000 } };
+
+    @Param({ "PROPORTIONAL_FIT", "PROPORTIONAL_CROP", "FIT_XY" })
+    public ScaleType scaleType;
+
+    private final ScaleSolver solver = new ScaleSolver();
+    private int index;
+
+    @Benchmark
+    public int sampleSize() {
+        final int[] c = next();
+        return ScaleSolver.sampleSize(scaleType, c[0], c[1], c[2], c[3]);
+    }
+
+    @Benchmark
+    public int legacySampleSize() {
+        final int[] c = next();
+        return legacySampleSize(scaleType, c[0], c[1], c[2], c[3]);
+    }
+
+    @Benchmark
+    public float resolveScale() {
+        final int[] c = next();
+        solver.solve(scaleType, c[0], c[1], c[2], c[3]);
+        return solver.getScaleX() + solver.getScaleY();
+    }
+
+    @Benchmark
+    public float legacyResolveScale() {
+        final int[] c = next();
+        final float[] scales = legacyResolveScale(scaleType, c[0], c[1], c[2], c[3]);
+        return scales[0] + scales[1];
+    }
+
+    private int[] next() {
+        index = (index + 1) & (CASES.length - 1);
+        return CASES[index];
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////
+    //
+    //                      Previous implementation
+    //
+    //////////////////////////////////////////////////////////////////////////////////////////////
+
+    private static float[] legacyGetScales(int destW, int destH, int srcW, int srcH) {
+        return new float[] { ((float) destW) / ((float) srcW), ((float) destH) / ((float) srcH) };
+    }
+
+    private static float[] legacyResolveScale(ScaleType scaleType, int destW, int destH, int srcW, int srcH) {
+        switch (scaleType) {
+            case PROPORTIONAL_FIT: {
+                final float[] scales = legacyGetScales(destW, destH, srcW, srcH);
+                if (((float) destW) / ((float) destH) < ((float) srcW) / ((float) srcH))
+                    return new float[] { scales[0], scales[0] };
+                else return new float[] { scales[1], scales[1] };
+            }
+
+            case PROPORTIONAL_CROP: {
+                final float[] scales = legacyGetScales(destW, destH, srcW, srcH);
+                if (((float) destW) / ((float) destH) > ((float) srcW) / ((float) srcH))
+                    return new float[] { scales[0], scales[0] };
+                else return new float[] { scales[1], scales[1] };
+            }
+
+            default:
+                return new float[] { ((float) destW) / ((float) srcW), ((float) destH) / ((float) srcH) };
+        }
+    }
+
+    private static int legacySampleSize(ScaleType scaleType, int destW, int destH, int srcW, int srcH) {
+        int inSampleSize = Math.max(1, (int) Math.ceil(1 / legacyResolveScale(scaleType, destW, destH, srcW, srcH)[0]));
+        if (inSampleSize == 1) return inSampleSize;
+
+        double pow = Math.log(inSampleSize) / Math.log(2);
+        boolean incPow;
+
+        if (scaleType != ScaleType.PROPORTIONAL_CROP)
+            incPow = (pow - Math.ceil(pow) + 1) > 0.00001;
+        else {
+            int largeSquare = (int) (srcW * srcH / Math.pow((int) Math.ceil(pow), 2));
+            int smallSquare = (int) (srcW * srcH / Math.pow((int) (Math.ceil(pow) - 1), 2));
+            incPow = Math.abs(destH * destW - largeSquare) < Math.abs(destH * destW - smallSquare) &&
+                    destH * destW <= largeSquare;
+        }
+
+        if (incPow) inSampleSize = (int) Math.pow(2, Math.ceil(pow));
+        return inSampleSize;
+    }
+
+}
@@ -0,0 +1,177 @@
+/*
+ * The MIT License Copyright (c) 2014 Krayushkin Konstantin (jangokvk@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ru.jango.j0util.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import ru.jango.j0util.SecurityUtil;
+
+/**
+ * String hashing with {@link ru.jango.j0util.SecurityUtil}: short keys (like cache keys and
+ * URLs) and larger texts, for each of the common algorithms. Previous implementation, that
+ * looked up a new MessageDigest on every call and tried algorithms one by one in smartHash,
+ * is copied here for comparison. Hex encoding is measured separately on a SHA-512 sized hash.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SecurityUtilBenchmark {
+
+    @Param({ "MD5", "SHA-1", "SHA-256", "SHA-512" })
+    public String algorithm;
+
+    @Param({ "32", "1024", "65536" })
+    public int length;
+
+    private String text;
+    private byte[] bytes;
+
+    private final byte[] hash = new byte[64];
+    private final byte[] hashDest = new byte[64];
+    private final char[] hexDest = new char[128];
+    private final StringBuilder builder = new StringBuilder(128);
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(42);
+        final char[] chars = new char[length];
+        for (int i = 0; i < chars.length; i++) chars[i] = (char) (' ' + random.nextInt(95));
+        text = new String(chars);
+        bytes = text.getBytes(Charset.forName("ISO-8859-1"));
+        random.nextBytes(hash);
+    }
+
+    @Benchmark
+    public String hash() {
+        return SecurityUtil.hash(text, algorithm);
+    }
+
+    @Benchmark
+    public String smartHash() {
+        return SecurityUtil.smartHash(text);
+    }
+
+    @Benchmark
+    public String hashBytes() {
+        return SecurityUtil.hash(bytes, algorithm);
+    }
+
+    @Benchmark
+    public String hashUtf8() {
+        return SecurityUtil.hashUtf8(text, algorithm);
+    }
+
+    @Benchmark
+    public char[] hashToChars() {
+        final int length = SecurityUtil.hashToBytes(bytes, 0, bytes.length, algorithm, hashDest, 0);
+        return SecurityUtil.toHex(hashDest, 0, length, hexDest, 0);
+    }
+
+    @Benchmark
+    public String hex() {
+        return SecurityUtil.toHex(hash);
+    }
+
+    @Benchmark
+    public StringBuilder hexToBuilder() {
+        builder.setLength(0);
+        return SecurityUtil.toHex(hash, 0, hash.length, builder);
+    }
+
+    @Benchmark
+    public char[] hexToChars() {
+        return SecurityUtil.toHex(hash, 0, hash.length, hexDest, 0);
+    }
+
+    @Benchmark
+    public String legacyHex() {
+        return legacyConvertToHex(hash);
+    }
+
+    @Benchmark
+    public String legacyHash() {
+        return legacyHash(text, algorithm);
+    }
+
+    @Benchmark
+    public String legacySmartHash() {
+        return legacySmartHash(text);
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////
+    //
+    //                      Previous implementation
+    //
+    //////////////////////////////////////////////////////////////////////////////////////////////
+
+    private static String legacyHash(String text, String alg) {
+        try {
+            final MessageDigest md = MessageDigest.getInstance(alg);
+            md.reset();
+            md.update(text.getBytes("iso-8859-1"));
+
+            return legacyConvertToHex(md.digest());
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static String legacySmartHash(String text) {
+        for (int i = SecurityUtil.ALGORITHMS.length - 1; i >= 0; i--) {
+            final String hash = legacyHash(text, SecurityUtil.ALGORITHMS[i]);
+            if (hash != null) return hash;
+        }
+
+        return null;
+    }
+
+    private static String legacyConvertToHex(byte[] hash) {
+        final StringBuilder buf = new StringBuilder();
+        for (byte i : hash) {
+            final String h = Integer.toHexString(0xFF & i);
+            if (h.length() == 0) buf.append("00");
+            else if (h.length() == 1) {
+                buf.append("0");
+                buf.append(h);
+            } else buf.append(h);
+        }
+
+        return buf.toString();
+    }
+
+}
@@ -0,0 +1,103 @@
+/*
+ * The MIT License Copyright (c) 2014 Krayushkin Konstantin (jangokvk@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ru.jango.j0util.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import ru.jango.j0util.SecurityUtil;
+import ru.jango.j0util.TreeHasher;
+
+/**
+ * SHA-256 of a 64MB file (mostly from page cache): sequential {@link ru.jango.j0util.SecurityUtil#hash(java.io.File, String)}
+ * against {@link ru.jango.j0util.TreeHasher} with different thread counts, and re-hashing of
+ * one changed chunk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TreeHashBenchmark {
+
+    private static final int LENGTH = 64 * 1024 * 1024;
+
+    @Param({ "1", "2", "4" })
+    public int threads;
+
+    private File file;
+    private TreeHasher hasher;
+    private TreeHasher.Tree tree;
+
+    @Setup
+    public void setUp() throws IOException {
+        file = File.createTempFile("tree", null);
+        final byte[] data = new byte[1024 * 1024];
+        final Random random = new Random(42);
+        final FileOutputStream out = new FileOutputStream(file);
+        for (int written = 0; written < LENGTH; written += data.length) {
+            random.nextBytes(data);
+            out.write(data);
+        }
+        out.close();
+
+        hasher = new TreeHasher("SHA-256", TreeHasher.DEFAULT_CHUNK_SIZE).setThreadCount(threads);
+        tree = hasher.hash(file);
+    }
+
+    @TearDown
+    public void tearDown() {
+        hasher.shutdown();
+        file.delete();
+    }
+
+    @Benchmark
+    public String sequential() throws IOException {
+        return SecurityUtil.hash(file, "SHA-256");
+    }
+
+    @Benchmark
+    public TreeHasher.Tree tree() throws IOException {
+        return hasher.hash(file);
+    }
+
+    @Benchmark
+    public TreeHasher.Tree rehashOneChunk() throws IOException {
+        return hasher.update(file, tree, 17);
+    }
+
+}
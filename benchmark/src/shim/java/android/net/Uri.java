@@ -0,0 +1,127 @@
+/*
+ * The MIT License Copyright (c) 2014 Krayushkin Konstantin (jangokvk@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package android.net;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * JVM shim for android.net.Uri: only the static encode/decode methods, that work just like on
+ * Android - UTF-8, '+' is not a space, malformed escapes are left as is.
+ *
+ * @see android.graphics.Point
+ */
+public abstract class Uri {
+
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    private static final String NOT_ENCODED = "_-!.~'()*";
+
+    public static String encode(String s) {
+        return encode(s, null);
+    }
+
+    public static String encode(String s, String allow) {
+        if (s == null) return null;
+
+        StringBuilder encoded = null;
+        int i = 0;
+        while (i < s.length()) {
+            final int start = i;
+            while (i < s.length() && isAllowed(s.charAt(i), allow)) i++;
+            if (i == s.length()) {
+                if (start == 0) return s;
+                encoded.append(s, start, i);
+                break;
+            }
+
+            if (encoded == null) encoded = new StringBuilder(s.length() * 3 / 2);
+            encoded.append(s, start, i);
+
+            final int from = i;
+            while (i < s.length() && !isAllowed(s.charAt(i), allow)) i++;
+            final byte[] bytes = toUtf8(s.substring(from, i));
+            for (byte b : bytes) {
+                encoded.append('%');
+                encoded.append(HEX_DIGITS[(b & 0xF0) >> 4]);
+                encoded.append(HEX_DIGITS[b & 0x0F]);
+            }
+        }
+
+        return encoded == null ? s : encoded.toString();
+    }
+
+    public static String decode(String s) {
+        if (s == null) return null;
+        if (s.indexOf('%') < 0) return s;
+
+        final StringBuilder decoded = new StringBuilder(s.length());
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        int i = 0;
+        while (i < s.length()) {
+            final char c = s.charAt(i);
+            if (c == '%' && i + 2 < s.length() &&
+                    hexValue(s.charAt(i + 1)) >= 0 && hexValue(s.charAt(i + 2)) >= 0) {
+                bytes.write((hexValue(s.charAt(i + 1)) << 4) | hexValue(s.charAt(i + 2)));
+                i += 3;
+                continue;
+            }
+
+            flush(bytes, decoded);
+            decoded.append(c);
+            i++;
+        }
+
+        flush(bytes, decoded);
+        return decoded.toString();
+    }
+
+    private static boolean isAllowed(char c, String allow) {
+        return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') ||
+                NOT_ENCODED.indexOf(c) >= 0 || (allow != null && allow.indexOf(c) >= 0);
+    }
+
+    private static int hexValue(char c) {
+        if (c >= '0' && c <= '9') return c - '0';
+        if (c >= 'a' && c <= 'f') return c - 'a' + 10;
+        if (c >= 'A' && c <= 'F') return c - 'A' + 10;
+        return -1;
+    }
+
+    private static void flush(ByteArrayOutputStream bytes, StringBuilder out) {
+        if (bytes.size() == 0) return;
+
+        try {
+            out.append(bytes.toString("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+        bytes.reset();
+    }
+
+    private static byte[] toUtf8(String s) {
+        try {
+            return s.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+}
@@ -0,0 +1,108 @@
+package ru.jango.j0util.test;
+
+import android.graphics.Bitmap;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ru.jango.j0util.BitmapLruCache;
+
+public class BitmapLruCacheTest extends TestCase {
+
+    // 10x10 ARGB_8888
+    private static final int BITMAP_BYTES = 400;
+
+    public void testPutGet() throws Exception {
+        final BitmapLruCache cache = new BitmapLruCache(10 * BITMAP_BYTES);
+        final Bitmap bmp = genBitmap();
+
+        Assert.assertNull(cache.get("k1"));
+        Assert.assertNull(cache.put("k1", bmp));
+        Assert.assertSame(bmp, cache.get("k1"));
+
+        Assert.assertEquals(1, cache.getHitCount());
+        Assert.assertEquals(1, cache.getMissCount());
+        Assert.assertEquals(1, cache.getPutCount());
+        Assert.assertEquals(1, cache.getCount());
+        Assert.assertEquals(BITMAP_BYTES, cache.getSize());
+    }
+
+    public void testEviction() throws Exception {
+        final List<String> evicted = new ArrayList<String>();
+        final BitmapLruCache cache = new BitmapLruCache(3 * BITMAP_BYTES) {
+            @Override
+            protected void entryRemoved(boolean wasEvicted, String key, Bitmap oldValue) {
+                if (wasEvicted) evicted.add(key);
+            }
+        };
+
+        cache.put("k1", genBitmap());
+        cache.put("k2", genBitmap());
+        cache.put("k3", genBitmap());
+        Assert.assertEquals(0, cache.getEvictionCount());
+
+        // k1 becomes the most recently used one, so k2 goes first
+        cache.get("k1");
+        cache.put("k4", genBitmap());
+        Assert.assertEquals(1, cache.getEvictionCount());
+        Assert.assertNull(cache.get("k2"));
+        Assert.assertNotNull(cache.get("k1"));
+
+        // larger bitmap evicts as many, as needed to fit
+        cache.put("big", Bitmap.createBitmap(20, 10, Bitmap.Config.ARGB_8888));
+        Assert.assertEquals(3, cache.getEvictionCount());
+        Assert.assertEquals(3 * BITMAP_BYTES, cache.getSize());
+        Assert.assertNotNull(cache.get("k1"));
+        Assert.assertNotNull(cache.get("big"));
+
+        Assert.assertEquals(3, evicted.size());
+        Assert.assertEquals("k2", evicted.get(0));
+        Assert.assertEquals("k3", evicted.get(1));
+        Assert.assertEquals("k4", evicted.get(2));
+    }
+
+    public void testReplaceAndRemove() throws Exception {
+        final List<String> removed = new ArrayList<String>();
+        final BitmapLruCache cache = new BitmapLruCache(10 * BITMAP_BYTES) {
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue) {
+                Assert.assertFalse(evicted);
+                removed.add(key);
+            }
+        };
+
+        final Bitmap first = genBitmap();
+        cache.put("k1", first);
+        Assert.assertSame(first, cache.put("k1", Bitmap.createBitmap(20, 10, Bitmap.Config.ARGB_8888)));
+        Assert.assertEquals(2 * BITMAP_BYTES, cache.getSize());
+        Assert.assertEquals(1, cache.getCount());
+
+        Assert.assertNotNull(cache.remove("k1"));
+        Assert.assertNull(cache.remove("k1"));
+        Assert.assertEquals(0, cache.getSize());
+        Assert.assertEquals(2, removed.size());
+    }
+
+    public void testTrimToSize() throws Exception {
+        final BitmapLruCache cache = new BitmapLruCache(10 * BITMAP_BYTES);
+        for (int i = 0; i < 5; i++) cache.put("k" + i, genBitmap());
+
+        cache.trimToSize(2 * BITMAP_BYTES);
+        Assert.assertEquals(2, cache.getCount());
+        Assert.assertNotNull(cache.get("k3"));
+        Assert.assertNotNull(cache.get("k4"));
+
+        cache.evictAll();
+        Assert.assertEquals(0, cache.getCount());
+        Assert.assertEquals(0, cache.getSize());
+        Assert.assertEquals(5, cache.getEvictionCount());
+    }
+
+    private Bitmap genBitmap() {
+        return Bitmap.createBitmap(10, 10, Bitmap.Config.ARGB_8888);
+    }
+
+}
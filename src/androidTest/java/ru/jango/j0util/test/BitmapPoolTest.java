@@ -0,0 +1,94 @@
+package ru.jango.j0util.test;
+
+import android.graphics.Bitmap;
+import android.test.AndroidTestCase;
+
+import junit.framework.Assert;
+
+import ru.jango.j0util.BitmapPool;
+import ru.jango.j0util.BmpUtil;
+
+public class BitmapPoolTest extends AndroidTestCase {
+
+    public void testPutGet() throws Exception {
+        if (!BitmapPool.isSupported()) return;
+
+        final BitmapPool pool = new BitmapPool(1024 * 1024);
+        final Bitmap bmp = Bitmap.createBitmap(100, 100, Bitmap.Config.ARGB_8888);
+        Assert.assertTrue(pool.put(bmp));
+        Assert.assertEquals(1, pool.getBitmapCount());
+        Assert.assertEquals(40000, pool.getSize());
+
+        Assert.assertNull(pool.get(200, 200, Bitmap.Config.ARGB_8888));
+        Assert.assertEquals(1, pool.getMissCount());
+
+        Assert.assertSame(bmp, pool.get(100, 100, Bitmap.Config.ARGB_8888));
+        Assert.assertEquals(1, pool.getHitCount());
+        Assert.assertEquals(0, pool.getBitmapCount());
+        Assert.assertEquals(0, pool.getSize());
+        bmp.recycle();
+    }
+
+    public void testEviction() throws Exception {
+        if (!BitmapPool.isSupported()) return;
+
+        final BitmapPool pool = new BitmapPool(100000);
+        final Bitmap b1 = Bitmap.createBitmap(100, 100, Bitmap.Config.ARGB_8888);
+        final Bitmap b2 = Bitmap.createBitmap(100, 100, Bitmap.Config.ARGB_8888);
+        final Bitmap b3 = Bitmap.createBitmap(100, 100, Bitmap.Config.ARGB_8888);
+        pool.put(b1);
+        pool.put(b2);
+        pool.put(b3);
+
+        // the oldest one should be evicted
+        Assert.assertEquals(1, pool.getEvictionCount());
+        Assert.assertEquals(2, pool.getBitmapCount());
+        Assert.assertTrue(b1.isRecycled());
+        Assert.assertFalse(b2.isRecycled());
+
+        pool.clear();
+        Assert.assertEquals(0, pool.getSize());
+        Assert.assertTrue(b2.isRecycled());
+        Assert.assertTrue(b3.isRecycled());
+    }
+
+    public void testImmutable() throws Exception {
+        final BitmapPool pool = new BitmapPool(1024 * 1024);
+        final Bitmap bmp = Bitmap.createBitmap(Bitmap.createBitmap(10, 10, Bitmap.Config.ARGB_8888), 0, 0, 5, 5);
+
+        Assert.assertFalse(pool.put(bmp));
+        Assert.assertTrue(bmp.isRecycled());
+        Assert.assertEquals(0, pool.getBitmapCount());
+    }
+
+    public void testPooledProcessing() throws Exception {
+        final BitmapPool pool = new BitmapPool(4 * 1024 * 1024);
+        final Bitmap src = Bitmap.createBitmap(200, 100, Bitmap.Config.ARGB_8888);
+
+        Bitmap b = BmpUtil.scale(src, BmpUtil.ScaleType.PROPORTIONAL_FIT, 100, 100, pool);
+        Assert.assertEquals(100, b.getWidth());
+        Assert.assertEquals(50, b.getHeight());
+        pool.put(b);
+
+        b = BmpUtil.scale(src, BmpUtil.ScaleType.PROPORTIONAL_FIT, 100, 100, pool);
+        Assert.assertEquals(100, b.getWidth());
+        Assert.assertEquals(50, b.getHeight());
+        if (BitmapPool.isSupported()) Assert.assertEquals(1, pool.getHitCount());
+        b.recycle();
+
+        b = BmpUtil.rotate(src, null, 90, pool);
+        Assert.assertEquals(100, b.getWidth());
+        Assert.assertEquals(200, b.getHeight());
+        b.recycle();
+
+        final byte[] data = BmpUtil.bmpToByte(src, Bitmap.CompressFormat.JPEG, 70);
+        b = BmpUtil.scale(data, BmpUtil.ScaleType.FIT_XY, 50, 60, pool);
+        Assert.assertEquals(50, b.getWidth());
+        Assert.assertEquals(60, b.getHeight());
+        b.recycle();
+
+        pool.clear();
+        src.recycle();
+    }
+
+}
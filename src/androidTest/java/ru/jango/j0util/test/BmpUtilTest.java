@@ -7,11 +7,26 @@ import android.test.AndroidTestCase;
 
 import junit.framework.Assert;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import ru.jango.j0util.BmpUtil;
+import ru.jango.j0util.ByteArrayBuffer;
+import ru.jango.j0util.ImageHeader;
+import ru.jango.j0util.ImageSource;
 import ru.jango.j0util.LogUtil;
+import ru.jango.j0util.MemoryBudget;
 
 public class BmpUtilTest extends AndroidTestCase {
 
@@ -20,6 +35,30 @@ public class BmpUtilTest extends AndroidTestCase {
     public void setUp() throws Exception {
         super.setUp();
         buw = new BmpUtilWrapper();
+        // expected sizes are calculated for the old fixed limit
+        BmpUtil.setMaxTextureSize(BmpUtil.MAX_TEXTURE_SIZE);
+    }
+
+    public void tearDown() throws Exception {
+        BmpUtil.setMaxTextureSize(0);
+        super.tearDown();
+    }
+
+    public void testMaxTextureSize() throws Exception {
+        final int probed = BmpUtil.probeMaxTextureSize();
+        Assert.assertTrue(probed >= BmpUtil.MAX_TEXTURE_SIZE);
+        Assert.assertEquals(probed, BmpUtil.probeMaxTextureSize());
+        Assert.assertEquals(BmpUtil.MAX_TEXTURE_SIZE, BmpUtil.getMaxTextureSize());
+
+        final byte[] data = genLargeData();
+        Assert.assertTrue(BmpUtil.isTooBig(data));
+        BmpUtil.setMaxTextureSize(4096);
+        Assert.assertEquals(4096, BmpUtil.getMaxTextureSize());
+        Assert.assertFalse(BmpUtil.isTooBig(data));
+        Assert.assertSame(data, BmpUtil.subsampleToMaxSize(data));
+
+        BmpUtil.setMaxTextureSize(0);
+        Assert.assertEquals(probed, BmpUtil.getMaxTextureSize());
     }
 
     public void testExtractSize() throws Exception {
@@ -101,6 +140,63 @@ public class BmpUtilTest extends AndroidTestCase {
         Assert.assertEquals(h, scaledSize.y);
     }
 
+    public void testFixMaxSizeKeepsFormat() throws Exception {
+        final byte[] largeData = genLargeData();
+        final byte[] png = BmpUtil.subsampleToMaxSize(largeData);
+        final byte[] jpeg = BmpUtil.subsampleToMaxSize(largeData, BmpUtil.DEFAULT_JPEG_QUALITY);
+
+        Assert.assertEquals(ImageHeader.Format.PNG, ImageHeader.parse(png).getFormat());
+        Assert.assertEquals(ImageHeader.Format.JPEG, ImageHeader.parse(jpeg).getFormat());
+        Assert.assertTrue(jpeg.length < png.length);
+        Assert.assertEquals(1369, buw.extractSize2(jpeg).x);
+        Assert.assertEquals(750, buw.extractSize2(jpeg).y);
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Assert.assertTrue(BmpUtil.subsampleToMaxSize(new ByteArrayInputStream(largeData), out, 50));
+        Assert.assertEquals(ImageHeader.Format.JPEG, ImageHeader.parse(out.toByteArray()).getFormat());
+
+        // PNG stays PNG
+        final byte[] transparent = BmpUtil.bmpToByte(Bitmap.createBitmap(2500, 100, Bitmap.Config.ARGB_8888),
+                Bitmap.CompressFormat.PNG, 100);
+        Assert.assertEquals(ImageHeader.Format.PNG,
+                ImageHeader.parse(BmpUtil.subsampleToMaxSize(transparent, 50)).getFormat());
+    }
+
+    public void testEncode() throws Exception {
+        final Bitmap bmp = BmpUtil.subsample(genNormalData(), BmpUtil.ScaleType.PROPORTIONAL_FIT, 400, 400);
+        final byte[] expected = BmpUtil.bmpToByte(bmp, Bitmap.CompressFormat.JPEG, 80);
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Assert.assertTrue(BmpUtil.encode(bmp, Bitmap.CompressFormat.JPEG, 80, out));
+        Assert.assertTrue(Arrays.equals(expected, out.toByteArray()));
+
+        final ByteArrayBuffer buffer = new ByteArrayBuffer(16);
+        Assert.assertTrue(BmpUtil.encode(bmp, Bitmap.CompressFormat.JPEG, 80, buffer));
+        Assert.assertEquals(expected.length, buffer.size());
+        Assert.assertTrue(Arrays.equals(expected, Arrays.copyOf(buffer.getBuffer(), buffer.size())));
+
+        // reused buffer contains only the last image
+        final byte[] reused = buffer.getBuffer();
+        Assert.assertTrue(BmpUtil.encode(bmp, Bitmap.CompressFormat.JPEG, 80, buffer));
+        Assert.assertSame(reused, buffer.getBuffer());
+        Assert.assertEquals(expected.length, buffer.size());
+
+        final File file = File.createTempFile("bmp", ".jpg", getContext().getCacheDir());
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            final FileChannel channel = raf.getChannel();
+            Assert.assertTrue(BmpUtil.encode(bmp, Bitmap.CompressFormat.JPEG, 80, channel));
+            Assert.assertTrue(channel.isOpen());
+            Assert.assertEquals(expected.length, channel.size());
+        } finally {
+            raf.close();
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+
+        bmp.recycle();
+    }
+
     public void testSubsample() throws Exception {
         final byte[] data = genLargeData();
 
@@ -227,6 +323,257 @@ public class BmpUtilTest extends AndroidTestCase {
         b.recycle();
     }
 
+    // streams, files and file descriptors as sources: subsample(InputStream, ...), etc.
+    public void testStreamSources() throws Exception {
+        final byte[] data = genLargeData();
+        final File file = writeTempFile(data);
+
+        try {
+            final Point size = buw.extractSize2(data);
+            final InputStream in = new BufferedInputStream(new ByteArrayInputStream(data));
+            Point streamSize = BmpUtil.extractSize(in);
+            Assert.assertEquals(size.x, streamSize.x);
+            Assert.assertEquals(size.y, streamSize.y);
+
+            // stream should be reset back after reading bounds
+            streamSize = BmpUtil.extractSize(in);
+            Assert.assertEquals(size.x, streamSize.x);
+            Assert.assertEquals(size.y, streamSize.y);
+
+            final Point fileSize = BmpUtil.extractSize(file);
+            Assert.assertEquals(size.x, fileSize.x);
+            Assert.assertEquals(size.y, fileSize.y);
+            Assert.assertTrue(BmpUtil.isTooBig(file));
+
+            Bitmap b = BmpUtil.subsample(new UnmarkableStream(new ByteArrayInputStream(data)),
+                    BmpUtil.ScaleType.PROPORTIONAL_CROP, 500, 500);
+            Assert.assertEquals(685, b.getWidth());
+            Assert.assertEquals(375, b.getHeight());
+            b.recycle();
+
+            b = BmpUtil.subsample(file, BmpUtil.ScaleType.PROPORTIONAL_FIT, 500, 500);
+            Assert.assertEquals(343, b.getWidth());
+            Assert.assertEquals(188, b.getHeight());
+            b.recycle();
+
+            final FileInputStream fis = new FileInputStream(file);
+            b = BmpUtil.scale(fis.getFD(), BmpUtil.ScaleType.PROPORTIONAL_FIT, 1500, 1500);
+            fis.close();
+            Assert.assertEquals(1500, b.getWidth());
+            Assert.assertEquals(821, b.getHeight());
+            b.recycle();
+
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            Assert.assertTrue(BmpUtil.subsampleToMaxSize(file, out));
+            final Point scaledSize = buw.extractSize2(out.toByteArray());
+            Assert.assertEquals(1369, scaledSize.x);
+            Assert.assertEquals(750, scaledSize.y);
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+    }
+
+    public void testScaleOriented() throws Exception {
+        final byte[] plain = BmpUtil.bmpToByte(Bitmap.createBitmap(400, 200, Bitmap.Config.ARGB_8888),
+                Bitmap.CompressFormat.JPEG, 70);
+
+        Bitmap b = BmpUtil.scaleOriented(plain, BmpUtil.ScaleType.PROPORTIONAL_FIT, 100, 100);
+        Assert.assertEquals(100, b.getWidth());
+        Assert.assertEquals(50, b.getHeight());
+        b.recycle();
+
+        // EXIF orientation 6 - rotate 90 degrees clockwise
+        final byte[] rotated = withExifOrientation(plain, 6);
+        b = BmpUtil.scaleOriented(rotated, BmpUtil.ScaleType.PROPORTIONAL_FIT, 100, 100);
+        Assert.assertEquals(50, b.getWidth());
+        Assert.assertEquals(100, b.getHeight());
+        b.recycle();
+
+        b = BmpUtil.scaleOriented(rotated, BmpUtil.ScaleType.FIT_XY, 30, 70, 90, null);
+        Assert.assertEquals(30, b.getWidth());
+        Assert.assertEquals(70, b.getHeight());
+        b.recycle();
+
+        final File file = writeTempFile(rotated);
+        try {
+            b = BmpUtil.scaleOriented(file, BmpUtil.ScaleType.PROPORTIONAL_CROP, 100, 100);
+            Assert.assertEquals(100, b.getWidth());
+            Assert.assertEquals(200, b.getHeight());
+            b.recycle();
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+    }
+
+    public void testColorPolicy() throws Exception {
+        final Bitmap src = Bitmap.createBitmap(400, 200, Bitmap.Config.ARGB_8888);
+        final byte[] jpeg = BmpUtil.bmpToByte(src, Bitmap.CompressFormat.JPEG, 70);
+        final byte[] png = BmpUtil.bmpToByte(src, Bitmap.CompressFormat.PNG, 100);
+        src.recycle();
+
+        // opaque JPEG goes into RGB_565, transparent PNG stays ARGB_8888
+        Bitmap b = BmpUtil.subsample(ImageSource.of(jpeg), BmpUtil.ScaleType.PROPORTIONAL_FIT, 100, 100,
+                BmpUtil.ColorPolicy.AUTO, null);
+        Assert.assertEquals(Bitmap.Config.RGB_565, b.getConfig());
+        Assert.assertEquals(100 * 50 * 2, b.getRowBytes() * b.getHeight());
+        Assert.assertEquals(b.getRowBytes() * b.getHeight(), BmpUtil.estimateDecodedBytes(ImageSource.of(jpeg),
+                BmpUtil.ScaleType.PROPORTIONAL_FIT, 100, 100, BmpUtil.ColorPolicy.AUTO));
+        b.recycle();
+
+        b = BmpUtil.scale(ImageSource.of(png), BmpUtil.ScaleType.FIT_XY, 30, 70, BmpUtil.ColorPolicy.AUTO_DITHER, null);
+        Assert.assertEquals(Bitmap.Config.ARGB_8888, b.getConfig());
+        Assert.assertEquals(30, b.getWidth());
+        Assert.assertEquals(70, b.getHeight());
+        b.recycle();
+
+        b = BmpUtil.subsample(ImageSource.of(jpeg), BmpUtil.ScaleType.PROPORTIONAL_FIT, 400, 400,
+                BmpUtil.ColorPolicy.ARGB_8888, null);
+        Assert.assertEquals(Bitmap.Config.ARGB_8888, b.getConfig());
+        Assert.assertEquals(400 * 200 * 4, BmpUtil.estimateDecodedBytes(ImageSource.of(jpeg),
+                BmpUtil.ScaleType.PROPORTIONAL_FIT, 400, 400, BmpUtil.ColorPolicy.ARGB_8888));
+        b.recycle();
+
+        Assert.assertEquals(400 * 200, BmpUtil.estimateDecodedBytes(new Point(400, 200),
+                BmpUtil.ScaleType.PROPORTIONAL_FIT, 400, 400, Bitmap.Config.ALPHA_8));
+    }
+
+    public void testMemoryBudget() throws Exception {
+        final byte[] data = genLargeData();
+        final MemoryBudget budget = new MemoryBudget(1);
+        BmpUtil.setMemoryBudget(budget);
+
+        try {
+            // larger than the whole budget, but runs alone
+            Bitmap b = BmpUtil.scale(data, BmpUtil.ScaleType.PROPORTIONAL_FIT, 500, 500);
+            Assert.assertNotNull(b);
+            Assert.assertEquals(0, budget.getUsed());
+            b.recycle();
+
+            // while the budget is held by somebody else, decoding waits
+            budget.acquire(1);
+            final Bitmap[] result = new Bitmap[1];
+            final Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    result[0] = BmpUtil.subsample(data, BmpUtil.ScaleType.PROPORTIONAL_FIT, 500, 500);
+                }
+            };
+            thread.start();
+            thread.join(300);
+            Assert.assertTrue(thread.isAlive());
+
+            budget.release(1);
+            thread.join();
+            Assert.assertNotNull(result[0]);
+            Assert.assertEquals(0, budget.getUsed());
+            result[0].recycle();
+
+            b = BmpUtil.scale(ImageSource.of(data), BmpUtil.ScaleType.FIT_XY, 300, 200,
+                    BmpUtil.ColorPolicy.AUTO, null);
+            Assert.assertEquals(300, b.getWidth());
+            Assert.assertEquals(0, budget.getUsed());
+            b.recycle();
+
+            // streams, orientation aware and progressive decoding wait for the budget too
+            budget.acquire(1);
+            final Bitmap[] results = new Bitmap[3];
+            final Thread another = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        results[0] = BmpUtil.subsample(new ByteArrayInputStream(data),
+                                BmpUtil.ScaleType.PROPORTIONAL_FIT, 500, 500);
+                        results[1] = BmpUtil.scaleOriented(data, BmpUtil.ScaleType.PROPORTIONAL_FIT, 500, 500);
+                        results[2] = BmpUtil.subsampleProgressive(data, BmpUtil.ScaleType.PROPORTIONAL_FIT,
+                                500, 500, new BmpUtil.PreviewCallback() {
+                                    @Override
+                                    public void onPreview(Bitmap preview, boolean thumbnail) {
+                                        preview.recycle();
+                                    }
+                                });
+                    } catch (Exception e) {
+                        LogUtil.e(BmpUtilTest.class, e.toString());
+                    }
+                }
+            };
+            another.start();
+            another.join(300);
+            Assert.assertTrue(another.isAlive());
+
+            budget.release(1);
+            another.join();
+            for (Bitmap decoded : results) {
+                Assert.assertNotNull(decoded);
+                decoded.recycle();
+            }
+            Assert.assertEquals(0, budget.getUsed());
+        } finally {
+            BmpUtil.setMemoryBudget(null);
+        }
+    }
+
+    public void testSubsampleProgressive() throws Exception {
+        final byte[] data = genLargeData();
+        final Bitmap expected = BmpUtil.subsample(data, BmpUtil.ScaleType.PROPORTIONAL_CROP, 500, 500);
+
+        // no EXIF thumbnail - low resolution preview
+        final List<Bitmap> previews = new ArrayList<Bitmap>();
+        final List<Boolean> thumbnails = new ArrayList<Boolean>();
+        final BmpUtil.PreviewCallback callback = new BmpUtil.PreviewCallback() {
+            @Override
+            public void onPreview(Bitmap preview, boolean thumbnail) {
+                previews.add(preview);
+                thumbnails.add(thumbnail);
+            }
+        };
+
+        Bitmap b = BmpUtil.subsampleProgressive(data, BmpUtil.ScaleType.PROPORTIONAL_CROP, 500, 500, callback);
+        Assert.assertEquals(1, previews.size());
+        Assert.assertFalse(thumbnails.get(0));
+        Assert.assertTrue(previews.get(0).getWidth() * BmpUtil.PREVIEW_SAMPLE_FACTOR <= b.getWidth());
+        Assert.assertEquals(expected.getWidth(), b.getWidth());
+        Assert.assertEquals(expected.getHeight(), b.getHeight());
+        b.recycle();
+
+        // with EXIF thumbnail of the same proportions
+        final byte[] thumbnail = BmpUtil.bmpToByte(Bitmap.createBitmap(274, 150, Bitmap.Config.ARGB_8888),
+                Bitmap.CompressFormat.JPEG, 70);
+        final byte[] withThumbnail = withExifThumbnail(data, thumbnail);
+        previews.clear();
+        thumbnails.clear();
+
+        final File file = writeTempFile(withThumbnail);
+        try {
+            b = BmpUtil.subsampleProgressive(file, BmpUtil.ScaleType.PROPORTIONAL_CROP, 500, 500, callback);
+            Assert.assertEquals(1, previews.size());
+            Assert.assertTrue(thumbnails.get(0));
+            Assert.assertEquals(274, previews.get(0).getWidth());
+            Assert.assertEquals(expected.getWidth(), b.getWidth());
+            b.recycle();
+
+            // stream: thumbnail only
+            previews.clear();
+            b = BmpUtil.subsampleProgressive(ImageSource.of(new ByteArrayInputStream(withThumbnail)),
+                    BmpUtil.ScaleType.PROPORTIONAL_CROP, 500, 500, callback);
+            Assert.assertEquals(1, previews.size());
+            Assert.assertEquals(expected.getHeight(), b.getHeight());
+            b.recycle();
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+
+        // small images go without preview
+        previews.clear();
+        b = BmpUtil.subsampleProgressive(genSmallData(), BmpUtil.ScaleType.PROPORTIONAL_FIT, 100, 100, callback);
+        Assert.assertTrue(previews.isEmpty());
+        b.recycle();
+
+        expected.recycle();
+    }
+
     public void testRotate() {
         // tested manually with BitmapRotationTestActivity
     }
@@ -265,6 +612,70 @@ public class BmpUtilTest extends AndroidTestCase {
         return data;
     }
 
+    /**
+     * Inserts minimal EXIF APP1 segment with the orientation tag right after JPEG SOI marker.
+     */
+    private static byte[] withExifOrientation(byte[] jpeg, int orientation) {
+        final byte[] app1 = {
+                (byte) 0xFF, (byte) 0xE1, 0x00, 0x22, 'E', 'x', 'i', 'f', 0, 0,
+                'M', 'M', 0, 42, 0, 0, 0, 8,
+                0, 1,
+                0x01, 0x12, 0, 3, 0, 0, 0, 1, 0, (byte) orientation, 0, 0,
+                0, 0, 0, 0 };
+
+        final byte[] ret = new byte[jpeg.length + app1.length];
+        System.arraycopy(jpeg, 0, ret, 0, 2);
+        System.arraycopy(app1, 0, ret, 2, app1.length);
+        System.arraycopy(jpeg, 2, ret, 2 + app1.length, jpeg.length - 2);
+        return ret;
+    }
+
+    /**
+     * Inserts EXIF APP1 segment with empty IFD0 and IFD1 pointing to the thumbnail right after
+     * JPEG SOI marker.
+     */
+    private static byte[] withExifThumbnail(byte[] jpeg, byte[] thumbnail) {
+        final int n = thumbnail.length;
+        final byte[] head = {
+                (byte) 0xFF, (byte) 0xE1, (byte) ((2 + 6 + 44 + n) >> 8), (byte) (2 + 6 + 44 + n),
+                'E', 'x', 'i', 'f', 0, 0,
+                'I', 'I', 42, 0, 8, 0, 0, 0,
+                0, 0,
+                14, 0, 0, 0,
+                2, 0,
+                0x01, 0x02, 4, 0, 1, 0, 0, 0, 44, 0, 0, 0,
+                0x02, 0x02, 4, 0, 1, 0, 0, 0, (byte) n, (byte) (n >> 8), 0, 0,
+                0, 0, 0, 0 };
+
+        final byte[] ret = new byte[jpeg.length + head.length + n];
+        System.arraycopy(jpeg, 0, ret, 0, 2);
+        System.arraycopy(head, 0, ret, 2, head.length);
+        System.arraycopy(thumbnail, 0, ret, 2 + head.length, n);
+        System.arraycopy(jpeg, 2, ret, 2 + head.length + n, jpeg.length - 2);
+        return ret;
+    }
+
+    private File writeTempFile(byte[] data) throws Exception {
+        //noinspection ConstantConditions
+        final File file = File.createTempFile("bmp", ".jpg", getContext().getCacheDir());
+        final FileOutputStream out = new FileOutputStream(file);
+        out.write(data);
+        out.close();
+
+        return file;
+    }
+
+    private static class UnmarkableStream extends FilterInputStream {
+        public UnmarkableStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+
     private class BmpUtilWrapper extends BmpUtil {
         public Point extractSize2(byte[] data) {
             return extractSize(data);
@@ -0,0 +1,57 @@
+package ru.jango.j0util.test;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+
+import ru.jango.j0util.ByteArrayBuffer;
+
+public class ByteArrayBufferTest extends TestCase {
+
+    public void testNoCopy() throws Exception {
+        final ByteArrayBuffer buffer = new ByteArrayBuffer(4);
+        buffer.write(new byte[] { 1, 2, 3 });
+        final byte[] buf = buffer.getBuffer();
+        Assert.assertEquals(4, buffer.getCapacity());
+        Assert.assertEquals(3, buffer.size());
+        Assert.assertEquals(3, buf[2]);
+
+        buffer.reset();
+        buffer.write(7);
+        Assert.assertSame(buf, buffer.getBuffer());
+        Assert.assertEquals(7, buf[0]);
+        Assert.assertEquals(1, buffer.size());
+    }
+
+    public void testCapacity() throws Exception {
+        final ByteArrayBuffer buffer = new ByteArrayBuffer(4);
+        buffer.write(new byte[] { 1, 2, 3 });
+        buffer.ensureCapacity(100);
+        Assert.assertTrue(buffer.getCapacity() >= 100);
+        Assert.assertEquals(3, buffer.size());
+        Assert.assertEquals(3, buffer.getBuffer()[2]);
+
+        buffer.write(new byte[1000]);
+        buffer.reset(64);
+        Assert.assertEquals(64, buffer.getCapacity());
+        Assert.assertEquals(0, buffer.size());
+    }
+
+    public void testRead() throws Exception {
+        final ByteArrayBuffer buffer = new ByteArrayBuffer();
+        buffer.write(new byte[] { 1, 2, 3, 4, 5 });
+
+        final InputStream in = buffer.toInputStream();
+        Assert.assertEquals(5, in.available());
+        Assert.assertEquals(1, in.read());
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        buffer.writeTo(Channels.newChannel(out));
+        Assert.assertEquals(5, out.size());
+        Assert.assertEquals(5, out.toByteArray()[4]);
+    }
+
+}
@@ -0,0 +1,196 @@
+package ru.jango.j0util.test;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import ru.jango.j0util.ContentIndex;
+import ru.jango.j0util.SecurityUtil;
+import ru.jango.j0util.XxHash64;
+
+public class ContentIndexTest extends TestCase {
+
+    private File dir;
+    private File indexFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        dir = File.createTempFile("index", null);
+        dir.delete();
+        dir.mkdirs();
+        indexFile = new File(dir, "index");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        final File[] files = dir.listFiles();
+        if (files != null) for (File f : files) f.delete();
+        dir.delete();
+        super.tearDown();
+    }
+
+    public void testDigest() throws Exception {
+        final File f = write("a.jpg", "ololo");
+        ContentIndex index = ContentIndex.open(indexFile, "SHA-1");
+
+        Assert.assertNull(index.get(f));
+        Assert.assertEquals(SecurityUtil.sha1("ololo"), index.digestHex(f));
+        Assert.assertEquals(SecurityUtil.sha1("ololo"), SecurityUtil.toHex(index.get(f)));
+        Assert.assertEquals(1, index.getCount());
+
+        // changed file is hashed again
+        write("a.jpg", "trololo");
+        f.setLastModified(f.lastModified() - 10000);
+        Assert.assertNull(index.get(f));
+        Assert.assertEquals(SecurityUtil.sha1("trololo"), index.digestHex(f));
+        Assert.assertEquals(1, index.getCount());
+        index.close();
+
+        index = ContentIndex.open(indexFile, "SHA-1");
+        Assert.assertEquals(1, index.getCount());
+        Assert.assertEquals(SecurityUtil.sha1("trololo"), SecurityUtil.toHex(index.get(f)));
+        Assert.assertTrue(index.remove(f));
+        Assert.assertFalse(index.remove(f));
+        index.close();
+
+        index = ContentIndex.open(indexFile, "SHA-1");
+        Assert.assertEquals(0, index.getCount());
+        index.close();
+
+        try {
+            index.get(f);
+            Assert.fail();
+        } catch (IllegalStateException ignored) {
+        }
+    }
+
+    public void testBrokenFile() throws Exception {
+        final File f = write("a.jpg", "ololo");
+        ContentIndex index = ContentIndex.open(indexFile, XxHash64.ALGORITHM);
+        index.digest(f);
+        index.close();
+
+        // partially written record is dropped
+        final FileOutputStream out = new FileOutputStream(indexFile, true);
+        out.write(new byte[] { 1, 2, 3 });
+        out.close();
+
+        index = ContentIndex.open(indexFile, XxHash64.ALGORITHM);
+        Assert.assertEquals(1, index.getCount());
+        index.digest(write("b.jpg", "trololo"));
+        index.close();
+
+        index = ContentIndex.open(indexFile, XxHash64.ALGORITHM);
+        Assert.assertEquals(2, index.getCount());
+        Assert.assertNotNull(index.get(f));
+        index.close();
+
+        // other algorithm starts from scratch
+        index = ContentIndex.open(indexFile, "MD5");
+        Assert.assertEquals(0, index.getCount());
+        index.close();
+
+        write("index", "garbage");
+        index = ContentIndex.open(indexFile, "MD5");
+        Assert.assertEquals(0, index.getCount());
+        index.close();
+
+        try {
+            ContentIndex.open(indexFile, "ololo");
+            Assert.fail();
+        } catch (IllegalArgumentException ignored) {
+        }
+    }
+
+    public void testFailedCompaction() throws Exception {
+        final File a = write("a.jpg", "ololo");
+        ContentIndex index = ContentIndex.open(indexFile, "MD5");
+        index.digest(a);
+
+        // temporary file can't be created
+        Assert.assertTrue(new File(indexFile.getPath() + ".tmp").mkdir());
+        try {
+            index.compact();
+            Assert.fail("compaction should fail");
+        } catch (IOException ignored) {
+        }
+
+        // index works on with the old file
+        Assert.assertFalse(index.isClosed());
+        index.digest(write("b.jpg", "trololo"));
+        index.flush();
+        index.close();
+
+        index = ContentIndex.open(indexFile, "MD5");
+        Assert.assertEquals(2, index.getCount());
+        Assert.assertNotNull(index.get(a));
+        index.close();
+    }
+
+    public void testManyFiles() throws Exception {
+        final int count = 2500;
+        final List<File> files = new ArrayList<File>();
+        ContentIndex index = ContentIndex.open(indexFile, "MD5");
+        for (int i = 0; i < count; i++) {
+            files.add(write("f" + i, "" + i));
+            index.digest(files.get(i));
+        }
+
+        for (int i = 0; i < count; i += 2) Assert.assertTrue(index.remove(files.get(i)));
+        Assert.assertEquals(count / 2, index.getCount());
+        for (int i = 0; i < count; i++)
+            if (i % 2 == 0) Assert.assertNull(index.get(files.get(i)));
+            else Assert.assertEquals(SecurityUtil.md5("" + i), SecurityUtil.toHex(index.get(files.get(i))));
+        index.close();
+
+        // 2500 puts and 1250 removes are compacted
+        Assert.assertTrue(indexFile.length() < (count + count / 2) * (1 + 8 + 8 + 8 + 16));
+
+        index = ContentIndex.open(indexFile, "MD5");
+        Assert.assertEquals(count / 2, index.getCount());
+        for (int i = 1; i < count; i += 2)
+            Assert.assertEquals(SecurityUtil.md5("" + i), SecurityUtil.toHex(index.get(files.get(i))));
+        Assert.assertEquals(count / 2, index.getHitCount());
+        index.close();
+    }
+
+    public void testDuplicates() throws Exception {
+        final File a = write("a.jpg", "ololo");
+        final File b = write("b.jpg", "ololo");
+        final File c = write("c.jpg", "ololo");
+        final File d = write("d.jpg", "trolo");
+        final File e = write("e.jpg", "unique size");
+
+        final ContentIndex index = ContentIndex.open(indexFile, "SHA-256");
+        final Map<String, List<File>> duplicates = index.findDuplicates(Arrays.asList(a, b, c, d, e, dir));
+        Assert.assertEquals(1, duplicates.size());
+        Assert.assertEquals(Arrays.asList(a, b, c), duplicates.get(SecurityUtil.hash("ololo", "SHA-256")));
+
+        // file of unique size is not even hashed
+        Assert.assertEquals(4, index.getCount());
+        Assert.assertNull(index.get(e));
+
+        // second scan takes everything from the index
+        final int misses = index.getMissCount();
+        Assert.assertEquals(duplicates, index.findDuplicates(Arrays.asList(a, b, c, d, e)));
+        Assert.assertEquals(misses, index.getMissCount());
+        index.close();
+    }
+
+    private File write(String name, String content) throws IOException {
+        final File f = new File(dir, name);
+        final FileOutputStream out = new FileOutputStream(f);
+        out.write(content.getBytes("UTF-8"));
+        out.close();
+        return f;
+    }
+
+}
@@ -0,0 +1,73 @@
+package ru.jango.j0util.test;
+
+import android.graphics.Bitmap;
+import android.graphics.Point;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import ru.jango.j0util.BmpUtil;
+import ru.jango.j0util.DecodePlan;
+
+public class DecodePlanTest extends TestCase {
+
+    public void testSubsample() {
+        DecodePlan plan = DecodePlan.subsample(new Point(2738, 1500), BmpUtil.ScaleType.PROPORTIONAL_CROP,
+                500, 500, null);
+        Assert.assertTrue(plan.isValid());
+        Assert.assertEquals(4, plan.getSampleSize());
+        Assert.assertEquals(685, plan.getSampledWidth());
+        Assert.assertEquals(375, plan.getSampledHeight());
+        Assert.assertFalse(plan.isScaled());
+        Assert.assertEquals(685 * 375 * 4, plan.getSampledBytes());
+        Assert.assertEquals(plan.getSampledBytes(), plan.getPeakBytes());
+
+        plan = DecodePlan.subsample(new Point(2738, 1500), BmpUtil.ScaleType.PROPORTIONAL_FIT,
+                500, 500, Bitmap.Config.RGB_565);
+        Assert.assertEquals(8, plan.getSampleSize());
+        Assert.assertEquals(343, plan.getSampledWidth());
+        Assert.assertEquals(188, plan.getSampledHeight());
+        Assert.assertEquals(343 * 188 * 2, plan.getPeakBytes());
+    }
+
+    public void testScale() {
+        final DecodePlan plan = DecodePlan.scale(new Point(2738, 1500), BmpUtil.ScaleType.FIT_XY,
+                300, 200, Bitmap.Config.ARGB_8888);
+        Assert.assertEquals(8, plan.getSampleSize());
+        Assert.assertEquals(343, plan.getSampledWidth());
+        Assert.assertEquals(188, plan.getSampledHeight());
+        Assert.assertEquals(300, plan.getWidth());
+        Assert.assertEquals(200, plan.getHeight());
+        Assert.assertTrue(plan.isScaled());
+        Assert.assertEquals(300 * 200 * 4, plan.getBytes());
+        Assert.assertEquals((343 * 188 + 300 * 200) * 4, plan.getPeakBytes());
+
+        // large targets are limited by the max texture size
+        final DecodePlan huge = DecodePlan.scale(new Point(8000, 6000), BmpUtil.ScaleType.PROPORTIONAL_FIT,
+                10000, 10000, Bitmap.Config.ARGB_8888);
+        Assert.assertTrue(huge.getWidth() <= BmpUtil.getMaxTextureSize());
+        Assert.assertTrue(huge.getHeight() <= BmpUtil.getMaxTextureSize());
+    }
+
+    public void testResample() {
+        final DecodePlan scale = DecodePlan.scale(new Point(2738, 1500), BmpUtil.ScaleType.FIT_XY,
+                300, 200, Bitmap.Config.ARGB_8888);
+        final DecodePlan plan = DecodePlan.resample(new Point(2738, 1500), BmpUtil.ScaleType.FIT_XY, 300, 200);
+        Assert.assertEquals(scale.getSampleSize(), plan.getSampleSize());
+        Assert.assertEquals(300, plan.getWidth());
+        Assert.assertEquals(Bitmap.Config.ARGB_8888, plan.getConfig());
+        Assert.assertEquals(0, scale.getWorkBytes());
+
+        // int copies of both images, halves of the source and the float buffer
+        final long work = 343 * 188 * 4 + 343 * 188 * 4 / 3 + 300 * 188 * 16 + 300 * 200 * 4;
+        Assert.assertEquals(work, plan.getWorkBytes());
+        Assert.assertEquals(scale.getPeakBytes() + work, plan.getPeakBytes());
+    }
+
+    public void testInvalid() {
+        final DecodePlan plan = DecodePlan.scale(new Point(0, 0), BmpUtil.ScaleType.FIT_XY, 100, 100, null);
+        Assert.assertFalse(plan.isValid());
+        Assert.assertEquals(0, plan.getPeakBytes());
+    }
+
+}
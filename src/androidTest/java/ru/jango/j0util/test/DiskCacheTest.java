@@ -0,0 +1,203 @@
+package ru.jango.j0util.test;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import ru.jango.j0util.DiskCache;
+
+public class DiskCacheTest extends TestCase {
+
+    private File dir;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        dir = new File(System.getProperty("java.io.tmpdir"), "j0util-disk-cache-test");
+        DiskCache.open(dir, 1024).delete();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        DiskCache.open(dir, 1024).delete();
+        super.tearDown();
+    }
+
+    public void testPutGet() throws Exception {
+        final DiskCache cache = DiskCache.open(dir, 1024);
+        Assert.assertNull(cache.get("k1"));
+        Assert.assertTrue(cache.put("k1", "ololo".getBytes()));
+
+        Assert.assertEquals("ololo", read(cache.get("k1")));
+        Assert.assertEquals(5, cache.getSize());
+        Assert.assertEquals(1, cache.getHitCount());
+        Assert.assertEquals(1, cache.getMissCount());
+
+        Assert.assertTrue(cache.remove("k1"));
+        Assert.assertNull(cache.get("k1"));
+        Assert.assertEquals(0, cache.getSize());
+        cache.close();
+    }
+
+    public void testReopen() throws Exception {
+        DiskCache cache = DiskCache.open(dir, 1024);
+        cache.put("k1", "ololo".getBytes());
+        cache.put("k2", "trololo".getBytes());
+        cache.put("k1", "ololo2".getBytes());
+        cache.remove("k2");
+        cache.close();
+
+        cache = DiskCache.open(dir, 1024);
+        Assert.assertEquals("ololo2", read(cache.get("k1")));
+        Assert.assertNull(cache.get("k2"));
+        Assert.assertEquals(6, cache.getSize());
+        cache.close();
+    }
+
+    public void testEviction() throws Exception {
+        final DiskCache cache = DiskCache.open(dir, 10);
+        cache.put("k1", "1234".getBytes());
+        cache.put("k2", "1234".getBytes());
+
+        // k1 becomes the most recently used one
+        read(cache.get("k1"));
+        cache.put("k3", "1234".getBytes());
+
+        Assert.assertEquals(1, cache.getEvictionCount());
+        Assert.assertTrue(cache.contains("k1"));
+        Assert.assertFalse(cache.contains("k2"));
+        Assert.assertTrue(cache.contains("k3"));
+        Assert.assertEquals(8, cache.getSize());
+        cache.close();
+    }
+
+    public void testUnfinishedEdit() throws Exception {
+        DiskCache cache = DiskCache.open(dir, 1024);
+        cache.put("k1", "ololo".getBytes());
+
+        // the edit is never finished, like if the process was killed
+        final DiskCache.Editor editor = cache.edit("k1");
+        Assert.assertNull(cache.edit("k1"));
+        final OutputStream out = editor.newOutputStream();
+        out.write("trololo".getBytes());
+        out.close();
+        cache.flush();
+
+        final DiskCache.Editor editor2 = cache.edit("k2");
+        editor2.newOutputStream().close();
+        cache.flush();
+
+        // old value is still visible
+        Assert.assertEquals("ololo", read(cache.get("k1")));
+
+        cache = DiskCache.open(dir, 1024);
+        Assert.assertEquals("ololo", read(cache.get("k1")));
+        Assert.assertFalse(cache.contains("k2"));
+        Assert.assertFalse(new File(dir, "k1.tmp").exists());
+        Assert.assertFalse(new File(dir, "k2.tmp").exists());
+        cache.close();
+    }
+
+    public void testAbort() throws Exception {
+        final DiskCache cache = DiskCache.open(dir, 1024);
+        final DiskCache.Editor editor = cache.edit("k1");
+        final OutputStream out = editor.newOutputStream();
+        out.write("ololo".getBytes());
+        out.close();
+        editor.abort();
+
+        Assert.assertNull(cache.get("k1"));
+        Assert.assertNotNull(cache.edit("k1"));
+        cache.close();
+    }
+
+    public void testCorruptedJournal() throws Exception {
+        DiskCache cache = DiskCache.open(dir, 1024);
+        cache.put("k1", "ololo".getBytes());
+        cache.close();
+
+        // broken record is not the last one, so it's not an unfinished write
+        final FileWriter writer = new FileWriter(new File(dir, "journal"), true);
+        writer.write("OLOLO k1\nREAD k1\n");
+        writer.close();
+
+        cache = DiskCache.open(dir, 1024);
+        Assert.assertNull(cache.get("k1"));
+        Assert.assertFalse(new File(dir, "k1").exists());
+        Assert.assertTrue(cache.put("k1", "ololo".getBytes()));
+        cache.close();
+    }
+
+    public void testUnfinishedJournalRecord() throws Exception {
+        for (String partial : new String[] { "CLEAN k1", "CLE", "REMOVE" }) {
+            DiskCache cache = DiskCache.open(dir, 1024);
+            cache.put("k1", "ololo".getBytes());
+            cache.close();
+
+            final FileWriter writer = new FileWriter(new File(dir, "journal"), true);
+            writer.write(partial);
+            writer.close();
+
+            cache = DiskCache.open(dir, 1024);
+            Assert.assertEquals("ololo", read(cache.get("k1")));
+            cache.put("k2", "trololo".getBytes());
+            cache.close();
+
+            // journal was rewritten, so new records weren't glued to the broken one
+            cache = DiskCache.open(dir, 1024);
+            Assert.assertEquals("ololo", read(cache.get("k1")));
+            Assert.assertEquals("trololo", read(cache.get("k2")));
+            cache.delete();
+        }
+    }
+
+    public void testClosed() throws Exception {
+        final DiskCache cache = DiskCache.open(dir, 1024);
+        cache.close();
+
+        try {
+            cache.trimToSize(0);
+            Assert.fail("closed cache should be checked");
+        } catch (IllegalStateException ignored) {
+        }
+    }
+
+    public void testBadKey() throws Exception {
+        DiskCache cache = DiskCache.open(dir, 1024);
+        try {
+            cache.put("Not A Key", new byte[1]);
+            Assert.fail("key should be checked");
+        } catch (IllegalArgumentException ignored) {
+        }
+
+        // would overwrite the journal
+        try {
+            cache.put("journal", new byte[1]);
+            Assert.fail("reserved key should be rejected");
+        } catch (IllegalArgumentException ignored) {
+        }
+
+        cache.put("k1", "ololo".getBytes());
+        cache.close();
+
+        cache = DiskCache.open(dir, 1024);
+        Assert.assertEquals("ololo", read(cache.get("k1")));
+        cache.close();
+    }
+
+    private static String read(InputStream in) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[512];
+        int read;
+        while ((read = in.read(buffer)) != -1) out.write(buffer, 0, read);
+        in.close();
+
+        return out.toString();
+    }
+
+}
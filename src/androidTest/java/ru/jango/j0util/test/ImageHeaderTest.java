@@ -0,0 +1,250 @@
+package ru.jango.j0util.test;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+
+import ru.jango.j0util.ImageHeader;
+
+public class ImageHeaderTest extends TestCase {
+
+    public void testJpeg() throws Exception {
+        final byte[] data = bytes(0xFF, 0xD8,
+                // APP0 JFIF, 16 bytes
+                0xFF, 0xE0, 0x00, 0x10, 'J', 'F', 'I', 'F', 0, 1, 1, 0, 0, 1, 0, 1, 0, 0,
+                // DQT, 4 bytes of garbage
+                0xFF, 0xDB, 0x00, 0x06, 1, 2, 3, 4,
+                // SOF2: precision, height 300, width 200
+                0xFF, 0xC2, 0x00, 0x11, 8, 0x01, 0x2C, 0x00, 0xC8, 3,
+                1, 0x22, 0, 2, 0x11, 1, 3, 0x11, 1,
+                0xFF, 0xDA);
+
+        final ImageHeader header = ImageHeader.parse(data);
+        Assert.assertTrue(header.isValid());
+        Assert.assertEquals(ImageHeader.Format.JPEG, header.getFormat());
+        Assert.assertEquals(200, header.getWidth());
+        Assert.assertEquals(300, header.getHeight());
+        Assert.assertEquals(ImageHeader.ORIENTATION_UNDEFINED, header.getOrientation());
+
+        final ImageHeader streamHeader = ImageHeader.parse(new ByteArrayInputStream(data));
+        Assert.assertEquals(200, streamHeader.getWidth());
+        Assert.assertEquals(300, streamHeader.getHeight());
+    }
+
+    public void testJpegExifOrientation() throws Exception {
+        // little endian TIFF with two IFD0 entries, orientation = 6
+        final byte[] le = bytes(0xFF, 0xD8,
+                0xFF, 0xE1, 0x00, 0x2E, 'E', 'x', 'i', 'f', 0, 0,
+                'I', 'I', 42, 0, 8, 0, 0, 0,
+                2, 0,
+                0x0F, 0x01, 2, 0, 1, 0, 0, 0, 0, 0, 0, 0,
+                0x12, 0x01, 3, 0, 1, 0, 0, 0, 6, 0, 0, 0,
+                0, 0, 0, 0,
+                0xFF, 0xC0, 0x00, 0x0B, 8, 0x00, 0x10, 0x00, 0x20, 1, 1, 0x11, 0);
+
+        ImageHeader header = ImageHeader.parse(le);
+        Assert.assertTrue(header.isValid());
+        Assert.assertEquals(32, header.getWidth());
+        Assert.assertEquals(16, header.getHeight());
+        Assert.assertEquals(6, header.getOrientation());
+        Assert.assertEquals(16, header.getOrientedWidth());
+        Assert.assertEquals(32, header.getOrientedHeight());
+
+        // big endian TIFF, orientation = 8
+        final byte[] be = bytes(0xFF, 0xD8,
+                0xFF, 0xE1, 0x00, 0x22, 'E', 'x', 'i', 'f', 0, 0,
+                'M', 'M', 0, 42, 0, 0, 0, 8,
+                0, 1,
+                0x01, 0x12, 0, 3, 0, 0, 0, 1, 0, 8, 0, 0,
+                0, 0, 0, 0,
+                0xFF, 0xC0, 0x00, 0x0B, 8, 0x00, 0x10, 0x00, 0x20, 1, 1, 0x11, 0);
+
+        header = ImageHeader.parse(new ByteArrayInputStream(be));
+        Assert.assertTrue(header.isValid());
+        Assert.assertEquals(8, header.getOrientation());
+    }
+
+    public void testJpegExifThumbnail() throws Exception {
+        // IFD0 with orientation, IFD1 with thumbnail offset 56 and length 4 (from TIFF header)
+        final byte[] data = bytes(0xFF, 0xD8,
+                0xFF, 0xE1, 0x00, 0x44, 'E', 'x', 'i', 'f', 0, 0,
+                'I', 'I', 42, 0, 8, 0, 0, 0,
+                1, 0,
+                0x12, 0x01, 3, 0, 1, 0, 0, 0, 3, 0, 0, 0,
+                26, 0, 0, 0,
+                2, 0,
+                0x01, 0x02, 4, 0, 1, 0, 0, 0, 56, 0, 0, 0,
+                0x02, 0x02, 4, 0, 1, 0, 0, 0, 4, 0, 0, 0,
+                0, 0, 0, 0,
+                0xFF, 0xD8, 0xFF, 0xD9,
+                0xFF, 0xC0, 0x00, 0x0B, 8, 0x00, 0x10, 0x00, 0x20, 1, 1, 0x11, 0);
+
+        ImageHeader header = ImageHeader.parse(data);
+        Assert.assertTrue(header.isValid());
+        Assert.assertEquals(3, header.getOrientation());
+        Assert.assertTrue(header.hasThumbnail());
+        Assert.assertEquals(68, header.getThumbnailOffset());
+        Assert.assertEquals(4, header.getThumbnailLength());
+        Assert.assertEquals(0xD9, data[header.getThumbnailOffset() + 3] & 0xFF);
+
+        header = ImageHeader.parse(new ByteArrayInputStream(data));
+        Assert.assertEquals(68, header.getThumbnailOffset());
+
+        // offset is counted from the start of the passed part
+        final byte[] container = new byte[data.length + 10];
+        System.arraycopy(data, 0, container, 10, data.length);
+        Assert.assertTrue(header.read(container, 10, data.length));
+        Assert.assertEquals(68, header.getThumbnailOffset());
+
+        // thumbnail outside the segment is ignored
+        data[50] = 100;
+        header = ImageHeader.parse(data);
+        Assert.assertTrue(header.isValid());
+        Assert.assertFalse(header.hasThumbnail());
+        Assert.assertEquals(-1, header.getThumbnailOffset());
+    }
+
+    public void testOrientationHelpers() throws Exception {
+        final int[] degrees = { 0, 0, 0, 180, 180, 90, 90, 270, 270 };
+        final boolean[] mirrored = { false, false, true, false, true, true, false, true, false };
+        for (int orientation = 0; orientation <= 8; orientation++) {
+            Assert.assertEquals(degrees[orientation], ImageHeader.getRotationDegrees(orientation));
+            Assert.assertEquals(mirrored[orientation], ImageHeader.isMirrored(orientation));
+            Assert.assertEquals(orientation >= 5, ImageHeader.isTransposed(orientation));
+        }
+    }
+
+    public void testPng() throws Exception {
+        final byte[] data = bytes(0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A,
+                0, 0, 0, 13, 'I', 'H', 'D', 'R',
+                0, 0, 0x07, 0x80, 0, 0, 0x04, 0x38, 8, 6, 0, 0, 0);
+
+        final ImageHeader header = ImageHeader.parse(data);
+        Assert.assertEquals(ImageHeader.Format.PNG, header.getFormat());
+        Assert.assertEquals(1920, header.getWidth());
+        Assert.assertEquals(1080, header.getHeight());
+    }
+
+    public void testGif() throws Exception {
+        final byte[] data = bytes('G', 'I', 'F', '8', '9', 'a', 0x40, 0x01, 0xF0, 0x00, 0, 0, 0);
+
+        final ImageHeader header = ImageHeader.parse(data);
+        Assert.assertEquals(ImageHeader.Format.GIF, header.getFormat());
+        Assert.assertEquals(320, header.getWidth());
+        Assert.assertEquals(240, header.getHeight());
+    }
+
+    public void testWebP() throws Exception {
+        final byte[] lossy = bytes('R', 'I', 'F', 'F', 0, 0, 0, 0, 'W', 'E', 'B', 'P',
+                'V', 'P', '8', ' ', 0, 0, 0, 0,
+                0, 0, 0, 0x9D, 0x01, 0x2A, 0x40, 0x01, 0xF0, 0x00);
+
+        ImageHeader header = ImageHeader.parse(lossy);
+        Assert.assertEquals(ImageHeader.Format.WEBP, header.getFormat());
+        Assert.assertEquals(320, header.getWidth());
+        Assert.assertEquals(240, header.getHeight());
+
+        // 100x50: (100 - 1) | (50 - 1) << 14
+        final int bits = 99 | (49 << 14);
+        final byte[] lossless = bytes('R', 'I', 'F', 'F', 0, 0, 0, 0, 'W', 'E', 'B', 'P',
+                'V', 'P', '8', 'L', 0, 0, 0, 0,
+                0x2F, bits & 0xFF, (bits >> 8) & 0xFF, (bits >> 16) & 0xFF, (bits >> 24) & 0xFF);
+
+        header = ImageHeader.parse(lossless);
+        Assert.assertEquals(ImageHeader.Format.WEBP, header.getFormat());
+        Assert.assertEquals(100, header.getWidth());
+        Assert.assertEquals(50, header.getHeight());
+
+        final byte[] extended = bytes('R', 'I', 'F', 'F', 0, 0, 0, 0, 'W', 'E', 'B', 'P',
+                'V', 'P', '8', 'X', 10, 0, 0, 0,
+                0x10, 0, 0, 0, 0x3F, 0x1F, 0x00, 0xFF, 0x0F, 0x00);
+
+        header = ImageHeader.parse(extended);
+        Assert.assertEquals(ImageHeader.Format.WEBP, header.getFormat());
+        Assert.assertEquals(8000, header.getWidth());
+        Assert.assertEquals(4096, header.getHeight());
+    }
+
+    public void testBmp() throws Exception {
+        final byte[] data = bytes('B', 'M', 0, 0, 0, 0, 0, 0, 0, 0, 54, 0, 0, 0,
+                40, 0, 0, 0, 0x20, 0x03, 0, 0, 0xA8, 0xFD, 0xFF, 0xFF, 1, 0, 24, 0);
+
+        final ImageHeader header = ImageHeader.parse(data);
+        Assert.assertEquals(ImageHeader.Format.BMP, header.getFormat());
+        Assert.assertEquals(800, header.getWidth());
+        Assert.assertEquals(600, header.getHeight());
+    }
+
+    public void testAlpha() throws Exception {
+        final byte[] ihdr = bytes(0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A,
+                0, 0, 0, 13, 'I', 'H', 'D', 'R', 0, 0, 0, 10, 0, 0, 0, 10);
+        final byte[] tail = bytes(0, 0, 0, 0, 0, 0, 0);
+        final byte[] plte = bytes(0, 0, 0, 3, 'P', 'L', 'T', 'E', 1, 2, 3, 0, 0, 0, 0);
+        final byte[] trns = bytes(0, 0, 0, 1, 't', 'R', 'N', 'S', 0, 0, 0, 0, 0);
+        final byte[] idat = bytes(0, 0, 0, 0, 'I', 'D', 'A', 'T', 0, 0, 0, 0);
+
+        // RGB, RGBA, paletted without and with tRNS
+        Assert.assertFalse(ImageHeader.parse(concat(ihdr, bytes(8, 2), tail, idat)).hasAlpha());
+        Assert.assertTrue(ImageHeader.parse(concat(ihdr, bytes(8, 6), tail, idat)).hasAlpha());
+        Assert.assertFalse(ImageHeader.parse(concat(ihdr, bytes(8, 3), tail, plte, idat)).hasAlpha());
+        Assert.assertTrue(ImageHeader.parse(concat(ihdr, bytes(8, 3), tail, plte, trns, idat)).hasAlpha());
+        Assert.assertTrue(ImageHeader.parse(new ByteArrayInputStream(
+                concat(ihdr, bytes(8, 3), tail, plte, trns, idat))).hasAlpha());
+        // chunks are cut off - nothing is known
+        Assert.assertTrue(ImageHeader.parse(concat(ihdr, bytes(8, 2), tail, plte)).hasAlpha());
+
+        final byte[] jpeg = bytes(0xFF, 0xD8,
+                0xFF, 0xC0, 0x00, 0x0B, 8, 0x00, 0x10, 0x00, 0x20, 1, 1, 0x11, 0);
+        Assert.assertFalse(ImageHeader.parse(jpeg).hasAlpha());
+        Assert.assertTrue(ImageHeader.parse(bytes('G', 'I', 'F', '8', '9', 'a', 1, 0, 1, 0)).hasAlpha());
+
+        final byte[] vp8x = bytes('R', 'I', 'F', 'F', 0, 0, 0, 0, 'W', 'E', 'B', 'P',
+                'V', 'P', '8', 'X', 10, 0, 0, 0,
+                0x10, 0, 0, 0, 0x3F, 0x1F, 0x00, 0xFF, 0x0F, 0x00);
+        Assert.assertTrue(ImageHeader.parse(vp8x).hasAlpha());
+        vp8x[20] = 0;
+        Assert.assertFalse(ImageHeader.parse(vp8x).hasAlpha());
+
+        final byte[] bmp = bytes('B', 'M', 0, 0, 0, 0, 0, 0, 0, 0, 54, 0, 0, 0,
+                40, 0, 0, 0, 0x20, 0x03, 0, 0, 0xA8, 0xFD, 0xFF, 0xFF, 1, 0, 24, 0);
+        Assert.assertFalse(ImageHeader.parse(bmp).hasAlpha());
+        bmp[28] = 32;
+        Assert.assertTrue(ImageHeader.parse(bmp).hasAlpha());
+    }
+
+    public void testInvalid() throws Exception {
+        Assert.assertFalse(ImageHeader.parse(new byte[0]).isValid());
+        Assert.assertFalse(ImageHeader.parse(bytes(0xFF, 0xD8, 0xFF)).isValid());
+        Assert.assertFalse(ImageHeader.parse(bytes('o', 'l', 'o', 'l', 'o')).isValid());
+        Assert.assertFalse(ImageHeader.parse(new ByteArrayInputStream(bytes(0x89, 'P', 'N'))).isValid());
+
+        // reused object should be cleared
+        final ImageHeader header = ImageHeader.parse(bytes('G', 'I', 'F', '8', '7', 'a', 1, 0, 1, 0));
+        Assert.assertTrue(header.isValid());
+        Assert.assertFalse(header.read(bytes('G', 'I', 'F')));
+        Assert.assertEquals(ImageHeader.Format.UNKNOWN, header.getFormat());
+        Assert.assertEquals(0, header.getWidth());
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        int length = 0;
+        for (byte[] part : parts) length += part.length;
+
+        final byte[] ret = new byte[length];
+        int offset = 0;
+        for (byte[] part : parts) {
+            System.arraycopy(part, 0, ret, offset, part.length);
+            offset += part.length;
+        }
+
+        return ret;
+    }
+
+    private static byte[] bytes(int... values) {
+        final byte[] ret = new byte[values.length];
+        for (int i = 0; i < values.length; i++) ret[i] = (byte) values[i];
+        return ret;
+    }
+
+}
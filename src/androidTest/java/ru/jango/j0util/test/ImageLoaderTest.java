@@ -0,0 +1,153 @@
+package ru.jango.j0util.test;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.test.AndroidTestCase;
+
+import junit.framework.Assert;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import ru.jango.j0util.BmpUtil;
+import ru.jango.j0util.ImageLoader;
+
+public class ImageLoaderTest extends AndroidTestCase {
+
+    private HandlerThread deliveryThread;
+    private TestLoader loader;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deliveryThread = new HandlerThread("delivery");
+        deliveryThread.start();
+
+        loader = new TestLoader();
+        loader.setDeliveryHandler(new Handler(deliveryThread.getLooper()));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        loader.shutdown();
+        deliveryThread.quit();
+        super.tearDown();
+    }
+
+    public void testCoalescing() throws Exception {
+        final CountingListener listener = new CountingListener(3);
+        load("a", ImageLoader.PRIORITY_NORMAL, null, listener);
+        load("a", ImageLoader.PRIORITY_NORMAL, null, listener);
+        load("b", ImageLoader.PRIORITY_NORMAL, null, listener);
+        Assert.assertEquals(2, loader.getPendingCount());
+
+        loader.gate.countDown();
+        Assert.assertTrue(listener.latch.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(3, listener.loaded.size());
+        Assert.assertEquals(2, loader.decoded.size());
+        Assert.assertSame(listener.loaded.get(0), listener.loaded.get(1));
+    }
+
+    public void testPriority() throws Exception {
+        final CountingListener listener = new CountingListener(4);
+        // the first one occupies the only thread
+        load("busy", ImageLoader.PRIORITY_NORMAL, null, listener);
+        Thread.sleep(100);
+
+        load("low", ImageLoader.PRIORITY_LOW, null, listener);
+        final ImageLoader.Request bumped = load("bumped", ImageLoader.PRIORITY_LOW, null, listener);
+        load("high", ImageLoader.PRIORITY_HIGH, null, listener);
+        bumped.setPriority(ImageLoader.PRIORITY_HIGH + 1);
+
+        loader.gate.countDown();
+        Assert.assertTrue(listener.latch.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(4, loader.decoded.size());
+        Assert.assertEquals("bumped", loader.decoded.get(1));
+        Assert.assertEquals("high", loader.decoded.get(2));
+        Assert.assertEquals("low", loader.decoded.get(3));
+    }
+
+    public void testCancel() throws Exception {
+        final CountingListener listener = new CountingListener(2);
+        load("busy", ImageLoader.PRIORITY_NORMAL, null, listener);
+        Thread.sleep(100);
+
+        final ImageLoader.Request cancelled = load("cancelled", ImageLoader.PRIORITY_NORMAL, null, listener);
+        cancelled.cancel();
+        Assert.assertTrue(cancelled.isCancelled());
+
+        // new request for the same target cancels the previous one
+        final Object view = new Object();
+        final ImageLoader.Request old = load("old", ImageLoader.PRIORITY_NORMAL, view, listener);
+        final ImageLoader.Request actual = load("actual", ImageLoader.PRIORITY_NORMAL, view, listener);
+        Assert.assertTrue(old.isCancelled());
+        Assert.assertFalse(actual.isCancelled());
+
+        loader.gate.countDown();
+        Assert.assertTrue(listener.latch.await(5, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        Assert.assertEquals(2, listener.loaded.size());
+        Assert.assertFalse(loader.decoded.contains("cancelled"));
+        Assert.assertFalse(loader.decoded.contains("old"));
+        Assert.assertTrue(actual.isFinished());
+    }
+
+    public void testFailure() throws Exception {
+        final CountingListener listener = new CountingListener(1);
+        loader.gate.countDown();
+        load("fail", ImageLoader.PRIORITY_NORMAL, null, listener);
+
+        Assert.assertTrue(listener.latch.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(1, listener.failed);
+    }
+
+    private ImageLoader.Request load(String id, int priority, Object target, ImageLoader.Listener listener) {
+        return loader.load(id, new byte[0], BmpUtil.ScaleType.PROPORTIONAL_FIT, 10, 10, 0,
+                priority, target, listener);
+    }
+
+    private static class TestLoader extends ImageLoader {
+        final CountDownLatch gate = new CountDownLatch(1);
+        final List<String> decoded = Collections.synchronizedList(new ArrayList<String>());
+
+        TestLoader() {
+            super(1, null);
+        }
+
+        @Override
+        protected Bitmap decode(String sourceId, byte[] data, BmpUtil.ScaleType scaleType, int w, int h, int rotation) {
+            try { gate.await(); }
+            catch (InterruptedException e) { return null; }
+
+            decoded.add(sourceId);
+            return "fail".equals(sourceId) ? null : Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888);
+        }
+    }
+
+    private static class CountingListener implements ImageLoader.Listener {
+        final CountDownLatch latch;
+        final List<Bitmap> loaded = Collections.synchronizedList(new ArrayList<Bitmap>());
+        volatile int failed;
+
+        CountingListener(int count) {
+            this.latch = new CountDownLatch(count);
+        }
+
+        @Override
+        public void onLoaded(ImageLoader.Request request, Bitmap bmp) {
+            loaded.add(bmp);
+            latch.countDown();
+        }
+
+        @Override
+        public void onFailed(ImageLoader.Request request, Throwable error) {
+            failed++;
+            latch.countDown();
+        }
+    }
+
+}
@@ -0,0 +1,134 @@
+package ru.jango.j0util.test;
+
+import android.graphics.Bitmap;
+import android.graphics.Point;
+import android.test.AndroidTestCase;
+
+import junit.framework.Assert;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+import ru.jango.j0util.BitmapPool;
+import ru.jango.j0util.BmpUtil;
+import ru.jango.j0util.ImageHeader;
+import ru.jango.j0util.ImageSource;
+
+public class ImageSourceTest extends AndroidTestCase {
+
+    private byte[] data;
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        //noinspection ConstantConditions
+        data = load(getContext().getResources().openRawResource(R.drawable.large));
+
+        //noinspection ConstantConditions
+        file = File.createTempFile("src", ".jpg", getContext().getCacheDir());
+        final FileOutputStream out = new FileOutputStream(file);
+        out.write(data);
+        out.close();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+        super.tearDown();
+    }
+
+    public void testAllSources() throws Exception {
+        checkSource(ImageSource.of(data), true);
+        checkSource(ImageSource.of(file), true);
+        checkSource(ImageSource.map(file), true);
+        checkSource(ImageSource.of(ByteBuffer.wrap(data)), true);
+        checkSource(ImageSource.of(new ByteArrayInputStream(data)), false);
+    }
+
+    public void testRegion() throws Exception {
+        // image inside a bigger container
+        final byte[] container = new byte[data.length + 300];
+        System.arraycopy(data, 0, container, 100, data.length);
+        checkSource(ImageSource.of(container, 100, data.length), true);
+
+        final File containerFile = File.createTempFile("src", ".bin", getContext().getCacheDir());
+        final RandomAccessFile raf = new RandomAccessFile(containerFile, "rw");
+        try {
+            raf.write(container);
+            checkSource(ImageSource.map(raf.getChannel(), 100, data.length), true);
+        } finally {
+            raf.close();
+            //noinspection ResultOfMethodCallIgnored
+            containerFile.delete();
+        }
+    }
+
+    public void testBufferPositionUntouched() throws Exception {
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+        buffer.put(data).flip();
+
+        final ImageSource source = ImageSource.of(buffer);
+        Assert.assertEquals(ImageHeader.Format.JPEG, source.readHeader().getFormat());
+        Assert.assertNotNull(BmpUtil.subsample(source, BmpUtil.ScaleType.PROPORTIONAL_FIT, 100, 100));
+        Assert.assertEquals(0, buffer.position());
+    }
+
+    public void testPool() throws Exception {
+        final BitmapPool pool = new BitmapPool(32 * 1024 * 1024);
+        final ImageSource source = ImageSource.map(file);
+
+        final Bitmap first = BmpUtil.subsample(source, BmpUtil.ScaleType.PROPORTIONAL_FIT, 500, 500, pool);
+        pool.put(first);
+        final Bitmap second = BmpUtil.subsample(source, BmpUtil.ScaleType.PROPORTIONAL_FIT, 500, 500, pool);
+        Assert.assertEquals(343, second.getWidth());
+        Assert.assertEquals(188, second.getHeight());
+        second.recycle();
+    }
+
+    private void checkSource(ImageSource source, boolean repeatable) throws Exception {
+        Assert.assertEquals(repeatable, source.isRepeatable());
+
+        final Point size = BmpUtil.extractSize(source);
+        Assert.assertEquals(2738, size.x);
+        Assert.assertEquals(1500, size.y);
+        Assert.assertTrue(BmpUtil.isTooBig(source, BmpUtil.MAX_TEXTURE_SIZE));
+        Assert.assertFalse(BmpUtil.isTooBig(source, 4096));
+
+        final Bitmap bmp = BmpUtil.scale(source, BmpUtil.ScaleType.PROPORTIONAL_FIT, 500, 500);
+        Assert.assertEquals(500, bmp.getWidth());
+        Assert.assertEquals(273, bmp.getHeight());
+        bmp.recycle();
+
+        if (!repeatable) return;
+
+        final Bitmap oriented = BmpUtil.scaleOriented(source, BmpUtil.ScaleType.PROPORTIONAL_FIT, 500, 500, 90, null);
+        // transformed bounds are rounded, not truncated
+        Assert.assertTrue(Math.abs(oriented.getWidth() - 274) <= 1);
+        Assert.assertEquals(500, oriented.getHeight());
+        oriented.recycle();
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Assert.assertTrue(BmpUtil.subsampleToMaxSize(source, out, BmpUtil.DEFAULT_JPEG_QUALITY, BmpUtil.MAX_TEXTURE_SIZE));
+        final ImageHeader header = ImageHeader.parse(out.toByteArray());
+        Assert.assertEquals(ImageHeader.Format.JPEG, header.getFormat());
+        Assert.assertEquals(1369, header.getWidth());
+    }
+
+    private static byte[] load(InputStream in) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) out.write(buffer, 0, read);
+        in.close();
+
+        return out.toByteArray();
+    }
+
+}
@@ -0,0 +1,89 @@
+package ru.jango.j0util.test;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.test.AndroidTestCase;
+
+import junit.framework.Assert;
+
+import ru.jango.j0util.BmpUtil;
+import ru.jango.j0util.ImageHeader;
+import ru.jango.j0util.JpegSizeEncoder;
+import ru.jango.j0util.LogUtil;
+
+public class JpegSizeEncoderTest extends AndroidTestCase {
+
+    private Bitmap bmp;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        final BitmapFactory.Options ops = new BitmapFactory.Options();
+        ops.inSampleSize = 2;
+        //noinspection ConstantConditions
+        bmp = BitmapFactory.decodeResource(getContext().getResources(), R.drawable.normal, ops);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        bmp.recycle();
+        super.tearDown();
+    }
+
+    public void testFirstAttemptFits() {
+        final JpegSizeEncoder.Result result = new JpegSizeEncoder().encode(bmp, 100 * 1024 * 1024);
+        Assert.assertTrue(result.fits());
+        Assert.assertEquals(1, result.getAttempts());
+        Assert.assertEquals(JpegSizeEncoder.DEFAULT_MAX_QUALITY, result.getQuality());
+        Assert.assertEquals(bmp.getWidth(), result.getWidth());
+    }
+
+    public void testBestQuality() {
+        final JpegSizeEncoder encoder = new JpegSizeEncoder().setTolerance(0);
+        final int limit = BmpUtil.bmpToByte(bmp, Bitmap.CompressFormat.JPEG, 70).length;
+
+        final JpegSizeEncoder.Result result = encoder.encode(bmp, limit);
+        LogUtil.d(JpegSizeEncoderTest.class, "attempts: " + result.getAttempts() + ", time: " + result.getTime() + "ms");
+        Assert.assertTrue(result.fits());
+        Assert.assertTrue(result.getSize() <= limit);
+        Assert.assertTrue(result.getQuality() >= 70);
+        Assert.assertTrue(result.getAttempts() <= 8);
+        Assert.assertEquals(bmp.getWidth(), result.getWidth());
+
+        // one step higher doesn't fit
+        if (result.getQuality() < encoder.getMaxQuality())
+            Assert.assertTrue(BmpUtil.bmpToByte(bmp, Bitmap.CompressFormat.JPEG, result.getQuality() + 1).length > limit);
+
+        final byte[] data = result.toByteArray();
+        Assert.assertEquals(result.getSize(), data.length);
+        Assert.assertEquals(ImageHeader.Format.JPEG, ImageHeader.parse(data).getFormat());
+    }
+
+    public void testStepDown() {
+        final JpegSizeEncoder encoder = new JpegSizeEncoder().setMinDimension(50);
+        final int limit = BmpUtil.bmpToByte(bmp, Bitmap.CompressFormat.JPEG, JpegSizeEncoder.DEFAULT_MIN_QUALITY).length / 4;
+
+        final JpegSizeEncoder.Result result = encoder.encode(bmp, limit);
+        Assert.assertTrue(result.fits());
+        Assert.assertTrue(result.getSize() <= limit);
+        Assert.assertTrue(result.getWidth() < bmp.getWidth());
+        Assert.assertFalse(bmp.isRecycled());
+
+        final ImageHeader header = ImageHeader.parse(result.toByteArray());
+        Assert.assertEquals(result.getWidth(), header.getWidth());
+        Assert.assertEquals(result.getHeight(), header.getHeight());
+        // proportions are kept
+        Assert.assertEquals((float) bmp.getWidth() / bmp.getHeight(),
+                (float) result.getWidth() / result.getHeight(), 0.02f);
+    }
+
+    public void testDoesntFit() {
+        final JpegSizeEncoder.Result result = new JpegSizeEncoder().setMinDimension(Integer.MAX_VALUE).encode(bmp, 100);
+        Assert.assertFalse(result.fits());
+        Assert.assertTrue(result.getSize() > 100);
+        Assert.assertEquals(bmp.getWidth(), result.getWidth());
+        Assert.assertNull(BmpUtil.bmpToJpeg(bmp, 10));
+    }
+
+}
@@ -0,0 +1,73 @@
+package ru.jango.j0util.test;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import ru.jango.j0util.MemoryBudget;
+
+public class MemoryBudgetTest extends TestCase {
+
+    public void testTryAcquire() {
+        final MemoryBudget budget = new MemoryBudget(100);
+        Assert.assertTrue(budget.tryAcquire(60));
+        Assert.assertTrue(budget.tryAcquire(40));
+        Assert.assertFalse(budget.tryAcquire(1));
+        Assert.assertEquals(0, budget.getAvailable());
+
+        budget.release(40);
+        Assert.assertEquals(60, budget.getUsed());
+        Assert.assertTrue(budget.tryAcquire(30));
+    }
+
+    public void testOversized() {
+        final MemoryBudget budget = new MemoryBudget(100);
+        Assert.assertTrue(budget.tryAcquire(10));
+        Assert.assertFalse(budget.tryAcquire(500));
+
+        // nothing else holds the budget, so it's granted
+        budget.release(10);
+        Assert.assertTrue(budget.tryAcquire(500));
+        Assert.assertFalse(budget.tryAcquire(1));
+    }
+
+    public void testReleaseListener() {
+        final MemoryBudget budget = new MemoryBudget(100);
+        final int[] calls = new int[1];
+        final MemoryBudget.ReleaseListener listener = new MemoryBudget.ReleaseListener() {
+            @Override
+            public void onReleased(MemoryBudget b) {
+                calls[0]++;
+            }
+        };
+
+        budget.addReleaseListener(listener);
+        budget.tryAcquire(50);
+        budget.release(50);
+        Assert.assertEquals(1, calls[0]);
+
+        budget.removeReleaseListener(listener);
+        budget.tryAcquire(50);
+        budget.release(50);
+        Assert.assertEquals(1, calls[0]);
+    }
+
+    public void testBlockingAcquire() throws Exception {
+        final MemoryBudget budget = new MemoryBudget(100);
+        budget.acquire(100);
+
+        final Thread releaser = new Thread() {
+            @Override
+            public void run() {
+                try { Thread.sleep(50); }
+                catch (InterruptedException ignored) { }
+                budget.release(100);
+            }
+        };
+        releaser.start();
+
+        budget.acquire(70);
+        Assert.assertEquals(70, budget.getUsed());
+        releaser.join();
+    }
+
+}
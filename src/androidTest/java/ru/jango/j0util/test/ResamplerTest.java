@@ -0,0 +1,92 @@
+package ru.jango.j0util.test;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import ru.jango.j0util.Resampler;
+
+public class ResamplerTest extends TestCase {
+
+    public void testSolidColor() {
+        final int color = 0xFF336699;
+        final int[] src = new int[37 * 23];
+        Arrays.fill(src, color);
+
+        for (Resampler.Filter filter : Resampler.Filter.values()) {
+            final Resampler resampler = new Resampler(filter);
+            assertSolid(color, resampler.resample(src, 37, 23, 10, 7));
+            assertSolid(color, resampler.resample(src, 37, 23, 100, 50));
+            assertSolid(color, resampler.resample(src, 37, 23, 37, 5));
+
+            resampler.setProgressive(false);
+            assertSolid(color, resampler.resample(src, 37, 23, 3, 2));
+        }
+    }
+
+    public void testTransparentPixelsDontBleed() {
+        // half transparent black, half opaque white
+        final int[] src = new int[16 * 4];
+        for (int y = 0; y < 4; y++)
+            for (int x = 0; x < 16; x++)
+                src[y * 16 + x] = x < 8 ? 0x00000000 : 0xFFFFFFFF;
+
+        for (Resampler.Filter filter : Resampler.Filter.values()) {
+            final int[] dst = new Resampler(filter).setProgressive(false).resample(src, 16, 4, 5, 2);
+            for (int p : dst)
+                if ((p >>> 24) != 0) Assert.assertEquals(filter.name(), 0xFFFFFF, p & 0xFFFFFF);
+        }
+    }
+
+    public void testProgressive() {
+        final int[] src = genNoise(400, 300);
+        final Resampler resampler = new Resampler(Resampler.Filter.BILINEAR);
+        final int[] progressive = resampler.resample(src, 400, 300, 50, 30);
+        final int[] direct = resampler.setProgressive(false).resample(src, 400, 300, 50, 30);
+
+        Assert.assertEquals(50 * 30, progressive.length);
+        // noise averages out, so both should be close to gray
+        Assert.assertTrue(Math.abs(average(progressive) - average(direct)) < 8);
+    }
+
+    public void testMultithreaded() {
+        final int[] src = genNoise(301, 207);
+        for (Resampler.Filter filter : Resampler.Filter.values()) {
+            final Resampler single = new Resampler(filter);
+            final Resampler multi = new Resampler(filter).setThreadCount(4);
+            try {
+                Assert.assertTrue(Arrays.equals(single.resample(src, 301, 207, 123, 45),
+                        multi.resample(src, 301, 207, 123, 45)));
+                Assert.assertTrue(Arrays.equals(single.resample(src, 301, 207, 500, 333),
+                        multi.resample(src, 301, 207, 500, 333)));
+            } finally {
+                multi.shutdown();
+            }
+        }
+    }
+
+    public void testSameSize() {
+        final int[] src = genNoise(20, 10);
+        Assert.assertTrue(Arrays.equals(src, new Resampler(Resampler.Filter.LANCZOS3).resample(src, 20, 10, 20, 10)));
+    }
+
+    private static void assertSolid(int color, int[] pixels) {
+        for (int p : pixels) Assert.assertEquals(Integer.toHexString(color), Integer.toHexString(p));
+    }
+
+    private static int[] genNoise(int w, int h) {
+        final Random random = new Random(42);
+        final int[] ret = new int[w * h];
+        for (int i = 0; i < ret.length; i++) ret[i] = 0xFF000000 | random.nextInt(0x1000000);
+        return ret;
+    }
+
+    private static double average(int[] pixels) {
+        double sum = 0;
+        for (int p : pixels) sum += ((p >> 16) & 0xFF) + ((p >> 8) & 0xFF) + (p & 0xFF);
+        return sum / pixels.length / 3;
+    }
+
+}
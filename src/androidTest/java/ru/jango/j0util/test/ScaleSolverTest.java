@@ -0,0 +1,113 @@
+package ru.jango.j0util.test;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import ru.jango.j0util.BmpUtil.ScaleType;
+import ru.jango.j0util.ScaleSolver;
+
+/**
+ * Checks {@link ru.jango.j0util.ScaleSolver} against the previous floating point implementation
+ * of BmpUtil.genBFOptions(...) and ScaleType.resolveScale(...), copied here as is.
+ */
+public class ScaleSolverTest extends TestCase {
+
+    private static final int[] SIZES = {
+            1, 2, 3, 4, 5, 7, 8, 9, 15, 16, 17, 31, 32, 33, 63, 64, 65, 100, 127, 128, 129,
+            200, 255, 256, 257, 425, 511, 512, 513, 554, 1000, 1023, 1024, 1025, 1500, 1600,
+            1999, 2000, 2048, 2500, 2738, 4096, 6150, 10000, 65535 };
+
+    public void testSampleSizeGrid() {
+        final ScaleType[] types = ScaleType.values();
+        for (int destW : SIZES)
+            for (int destH : SIZES)
+                for (int srcW : SIZES)
+                    for (int srcH : SIZES)
+                        for (ScaleType type : types)
+                            assertSampleSize(type, destW, destH, srcW, srcH);
+    }
+
+    public void testSampleSizeExtremes() {
+        final int[] extremes = { 0, 1, 2, Integer.MAX_VALUE, 1 << 29, (1 << 29) + 1, (1 << 30) + 7443 };
+        final ScaleType[] types = ScaleType.values();
+        for (int a : extremes)
+            for (int b : extremes)
+                for (ScaleType type : types) {
+                    assertSampleSize(type, a, 1, b, 1);
+                    assertSampleSize(type, 1, a, 1, b);
+                    assertSampleSize(type, a, b, b, a);
+                }
+
+        // around the points, where the old code stopped rounding up to the next power of 2
+        for (int pow = 16; pow < 31; pow++)
+            for (int d = -2; d < 8000; d += (d < 20 ? 1 : 97))
+                for (ScaleType type : types)
+                    assertSampleSize(type, 1, 1, (1 << pow) + d, 1);
+    }
+
+    public void testScales() {
+        final ScaleSolver solver = new ScaleSolver();
+        for (int destW : SIZES)
+            for (int destH : SIZES)
+                for (int srcW : SIZES)
+                    for (int srcH : SIZES)
+                        for (ScaleType type : ScaleType.values()) {
+                            final float[] expected = legacyResolveScale(type, destW, destH, srcW, srcH);
+                            solver.solve(type, destW, destH, srcW, srcH);
+
+                            Assert.assertEquals(Float.floatToIntBits(expected[0]), Float.floatToIntBits(solver.getScaleX()));
+                            Assert.assertEquals(Float.floatToIntBits(expected[1]), Float.floatToIntBits(solver.getScaleY()));
+                            Assert.assertEquals(Float.floatToIntBits(expected[0]),
+                                    Float.floatToIntBits(ScaleSolver.scaleX(type, destW, destH, srcW, srcH)));
+                            Assert.assertEquals(Float.floatToIntBits(expected[1]),
+                                    Float.floatToIntBits(ScaleSolver.scaleY(type, destW, destH, srcW, srcH)));
+                        }
+    }
+
+    private static void assertSampleSize(ScaleType type, int destW, int destH, int srcW, int srcH) {
+        final int expected = legacySampleSize(type, destW, destH, srcW, srcH);
+        final int actual = ScaleSolver.sampleSize(type, destW, destH, srcW, srcH);
+        if (expected != actual)
+            Assert.fail(type + " " + destW + "x" + destH + " <- " + srcW + "x" + srcH +
+                    ": expected " + expected + ", but was " + actual);
+    }
+
+    private static float[] legacyResolveScale(ScaleType type, int destW, int destH, int srcW, int srcH) {
+        final float[] scales = { ((float) destW) / ((float) srcW), ((float) destH) / ((float) srcH) };
+        switch (type) {
+            case PROPORTIONAL_FIT:
+                if (((float) destW) / ((float) destH) < ((float) srcW) / ((float) srcH))
+                    return new float[] { scales[0], scales[0] };
+                else return new float[] { scales[1], scales[1] };
+
+            case PROPORTIONAL_CROP:
+                if (((float) destW) / ((float) destH) > ((float) srcW) / ((float) srcH))
+                    return new float[] { scales[0], scales[0] };
+                else return new float[] { scales[1], scales[1] };
+
+            default:
+                return scales;
+        }
+    }
+
+    private static int legacySampleSize(ScaleType scaleType, int destW, int destH, int srcW, int srcH) {
+        int inSampleSize = Math.max(1, (int) Math.ceil(1 / legacyResolveScale(scaleType, destW, destH, srcW, srcH)[0]));
+        if (inSampleSize == 1) return inSampleSize;
+
+        double pow = Math.log(inSampleSize) / Math.log(2);
+        boolean incPow;
+
+        if (scaleType != ScaleType.PROPORTIONAL_CROP)
+            incPow = (pow - Math.ceil(pow) + 1) > 0.00001;
+        else {
+            int largeSquare = (int) (srcW * srcH / Math.pow((int) Math.ceil(pow), 2));
+            int smallSquare = (int) (srcW * srcH / Math.pow((int) (Math.ceil(pow) - 1), 2));
+            incPow = Math.abs(destH * destW - largeSquare) < Math.abs(destH * destW - smallSquare) &&
+                    destH * destW <= largeSquare;
+        }
+
+        if (incPow) inSampleSize = (int) Math.pow(2, Math.ceil(pow));
+        return inSampleSize;
+    }
+
+}
@@ -0,0 +1,93 @@
+package ru.jango.j0util.test;
+
+import android.graphics.Bitmap;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import java.io.File;
+
+import ru.jango.j0util.BmpUtil;
+import ru.jango.j0util.DiskCache;
+import ru.jango.j0util.ScaledBitmapCache;
+
+public class ScaledBitmapCacheTest extends TestCase {
+
+    private File dir;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        dir = new File(System.getProperty("java.io.tmpdir"), "j0util-scaled-cache-test");
+        DiskCache.open(dir, 1024 * 1024).delete();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        DiskCache.open(dir, 1024 * 1024).delete();
+        super.tearDown();
+    }
+
+    public void testKeys() throws Exception {
+        final String key = ScaledBitmapCache.genKey("src", BmpUtil.ScaleType.FIT_XY, 100, 50, 0);
+        Assert.assertEquals(key, ScaledBitmapCache.genKey("src", BmpUtil.ScaleType.FIT_XY, 100, 50, 360));
+        Assert.assertFalse(key.equals(ScaledBitmapCache.genKey("src", BmpUtil.ScaleType.PROPORTIONAL_FIT, 100, 50, 0)));
+        Assert.assertFalse(key.equals(ScaledBitmapCache.genKey("src", BmpUtil.ScaleType.FIT_XY, 50, 100, 0)));
+        Assert.assertFalse(key.equals(ScaledBitmapCache.genKey("src", BmpUtil.ScaleType.FIT_XY, 100, 50, 90)));
+
+        Assert.assertEquals(ScaledBitmapCache.genKey("src", BmpUtil.ScaleType.FIT_XY, 100, 50, 270),
+                ScaledBitmapCache.genKey("src", BmpUtil.ScaleType.FIT_XY, 100, 50, -90));
+
+        // same length, but different non-Latin-1 characters
+        Assert.assertFalse(ScaledBitmapCache.genKey("/фото/кот.jpg", BmpUtil.ScaleType.FIT_XY, 100, 50, 0)
+                .equals(ScaledBitmapCache.genKey("/фото/пёс.jpg", BmpUtil.ScaleType.FIT_XY, 100, 50, 0)));
+    }
+
+    public void testMemoryAndDisk() throws Exception {
+        final DiskCache diskCache = DiskCache.open(dir, 1024 * 1024);
+        final ScaledBitmapCache cache = new ScaledBitmapCache(1024 * 1024, diskCache);
+        final Bitmap bmp = Bitmap.createBitmap(100, 50, Bitmap.Config.ARGB_8888);
+
+        Assert.assertNull(cache.get("src", BmpUtil.ScaleType.FIT_XY, 100, 50, 0));
+        cache.put("src", BmpUtil.ScaleType.FIT_XY, 100, 50, 0, bmp);
+        Assert.assertSame(bmp, cache.get("src", BmpUtil.ScaleType.FIT_XY, 100, 50, 0));
+        Assert.assertNull(cache.get("src", BmpUtil.ScaleType.FIT_XY, 100, 50, 90));
+
+        // after the memory miss image is read from the disk and put back into memory
+        cache.clearMemory();
+        final Bitmap fromDisk = cache.get("src", BmpUtil.ScaleType.FIT_XY, 100, 50, 0);
+        Assert.assertNotNull(fromDisk);
+        Assert.assertNotSame(bmp, fromDisk);
+        Assert.assertEquals(100, fromDisk.getWidth());
+        Assert.assertEquals(50, fromDisk.getHeight());
+        Assert.assertSame(fromDisk, cache.get("src", BmpUtil.ScaleType.FIT_XY, 100, 50, 0));
+
+        Assert.assertEquals(2, cache.getMemoryHitCount());
+        Assert.assertEquals(1, cache.getDiskHitCount());
+        Assert.assertEquals(2, cache.getMissCount());
+        Assert.assertEquals(0.6f, cache.getHitRate(), 0.001f);
+        diskCache.close();
+    }
+
+    public void testGetOrScale() throws Exception {
+        final byte[] data = BmpUtil.bmpToByte(Bitmap.createBitmap(400, 200, Bitmap.Config.ARGB_8888),
+                Bitmap.CompressFormat.JPEG, 70);
+        final ScaledBitmapCache cache = new ScaledBitmapCache(1024 * 1024);
+
+        final Bitmap scaled = cache.getOrScale("src", data, BmpUtil.ScaleType.FIT_XY, 100, 50, 0);
+        Assert.assertEquals(100, scaled.getWidth());
+        Assert.assertEquals(50, scaled.getHeight());
+        Assert.assertSame(scaled, cache.getOrScale("src", data, BmpUtil.ScaleType.FIT_XY, 100, 50, 0));
+
+        final Bitmap rotated = cache.getOrScale("src", data, BmpUtil.ScaleType.FIT_XY, 100, 50, -90);
+        Assert.assertNotSame(scaled, rotated);
+        Assert.assertEquals(50, rotated.getWidth());
+        Assert.assertEquals(100, rotated.getHeight());
+        Assert.assertSame(rotated, cache.getOrScale("src", data, BmpUtil.ScaleType.FIT_XY, 100, 50, 270));
+
+        Assert.assertEquals(2, cache.getMemoryHitCount());
+        Assert.assertEquals(2, cache.getMissCount());
+        Assert.assertEquals(2, cache.getMemoryCache().getCount());
+    }
+
+}
@@ -3,7 +3,19 @@ package ru.jango.j0util.test;
 import junit.framework.Assert;
 import junit.framework.TestCase;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import ru.jango.j0util.Crc32c;
+import ru.jango.j0util.Hasher;
+import ru.jango.j0util.MultiHasher;
+import ru.jango.j0util.MurmurHash3;
 import ru.jango.j0util.SecurityUtil;
+import ru.jango.j0util.XxHash64;
 
 public class SecurityUtilTest extends TestCase {
 
@@ -18,5 +30,206 @@ public class SecurityUtilTest extends TestCase {
         // too old algorithm, or just too old for Android
         final String md2 = SecurityUtil.hash("ololo", "MD2");
         if (md2 != null) Assert.assertEquals("82e489d19d80a2a407d19cf91a5724f4", md2);
+
+        Assert.assertEquals("SHA-512", SecurityUtil.getSmartAlgorithm());
+        Assert.assertEquals(SecurityUtil.sha512("ololo"), SecurityUtil.smartHash("ololo"));
+        Assert.assertNull(SecurityUtil.hash("ololo", "ololo"));
+        // cached digest is reset after the failed call
+        Assert.assertEquals("a619d974658f3e749b2d88b215baea46", SecurityUtil.md5("ololo"));
+    }
+
+    public void testBytes() throws Exception {
+        final byte[] ololo = "xxololoxx".getBytes("iso-8859-1");
+        Assert.assertEquals(SecurityUtil.md5("ololo"), SecurityUtil.hash(ololo, 2, 5, "MD5"));
+        Assert.assertEquals(SecurityUtil.md5("xxololoxx"), SecurityUtil.hash(ololo, "MD5"));
+        Assert.assertEquals(SecurityUtil.md5("ololo"), SecurityUtil.toHex(SecurityUtil.hashToBytes(ololo, 2, 5, "MD5")));
+        Assert.assertEquals(20, SecurityUtil.hashToBytes(ololo, "SHA-1").length);
+        Assert.assertNull(SecurityUtil.hash(ololo, "ololo"));
+        Assert.assertNull(SecurityUtil.hashToBytes(ololo, "ololo"));
+
+        final byte[] dest = new byte[20];
+        Assert.assertEquals(16, SecurityUtil.hashToBytes(ololo, 2, 5, "MD5", dest, 4));
+        Assert.assertEquals(SecurityUtil.md5("ololo"), SecurityUtil.toHex(Arrays.copyOfRange(dest, 4, 20)));
+        Assert.assertEquals(-1, SecurityUtil.hashToBytes(ololo, 2, 5, "ololo", dest, 4));
+        try {
+            SecurityUtil.hashToBytes(ololo, 2, 5, "MD5", dest, 5);
+            Assert.fail();
+        } catch (IllegalArgumentException ignored) {
+        }
+
+        // ISO-8859-1 hashing mangles non-Latin text, UTF-8 doesn't
+        final String text = "\u043f\u0440\u0438\u0432\u0435\u0442";
+        Assert.assertEquals(SecurityUtil.md5("??????"), SecurityUtil.md5(text));
+        Assert.assertEquals(SecurityUtil.hash(text.getBytes("UTF-8"), "MD5"), SecurityUtil.hashUtf8(text, "MD5"));
+        Assert.assertFalse(SecurityUtil.md5(text).equals(SecurityUtil.hashUtf8(text, "MD5")));
+        Assert.assertEquals(SecurityUtil.md5("ololo"), SecurityUtil.hashUtf8("ololo", "MD5"));
+        Assert.assertNull(SecurityUtil.hash((String) null, "MD5"));
+    }
+
+    public void testHex() {
+        final byte[] bytes = new byte[256];
+        final StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) i;
+            expected.append(i < 16 ? "0" : "").append(Integer.toHexString(i));
+        }
+
+        Assert.assertEquals(expected.toString(), SecurityUtil.toHex(bytes));
+        Assert.assertEquals("", SecurityUtil.toHex(new byte[0]));
+        Assert.assertEquals("x0aff", SecurityUtil.toHex(bytes, 10, 1, new StringBuilder("x"))
+                .append("ff").toString());
+
+        final char[] chars = "..........".toCharArray();
+        SecurityUtil.toHex(new byte[] { 0x12, (byte) 0xAB, 0x7F }, 1, 2, chars, 3);
+        Assert.assertEquals("...ab7f...", new String(chars));
+    }
+
+    public void testFastHashes() throws Exception {
+        Assert.assertEquals("ef46db3751d8e999", SecurityUtil.hash("", XxHash64.ALGORITHM));
+        Assert.assertEquals("d24ec4f1a98c6e5b", SecurityUtil.hash("a", XxHash64.ALGORITHM));
+        Assert.assertEquals("44bc2cf5ad770999", SecurityUtil.hash("abc", XxHash64.ALGORITHM));
+        Assert.assertEquals("fbcea83c8a378bf1", SecurityUtil.hash("Nobody inspects the spammish repetition", XxHash64.ALGORITHM));
+        Assert.assertEquals(0xfbcea83c8a378bf1L, XxHash64.hash("Nobody inspects the spammish repetition".getBytes("iso-8859-1")));
+
+        Assert.assertEquals("00000000000000000000000000000000", SecurityUtil.hash("", MurmurHash3.ALGORITHM));
+        Assert.assertEquals("6c1b07bc7bbc4be347939ac4a93c437a",
+                SecurityUtil.hash("The quick brown fox jumps over the lazy dog", MurmurHash3.ALGORITHM));
+        Assert.assertEquals(0xe34bbc7bbc071b6cL, MurmurHash3.hash64("The quick brown fox jumps over the lazy dog".getBytes("iso-8859-1")));
+
+        Assert.assertEquals("e3069283", SecurityUtil.hash("123456789", Crc32c.ALGORITHM));
+        Assert.assertEquals(0x8a9136aa, Crc32c.hash(new byte[32]));
+        final byte[] ones = new byte[32];
+        Arrays.fill(ones, (byte) 0xFF);
+        Assert.assertEquals(0x62a8ab43, Crc32c.hash(ones));
+
+        // incremental hashing in all possible splits equals hashing at once
+        final byte[] data = new byte[100];
+        new Random(42).nextBytes(data);
+        for (String alg : SecurityUtil.FAST_ALGORITHMS) {
+            final Hasher hasher = SecurityUtil.newHasher(alg);
+            Assert.assertEquals(alg, hasher.getAlgorithm());
+            for (int length = 0; length <= data.length; length++) {
+                final String expected = SecurityUtil.hash(data, 0, length, alg);
+                Assert.assertEquals(hasher.getDigestLength() * 2, expected.length());
+                for (int split = 0; split <= length; split += 3)
+                    Assert.assertEquals(alg + " " + length + "/" + split, expected,
+                            hasher.update(data, 0, split).update(data, split, length - split).digestHex());
+            }
+
+            Assert.assertEquals(SecurityUtil.hash(data, alg), SecurityUtil.hash(new ByteArrayInputStream(data), alg));
+        }
+
+        Assert.assertEquals(XxHash64.hash(data, 7, 80, 0), new XxHash64().update(data, 7, 80).digestLong());
+        Assert.assertEquals(Crc32c.hash(data, 7, 80), new Crc32c().update(data, 7, 80).digestInt());
+        Assert.assertFalse(XxHash64.hash(data, 0, 100, 1) == XxHash64.hash(data, 0, 100, 0));
+        // hash64 is the first half of the little-endian digest
+        Assert.assertEquals(String.format("%016x", Long.reverseBytes(MurmurHash3.hash64(data, 7, 80, 0))),
+                SecurityUtil.hash(data, 7, 80, MurmurHash3.ALGORITHM).substring(0, 16));
+    }
+
+    public void testMultiHash() throws Exception {
+        // several times more, than chunks in flight
+        final byte[] data = new byte[MultiHasher.MAX_CHUNKS_IN_FLIGHT * 3 * Hasher.BUFFER_SIZE + 13];
+        new Random(42).nextBytes(data);
+        final String[] algs = { "MD5", "SHA-256", XxHash64.ALGORITHM };
+        final String[] expected = new String[algs.length];
+        for (int i = 0; i < algs.length; i++) expected[i] = SecurityUtil.hash(data, algs[i]);
+
+        final File file = File.createTempFile("hash", null);
+        try {
+            final FileOutputStream out = new FileOutputStream(file);
+            out.write(data);
+            out.close();
+
+            Assert.assertTrue(Arrays.equals(expected, SecurityUtil.hashAll(file, algs)));
+            Assert.assertTrue(Arrays.equals(expected, SecurityUtil.hashAll(new ByteArrayInputStream(data), algs)));
+            Assert.assertNull(SecurityUtil.hashAll(file, "MD5", "ololo"));
+
+            final MultiHasher hasher = SecurityUtil.newMultiHasher(algs).setParallel(true);
+            try {
+                Assert.assertEquals("MD5+SHA-256+XXH64", hasher.getAlgorithm());
+                Assert.assertEquals(16 + 32 + 8, hasher.getDigestLength());
+
+                hasher.update(file);
+                Assert.assertTrue(Arrays.equals(expected, hasher.digestHexAll()));
+
+                hasher.update(data, 0, 1000).update(data, 1000, data.length - 1000);
+                Assert.assertTrue(Arrays.equals(expected, hasher.digestHexAll()));
+
+                final ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+                direct.put(data).flip();
+                hasher.update("garbage".getBytes()).reset();
+                Assert.assertEquals(expected[0] + expected[1] + expected[2], hasher.update(direct).digestHex());
+            } finally {
+                hasher.shutdown();
+            }
+
+            Assert.assertFalse(hasher.isParallel());
+            hasher.update(data);
+            Assert.assertTrue(Arrays.equals(expected, hasher.digestHexAll()));
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testThreads() throws Exception {
+        final String expected = SecurityUtil.sha1("ololo");
+        final boolean[] failed = new boolean[1];
+        final Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 1000; j++)
+                        if (!expected.equals(SecurityUtil.sha1("ololo")) ||
+                                SecurityUtil.md5("ololo" + j) == null)
+                            failed[0] = true;
+                }
+            });
+            threads[i].start();
+        }
+
+        for (Thread thread : threads) thread.join();
+        Assert.assertFalse(failed[0]);
+    }
+
+    public void testStreaming() throws Exception {
+        // bigger, than internal buffer, and not aligned to it
+        final byte[] data = new byte[200 * 1024 + 17];
+        new Random(42).nextBytes(data);
+        final String text = new String(data, "iso-8859-1");
+
+        final File file = File.createTempFile("hash", null);
+        try {
+            final FileOutputStream out = new FileOutputStream(file);
+            out.write(data);
+            out.close();
+
+            for (String alg : new String[] { "MD5", "SHA-1", "SHA-256", "SHA-512" }) {
+                final String expected = SecurityUtil.hash(text, alg);
+                Assert.assertEquals(expected, SecurityUtil.hash(new ByteArrayInputStream(data), alg));
+                Assert.assertEquals(expected, SecurityUtil.hash(file, alg));
+                Assert.assertEquals(expected, SecurityUtil.hash(ByteBuffer.wrap(data), alg));
+
+                final ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+                direct.put(data).flip();
+                Assert.assertEquals(expected, SecurityUtil.hash(direct, alg));
+                Assert.assertEquals(0, direct.position());
+
+                final Hasher hasher = SecurityUtil.newHasher(alg);
+                hasher.update("garbage".getBytes()).reset();
+                hasher.update(data, 0, 1000).update(ByteBuffer.wrap(data, 1000, 5000))
+                        .update(new ByteArrayInputStream(data, 6000, data.length - 6000));
+                Assert.assertEquals(expected, hasher.digestHex());
+
+                // digest resets hasher
+                Assert.assertEquals(SecurityUtil.hash("", alg), hasher.digestHex());
+            }
+        } finally {
+            file.delete();
+        }
+
+        Assert.assertNull(SecurityUtil.newHasher("ololo"));
+        Assert.assertNull(SecurityUtil.hash(ByteBuffer.wrap(data), "ololo"));
     }
 }
@@ -0,0 +1,188 @@
+package ru.jango.j0util.test;
+
+import android.graphics.Bitmap;
+import android.graphics.Point;
+import android.test.AndroidTestCase;
+
+import junit.framework.Assert;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import ru.jango.j0util.BmpUtil;
+import ru.jango.j0util.DecodePlan;
+import ru.jango.j0util.MemoryBudget;
+import ru.jango.j0util.ThumbnailBatch;
+
+public class ThumbnailBatchTest extends AndroidTestCase {
+
+    private static final int SRC_W = 400;
+    private static final int SRC_H = 300;
+    private static final int THUMB = 100;
+
+    private final List<File> files = new ArrayList<File>();
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (File f : files) f.delete();
+        files.clear();
+        super.tearDown();
+    }
+
+    public void testBatch() throws Exception {
+        final List<File> sources = genImages(5);
+        final File broken = File.createTempFile("broken", ".jpg", getContext().getCacheDir());
+        files.add(broken);
+        final FileOutputStream out = new FileOutputStream(broken);
+        out.write("ololo".getBytes());
+        out.close();
+        sources.add(2, broken);
+
+        final RecordingCallback callback = new RecordingCallback();
+        final ThumbnailBatch batch = new ThumbnailBatch(sources, BmpUtil.ScaleType.PROPORTIONAL_CROP, THUMB, THUMB)
+                .setFormat(Bitmap.CompressFormat.PNG, 100);
+        batch.start(callback);
+
+        Assert.assertTrue(batch.await(30000));
+        Assert.assertTrue(batch.isFinished());
+        synchronized (callback) {
+            Assert.assertEquals(5, callback.done.size());
+            Assert.assertFalse(callback.done.contains(2));
+            Assert.assertEquals(1, callback.failed.size());
+            Assert.assertEquals(Integer.valueOf(2), callback.failed.get(0));
+            Assert.assertEquals(1, callback.finishedCount);
+            Assert.assertFalse(callback.cancelled);
+
+            for (byte[] thumbnail : callback.thumbnails) {
+                final Point size = BmpUtil.extractSize(thumbnail);
+                Assert.assertEquals(THUMB, size.x);
+                Assert.assertEquals(THUMB, size.y);
+            }
+        }
+    }
+
+    public void testCancel() throws Exception {
+        final List<File> sources = genImages(12);
+
+        // cancel at different moments: before probing, while waiting for admission, while decoding
+        for (int delay = 0; delay < 40; delay += 5) {
+            final RecordingCallback callback = new RecordingCallback();
+            final ThumbnailBatch batch = new ThumbnailBatch(sources, BmpUtil.ScaleType.PROPORTIONAL_CROP, THUMB, THUMB)
+                    .setThreadCount(2)
+                    .setMemoryBudget(new MemoryBudget(singleImageBytes()));
+            batch.start(callback);
+
+            Thread.sleep(delay);
+            batch.cancel();
+
+            Assert.assertTrue("delay " + delay, batch.await(30000));
+            Assert.assertTrue(batch.isCancelled());
+
+            // give late callbacks a chance to show up
+            Thread.sleep(50);
+            synchronized (callback) {
+                Assert.assertEquals("delay " + delay, 1, callback.finishedCount);
+                Assert.assertTrue(callback.cancelled);
+                Assert.assertTrue(callback.failed.isEmpty());
+                Assert.assertTrue(callback.done.size() <= sources.size());
+            }
+        }
+    }
+
+    public void testMemoryBudget() throws Exception {
+        final List<File> sources = genImages(8);
+        final long capacity = singleImageBytes();
+        final CountingBudget budget = new CountingBudget(capacity);
+
+        final RecordingCallback callback = new RecordingCallback();
+        final ThumbnailBatch batch = new ThumbnailBatch(sources, BmpUtil.ScaleType.PROPORTIONAL_CROP, THUMB, THUMB)
+                .setThreadCount(4)
+                .setMemoryBudget(budget);
+        batch.start(callback);
+
+        Assert.assertTrue(batch.await(30000));
+        synchronized (callback) {
+            Assert.assertEquals(8, callback.done.size());
+            Assert.assertEquals(1, callback.finishedCount);
+        }
+
+        // only one image fits at a time, so others had to wait
+        synchronized (budget) {
+            Assert.assertTrue(budget.maxUsed <= capacity);
+            Assert.assertTrue(budget.rejected > 0);
+            Assert.assertEquals(0, budget.getUsed());
+        }
+    }
+
+    private long singleImageBytes() {
+        return DecodePlan.scale(new Point(SRC_W, SRC_H), BmpUtil.ScaleType.PROPORTIONAL_CROP, THUMB, THUMB,
+                Bitmap.Config.ARGB_8888).getPeakBytes();
+    }
+
+    private List<File> genImages(int count) throws Exception {
+        final Bitmap bmp = Bitmap.createBitmap(SRC_W, SRC_H, Bitmap.Config.ARGB_8888);
+        bmp.eraseColor(0xFF336699);
+        final byte[] data = BmpUtil.bmpToByte(bmp, Bitmap.CompressFormat.JPEG, 80);
+        bmp.recycle();
+
+        final List<File> ret = new ArrayList<File>();
+        for (int i = 0; i < count; i++) {
+            final File file = File.createTempFile("batch", ".jpg", getContext().getCacheDir());
+            final FileOutputStream out = new FileOutputStream(file);
+            out.write(data);
+            out.close();
+
+            files.add(file);
+            ret.add(file);
+        }
+
+        return ret;
+    }
+
+    private static class RecordingCallback implements ThumbnailBatch.Callback {
+
+        final List<Integer> done = new ArrayList<Integer>();
+        final List<byte[]> thumbnails = new ArrayList<byte[]>();
+        final List<Integer> failed = new ArrayList<Integer>();
+        int finishedCount;
+        boolean cancelled;
+
+        @Override
+        public synchronized void onItemDone(int index, File source, byte[] thumbnail) {
+            done.add(index);
+            thumbnails.add(thumbnail);
+        }
+
+        @Override
+        public synchronized void onItemFailed(int index, File source, Throwable error) {
+            failed.add(index);
+        }
+
+        @Override
+        public synchronized void onBatchFinished(boolean cancelled) {
+            finishedCount++;
+            this.cancelled = cancelled;
+        }
+    }
+
+    private static class CountingBudget extends MemoryBudget {
+
+        long maxUsed;
+        int rejected;
+
+        public CountingBudget(long capacity) {
+            super(capacity);
+        }
+
+        @Override
+        public synchronized boolean tryAcquire(long bytes) {
+            final boolean ret = super.tryAcquire(bytes);
+            if (ret) maxUsed = Math.max(maxUsed, getUsed());
+            else rejected++;
+            return ret;
+        }
+    }
+
+}
@@ -0,0 +1,170 @@
+package ru.jango.j0util.test;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.test.AndroidTestCase;
+
+import junit.framework.Assert;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+
+import ru.jango.j0util.BmpUtil;
+import ru.jango.j0util.TileDecoder;
+
+public class TileDecoderTest extends AndroidTestCase {
+
+    public void testSampleSizeFor() throws Exception {
+        Assert.assertEquals(1, TileDecoder.sampleSizeFor(2f));
+        Assert.assertEquals(1, TileDecoder.sampleSizeFor(1f));
+        Assert.assertEquals(1, TileDecoder.sampleSizeFor(0.6f));
+        Assert.assertEquals(2, TileDecoder.sampleSizeFor(0.5f));
+        Assert.assertEquals(2, TileDecoder.sampleSizeFor(0.3f));
+        Assert.assertEquals(8, TileDecoder.sampleSizeFor(0.1f));
+    }
+
+    public void testGrid() throws Exception {
+        final TileDecoder decoder = new TileDecoder(genHugeData(), 256, 4 * 1024 * 1024);
+        try {
+            Assert.assertEquals(6150, decoder.getWidth());
+            Assert.assertEquals(2500, decoder.getHeight());
+
+            Assert.assertEquals(25, decoder.getColumnCount(1));
+            Assert.assertEquals(10, decoder.getRowCount(1));
+            Assert.assertEquals(7, decoder.getColumnCount(4));
+            Assert.assertEquals(3, decoder.getRowCount(4));
+
+            final Rect last = decoder.getTileRect(1, 24, 9);
+            Assert.assertEquals(6144, last.left);
+            Assert.assertEquals(2304, last.top);
+            Assert.assertEquals(6150, last.right);
+            Assert.assertEquals(2500, last.bottom);
+        } finally {
+            decoder.recycle();
+        }
+    }
+
+    public void testTiles() throws Exception {
+        final TileDecoder decoder = new TileDecoder(genHugeData(), 256, 4 * 1024 * 1024);
+        try {
+            final TileDecoder.Tile tile = decoder.getTile(1, 3, 2);
+            Assert.assertNotNull(tile);
+            Assert.assertEquals(768, tile.getRect().left);
+            Assert.assertEquals(512, tile.getRect().top);
+            if (decoder.isRegionDecodingSupported()) {
+                Assert.assertEquals(256, tile.getBitmap().getWidth());
+                Assert.assertEquals(256, tile.getBitmap().getHeight());
+            }
+
+            // second request is served from cache
+            Assert.assertSame(tile.getBitmap(), decoder.getTile(1, 3, 2).getBitmap());
+            Assert.assertEquals(1, decoder.getCache().getHitCount());
+
+            // 300..900 x 100..400 covers columns 1-3 and rows 0-1
+            final List<TileDecoder.Tile> tiles = decoder.getTiles(new Rect(300, 100, 900, 400), 1);
+            Assert.assertEquals(6, tiles.size());
+
+            final TileDecoder.Tile small = decoder.getTile(16, 1, 0);
+            Assert.assertEquals(4096, small.getRect().left);
+            Assert.assertEquals(6150, small.getRect().right);
+            Assert.assertTrue(small.getBitmap().getWidth() <= 256);
+            Assert.assertFalse(small.getBitmap().isRecycled());
+        } finally {
+            decoder.recycle();
+        }
+    }
+
+    public void testMemoryBounded() throws Exception {
+        final long cacheSize = 1024 * 1024;
+        final TileDecoder decoder = new TileDecoder(genHugeData(), 256, cacheSize);
+        try {
+            decoder.getTiles(new Rect(0, 0, decoder.getWidth(), decoder.getHeight()), 2);
+            Assert.assertTrue(decoder.getCache().getSize() <= cacheSize);
+            Assert.assertTrue(decoder.getCache().getEvictionCount() > 0);
+        } finally {
+            decoder.recycle();
+        }
+    }
+
+    public void testPrefetch() throws Exception {
+        final TileDecoder decoder = new TileDecoder(genHugeData(), 256, 8 * 1024 * 1024);
+        try {
+            decoder.prefetch(new Rect(1024, 512, 1280, 768), 1);
+
+            // 8 tiles around the visible one
+            final long deadline = System.currentTimeMillis() + 10000;
+            while (decoder.getCache().getCount() < 8 && System.currentTimeMillis() < deadline)
+                Thread.sleep(50);
+
+            Assert.assertEquals(8, decoder.getCache().getCount());
+            final Bitmap visible = decoder.getCache().get("1:4:2");
+            Assert.assertNull(visible);
+        } finally {
+            decoder.recycle();
+        }
+    }
+
+    public void testFallback() throws Exception {
+        // probed limit could be much larger, than the fallback image is allowed to be
+        BmpUtil.setMaxTextureSize(16384);
+        final TileDecoder decoder = new TileDecoder(genBmpData(2500, 500), 256, 4 * 1024 * 1024);
+        try {
+            // region decoder doesn't support BMP
+            Assert.assertFalse(decoder.isRegionDecodingSupported());
+
+            // 2500px is subsampled twice to fit into BmpUtil.MAX_TEXTURE_SIZE
+            final TileDecoder.Tile tile = decoder.getTile(1, 0, 0);
+            Assert.assertNotNull(tile);
+            Assert.assertEquals(128, tile.getBitmap().getWidth());
+            Assert.assertEquals(128, tile.getBitmap().getHeight());
+
+            // tile covering the whole image is not the fallback image itself
+            final TileDecoder.Tile whole = decoder.getTile(16, 0, 0);
+            decoder.getTile(1, 1, 0);
+            Assert.assertFalse(whole.getBitmap().isRecycled());
+        } finally {
+            decoder.recycle();
+            BmpUtil.setMaxTextureSize(0);
+        }
+    }
+
+    /**
+     * Generates uncompressed 24-bit BMP image.
+     */
+    private byte[] genBmpData(int w, int h) {
+        final int rowSize = (w * 3 + 3) & ~3;
+        final int dataOffset = 14 + 40;
+        final ByteBuffer buffer = ByteBuffer.allocate(dataOffset + rowSize * h).order(ByteOrder.LITTLE_ENDIAN);
+
+        buffer.put((byte) 'B').put((byte) 'M').putInt(buffer.capacity()).putInt(0).putInt(dataOffset);
+        buffer.putInt(40).putInt(w).putInt(h).putShort((short) 1).putShort((short) 24)
+                .putInt(0).putInt(rowSize * h).putInt(2835).putInt(2835).putInt(0).putInt(0);
+
+        final byte[] row = new byte[rowSize];
+        for (int x = 0; x < w; x++) {
+            row[x * 3] = (byte) x;
+            row[x * 3 + 1] = (byte) (x >> 4);
+            row[x * 3 + 2] = (byte) 0x80;
+        }
+        for (int y = 0; y < h; y++) buffer.put(row);
+
+        return buffer.array();
+    }
+
+    private byte[] genHugeData() throws Exception {
+        //noinspection ConstantConditions
+        final InputStream in = getContext().getResources().openRawResource(R.drawable.huge);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        final byte[] buffer = new byte[512];
+        int read;
+        while ((read = in.read(buffer)) != -1) out.write(buffer, 0, read);
+        in.close();
+
+        return out.toByteArray();
+    }
+
+}
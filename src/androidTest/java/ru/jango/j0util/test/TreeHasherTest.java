@@ -0,0 +1,136 @@
+package ru.jango.j0util.test;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+
+import ru.jango.j0util.SecurityUtil;
+import ru.jango.j0util.TreeHasher;
+import ru.jango.j0util.XxHash64;
+
+public class TreeHasherTest extends TestCase {
+
+    private static final int CHUNK = 1000;
+
+    private File file;
+    private byte[] data;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        file = File.createTempFile("tree", null);
+        data = new byte[CHUNK * 10 + 500];
+        new Random(42).nextBytes(data);
+        write(data);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        file.delete();
+        super.tearDown();
+    }
+
+    public void testStructure() throws Exception {
+        final TreeHasher hasher = new TreeHasher("SHA-256", CHUNK);
+
+        write(new byte[0]);
+        Assert.assertEquals(SecurityUtil.hash("", "SHA-256"), hasher.hash(file).getRootHex());
+
+        write(Arrays.copyOf(data, 700));
+        Assert.assertEquals(leafHex(0, 700), hasher.hash(file).getRootHex());
+
+        // (L0 L1) L2
+        write(Arrays.copyOf(data, 2500));
+        final TreeHasher.Tree tree = hasher.hash(file);
+        Assert.assertEquals(3, tree.getChunkCount());
+        Assert.assertEquals(leafHex(2000, 2500), SecurityUtil.toHex(tree.getChunkHash(2)));
+        Assert.assertEquals(node(node(leafHex(0, 1000), leafHex(1000, 2000)), leafHex(2000, 2500)), tree.getRootHex());
+        Assert.assertEquals(2, tree.getChunkIndex(2499));
+    }
+
+    public void testParallel() throws Exception {
+        final TreeHasher single = new TreeHasher(XxHash64.ALGORITHM, CHUNK);
+        final TreeHasher multi = new TreeHasher(XxHash64.ALGORITHM, CHUNK).setThreadCount(4);
+        try {
+            Assert.assertEquals(single.hash(file), multi.hash(file));
+            Assert.assertEquals(11, multi.hash(file).getChunkCount());
+        } finally {
+            multi.shutdown();
+        }
+
+        Assert.assertEquals(new TreeHasher("MD5", TreeHasher.DEFAULT_CHUNK_SIZE).hash(file).getRootHex(),
+                SecurityUtil.hashTree(file, "MD5"));
+        Assert.assertNull(SecurityUtil.hashTree(file, "ololo"));
+        try {
+            new TreeHasher("ololo", CHUNK);
+            Assert.fail();
+        } catch (IllegalArgumentException ignored) {
+        }
+    }
+
+    public void testDirtyChunks() throws Exception {
+        final TreeHasher hasher = new TreeHasher("SHA-1", CHUNK).setThreadCount(3);
+        try {
+            final TreeHasher.Tree tree = hasher.hash(file);
+            Assert.assertEquals(0, hasher.verify(file, tree).length);
+
+            data[3 * CHUNK + 17]++;
+            data[7 * CHUNK]++;
+            write(data);
+
+            final TreeHasher.Tree changed = hasher.hash(file);
+            Assert.assertFalse(tree.equals(changed));
+            Assert.assertTrue(Arrays.equals(new int[] { 3, 7 }, hasher.verify(file, tree)));
+            Assert.assertTrue(Arrays.equals(new int[] { 3 }, hasher.verify(file, tree, 0, 1, 3)));
+            Assert.assertEquals(changed, hasher.update(file, tree, 3, 7));
+            // only the specified chunks are re-read
+            Assert.assertFalse(changed.equals(hasher.update(file, tree, 3)));
+
+            // appended data: old last chunk and new ones are re-hashed anyway
+            final byte[] longer = Arrays.copyOf(data, data.length + 2 * CHUNK);
+            write(longer);
+            Assert.assertEquals(hasher.hash(file), hasher.update(file, changed));
+            Assert.assertTrue(Arrays.equals(new int[] { 10, 11, 12 }, hasher.verify(file, changed)));
+
+            write(Arrays.copyOf(data, 4 * CHUNK));
+            Assert.assertEquals(hasher.hash(file), hasher.update(file, changed));
+            Assert.assertTrue(Arrays.equals(new int[] { 4, 5, 6, 7, 8, 9, 10 }, hasher.verify(file, changed)));
+        } finally {
+            hasher.shutdown();
+        }
+    }
+
+    private void write(byte[] bytes) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(0);
+        raf.write(bytes);
+        raf.close();
+    }
+
+    private String leafHex(int from, int to) {
+        final byte[] leaf = new byte[to - from + 1];
+        System.arraycopy(data, from, leaf, 1, to - from);
+        return SecurityUtil.hash(leaf, "SHA-256");
+    }
+
+    private static String node(String left, String right) {
+        final byte[] l = fromHex(left), r = fromHex(right);
+        final byte[] node = new byte[1 + l.length + r.length];
+        node[0] = 1;
+        System.arraycopy(l, 0, node, 1, l.length);
+        System.arraycopy(r, 0, node, 1 + l.length, r.length);
+        return SecurityUtil.hash(node, "SHA-256");
+    }
+
+    private static byte[] fromHex(String hex) {
+        final byte[] ret = new byte[hex.length() / 2];
+        for (int i = 0; i < ret.length; i++) ret[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        return ret;
+    }
+
+}
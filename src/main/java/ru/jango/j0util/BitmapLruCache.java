@@ -0,0 +1,201 @@
+/*
+ * The MIT License Copyright (c) 2014 Krayushkin Konstantin (jangokvk@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ru.jango.j0util;
+
+import android.graphics.Bitmap;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * In-memory LRU cache of {@link android.graphics.Bitmap}'s, limited by the total byte count of
+ * the cached bitmaps. {@link android.util.LruCache} appeared only in Honeycomb, so here is a
+ * simple replacement.
+ * <br /><br />
+ * <p/>
+ * Evicted bitmaps are not recycled, as they still could be displayed somewhere; override
+ * {@link #entryRemoved(boolean, String, android.graphics.Bitmap)} to do something with them.
+ * <br /><br />
+ * <p/>
+ * Cache is thread safe.
+ */
+public class BitmapLruCache {
+
+    private final LinkedHashMap<String, Entry> map;
+    private final long maxSize;
+    private long size;
+
+    private int hitCount;
+    private int missCount;
+    private int putCount;
+    private int evictionCount;
+
+    /**
+     * @param maxSize maximum total byte count of the cached bitmaps
+     */
+    public BitmapLruCache(long maxSize) {
+        if (maxSize <= 0) throw new IllegalArgumentException("maxSize <= 0");
+
+        this.maxSize = maxSize;
+        this.map = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    }
+
+    /**
+     * Returns cached bitmap and moves it to the head of the queue.
+     *
+     * @return cached bitmap, or null
+     */
+    public synchronized Bitmap get(String key) {
+        final Entry entry = map.get(key);
+        if (entry == null) missCount++;
+        else hitCount++;
+
+        return entry != null ? entry.bmp : null;
+    }
+
+    /**
+     * Caches the bitmap; if the cache becomes too large, least recently used bitmaps are evicted.
+     *
+     * @return previous bitmap with the same key, or null
+     */
+    public Bitmap put(String key, Bitmap bmp) {
+        if (key == null || bmp == null) throw new NullPointerException("key == null || bmp == null");
+
+        final Entry previous;
+        synchronized (this) {
+            final Entry entry = new Entry(bmp, sizeOf(key, bmp));
+            putCount++;
+            size += entry.size;
+            previous = map.put(key, entry);
+            if (previous != null) size -= previous.size;
+        }
+
+        if (previous != null && previous.bmp != bmp) entryRemoved(false, key, previous.bmp);
+        trimToSize(maxSize);
+
+        return previous != null ? previous.bmp : null;
+    }
+
+    /**
+     * @return removed bitmap, or null
+     */
+    public Bitmap remove(String key) {
+        final Entry previous;
+        synchronized (this) {
+            previous = map.remove(key);
+            if (previous != null) size -= previous.size;
+        }
+
+        if (previous == null) return null;
+        entryRemoved(false, key, previous.bmp);
+        return previous.bmp;
+    }
+
+    /**
+     * Evicts least recently used bitmaps, until the total byte count is not greater
+     * than <b>maxSize</b>.
+     */
+    public void trimToSize(long maxSize) {
+        while (true) {
+            final String key;
+            final Entry entry;
+            synchronized (this) {
+                if (size <= maxSize || map.isEmpty()) return;
+
+                final Iterator<Map.Entry<String, Entry>> it = map.entrySet().iterator();
+                final Map.Entry<String, Entry> eldest = it.next();
+                key = eldest.getKey();
+                entry = eldest.getValue();
+                it.remove();
+
+                size -= entry.size;
+                evictionCount++;
+            }
+
+            entryRemoved(true, key, entry.bmp);
+        }
+    }
+
+    public void evictAll() {
+        trimToSize(-1);
+    }
+
+    /**
+     * Called (outside the synchronization) for evicted, removed or replaced bitmaps.
+     *
+     * @param evicted true, if the bitmap was evicted to free space
+     */
+    protected void entryRemoved(boolean evicted, String key, Bitmap oldValue) {
+    }
+
+    /**
+     * Returns size of the cached bitmap in bytes. Called once, when the bitmap is put into
+     * the cache.
+     */
+    protected int sizeOf(String key, Bitmap value) {
+        return BitmapPool.byteCount(value);
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public synchronized int getCount() {
+        return map.size();
+    }
+
+    public synchronized int getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return missCount;
+    }
+
+    public synchronized int getPutCount() {
+        return putCount;
+    }
+
+    public synchronized int getEvictionCount() {
+        return evictionCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BitmapLruCache[size=" + size + ", maxSize=" + maxSize + ", count=" + map.size() +
+                ", hits=" + hitCount + ", misses=" + missCount + ", evictions=" + evictionCount + "]";
+    }
+
+    private static class Entry {
+        final Bitmap bmp;
+        final int size;
+
+        Entry(Bitmap bmp, int size) {
+            this.bmp = bmp;
+            this.size = size;
+        }
+    }
+
+}
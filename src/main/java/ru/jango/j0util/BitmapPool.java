@@ -0,0 +1,317 @@
+/*
+ * The MIT License Copyright (c) 2014 Krayushkin Konstantin (jangokvk@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ru.jango.j0util;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Pool of mutable {@link android.graphics.Bitmap}'s for reusing their memory instead of allocating
+ * new bitmaps all the time. Pool is limited by the total byte count of the bitmaps inside; when
+ * it's exceeded, least recently added bitmaps are recycled.
+ * <br /><br />
+ * <p/>
+ * Bitmaps are grouped into buckets by their allocation byte count. Since KitKat any pooled bitmap
+ * that is large enough could be reused (it's reconfigured to the needed size); on older versions
+ * only bitmaps with exactly the same dimensions and config are suitable. Before Honeycomb bitmaps
+ * couldn't be reused at all, so pool just keeps the statistics and recycles everything.
+ * <br /><br />
+ * <p/>
+ * Pool is thread safe.
+ *
+ * @see ru.jango.j0util.BmpUtil#subsample(byte[], ru.jango.j0util.BmpUtil.ScaleType, int, int, BitmapPool)
+ * @see android.graphics.BitmapFactory.Options#inBitmap
+ */
+public class BitmapPool {
+
+    /**
+     * Since KitKat a larger bitmap could be reused for a smaller one; but it's not a good idea
+     * to hold a huge bitmap for a tiny image, so the size difference is limited.
+     */
+    private static final int MAX_SIZE_MULTIPLE = 4;
+
+    private final long maxSize;
+    private long size;
+
+    private final TreeMap<Integer, LinkedList<Bitmap>> buckets;
+    private final LinkedList<Bitmap> lru;
+
+    private int hitCount;
+    private int missCount;
+    private int putCount;
+    private int evictionCount;
+
+    /**
+     * @param maxSize maximum total byte count of the pooled bitmaps
+     */
+    public BitmapPool(long maxSize) {
+        if (maxSize <= 0) throw new IllegalArgumentException("maxSize <= 0");
+
+        this.maxSize = maxSize;
+        this.buckets = new TreeMap<Integer, LinkedList<Bitmap>>();
+        this.lru = new LinkedList<Bitmap>();
+    }
+
+    /**
+     * Returns true, if bitmaps could be reused on the current Android version.
+     */
+    public static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB;
+    }
+
+    /**
+     * Puts the bitmap into the pool. After that the bitmap shouldn't be used anywhere else.
+     * If the bitmap couldn't be pooled (it's immutable, too large or bitmaps are not reusable
+     * at all), it is recycled.
+     *
+     * @return true, if the bitmap was put into the pool
+     */
+    public synchronized boolean put(Bitmap bmp) {
+        if (bmp == null || bmp.isRecycled()) return false;
+
+        final int bytes = byteCount(bmp);
+        if (!isSupported() || !bmp.isMutable() || bytes > maxSize) {
+            bmp.recycle();
+            return false;
+        }
+
+        LinkedList<Bitmap> bucket = buckets.get(bytes);
+        if (bucket == null) {
+            bucket = new LinkedList<Bitmap>();
+            buckets.put(bytes, bucket);
+        }
+
+        bucket.add(bmp);
+        lru.add(bmp);
+        size += bytes;
+        putCount++;
+
+        trimToSize(maxSize);
+        return true;
+    }
+
+    /**
+     * Returns a bitmap from the pool with the specified dimensions and config. Bitmap is erased
+     * with transparent color, so it could be used as a new one.
+     *
+     * @return pooled bitmap, or null if there is no suitable one
+     */
+    public Bitmap get(int w, int h, Bitmap.Config config) {
+        final Bitmap bmp = getDirty(w, h, config);
+        if (bmp != null) bmp.eraseColor(0);
+
+        return bmp;
+    }
+
+    /**
+     * Same as {@link #get(int, int, android.graphics.Bitmap.Config)}, but if there is no suitable
+     * bitmap in the pool, a new mutable one is created.
+     */
+    public Bitmap getOrCreate(int w, int h, Bitmap.Config config) {
+        final Bitmap bmp = get(w, h, config);
+        return bmp != null ? bmp : Bitmap.createBitmap(w, h, config);
+    }
+
+    /**
+     * Same as {@link #get(int, int, android.graphics.Bitmap.Config)}, but the bitmap is not
+     * erased - it still contains the old pixels.
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    public synchronized Bitmap getDirty(int w, int h, Bitmap.Config config) {
+        final int bytes = w * h * bytesPerPixel(config);
+        final Bitmap bmp;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            bmp = takeLarger(bytes);
+            if (bmp != null) bmp.reconfigure(w, h, config);
+        } else bmp = takeExact(bytes, w, h, config);
+
+        if (bmp == null) missCount++;
+        else hitCount++;
+
+        return bmp;
+    }
+
+    /**
+     * Sets {@link android.graphics.BitmapFactory.Options#inBitmap} to a pooled bitmap, suitable
+     * for decoding an image with the specified dimensions and
+     * {@link android.graphics.BitmapFactory.Options#inSampleSize}. Also makes the decoded bitmap
+     * mutable, so it could be put into the pool later.
+     * <br /><br />
+     * <p/>
+     * If the decoding with these options fails with {@link java.lang.IllegalArgumentException},
+     * the {@link android.graphics.BitmapFactory.Options#inBitmap} should be put back into the pool
+     * and the decoding should be repeated without it.
+     *
+     * @param ops  options for decoding
+     * @param srcW source image width
+     * @param srcH source image height
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public void applyTo(BitmapFactory.Options ops, int srcW, int srcH) {
+        if (!isSupported()) return;
+
+        ops.inMutable = true;
+        final Bitmap.Config config = ops.inPreferredConfig != null ?
+                ops.inPreferredConfig : Bitmap.Config.ARGB_8888;
+
+        final int sample = Math.max(1, ops.inSampleSize);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            // decoders round the scaled size differently, so take the largest one
+            ops.inBitmap = getDirty((srcW + sample - 1) / sample, (srcH + sample - 1) / sample, config);
+        } else if (sample == 1) {
+            // before KitKat only not subsampled images with the same size could be decoded
+            ops.inBitmap = getDirty(srcW, srcH, config);
+        }
+    }
+
+    /**
+     * Recycles least recently added bitmaps, until the total byte count is not greater
+     * than <b>maxSize</b>.
+     */
+    public synchronized void trimToSize(long maxSize) {
+        while (size > maxSize && !lru.isEmpty()) {
+            final Bitmap bmp = lru.removeFirst();
+            final int bytes = byteCount(bmp);
+            removeFromBucket(bytes, bmp);
+
+            size -= bytes;
+            evictionCount++;
+            bmp.recycle();
+        }
+    }
+
+    /**
+     * Recycles all bitmaps in the pool.
+     */
+    public void clear() {
+        trimToSize(-1);
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns total byte count of the pooled bitmaps.
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public synchronized int getBitmapCount() {
+        return lru.size();
+    }
+
+    public synchronized int getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return missCount;
+    }
+
+    public synchronized int getPutCount() {
+        return putCount;
+    }
+
+    public synchronized int getEvictionCount() {
+        return evictionCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BitmapPool[size=" + size + ", maxSize=" + maxSize + ", bitmaps=" + lru.size() +
+                ", hits=" + hitCount + ", misses=" + missCount + ", puts=" + putCount +
+                ", evictions=" + evictionCount + "]";
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////
+    //
+    //                      Helpers
+    //
+    //////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Returns count of bytes, occupied by the bitmap pixels.
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    public static int byteCount(Bitmap bmp) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) return bmp.getAllocationByteCount();
+        return bmp.getRowBytes() * bmp.getHeight();
+    }
+
+    /**
+     * Returns count of bytes per pixel for the specified config; null config is treated
+     * as {@link android.graphics.Bitmap.Config#ARGB_8888}.
+     */
+    public static int bytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.ALPHA_8) return 1;
+        if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) return 2;
+        return 4;
+    }
+
+    private Bitmap takeLarger(int bytes) {
+        final Map.Entry<Integer, LinkedList<Bitmap>> entry = buckets.ceilingEntry(bytes);
+        if (entry == null || entry.getKey() > (long) bytes * MAX_SIZE_MULTIPLE) return null;
+
+        final Bitmap bmp = entry.getValue().removeLast();
+        if (entry.getValue().isEmpty()) buckets.remove(entry.getKey());
+
+        lru.remove(bmp);
+        size -= entry.getKey();
+        return bmp;
+    }
+
+    private Bitmap takeExact(int bytes, int w, int h, Bitmap.Config config) {
+        final LinkedList<Bitmap> bucket = buckets.get(bytes);
+        if (bucket == null) return null;
+
+        final Iterator<Bitmap> it = bucket.descendingIterator();
+        while (it.hasNext()) {
+            final Bitmap bmp = it.next();
+            if (bmp.getWidth() == w && bmp.getHeight() == h && bmp.getConfig() == config) {
+                it.remove();
+                if (bucket.isEmpty()) buckets.remove(bytes);
+
+                lru.remove(bmp);
+                size -= bytes;
+                return bmp;
+            }
+        }
+
+        return null;
+    }
+
+    private void removeFromBucket(int bytes, Bitmap bmp) {
+        final LinkedList<Bitmap> bucket = buckets.get(bytes);
+        if (bucket == null) return;
+
+        bucket.remove(bmp);
+        if (bucket.isEmpty()) buckets.remove(bytes);
+    }
+
+}
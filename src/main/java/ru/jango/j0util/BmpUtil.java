@@ -21,12 +21,34 @@ package ru.jango.j0util;
 
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
 import android.graphics.Matrix;
+import android.graphics.Paint;
 import android.graphics.Point;
 import android.graphics.PointF;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.opengl.GLES10;
+import android.os.Build;
 
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+
+import javax.microedition.khronos.egl.EGL10;
+import javax.microedition.khronos.egl.EGLConfig;
+import javax.microedition.khronos.egl.EGLContext;
+import javax.microedition.khronos.egl.EGLDisplay;
+import javax.microedition.khronos.egl.EGLSurface;
 
 /**
  * Utility class with methods for working with {@link android.graphics.Bitmap}'s.
@@ -41,9 +63,86 @@ public class BmpUtil {
      * <p/>
      * Actually maximum texture size for now is 2048x2048, but here was chosen 2000x2000
      * just in case.
+     * <br /><br />
+     * <p/>
+     * Now it's only the fallback, if the device limit couldn't be probed; methods use
+     * {@link #getMaxTextureSize()}.
      */
     public static final int MAX_TEXTURE_SIZE = 2000;
 
+    /**
+     * How many bytes of an {@link java.io.InputStream} could be read while looking for the image
+     * bounds. Stream would be reset back after that, so this is the limit passed into
+     * {@link java.io.InputStream#mark(int)}. Image headers are usually much smaller, but JPEG files
+     * could carry large EXIF or ICC blocks before the actual frame header.
+     */
+    public static final int HEADER_MARK_LIMIT = 1024 * 1024;
+
+    /**
+     * JPEG quality for the format-aware methods, like {@link #subsampleToMaxSize(byte[], int)},
+     * if nothing else was specified.
+     */
+    public static final int DEFAULT_JPEG_QUALITY = 90;
+
+    /**
+     * How many times (by side) the low resolution preview in
+     * {@link #subsampleProgressive(ImageSource, ru.jango.j0util.BmpUtil.ScaleType, int, int, ru.jango.j0util.BmpUtil.PreviewCallback)}
+     * is smaller, than the final image.
+     */
+    public static final int PREVIEW_SAMPLE_FACTOR = 8;
+
+    /**
+     * Images, that are decoded into less pixels, are decoded fast enough without any preview.
+     */
+    private static final int PREVIEW_MIN_PIXELS = 256 * 256;
+
+    /**
+     * Maximum difference between the EXIF thumbnail and the image aspect ratios; some cameras
+     * store letterboxed 4:3 thumbnails for 16:9 photos, they are not good as previews.
+     */
+    private static final float PREVIEW_RATIO_TOLERANCE = 0.05f;
+
+    private static final int STREAM_BUFFER_SIZE = 16 * 1024;
+
+    /**
+     * Set for the thread, witch holds its part of the memory budget, so nested calls (scale(...)
+     * calls subsample(...)) don't acquire it twice.
+     */
+    private static final ThreadLocal<Boolean> BUDGET_HELD = new ThreadLocal<Boolean>();
+
+    private static volatile MemoryBudget memoryBudget;
+    private static volatile int maxTextureSize;
+    private static volatile int probedTextureSize;
+
+    /**
+     * Receives the preview in the progressive decoding.
+     *
+     * @see #subsampleProgressive(ImageSource, ru.jango.j0util.BmpUtil.ScaleType, int, int, ru.jango.j0util.BmpUtil.PreviewCallback)
+     */
+    public interface PreviewCallback {
+
+        /**
+         * Called on the decoding thread before the final decoding starts. Preview bitmap belongs
+         * to the callback - recycle it, when it's replaced by the final image.
+         *
+         * @param preview   low resolution image
+         * @param thumbnail true, if the preview is the embedded EXIF thumbnail
+         */
+        public void onPreview(Bitmap preview, boolean thumbnail);
+
+    }
+
+    /**
+     * Decoding step, that is run within the memory budget.
+     *
+     * @see #decodeBudgeted(DecodePlan, ru.jango.j0util.BmpUtil.Decoding)
+     */
+    private interface Decoding<T> {
+
+        public T run() throws IOException;
+
+    }
+
     /**
      * Simple scaling options.
      */
@@ -54,49 +153,229 @@ public class BmpUtil {
          * to the passed dimensions. Whole resulting image could be fit into those dimensions.
          * Also image will be scaled saving proportions.
          */
-        PROPORTIONAL_FIT {
-            @SuppressWarnings("SuspiciousNameCombination")
-            @Override
-            public PointF resolveScale(int destW, int destH, int srcW, int srcH) {
-                final PointF scales = getScales(destW, destH, srcW, srcH);
-                if (((float) destW) / ((float) destH) < ((float) srcW) / ((float) srcH))
-                    return new PointF(scales.x, scales.x);
-                else return new PointF(scales.y, scales.y);
-            }
-        },
+        PROPORTIONAL_FIT,
 
         /**
          * With this option the resulting image size will be GREATER OR EQUAL
          * to the passed dimensions. Whole rectangle with those dimensions could be fit
          * into the resulting image. Also image will be scaled saving proportions.
          */
-        PROPORTIONAL_CROP {
-            @SuppressWarnings("SuspiciousNameCombination")
-            @Override
-            public PointF resolveScale(int destW, int destH, int srcW, int srcH) {
-                final PointF scales = getScales(destW, destH, srcW, srcH);
-                if (((float) destW) / ((float) destH) > ((float) srcW) / ((float) srcH))
-                    return new PointF(scales.x, scales.x);
-                else return new PointF(scales.y, scales.y);
-            }
-        },
+        PROPORTIONAL_CROP,
 
         /**
          * With this option the resulting image will have the exactly passed dimensions,
          * without saving proportions.
          */
-        FIT_XY {
-            @Override
-            public PointF resolveScale(int destW, int destH, int srcW, int srcH) {
-                return new PointF(((float) destW) / ((float) srcW), ((float) destH) / ((float) srcH));
+        FIT_XY;
+
+        public PointF resolveScale(int destW, int destH, int srcW, int srcH) {
+            return resolveScale(destW, destH, srcW, srcH, new PointF());
+        }
+
+        /**
+         * Same as {@link #resolveScale(int, int, int, int)}, but writes scales into the passed
+         * object instead of creating a new one.
+         *
+         * @param out where to put the result
+         * @return <b>out</b>
+         * @see ru.jango.j0util.ScaleSolver
+         */
+        public PointF resolveScale(int destW, int destH, int srcW, int srcH, PointF out) {
+            out.set(ScaleSolver.scaleX(this, destW, destH, srcW, srcH),
+                    ScaleSolver.scaleY(this, destW, destH, srcW, srcH));
+            return out;
+        }
+    }
+
+    /**
+     * Options for choosing {@link android.graphics.Bitmap.Config} of the decoded image.
+     */
+    public enum ColorPolicy {
+
+        /**
+         * Always {@link android.graphics.Bitmap.Config#ARGB_8888}, like BitmapFactory does by
+         * default.
+         */
+        ARGB_8888,
+
+        /**
+         * {@link android.graphics.Bitmap.Config#RGB_565} for the images, witch are surely opaque
+         * (see {@link ru.jango.j0util.ImageHeader#hasAlpha()}), and
+         * {@link android.graphics.Bitmap.Config#ARGB_8888} for others. Halves memory for photos.
+         */
+        AUTO,
+
+        /**
+         * Same as {@link #AUTO}, but RGB_565 images are dithered, so smooth gradients don't get
+         * banding.
+         */
+        AUTO_DITHER,
+
+        /**
+         * {@link android.graphics.Bitmap.Config#ALPHA_8}: only transparency is kept, for masks.
+         * If the decoder can't produce ALPHA_8 for the image, it falls back to another config.
+         */
+        ALPHA_8;
+
+        /**
+         * Returns config for the image with the header; for not recognized formats it's
+         * ARGB_8888 (except {@link #ALPHA_8}).
+         */
+        public Bitmap.Config resolveConfig(ImageHeader header) {
+            switch (this) {
+                case ALPHA_8:
+                    return Bitmap.Config.ALPHA_8;
+
+                case AUTO:
+                case AUTO_DITHER:
+                    return header.isValid() && !header.hasAlpha() ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+
+                default:
+                    return Bitmap.Config.ARGB_8888;
+            }
+        }
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////
+    //
+    //              Maximum texture size
+    //
+    //////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Returns maximum image size, that methods would decode: the value set by
+     * {@link #setMaxTextureSize(int)}, or the device limit from {@link #probeMaxTextureSize()}.
+     */
+    public static int getMaxTextureSize() {
+        final int size = maxTextureSize;
+        return size > 0 ? size : probeMaxTextureSize();
+    }
+
+    /**
+     * Overrides maximum image size for all methods; for example, if images are never drawn with
+     * hardware acceleration, or to keep them smaller.
+     *
+     * @param size maximum width and height in pixels; 0 returns back to the probed value
+     */
+    public static void setMaxTextureSize(int size) {
+        if (size < 0) throw new IllegalArgumentException("size < 0");
+        maxTextureSize = size;
+    }
+
+    /**
+     * Returns GL_MAX_TEXTURE_SIZE of the device. It's read once from an offscreen OpenGL ES context
+     * and then cached; if it couldn't be read, {@link #MAX_TEXTURE_SIZE} is returned. First call
+     * takes a few milliseconds, so it's better done at startup out of the main thread.
+     */
+    public static int probeMaxTextureSize() {
+        int size = probedTextureSize;
+        if (size > 0) return size;
+
+        synchronized (BmpUtil.class) {
+            size = probedTextureSize;
+            if (size > 0) return size;
+
+            try {
+                size = queryMaxTextureSize();
+            } catch (RuntimeException e) {
+                LogUtil.w(BmpUtil.class, "can't probe max texture size: " + e);
+            } catch (LinkageError e) {
+                // no EGL at all, plain JVM for example
+                LogUtil.w(BmpUtil.class, "can't probe max texture size: " + e);
+            }
+
+            probedTextureSize = size = size > 0 ? size : MAX_TEXTURE_SIZE;
+            return size;
+        }
+    }
+
+    /**
+     * Reads GL_MAX_TEXTURE_SIZE from the context, that is current on the calling thread (a GL
+     * renderer thread, for example), or from a temporary 1x1 pbuffer context. In the latter case
+     * whatever was current before is restored afterwards. Display is not terminated, as it's
+     * shared with other GL users in the process.
+     *
+     * @return texture size, or 0
+     */
+    private static int queryMaxTextureSize() {
+        final EGL10 egl = (EGL10) EGLContext.getEGL();
+        final EGLContext previousContext = egl.eglGetCurrentContext();
+        if (previousContext != null && previousContext != EGL10.EGL_NO_CONTEXT) {
+            final int[] size = new int[1];
+            GLES10.glGetIntegerv(GLES10.GL_MAX_TEXTURE_SIZE, size, 0);
+            return size[0];
+        }
+
+        final EGLDisplay previousDisplay = egl.eglGetCurrentDisplay();
+        final EGLSurface previousDraw = egl.eglGetCurrentSurface(EGL10.EGL_DRAW);
+        final EGLSurface previousRead = egl.eglGetCurrentSurface(EGL10.EGL_READ);
+
+        final EGLDisplay display = egl.eglGetDisplay(EGL10.EGL_DEFAULT_DISPLAY);
+        if (display == EGL10.EGL_NO_DISPLAY || !egl.eglInitialize(display, new int[2])) return 0;
+
+        final int[] configAttrs = { EGL10.EGL_SURFACE_TYPE, EGL10.EGL_PBUFFER_BIT, EGL10.EGL_NONE };
+        final EGLConfig[] configs = new EGLConfig[1];
+        final int[] count = new int[1];
+        if (!egl.eglChooseConfig(display, configAttrs, configs, 1, count) || count[0] == 0) return 0;
+
+        final EGLContext context = egl.eglCreateContext(display, configs[0], EGL10.EGL_NO_CONTEXT, null);
+        if (context == null || context == EGL10.EGL_NO_CONTEXT) return 0;
+
+        EGLSurface surface = null;
+        boolean madeCurrent = false;
+        try {
+            final int[] surfaceAttrs = { EGL10.EGL_WIDTH, 1, EGL10.EGL_HEIGHT, 1, EGL10.EGL_NONE };
+            surface = egl.eglCreatePbufferSurface(display, configs[0], surfaceAttrs);
+            if (surface == null || surface == EGL10.EGL_NO_SURFACE) return 0;
+            if (!(madeCurrent = egl.eglMakeCurrent(display, surface, surface, context))) return 0;
+
+            final int[] size = new int[1];
+            GLES10.glGetIntegerv(GLES10.GL_MAX_TEXTURE_SIZE, size, 0);
+            return size[0];
+        } finally {
+            if (madeCurrent) {
+                // no context was current before, so this just releases ours
+                if (previousDisplay != null && previousDisplay != EGL10.EGL_NO_DISPLAY)
+                    egl.eglMakeCurrent(previousDisplay, previousDraw, previousRead, previousContext);
+                else egl.eglMakeCurrent(display, EGL10.EGL_NO_SURFACE, EGL10.EGL_NO_SURFACE, EGL10.EGL_NO_CONTEXT);
             }
-        };
 
-        protected static PointF getScales(int destW, int destH, int srcW, int srcH) {
-            return new PointF(((float) destW) / ((float) srcW), ((float) destH) / ((float) srcH));
+            if (surface != null && surface != EGL10.EGL_NO_SURFACE) egl.eglDestroySurface(display, surface);
+            egl.eglDestroyContext(display, context);
         }
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////
+    //
+    //              Memory budget
+    //
+    //////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Sets global memory budget for decoding: subsample(...) and scale(...) methods for byte
+     * arrays, files and {@link ru.jango.j0util.ImageSource}'s plan their peak memory with
+     * {@link ru.jango.j0util.DecodePlan} and acquire it from the budget before decoding, so
+     * several concurrent decodings together don't exceed it. Budget is released, when the call
+     * returns; resulting bitmaps are not tracked.
+     * <br /><br />
+     * <p/>
+     * If the waiting thread is interrupted, methods return NULL (or throw
+     * {@link java.io.InterruptedIOException}, if they throw IOException). Don't use here the
+     * budget of a {@link ru.jango.j0util.ThumbnailBatch}: its items already hold their part, and
+     * would wait for themselves.
+     *
+     * @param budget memory budget; NULL (default) turns admission control off
+     * @see ru.jango.j0util.DecodePlan
+     */
+    public static void setMemoryBudget(MemoryBudget budget) {
+        memoryBudget = budget;
+    }
 
-        public abstract PointF resolveScale(int destW, int destH, int srcW, int srcH);
+    /**
+     * @see #setMemoryBudget(MemoryBudget)
+     */
+    public static MemoryBudget getMemoryBudget() {
+        return memoryBudget;
     }
 
     //////////////////////////////////////////////////////////////////////////////////////////////
@@ -109,16 +388,16 @@ public class BmpUtil {
      * Checks, if the passed image's dimensions are greater, than acceptable.
      *
      * @param data raw (not decoded) image data as byte array
-     * @see #MAX_TEXTURE_SIZE
+     * @see #getMaxTextureSize()
      */
     public static boolean isTooBig(byte[] data) {
         final Point size = extractSize(data);
-        return (size.x >= MAX_TEXTURE_SIZE || size.y >= MAX_TEXTURE_SIZE);
+        return isTooBig(size, getMaxTextureSize());
     }
 
     /**
      * If passed image's dimensions are greater than acceptable (than
-     * {@link #MAX_TEXTURE_SIZE}), scales image down and converts
+     * {@link #getMaxTextureSize()}), scales image down and converts
      * it back into byte array.
      * <br /><br />
      * <p/>
@@ -128,27 +407,52 @@ public class BmpUtil {
      * <br /><br />
      * <p/>
      * <b>ATTENTION</b>: scaling is done by {@link android.graphics.BitmapFactory.Options#inSampleSize},
-     * witch means that resulting image wouldn't be exactly MAX_TEXTURE_SIZE*MAX_TEXTURE_SIZE,
+     * witch means that resulting image wouldn't be exactly max texture size,
      * likely it would be much smaller. It may be batter to use
      * {@link #scale(byte[], ru.jango.j0util.BmpUtil.ScaleType, int, int)}.
      *
      * @param data raw (not decoded) image data as byte array
      * @return raw (not decoded) image data with fixed dimensions, or original byte array
-     * @see #MAX_TEXTURE_SIZE
+     * @see #getMaxTextureSize()
      * @see #bmpToByte(android.graphics.Bitmap, android.graphics.Bitmap.CompressFormat, int)
      * @see #scale(byte[], ru.jango.j0util.BmpUtil.ScaleType, int, int)
      */
     public static byte[] subsampleToMaxSize(byte[] data) {
+        return subsampleToMaxSize(data, Bitmap.CompressFormat.PNG, 100);
+    }
+
+    /**
+     * Same as {@link #subsampleToMaxSize(byte[])}, but format-aware: JPEG images stay JPEG and
+     * are compressed with the passed quality, others are converted into PNG, as before.
+     *
+     * @param data        raw (not decoded) image data as byte array
+     * @param jpegQuality compress quality for JPEG images, 0-100
+     * @return raw (not decoded) image data with fixed dimensions, or original byte array
+     * @see #DEFAULT_JPEG_QUALITY
+     * @see #compressFormatFor(ru.jango.j0util.ImageHeader.Format)
+     */
+    public static byte[] subsampleToMaxSize(byte[] data, int jpegQuality) {
+        final Bitmap.CompressFormat format = compressFormatFor(ImageHeader.parse(data).getFormat());
+        return subsampleToMaxSize(data, format, format == Bitmap.CompressFormat.JPEG ? jpegQuality : 100);
+    }
+
+    private static byte[] subsampleToMaxSize(final byte[] data, final Bitmap.CompressFormat format,
+                                             final int quality) {
         final Point size = extractSize(data);
         final BitmapFactory.Options ops = genBFOptions(ScaleType.PROPORTIONAL_FIT,
-                MAX_TEXTURE_SIZE, MAX_TEXTURE_SIZE, size.x, size.y);
-
+                getMaxTextureSize(), getMaxTextureSize(), size.x, size.y);
         if (ops.inSampleSize == 1) return data;
-        final Bitmap bmp = BitmapFactory.decodeByteArray(data, 0, data.length, ops);
-        final byte[] scaledData = bmpToByte(bmp, Bitmap.CompressFormat.PNG, 100);
-        bmp.recycle();
 
-        return scaledData;
+        return decodeBudgetedQuietly(planToMaxSize(size, getMaxTextureSize()), new Decoding<byte[]>() {
+            @Override
+            public byte[] run() {
+                final Bitmap bmp = BitmapFactory.decodeByteArray(data, 0, data.length, ops);
+                final byte[] scaledData = bmpToByte(bmp, format, quality);
+                bmp.recycle();
+
+                return scaledData;
+            }
+        });
     }
 
     /**
@@ -160,7 +464,7 @@ public class BmpUtil {
      * - method can only scale image down, not expand
      * <br /><br />
      * <p/>
-     * Also checks bounds to be smaller than {@link #MAX_TEXTURE_SIZE}.
+     * Also checks bounds to be smaller than {@link #getMaxTextureSize()}.
      *
      * @param data      raw (not decoded) image data as byte array
      * @param scaleType scaling option
@@ -171,21 +475,22 @@ public class BmpUtil {
      * @see ru.jango.j0util.BmpUtil.ScaleType#PROPORTIONAL_FIT
      * @see ru.jango.j0util.BmpUtil.ScaleType#FIT_XY
      */
-    public static Bitmap subsample(byte[] data, ScaleType scaleType, int w, int h) {
+    public static Bitmap subsample(final byte[] data, ScaleType scaleType, int w, int h) {
         final Point size = extractSize(data);
-        final BitmapFactory.Options ops = genBFOptions(
-                (w >= MAX_TEXTURE_SIZE || h >= MAX_TEXTURE_SIZE) ? ScaleType.PROPORTIONAL_FIT : scaleType,
-                Math.min(w, MAX_TEXTURE_SIZE),
-                Math.min(h, MAX_TEXTURE_SIZE),
-                size.x, size.y);
+        final BitmapFactory.Options ops = genSubsampleOptions(size, scaleType, w, h);
 
-        return BitmapFactory.decodeByteArray(data, 0, data.length, ops);
+        return decodeBudgetedQuietly(DecodePlan.subsample(size, scaleType, w, h, null), new Decoding<Bitmap>() {
+            @Override
+            public Bitmap run() {
+                return BitmapFactory.decodeByteArray(data, 0, data.length, ops);
+            }
+        });
     }
 
     /**
      * Scales image according to the passed params. First subsamples image data and then scales image
      * with {@link android.graphics.Bitmap#createScaledBitmap(android.graphics.Bitmap, int, int, boolean)}.
-     * Also checks bounds to be smaller than {@link #MAX_TEXTURE_SIZE}.
+     * Also checks bounds to be smaller than {@link #getMaxTextureSize()}.
      *
      * @param data      raw (not decoded) image data as byte array
      * @param scaleType scaling option
@@ -197,15 +502,14 @@ public class BmpUtil {
      * @see ru.jango.j0util.BmpUtil.ScaleType#PROPORTIONAL_FIT
      * @see ru.jango.j0util.BmpUtil.ScaleType#FIT_XY
      */
-    public static Bitmap scale(byte[] data, ScaleType scaleType, int w, int h) {
-        final Bitmap ssBmp = subsample(data, ScaleType.PROPORTIONAL_CROP, w, h);
-        final PointF scales = resolveScale(scaleType, w, h, ssBmp.getWidth(), ssBmp.getHeight());
-        final Bitmap ret = Bitmap.createScaledBitmap(ssBmp,
-                (int) (ssBmp.getWidth() * scales.x),
-                (int) (ssBmp.getHeight() * scales.y), true);
-
-        if (ret != ssBmp) ssBmp.recycle();
-        return ret;
+    public static Bitmap scale(final byte[] data, final ScaleType scaleType, final int w, final int h) {
+        return decodeBudgetedQuietly(needsBudget() ? DecodePlan.scale(extractSize(data), scaleType, w, h, null) : null,
+                new Decoding<Bitmap>() {
+                    @Override
+                    public Bitmap run() {
+                        return scaleSubsampled(subsample(data, ScaleType.PROPORTIONAL_CROP, w, h), scaleType, w, h);
+                    }
+                });
     }
 
     /**
@@ -221,25 +525,26 @@ public class BmpUtil {
      * @see android.graphics.Bitmap#compress(android.graphics.Bitmap.CompressFormat, int, java.io.OutputStream)
      */
     public static byte[] bmpToByte(Bitmap bmp, Bitmap.CompressFormat format, int quality) {
-        final ByteArrayOutputStream stream = new ByteArrayOutputStream();
-        bmp.compress(format, quality, stream);
-
-        try {
-            stream.flush();
-            byte[] data = stream.toByteArray();
-            stream.close();
+        // buffer is not reused, so it's presized conservatively - as for JPEG, whatever the format
+        // is; lossless output just grows it a few times, instead of wasting up to 16MB for nothing
+        final ByteArrayBuffer buffer = new ByteArrayBuffer(estimateEncodedSize(bmp, Bitmap.CompressFormat.JPEG));
+        bmp.compress(format, quality, buffer);
 
-            return data;
-        } catch (IOException e) {
-            return null;
-        }
+        // buffer is local, so exactly filled array could be returned as is
+        return buffer.size() == buffer.getCapacity() ? buffer.getBuffer() : buffer.toByteArray();
     }
 
     /**
      * Looks through the byte array and calculates size of the picture inside it. Operation is very
-     * fast, as no actual decoding will be done.
+     * fast, as no actual decoding will be done: known formats are parsed by {@link ImageHeader},
+     * and only for others {@link android.graphics.BitmapFactory} is used.
+     *
+     * @see ru.jango.j0util.ImageHeader
      */
     public static Point extractSize(byte[] data) {
+        final ImageHeader header = ImageHeader.parse(data);
+        if (header.isValid()) return new Point(header.getWidth(), header.getHeight());
+
         final BitmapFactory.Options ops = new BitmapFactory.Options();
         ops.inJustDecodeBounds = true;
         BitmapFactory.decodeByteArray(data, 0, data.length, ops);
@@ -247,132 +552,1498 @@ public class BmpUtil {
         return new Point(ops.outWidth, ops.outHeight);
     }
 
+    /**
+     * Generates {@link android.graphics.BitmapFactory.Options} for
+     * {@link #subsample(byte[], ru.jango.j0util.BmpUtil.ScaleType, int, int)} and friends: bounds
+     * are checked for {@link #getMaxTextureSize()} and the sampling factor is chosen with
+     * {@link #genBFOptions(ru.jango.j0util.BmpUtil.ScaleType, int, int, int, int)}.
+     *
+     * @param size source image size
+     */
+    protected static BitmapFactory.Options genSubsampleOptions(Point size, ScaleType scaleType, int w, int h) {
+        return genSubsampleOptions(size, scaleType, w, h, null);
+    }
+
+    /**
+     * Same as {@link #genSubsampleOptions(android.graphics.Point, ru.jango.j0util.BmpUtil.ScaleType, int, int)},
+     * but also takes a bitmap for decoding into from the pool.
+     *
+     * @param pool pool of bitmaps for reusing, may be NULL
+     * @see #genBFOptions(ru.jango.j0util.BmpUtil.ScaleType, int, int, int, int, BitmapPool)
+     */
+    protected static BitmapFactory.Options genSubsampleOptions(Point size, ScaleType scaleType,
+                                                               int w, int h, BitmapPool pool) {
+        final int max = getMaxTextureSize();
+        return genBFOptions(
+                (w >= max || h >= max) ? ScaleType.PROPORTIONAL_FIT : scaleType,
+                Math.min(w, max),
+                Math.min(h, max),
+                size.x, size.y, pool);
+    }
+
+    /**
+     * Same as {@link #genBFOptions(ru.jango.j0util.BmpUtil.ScaleType, int, int, int, int)}, but
+     * also sets {@link android.graphics.BitmapFactory.Options#inBitmap} to a suitable bitmap from
+     * the pool (if there is one).
+     *
+     * @param pool pool of bitmaps for reusing, may be NULL
+     * @see BitmapPool#applyTo(android.graphics.BitmapFactory.Options, int, int)
+     */
+    protected static BitmapFactory.Options genBFOptions(ScaleType scaleType, int destW, int destH,
+                                                        int srcW, int srcH, BitmapPool pool) {
+        final BitmapFactory.Options ops = genBFOptions(scaleType, destW, destH, srcW, srcH);
+        if (pool != null) pool.applyTo(ops, srcW, srcH);
+
+        return ops;
+    }
+
     /**
      * Generates sampling factor for BitmapFactory.Options.inSampleSize according
      * to the passed ScaleType.
+     *
+     * @see ru.jango.j0util.ScaleSolver#sampleSize(ru.jango.j0util.BmpUtil.ScaleType, int, int, int, int)
      */
     protected static BitmapFactory.Options genBFOptions(ScaleType scaleType, int destW, int destH, int srcW, int srcH) {
         final BitmapFactory.Options ops = new BitmapFactory.Options();
-        ops.inSampleSize = Math.max(1, (int) Math.ceil(1 / scaleType.resolveScale(destW, destH, srcW, srcH).x));
-        if (ops.inSampleSize == 1) return ops;
-
-        // 2^pow = ops.inSampleSize
-        double pow = Math.log(ops.inSampleSize) / Math.log(2);
-        // incPow == true, if ops.inSampleSize should be increased; by default it
-        // is decreased - look "Note" at the end of inSampleSize description
-        boolean incPow;
-
-        if (scaleType != ScaleType.PROPORTIONAL_CROP)
-            // incPow = true, if ops.inSampleSize is NOT a power of 2 (that is, pow is not integer)
-            incPow = (pow - Math.ceil(pow) + 1) > 0.00001;
-        else {
-            // square of the resulting image, if we scale it with increased ops.inSampleSize
-            int largeSquare = (int) (srcW * srcH / Math.pow((int) Math.ceil(pow), 2));
-            // square of the resulting image, if we scale it with ops.inSampleSize as is
-            int smallSquare = (int) (srcW * srcH / Math.pow((int) (Math.ceil(pow) - 1), 2));
-            // incPow = true, if resulting size after scaling with increased ops.inSampleSize is CLOSER to
-            // the target size, than resulting size after scaling without increasing ops.inSampleSize;
-            // and it is still bigger, than the target size (scaleType == PROPORTIONAL_CROP)
-            incPow = Math.abs(destH * destW - largeSquare) < Math.abs(destH * destW - smallSquare) &&
-                    destH * destW <= largeSquare;
-        }
-
-        // finally, increasing ops.inSampleSize if needed
-        if (incPow) ops.inSampleSize = (int) Math.pow(2, Math.ceil(pow));
+        ops.inSampleSize = ScaleSolver.sampleSize(scaleType, destW, destH, srcW, srcH);
         return ops;
     }
 
     //////////////////////////////////////////////////////////////////////////////////////////////
     //
-    //                      Other processing methods
+    //              Decoding from streams, files and file descriptors
     //
     //////////////////////////////////////////////////////////////////////////////////////////////
 
     /**
-     * More advanced scaling than simple
-     * {@link android.graphics.Bitmap#createScaledBitmap(android.graphics.Bitmap, int, int, boolean)}.
-     * <br /><br />
-     * <p/>
-     * Method will create totally new Bitmap, and the source Bitmap will stay safe
-     * ({@link android.graphics.Bitmap#recycle()} won't be called). So, if you don't need the source
-     * Bitmap after scaling, you should manually call {@link android.graphics.Bitmap#recycle()} for
-     * better memory usage.
-     *
-     * @param src       source image for scaling
-     * @param scaleType scaling option
-     * @param w         target image width
-     * @param h         target image height
-     * @return scaled image
+     * Same as {@link #isTooBig(byte[])}, but the raw image data is read from the stream.
      *
-     * @see #subsample(byte[], ru.jango.j0util.BmpUtil.ScaleType, int, int)
-     * @see #scale(byte[], ru.jango.j0util.BmpUtil.ScaleType, int, int)
-     * @see android.graphics.Bitmap#createScaledBitmap(android.graphics.Bitmap, int, int, boolean)
-     * @see android.graphics.Bitmap#recycle()
+     * @param in raw (not decoded) image data; stream would be reset back after reading the header
+     * @see #extractSize(java.io.InputStream)
      */
-    public static Bitmap scale(Bitmap src, ScaleType scaleType, int w, int h) {
-        final PointF scales = resolveScale(scaleType, w, h, src.getWidth(), src.getHeight());
+    public static boolean isTooBig(InputStream in) throws IOException {
+        final Point size = extractSize(in);
+        return isTooBig(size, getMaxTextureSize());
+    }
 
-        final Matrix m = new Matrix();
-        m.setScale(scales.x, scales.y);
-        return Bitmap.createBitmap(src, 0, 0, src.getWidth(), src.getHeight(), m, true);
+    /**
+     * Same as {@link #isTooBig(byte[])}, but the raw image data is read from the file.
+     */
+    public static boolean isTooBig(File file) {
+        final Point size = extractSize(file);
+        return isTooBig(size, getMaxTextureSize());
     }
 
     /**
-     * More advanced rotation than with help of {@link android.graphics.Matrix}. After rotation
-     * source image could be automatically scaled according to the passed <b>scaleType</b>; width and
-     * height of the source image will be treated as target width and height for scaling.
-     * <br /><br />
-     * <b>scaleType</b> could be NULL, than the image would be just rotated without any post scaling.
+     * Same as {@link #isTooBig(byte[])}, but the raw image data is read from the file descriptor.
+     */
+    public static boolean isTooBig(FileDescriptor fd) {
+        final Point size = extractSize(fd);
+        return isTooBig(size, getMaxTextureSize());
+    }
+
+    /**
+     * Same as {@link #extractSize(byte[])}, but only the image header is read from the stream.
      * <br /><br />
-     * Method will create totally new Bitmap, and the source Bitmap will stay safe
-     * ({@link android.graphics.Bitmap#recycle()} won't be called). So, if you don't need the source
-     * Bitmap after rotation, you should manually call {@link android.graphics.Bitmap#recycle()} for
-     * better memory usage.
-     *
-     * @param src       source image for rotation
-     * @param scaleType scaling option, may be NULL
-     * @param degrees   rotation angle in degrees
-     * @return rotated image
+     * <p/>
+     * Stream must support {@link java.io.InputStream#mark(int)} - it is marked before reading and
+     * reset back after that, so the same stream could be passed into the decoding methods. Not
+     * more than {@link #HEADER_MARK_LIMIT} bytes would be read.
      *
-     * @see android.graphics.Bitmap#recycle()
+     * @param in raw (not decoded) image data
+     * @throws IllegalArgumentException if the stream doesn't support marking
+     * @throws IOException if stream couldn't be reset back
+     * @see #HEADER_MARK_LIMIT
      */
-    public static Bitmap rotate(Bitmap src, ScaleType scaleType, int degrees) {
-        degrees = degrees % 360;
+    public static Point extractSize(InputStream in) throws IOException {
+        if (!in.markSupported())
+            throw new IllegalArgumentException("stream doesn't support mark/reset");
 
-        final Matrix m = new Matrix();
-        m.setRotate(degrees, src.getWidth() / 2, src.getHeight() / 2);
+        in.mark(HEADER_MARK_LIMIT);
+        final ImageHeader header = ImageHeader.parse(in);
+        in.reset();
+        if (header.isValid()) return new Point(header.getWidth(), header.getHeight());
 
-        if (scaleType != null) {
-            double radAngl = Math.toRadians(degrees);
-            int resultW = (int) (Math.abs(src.getWidth() * Math.cos(radAngl)) + Math.abs(src.getHeight() * Math.sin(radAngl)));
-            int resultH = (int) (Math.abs(src.getWidth() * Math.sin(radAngl)) + Math.abs(src.getHeight() * Math.cos(radAngl)));
+        final BitmapFactory.Options ops = new BitmapFactory.Options();
+        ops.inJustDecodeBounds = true;
 
-            final PointF scales = resolveScale(scaleType, src.getWidth(), src.getHeight(), resultW, resultH);
-            m.postScale(scales.x, scales.y);
-        }
+        in.mark(HEADER_MARK_LIMIT);
+        // BitmapFactory marks the stream by itself with a much smaller limit (and so breaks our
+        // mark); unmarkable wrapper makes it use its own buffer instead
+        BitmapFactory.decodeStream(new UnmarkableInputStream(in), null, ops);
+        in.reset();
 
-        return Bitmap.createBitmap(src, 0, 0, src.getWidth(), src.getHeight(), m, true);
+        return new Point(ops.outWidth, ops.outHeight);
     }
 
-    //////////////////////////////////////////////////////////////////////////////////////////////
-    //
-    //                      Other helper methods
-    //
-    //////////////////////////////////////////////////////////////////////////////////////////////
+    /**
+     * Same as {@link #extractSize(byte[])}, but only the image header is read from the file.
+     */
+    public static Point extractSize(File file) {
+        try {
+            final ImageHeader header = ImageHeader.parse(file);
+            if (header.isValid()) return new Point(header.getWidth(), header.getHeight());
+        } catch (IOException ignored) {
+            // let BitmapFactory handle it
+        }
+
+        final BitmapFactory.Options ops = new BitmapFactory.Options();
+        ops.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getAbsolutePath(), ops);
+
+        return new Point(ops.outWidth, ops.outHeight);
+    }
 
     /**
-     * Wrapper for {@link ru.jango.j0util.BmpUtil.ScaleType#resolveScale(int, int, int, int)}, witch
-     * also checks bounds for {@link #MAX_TEXTURE_SIZE}.
+     * Same as {@link #extractSize(byte[])}, but only the image header is read from the file
+     * descriptor. Descriptor's offset stays the same after reading.
      */
-    protected static PointF resolveScale(ScaleType scaleType, int destW, int destH, int srcW, int srcH) {
-        destW = Math.min(destW, MAX_TEXTURE_SIZE);
-        destH = Math.min(destH, MAX_TEXTURE_SIZE);
+    public static Point extractSize(FileDescriptor fd) {
+        final BitmapFactory.Options ops = new BitmapFactory.Options();
+        ops.inJustDecodeBounds = true;
+        BitmapFactory.decodeFileDescriptor(fd, null, ops);
 
-        PointF scales = scaleType.resolveScale(destW, destH, srcW, srcH);
-        if (srcW * scales.x > MAX_TEXTURE_SIZE || srcH * scales.y > MAX_TEXTURE_SIZE)
-            scales = ScaleType.PROPORTIONAL_FIT.resolveScale(destW, destH, srcW, srcH);
+        return new Point(ops.outWidth, ops.outHeight);
+    }
 
-        return scales;
+    /**
+     * Same as {@link #subsample(byte[], ru.jango.j0util.BmpUtil.ScaleType, int, int)}, but the
+     * image is decoded right from the stream, so the whole raw image data never gets into memory.
+     * <br /><br />
+     * <p/>
+     * If the stream doesn't support {@link java.io.InputStream#mark(int)}, it would be wrapped
+     * into {@link java.io.BufferedInputStream}. Stream is read till the end, but not closed.
+     *
+     * @param in        raw (not decoded) image data
+     * @param scaleType scaling option
+     * @param w         target width
+     * @param h         target height
+     * @return decoded and scaled bitmap
+     * @see #extractSize(java.io.InputStream)
+     */
+    public static Bitmap subsample(InputStream in, ScaleType scaleType, int w, int h) throws IOException {
+        final InputStream markable = in.markSupported() ? in : new BufferedInputStream(in, STREAM_BUFFER_SIZE);
+        final Point size = extractSize(markable);
+        final BitmapFactory.Options ops = genSubsampleOptions(size, scaleType, w, h);
+
+        return decodeBudgeted(DecodePlan.subsample(size, scaleType, w, h, null), new Decoding<Bitmap>() {
+            @Override
+            public Bitmap run() {
+                return BitmapFactory.decodeStream(markable, null, ops);
+            }
+        });
+    }
+
+    /**
+     * Same as {@link #subsample(byte[], ru.jango.j0util.BmpUtil.ScaleType, int, int)}, but the
+     * image is decoded right from the file, so the whole raw image data never gets into memory.
+     */
+    public static Bitmap subsample(final File file, ScaleType scaleType, int w, int h) {
+        final Point size = extractSize(file);
+        final BitmapFactory.Options ops = genSubsampleOptions(size, scaleType, w, h);
+
+        return decodeBudgetedQuietly(DecodePlan.subsample(size, scaleType, w, h, null), new Decoding<Bitmap>() {
+            @Override
+            public Bitmap run() {
+                return BitmapFactory.decodeFile(file.getAbsolutePath(), ops);
+            }
+        });
+    }
+
+    /**
+     * Same as {@link #subsample(byte[], ru.jango.j0util.BmpUtil.ScaleType, int, int)}, but the
+     * image is decoded right from the file descriptor, so the whole raw image data never gets
+     * into memory. Descriptor should be seekable (a regular file, not a pipe or socket).
+     */
+    public static Bitmap subsample(final FileDescriptor fd, ScaleType scaleType, int w, int h) {
+        final Point size = extractSize(fd);
+        final BitmapFactory.Options ops = genSubsampleOptions(size, scaleType, w, h);
+
+        return decodeBudgetedQuietly(DecodePlan.subsample(size, scaleType, w, h, null), new Decoding<Bitmap>() {
+            @Override
+            public Bitmap run() {
+                return BitmapFactory.decodeFileDescriptor(fd, null, ops);
+            }
+        });
+    }
+
+    /**
+     * Same as {@link #scale(byte[], ru.jango.j0util.BmpUtil.ScaleType, int, int)}, but the
+     * image is decoded right from the stream.
+     *
+     * @see #subsample(java.io.InputStream, ru.jango.j0util.BmpUtil.ScaleType, int, int)
+     */
+    public static Bitmap scale(InputStream in, final ScaleType scaleType, final int w, final int h) throws IOException {
+        final InputStream markable = in.markSupported() ? in : new BufferedInputStream(in, STREAM_BUFFER_SIZE);
+        return decodeBudgeted(needsBudget() ? DecodePlan.scale(extractSize(markable), scaleType, w, h, null) : null,
+                new Decoding<Bitmap>() {
+                    @Override
+                    public Bitmap run() throws IOException {
+                        return scaleSubsampled(subsample(markable, ScaleType.PROPORTIONAL_CROP, w, h), scaleType, w, h);
+                    }
+                });
+    }
+
+    /**
+     * Same as {@link #scale(byte[], ru.jango.j0util.BmpUtil.ScaleType, int, int)}, but the
+     * image is decoded right from the file.
+     *
+     * @see #subsample(java.io.File, ru.jango.j0util.BmpUtil.ScaleType, int, int)
+     */
+    public static Bitmap scale(final File file, final ScaleType scaleType, final int w, final int h) {
+        return decodeBudgetedQuietly(needsBudget() ? DecodePlan.scale(extractSize(file), scaleType, w, h, null) : null,
+                new Decoding<Bitmap>() {
+                    @Override
+                    public Bitmap run() {
+                        return scaleSubsampled(subsample(file, ScaleType.PROPORTIONAL_CROP, w, h), scaleType, w, h);
+                    }
+                });
+    }
+
+    /**
+     * Same as {@link #scale(byte[], ru.jango.j0util.BmpUtil.ScaleType, int, int)}, but the
+     * image is decoded right from the file descriptor.
+     *
+     * @see #subsample(java.io.FileDescriptor, ru.jango.j0util.BmpUtil.ScaleType, int, int)
+     */
+    public static Bitmap scale(final FileDescriptor fd, final ScaleType scaleType, final int w, final int h) {
+        return decodeBudgetedQuietly(needsBudget() ? DecodePlan.scale(extractSize(fd), scaleType, w, h, null) : null,
+                new Decoding<Bitmap>() {
+                    @Override
+                    public Bitmap run() {
+                        return scaleSubsampled(subsample(fd, ScaleType.PROPORTIONAL_CROP, w, h), scaleType, w, h);
+                    }
+                });
+    }
+
+    /**
+     * Same as {@link #subsampleToMaxSize(byte[])}, but works with streams: raw image data is read
+     * from <b>in</b> and the result is written into <b>out</b>. If the image is small enough, data
+     * is just copied.
+     * <br /><br />
+     * <p/>
+     * Streams are not closed.
+     *
+     * @param in  raw (not decoded) image data
+     * @param out stream for the raw image data with fixed dimensions
+     * @return true, if the image was subsampled; false, if it was copied as is
+     * @see #subsampleToMaxSize(byte[])
+     */
+    public static boolean subsampleToMaxSize(InputStream in, OutputStream out) throws IOException {
+        if (!in.markSupported()) in = new BufferedInputStream(in, STREAM_BUFFER_SIZE);
+        return subsampleToMaxSize(in, out, Bitmap.CompressFormat.PNG, 100);
+    }
+
+    /**
+     * Same as {@link #subsampleToMaxSize(java.io.InputStream, java.io.OutputStream)}, but
+     * format-aware like {@link #subsampleToMaxSize(byte[], int)}.
+     *
+     * @param jpegQuality compress quality for JPEG images, 0-100
+     */
+    public static boolean subsampleToMaxSize(InputStream in, OutputStream out, int jpegQuality) throws IOException {
+        if (!in.markSupported()) in = new BufferedInputStream(in, STREAM_BUFFER_SIZE);
+
+        in.mark(HEADER_MARK_LIMIT);
+        final ImageHeader header = ImageHeader.parse(in);
+        in.reset();
+
+        final Bitmap.CompressFormat format = compressFormatFor(header.getFormat());
+        return subsampleToMaxSize(in, out, format, format == Bitmap.CompressFormat.JPEG ? jpegQuality : 100);
+    }
+
+    private static boolean subsampleToMaxSize(final InputStream in, final OutputStream out,
+                                              final Bitmap.CompressFormat format, final int quality) throws IOException {
+        final Point size = extractSize(in);
+        final BitmapFactory.Options ops = genBFOptions(ScaleType.PROPORTIONAL_FIT,
+                getMaxTextureSize(), getMaxTextureSize(), size.x, size.y);
+
+        if (ops.inSampleSize == 1) {
+            copy(in, out);
+            return false;
+        }
+
+        return decodeBudgeted(planToMaxSize(size, getMaxTextureSize()), new Decoding<Boolean>() {
+            @Override
+            public Boolean run() {
+                final Bitmap bmp = BitmapFactory.decodeStream(in, null, ops);
+                bmp.compress(format, quality, out);
+                bmp.recycle();
+
+                return Boolean.TRUE;
+            }
+        });
+    }
+
+    /**
+     * Same as {@link #subsampleToMaxSize(java.io.InputStream, java.io.OutputStream)}, but raw
+     * image data is read from the file.
+     */
+    public static boolean subsampleToMaxSize(File file, OutputStream out) throws IOException {
+        return subsampleToMaxSize(file, out, Bitmap.CompressFormat.PNG, 100);
+    }
+
+    /**
+     * Same as {@link #subsampleToMaxSize(java.io.File, java.io.OutputStream)}, but format-aware
+     * like {@link #subsampleToMaxSize(byte[], int)}.
+     *
+     * @param jpegQuality compress quality for JPEG images, 0-100
+     */
+    public static boolean subsampleToMaxSize(File file, OutputStream out, int jpegQuality) throws IOException {
+        final Bitmap.CompressFormat format = compressFormatFor(ImageHeader.parse(file).getFormat());
+        return subsampleToMaxSize(file, out, format, format == Bitmap.CompressFormat.JPEG ? jpegQuality : 100);
+    }
+
+    private static boolean subsampleToMaxSize(final File file, final OutputStream out,
+                                              final Bitmap.CompressFormat format, final int quality) throws IOException {
+        final Point size = extractSize(file);
+        final BitmapFactory.Options ops = genBFOptions(ScaleType.PROPORTIONAL_FIT,
+                getMaxTextureSize(), getMaxTextureSize(), size.x, size.y);
+
+        if (ops.inSampleSize == 1) {
+            final InputStream in = new FileInputStream(file);
+            try { copy(in, out); }
+            finally { in.close(); }
+
+            return false;
+        }
+
+        return decodeBudgeted(planToMaxSize(size, getMaxTextureSize()), new Decoding<Boolean>() {
+            @Override
+            public Boolean run() {
+                final Bitmap bmp = BitmapFactory.decodeFile(file.getAbsolutePath(), ops);
+                bmp.compress(format, quality, out);
+                bmp.recycle();
+
+                return Boolean.TRUE;
+            }
+        });
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////
+    //
+    //              Decoding from image sources
+    //
+    //////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Same as {@link #isTooBig(byte[])}, but for any {@link ru.jango.j0util.ImageSource}.
+     */
+    public static boolean isTooBig(ImageSource source) throws IOException {
+        return isTooBig(source, getMaxTextureSize());
+    }
+
+    /**
+     * Same as {@link #isTooBig(ImageSource)}, but with the limit for this call only.
+     *
+     * @param maxSize maximum width and height in pixels
+     */
+    public static boolean isTooBig(ImageSource source, int maxSize) throws IOException {
+        return isTooBig(source.extractSize(), maxSize);
+    }
+
+    /**
+     * Same as {@link #extractSize(byte[])}, but for any {@link ru.jango.j0util.ImageSource}: only
+     * the image header is read.
+     *
+     * @see ru.jango.j0util.ImageSource#extractSize()
+     */
+    public static Point extractSize(ImageSource source) throws IOException {
+        return source.extractSize();
+    }
+
+    /**
+     * Same as {@link #subsample(byte[], ru.jango.j0util.BmpUtil.ScaleType, int, int)}, but for
+     * any {@link ru.jango.j0util.ImageSource}. For memory-mapped sources the file is decoded
+     * right from the mapped memory.
+     *
+     * @see ru.jango.j0util.ImageSource#map(java.io.File)
+     */
+    public static Bitmap subsample(ImageSource source, ScaleType scaleType, int w, int h) throws IOException {
+        return subsample(source, scaleType, w, h, null);
+    }
+
+    /**
+     * Same as {@link #subsample(byte[], ru.jango.j0util.BmpUtil.ScaleType, int, int, BitmapPool)},
+     * but for any {@link ru.jango.j0util.ImageSource}. Pool is not used for not repeatable sources
+     * (streams).
+     *
+     * @param pool pool of bitmaps for reusing, may be NULL
+     */
+    public static Bitmap subsample(ImageSource source, ScaleType scaleType, int w, int h,
+                                   BitmapPool pool) throws IOException {
+        return subsample(source, scaleType, w, h, ColorPolicy.ARGB_8888, pool);
+    }
+
+    /**
+     * Same as {@link #subsample(ImageSource, ru.jango.j0util.BmpUtil.ScaleType, int, int, BitmapPool)},
+     * but the bitmap config is chosen by the policy from the image header; for example, opaque
+     * images could be decoded into RGB_565 with half the memory.
+     *
+     * @param policy bitmap config choosing option
+     * @param pool   pool of bitmaps for reusing, may be NULL
+     * @see #estimateDecodedBytes(ImageSource, ru.jango.j0util.BmpUtil.ScaleType, int, int, ru.jango.j0util.BmpUtil.ColorPolicy)
+     */
+    public static Bitmap subsample(final ImageSource source, final ScaleType scaleType, final int w, final int h,
+                                   final ColorPolicy policy, BitmapPool pool) throws IOException {
+        final BitmapPool sourcePool = source.isRepeatable() ? pool : null;
+
+        final ImageHeader header = source.readHeader();
+        final Point size = header.isValid() ? new Point(header.getWidth(), header.getHeight()) : source.extractSize();
+        final DecodePlan plan = DecodePlan.subsample(size, scaleType, w, h, policy.resolveConfig(header));
+
+        return decodeBudgeted(plan, new Decoding<Bitmap>() {
+            @Override
+            public Bitmap run() throws IOException {
+                final BitmapFactory.Options ops = genSubsampleOptions(size, scaleType, w, h);
+                applyColorPolicy(ops, header, policy);
+                // after the config is chosen - pooled bitmap must have the same one
+                if (sourcePool != null) sourcePool.applyTo(ops, size.x, size.y);
+
+                return decode(source, ops, sourcePool);
+            }
+        });
+    }
+
+    /**
+     * Same as {@link #scale(ImageSource, ru.jango.j0util.BmpUtil.ScaleType, int, int, BitmapPool)},
+     * but the bitmap config is chosen by the policy. Scaled image has the same config, as the
+     * subsampled one.
+     *
+     * @param policy bitmap config choosing option
+     * @param pool   pool of bitmaps for reusing, may be NULL
+     * @see #subsample(ImageSource, ru.jango.j0util.BmpUtil.ScaleType, int, int, ru.jango.j0util.BmpUtil.ColorPolicy, BitmapPool)
+     */
+    public static Bitmap scale(final ImageSource source, final ScaleType scaleType, final int w, final int h,
+                               final ColorPolicy policy, final BitmapPool pool) throws IOException {
+        return decodeBudgeted(needsBudget() ? DecodePlan.scale(source, scaleType, w, h, policy) : null,
+                new Decoding<Bitmap>() {
+                    @Override
+                    public Bitmap run() throws IOException {
+                        final Bitmap ssBmp = subsample(source, ScaleType.PROPORTIONAL_CROP, w, h, policy, pool);
+                        return ssBmp == null ? null : scaleSubsampled(ssBmp, scaleType, w, h, pool);
+                    }
+                });
+    }
+
+    /**
+     * Returns how many bytes the bitmap from
+     * {@link #subsample(ImageSource, ru.jango.j0util.BmpUtil.ScaleType, int, int, ru.jango.j0util.BmpUtil.ColorPolicy, BitmapPool)}
+     * would take, so the memory could be budgeted before decoding. Only the header is read.
+     * Scaling methods need the memory for the resulting image also.
+     *
+     * @return byte count, or 0 if the image size couldn't be read
+     * @see ru.jango.j0util.MemoryBudget
+     */
+    public static long estimateDecodedBytes(ImageSource source, ScaleType scaleType, int w, int h,
+                                            ColorPolicy policy) throws IOException {
+        return DecodePlan.subsample(source, scaleType, w, h, policy).getSampledBytes();
+    }
+
+    /**
+     * Same as {@link #estimateDecodedBytes(ImageSource, ru.jango.j0util.BmpUtil.ScaleType, int, int, ru.jango.j0util.BmpUtil.ColorPolicy)},
+     * but for the already known image size and bitmap config.
+     *
+     * @param size source image size
+     */
+    public static long estimateDecodedBytes(Point size, ScaleType scaleType, int w, int h, Bitmap.Config config) {
+        return DecodePlan.subsample(size, scaleType, w, h, config).getSampledBytes();
+    }
+
+    /**
+     * Sets {@link android.graphics.BitmapFactory.Options#inPreferredConfig} and
+     * {@link android.graphics.BitmapFactory.Options#inDither} according to the policy.
+     */
+    protected static void applyColorPolicy(BitmapFactory.Options ops, ImageHeader header, ColorPolicy policy) {
+        ops.inPreferredConfig = policy.resolveConfig(header);
+        ops.inDither = policy == ColorPolicy.AUTO_DITHER && ops.inPreferredConfig == Bitmap.Config.RGB_565;
+    }
+
+    /**
+     * Same as {@link #scale(byte[], ru.jango.j0util.BmpUtil.ScaleType, int, int)}, but for any
+     * {@link ru.jango.j0util.ImageSource}.
+     */
+    public static Bitmap scale(final ImageSource source, final ScaleType scaleType,
+                               final int w, final int h) throws IOException {
+        return decodeBudgeted(needsBudget() ? DecodePlan.scale(source, scaleType, w, h, ColorPolicy.ARGB_8888) : null,
+                new Decoding<Bitmap>() {
+                    @Override
+                    public Bitmap run() throws IOException {
+                        final Bitmap ssBmp = subsample(source, ScaleType.PROPORTIONAL_CROP, w, h);
+                        return ssBmp == null ? null : scaleSubsampled(ssBmp, scaleType, w, h);
+                    }
+                });
+    }
+
+    /**
+     * Same as {@link #scale(byte[], ru.jango.j0util.BmpUtil.ScaleType, int, int, BitmapPool)},
+     * but for any {@link ru.jango.j0util.ImageSource}.
+     *
+     * @param pool pool of bitmaps for reusing, may be NULL
+     */
+    public static Bitmap scale(ImageSource source, ScaleType scaleType, int w, int h,
+                               BitmapPool pool) throws IOException {
+        return scale(source, scaleType, w, h, ColorPolicy.ARGB_8888, pool);
+    }
+
+    /**
+     * Same as {@link #scaleOriented(byte[], ru.jango.j0util.BmpUtil.ScaleType, int, int, int, BitmapPool)},
+     * but for any {@link ru.jango.j0util.ImageSource}.
+     *
+     * @param degrees additional clockwise rotation in degrees
+     * @param pool    pool of bitmaps for reusing, may be NULL
+     */
+    public static Bitmap scaleOriented(final ImageSource source, final ScaleType scaleType, final int w, final int h,
+                                       int degrees, BitmapPool pool) throws IOException {
+        final BitmapPool sourcePool = source.isRepeatable() ? pool : null;
+
+        final ImageHeader header = source.readHeader();
+        final Point size = header.isValid() ? new Point(header.getWidth(), header.getHeight()) : source.extractSize();
+        final Matrix m = genOrientationMatrix(header.getOrientation(), degrees);
+
+        return decodeBudgeted(planOriented(size, m, scaleType, w, h), new Decoding<Bitmap>() {
+            @Override
+            public Bitmap run() throws IOException {
+                final BitmapFactory.Options ops = genOrientedOptions(size, m, scaleType, w, h, sourcePool);
+                return transformSubsampled(decode(source, ops, sourcePool), m, scaleType, w, h, sourcePool);
+            }
+        });
+    }
+
+    /**
+     * Same as {@link #subsampleToMaxSize(java.io.InputStream, java.io.OutputStream, int)}, but
+     * for any {@link ru.jango.j0util.ImageSource}. Unlike the stream version, image that is small
+     * enough is not copied (source may be not readable as a stream) - false is returned and
+     * nothing is written.
+     *
+     * @param jpegQuality compress quality for JPEG images, 0-100
+     * @return true, if the image was subsampled and written into <b>out</b>
+     */
+    public static boolean subsampleToMaxSize(ImageSource source, OutputStream out, int jpegQuality) throws IOException {
+        return subsampleToMaxSize(source, out, jpegQuality, getMaxTextureSize());
+    }
+
+    /**
+     * Same as {@link #subsampleToMaxSize(ImageSource, java.io.OutputStream, int)}, but with the
+     * limit for this call only.
+     *
+     * @param jpegQuality compress quality for JPEG images, 0-100
+     * @param maxSize     maximum width and height in pixels
+     */
+    public static boolean subsampleToMaxSize(final ImageSource source, final OutputStream out, final int jpegQuality,
+                                             int maxSize) throws IOException {
+        final ImageHeader header = source.readHeader();
+        final Point size = header.isValid() ? new Point(header.getWidth(), header.getHeight()) : source.extractSize();
+        final BitmapFactory.Options ops = genBFOptions(ScaleType.PROPORTIONAL_FIT, maxSize, maxSize, size.x, size.y);
+        if (ops.inSampleSize == 1) return false;
+
+        return decodeBudgeted(planToMaxSize(size, maxSize), new Decoding<Boolean>() {
+            @Override
+            public Boolean run() throws IOException {
+                final Bitmap bmp = source.decode(ops);
+                if (bmp == null) return Boolean.FALSE;
+
+                final Bitmap.CompressFormat format = compressFormatFor(header.getFormat());
+                bmp.compress(format, format == Bitmap.CompressFormat.JPEG ? jpegQuality : 100, out);
+                bmp.recycle();
+
+                return Boolean.TRUE;
+            }
+        });
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////
+    //
+    //              Progressive decoding
+    //
+    //////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Same as {@link #subsample(ImageSource, ru.jango.j0util.BmpUtil.ScaleType, int, int)}, but
+     * first delivers a preview into the callback, so something could be shown much earlier:
+     * <br />
+     * - if the image has an embedded EXIF thumbnail with the same proportions, it is decoded -
+     * that requires reading only a few kilobytes from the beginning of the file <br />
+     * - otherwise the image is decoded with {@link #PREVIEW_SAMPLE_FACTOR} times larger sample
+     * size (JPEG decoder does that several times faster)
+     * <br /><br />
+     * <p/>
+     * The final image is exactly the same, as of the usual subsampling. Preview is skipped for
+     * small images, and for streams without the EXIF thumbnail (stream can't be decoded twice).
+     *
+     * @param source    raw (not decoded) image data
+     * @param scaleType scaling option
+     * @param w         target width
+     * @param h         target height
+     * @param callback  receives the preview
+     * @return decoded and scaled bitmap
+     */
+    public static Bitmap subsampleProgressive(final ImageSource source, ScaleType scaleType, int w, int h,
+                                              PreviewCallback callback) throws IOException {
+        final ImageHeader header = source.readHeader();
+        final Point size = header.isValid() ? new Point(header.getWidth(), header.getHeight()) : source.extractSize();
+        final BitmapFactory.Options ops = genSubsampleOptions(size, scaleType, w, h);
+
+        final int sample = Math.max(1, ops.inSampleSize);
+        if (((long) size.x / sample) * (size.y / sample) > PREVIEW_MIN_PIXELS) {
+            Bitmap preview = decodeThumbnail(source, header);
+            if (preview != null) callback.onPreview(preview, true);
+            else if (source.isRepeatable()) {
+                final int previewW = Math.max(1, w / PREVIEW_SAMPLE_FACTOR);
+                final int previewH = Math.max(1, h / PREVIEW_SAMPLE_FACTOR);
+                final BitmapFactory.Options previewOps = genSubsampleOptions(size, scaleType, previewW, previewH);
+                previewOps.inSampleSize = Math.max(previewOps.inSampleSize, sample * PREVIEW_SAMPLE_FACTOR);
+                previewOps.inPreferredConfig = Bitmap.Config.RGB_565;
+
+                // sample size is only increased above, so the plan is never too small
+                final DecodePlan previewPlan = DecodePlan.subsample(size, scaleType, previewW, previewH,
+                        Bitmap.Config.RGB_565);
+                preview = decodeBudgeted(previewPlan, new Decoding<Bitmap>() {
+                    @Override
+                    public Bitmap run() throws IOException {
+                        return source.decode(previewOps);
+                    }
+                });
+                if (preview != null) callback.onPreview(preview, false);
+            }
+        }
+
+        return decodeBudgeted(DecodePlan.subsample(size, scaleType, w, h, null), new Decoding<Bitmap>() {
+            @Override
+            public Bitmap run() throws IOException {
+                return source.decode(ops);
+            }
+        });
+    }
+
+    /**
+     * Same as {@link #subsampleProgressive(ImageSource, ru.jango.j0util.BmpUtil.ScaleType, int, int, ru.jango.j0util.BmpUtil.PreviewCallback)}
+     * for the byte array.
+     */
+    public static Bitmap subsampleProgressive(byte[] data, ScaleType scaleType, int w, int h,
+                                              PreviewCallback callback) {
+        try {
+            return subsampleProgressive(ImageSource.of(data), scaleType, w, h, callback);
+        } catch (IOException e) {
+            // byte array source doesn't throw
+            return null;
+        }
+    }
+
+    /**
+     * Same as {@link #subsampleProgressive(ImageSource, ru.jango.j0util.BmpUtil.ScaleType, int, int, ru.jango.j0util.BmpUtil.PreviewCallback)}
+     * for the file.
+     */
+    public static Bitmap subsampleProgressive(File file, ScaleType scaleType, int w, int h,
+                                              PreviewCallback callback) throws IOException {
+        return subsampleProgressive(ImageSource.of(file), scaleType, w, h, callback);
+    }
+
+    /**
+     * Decodes the embedded EXIF thumbnail, if it has the same proportions, as the image.
+     *
+     * @return thumbnail, or NULL
+     */
+    private static Bitmap decodeThumbnail(ImageSource source, ImageHeader header) throws IOException {
+        if (!header.hasThumbnail()) return null;
+
+        final byte[] data = source.read(header.getThumbnailOffset(), header.getThumbnailLength());
+        if (data == null) return null;
+
+        final Bitmap thumbnail = BitmapFactory.decodeByteArray(data, 0, data.length);
+        if (thumbnail == null) return null;
+
+        final float ratio = (float) header.getWidth() / header.getHeight();
+        final float thumbnailRatio = (float) thumbnail.getWidth() / thumbnail.getHeight();
+        if (Math.abs(ratio / thumbnailRatio - 1) <= PREVIEW_RATIO_TOLERANCE) return thumbnail;
+
+        thumbnail.recycle();
+        return null;
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////
+    //
+    //              Encoding
+    //
+    //////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Compresses image right into the stream, without any intermediate byte array (unlike
+     * {@link #bmpToByte(android.graphics.Bitmap, android.graphics.Bitmap.CompressFormat, int)}).
+     * Stream is not closed.
+     * <br /><br />
+     * <p/>
+     * <b>ATTENTION</b>: image conversion is done by compression, witch is very long running operation.
+     *
+     * @param bmp     original bitmap
+     * @param format  compress format
+     * @param quality compress quality
+     * @param out     where to write the compressed image
+     * @return true, if the image was successfully compressed
+     * @see android.graphics.Bitmap#compress(android.graphics.Bitmap.CompressFormat, int, java.io.OutputStream)
+     */
+    public static boolean encode(Bitmap bmp, Bitmap.CompressFormat format, int quality, OutputStream out) {
+        return bmp.compress(format, quality, out);
+    }
+
+    /**
+     * Same as {@link #encode(android.graphics.Bitmap, android.graphics.Bitmap.CompressFormat, int, java.io.OutputStream)},
+     * but writes into the channel from its current position. Channel is not closed.
+     */
+    public static boolean encode(Bitmap bmp, Bitmap.CompressFormat format, int quality,
+                                 FileChannel channel) throws IOException {
+        // not closed - that would close the channel
+        final OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), STREAM_BUFFER_SIZE);
+        final boolean result = bmp.compress(format, quality, out);
+        out.flush();
+
+        return result;
+    }
+
+    /**
+     * Same as {@link #encode(android.graphics.Bitmap, android.graphics.Bitmap.CompressFormat, int, java.io.OutputStream)},
+     * but writes into the reusable buffer. Buffer is reset before writing, so after the call it
+     * contains only the compressed image; read it with {@link ByteArrayBuffer#getBuffer()} and
+     * {@link ByteArrayBuffer#size()}.
+     */
+    public static boolean encode(Bitmap bmp, Bitmap.CompressFormat format, int quality, ByteArrayBuffer buffer) {
+        buffer.reset();
+        buffer.ensureCapacity(estimateEncodedSize(bmp, format));
+        return bmp.compress(format, quality, buffer);
+    }
+
+    /**
+     * Converts image into JPEG with the best quality, witch fits into <b>maxBytes</b>; image is
+     * scaled down, if even the minimal quality is too large. For many images better reuse one
+     * {@link ru.jango.j0util.JpegSizeEncoder} - it keeps the output buffers and reports the
+     * details.
+     *
+     * @param bmp      original bitmap, is not recycled
+     * @param maxBytes size limit for the compressed image
+     * @return compressed image, or NULL if it couldn't fit into the limit
+     * @see ru.jango.j0util.JpegSizeEncoder
+     */
+    public static byte[] bmpToJpeg(Bitmap bmp, int maxBytes) {
+        final JpegSizeEncoder.Result result = new JpegSizeEncoder().encode(bmp, maxBytes);
+        return result.fits() ? result.toByteArray() : null;
+    }
+
+    /**
+     * Chooses format for the re-encoded image: JPEG stays JPEG (PNG would be several times
+     * larger), everything else becomes lossless PNG, so transparency is kept.
+     *
+     * @param format format of the original image
+     * @see ru.jango.j0util.ImageHeader#getFormat()
+     */
+    protected static Bitmap.CompressFormat compressFormatFor(ImageHeader.Format format) {
+        return format == ImageHeader.Format.JPEG ? Bitmap.CompressFormat.JPEG : Bitmap.CompressFormat.PNG;
+    }
+
+    /**
+     * Rough size of the compressed image: about 2 bits per pixel for JPEG, and a half of the raw
+     * size for others. It's only an initial buffer capacity, so it doesn't have to be precise;
+     * the larger estimate is worth it only for the reusable buffers.
+     *
+     * @see #encode(android.graphics.Bitmap, android.graphics.Bitmap.CompressFormat, int, ByteArrayBuffer)
+     */
+    private static int estimateEncodedSize(Bitmap bmp, Bitmap.CompressFormat format) {
+        final long pixels = (long) bmp.getWidth() * bmp.getHeight();
+        final long estimate = format == Bitmap.CompressFormat.JPEG ? pixels / 4 : pixels * 2;
+        return (int) Math.max(1024, Math.min(estimate, 16 * 1024 * 1024));
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////
+    //
+    //              Decoding and processing with bitmap pool
+    //
+    //////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Same as {@link #subsample(byte[], ru.jango.j0util.BmpUtil.ScaleType, int, int)}, but the
+     * image is decoded into a bitmap from the pool, if there is a suitable one. Resulting bitmap
+     * is mutable, so it could be put back into the pool, when it's not needed any more.
+     *
+     * @param pool pool of bitmaps for reusing, may be NULL
+     * @see BitmapPool
+     */
+    public static Bitmap subsample(final byte[] data, final ScaleType scaleType, final int w, final int h,
+                                   final BitmapPool pool) {
+        final Point size = extractSize(data);
+        return decodeBudgetedQuietly(DecodePlan.subsample(size, scaleType, w, h, null), new Decoding<Bitmap>() {
+            @Override
+            public Bitmap run() {
+                // bitmap is taken from the pool only when the budget is acquired
+                return decode(data, genSubsampleOptions(size, scaleType, w, h, pool), pool);
+            }
+        });
+    }
+
+    /**
+     * Same as {@link #subsample(java.io.File, ru.jango.j0util.BmpUtil.ScaleType, int, int)}, but
+     * the image is decoded into a bitmap from the pool, if there is a suitable one.
+     *
+     * @param pool pool of bitmaps for reusing, may be NULL
+     * @see #subsample(byte[], ru.jango.j0util.BmpUtil.ScaleType, int, int, BitmapPool)
+     */
+    public static Bitmap subsample(final File file, final ScaleType scaleType, final int w, final int h,
+                                   final BitmapPool pool) {
+        final Point size = extractSize(file);
+        return decodeBudgetedQuietly(DecodePlan.subsample(size, scaleType, w, h, null), new Decoding<Bitmap>() {
+            @Override
+            public Bitmap run() {
+                // bitmap is taken from the pool only when the budget is acquired
+                return decode(file, genSubsampleOptions(size, scaleType, w, h, pool), pool);
+            }
+        });
+    }
+
+    /**
+     * Same as {@link #scale(byte[], ru.jango.j0util.BmpUtil.ScaleType, int, int)}, but both the
+     * subsampled and the resulting bitmaps are taken from the pool; the subsampled one is put back
+     * into the pool after scaling.
+     *
+     * @param pool pool of bitmaps for reusing, may be NULL
+     * @see BitmapPool
+     */
+    public static Bitmap scale(final byte[] data, final ScaleType scaleType, final int w, final int h,
+                               final BitmapPool pool) {
+        return decodeBudgetedQuietly(needsBudget() ? DecodePlan.scale(extractSize(data), scaleType, w, h, null) : null,
+                new Decoding<Bitmap>() {
+                    @Override
+                    public Bitmap run() {
+                        return scaleSubsampled(subsample(data, ScaleType.PROPORTIONAL_CROP, w, h, pool),
+                                scaleType, w, h, pool);
+                    }
+                });
+    }
+
+    /**
+     * Same as {@link #scale(java.io.File, ru.jango.j0util.BmpUtil.ScaleType, int, int)}, but both
+     * the subsampled and the resulting bitmaps are taken from the pool.
+     *
+     * @param pool pool of bitmaps for reusing, may be NULL
+     * @see #scale(byte[], ru.jango.j0util.BmpUtil.ScaleType, int, int, BitmapPool)
+     */
+    public static Bitmap scale(final File file, final ScaleType scaleType, final int w, final int h,
+                               final BitmapPool pool) {
+        return decodeBudgetedQuietly(needsBudget() ? DecodePlan.scale(extractSize(file), scaleType, w, h, null) : null,
+                new Decoding<Bitmap>() {
+                    @Override
+                    public Bitmap run() {
+                        return scaleSubsampled(subsample(file, ScaleType.PROPORTIONAL_CROP, w, h, pool),
+                                scaleType, w, h, pool);
+                    }
+                });
+    }
+
+    /**
+     * Same as {@link #scale(android.graphics.Bitmap, ru.jango.j0util.BmpUtil.ScaleType, int, int)},
+     * but the image is drawn into a bitmap from the pool. The source bitmap stays untouched.
+     *
+     * @param pool pool of bitmaps for reusing, may be NULL
+     * @see BitmapPool
+     */
+    public static Bitmap scale(Bitmap src, ScaleType scaleType, int w, int h, BitmapPool pool) {
+        final PointF scales = resolveScale(scaleType, w, h, src.getWidth(), src.getHeight());
+
+        final Matrix m = new Matrix();
+        m.setScale(scales.x, scales.y);
+        return drawTransformed(src, m, pool);
+    }
+
+    /**
+     * Same as {@link #rotate(android.graphics.Bitmap, ru.jango.j0util.BmpUtil.ScaleType, int)},
+     * but the image is drawn into a bitmap from the pool. The source bitmap stays untouched.
+     *
+     * @param pool pool of bitmaps for reusing, may be NULL
+     * @see BitmapPool
+     */
+    public static Bitmap rotate(Bitmap src, ScaleType scaleType, int degrees, BitmapPool pool) {
+        return drawTransformed(src, genRotationMatrix(src, scaleType, degrees), pool);
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////
+    //
+    //              Orientation aware decoding
+    //
+    //////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Decodes image, scales it and rotates according to its EXIF orientation in one pass.
+     * Scaling, rotation and mirroring are folded into one {@link android.graphics.Matrix}, so
+     * only the subsampled and the resulting bitmaps exist at the same time (unlike
+     * {@link #scale(byte[], ru.jango.j0util.BmpUtil.ScaleType, int, int)} followed by
+     * {@link #rotate(android.graphics.Bitmap, ru.jango.j0util.BmpUtil.ScaleType, int)}).
+     * <br /><br />
+     * <p/>
+     * <b>scaleType</b>, <b>w</b> and <b>h</b> are applied to the already oriented image, that
+     * is to its rotated bounds. Also checks bounds to be smaller than {@link #getMaxTextureSize()}.
+     *
+     * @param data      raw (not decoded) image data as byte array
+     * @param scaleType scaling option
+     * @param w         target width
+     * @param h         target height
+     * @return decoded, oriented and scaled bitmap
+     * @see ru.jango.j0util.ImageHeader#getOrientation()
+     */
+    public static Bitmap scaleOriented(byte[] data, ScaleType scaleType, int w, int h) {
+        return scaleOriented(data, scaleType, w, h, 0, null);
+    }
+
+    /**
+     * Same as {@link #scaleOriented(byte[], ru.jango.j0util.BmpUtil.ScaleType, int, int)}, but
+     * also rotates the image after applying the EXIF orientation and could reuse bitmaps from
+     * the pool.
+     *
+     * @param degrees additional clockwise rotation in degrees
+     * @param pool    pool of bitmaps for reusing, may be NULL
+     */
+    public static Bitmap scaleOriented(final byte[] data, final ScaleType scaleType, final int w, final int h,
+                                       int degrees, final BitmapPool pool) {
+        final ImageHeader header = ImageHeader.parse(data);
+        final Point size = header.isValid() ? new Point(header.getWidth(), header.getHeight()) : extractSize(data);
+        final Matrix m = genOrientationMatrix(header.getOrientation(), degrees);
+
+        return decodeBudgetedQuietly(planOriented(size, m, scaleType, w, h), new Decoding<Bitmap>() {
+            @Override
+            public Bitmap run() {
+                final BitmapFactory.Options ops = genOrientedOptions(size, m, scaleType, w, h, pool);
+                return transformSubsampled(decode(data, ops, pool), m, scaleType, w, h, pool);
+            }
+        });
+    }
+
+    /**
+     * Same as {@link #scaleOriented(byte[], ru.jango.j0util.BmpUtil.ScaleType, int, int)}, but
+     * the image is read from the file.
+     */
+    public static Bitmap scaleOriented(File file, ScaleType scaleType, int w, int h) {
+        return scaleOriented(file, scaleType, w, h, 0, null);
+    }
+
+    /**
+     * Same as {@link #scaleOriented(byte[], ru.jango.j0util.BmpUtil.ScaleType, int, int, int, BitmapPool)},
+     * but the image is read from the file.
+     *
+     * @param degrees additional clockwise rotation in degrees
+     * @param pool    pool of bitmaps for reusing, may be NULL
+     */
+    public static Bitmap scaleOriented(final File file, final ScaleType scaleType, final int w, final int h,
+                                       int degrees, final BitmapPool pool) {
+        final ImageHeader header = new ImageHeader();
+        try {
+            header.read(file);
+        } catch (IOException e) {
+            header.clear();
+        }
+        final Point size = header.isValid() ? new Point(header.getWidth(), header.getHeight()) : extractSize(file);
+        final Matrix m = genOrientationMatrix(header.getOrientation(), degrees);
+
+        return decodeBudgetedQuietly(planOriented(size, m, scaleType, w, h), new Decoding<Bitmap>() {
+            @Override
+            public Bitmap run() {
+                final BitmapFactory.Options ops = genOrientedOptions(size, m, scaleType, w, h, pool);
+                return transformSubsampled(decode(file, ops, pool), m, scaleType, w, h, pool);
+            }
+        });
+    }
+
+    /**
+     * Generates matrix, that applies EXIF orientation and then rotates by the passed angle.
+     *
+     * @param orientation EXIF orientation tag value
+     * @param degrees     additional clockwise rotation in degrees
+     * @see ru.jango.j0util.ImageHeader#getRotationDegrees(int)
+     * @see ru.jango.j0util.ImageHeader#isMirrored(int)
+     */
+    protected static Matrix genOrientationMatrix(int orientation, int degrees) {
+        final Matrix m = new Matrix();
+        m.setRotate(ImageHeader.getRotationDegrees(orientation));
+        if (ImageHeader.isMirrored(orientation)) m.postScale(-1, 1);
+        if (degrees % 360 != 0) m.postRotate(degrees % 360);
+
+        return m;
+    }
+
+    /**
+     * Generates options for subsampling the image before transforming it with the matrix: the
+     * subsampled image is not smaller, than needed for the final one.
+     *
+     * @param size source image size
+     * @param m    orientation matrix without scaling
+     */
+    private static BitmapFactory.Options genOrientedOptions(Point size, Matrix m, ScaleType scaleType,
+                                                            int w, int h, BitmapPool pool) {
+        final Point target = genOrientedTarget(size, m, scaleType, w, h);
+        return genSubsampleOptions(size, ScaleType.PROPORTIONAL_CROP, target.x, target.y, pool);
+    }
+
+    /**
+     * Calculates the not rotated size, witch the image should be subsampled to before
+     * transforming it with the matrix.
+     */
+    private static Point genOrientedTarget(Point size, Matrix m, ScaleType scaleType, int w, int h) {
+        final PointF scales = resolveTransformedScale(size.x, size.y, m, scaleType, w, h);
+        // scales are for the rotated axes, so take the larger one for both
+        final float scale = Math.max(scales.x, scales.y);
+
+        return new Point((int) Math.ceil(size.x * scale), (int) Math.ceil(size.y * scale));
+    }
+
+    /**
+     * Adds scaling to the orientation matrix and draws subsampled image with it. Subsampled image
+     * is recycled (or put into the pool), if it is not returned.
+     */
+    private static Bitmap transformSubsampled(Bitmap ssBmp, Matrix m, ScaleType scaleType,
+                                              int w, int h, BitmapPool pool) {
+        if (ssBmp == null) return null;
+
+        final PointF scales = resolveTransformedScale(ssBmp.getWidth(), ssBmp.getHeight(), m, scaleType, w, h);
+        m.postScale(scales.x, scales.y);
+        if (m.isIdentity()) return ssBmp;
+
+        final Bitmap ret = drawTransformed(ssBmp, m, pool);
+        releaseBitmap(pool, ssBmp);
+        return ret;
+    }
+
+    /**
+     * Resolves scale for the image, transformed with the matrix: scaling option is applied to the
+     * transformed bounds.
+     */
+    private static PointF resolveTransformedScale(int srcW, int srcH, Matrix m, ScaleType scaleType, int w, int h) {
+        final RectF bounds = new RectF(0, 0, srcW, srcH);
+        m.mapRect(bounds);
+
+        return resolveScale(scaleType, w, h,
+                Math.max(1, Math.round(bounds.width())), Math.max(1, Math.round(bounds.height())));
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////
+    //
+    //              High quality resampling
+    //
+    //////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Same as {@link #scale(android.graphics.Bitmap, ru.jango.j0util.BmpUtil.ScaleType, int, int)},
+     * but the image is scaled with the {@link ru.jango.j0util.Resampler}, so the filter could be
+     * chosen. Resulting bitmap is always {@link android.graphics.Bitmap.Config#ARGB_8888}; the
+     * source bitmap stays untouched.
+     * <br /><br />
+     * <p/>
+     * Nothing is decoded here, so the memory budget is not acquired, though the pixel buffers
+     * take several times more, than the source bitmap; use
+     * {@link #resample(byte[], ru.jango.j0util.BmpUtil.ScaleType, int, int, Resampler)} to have
+     * them budgeted.
+     *
+     * @param resampler resampler with the needed filter
+     * @see ru.jango.j0util.Resampler.Filter
+     * @see ru.jango.j0util.DecodePlan#resample(android.graphics.Point, ru.jango.j0util.BmpUtil.ScaleType, int, int)
+     */
+    public static Bitmap resample(Bitmap src, ScaleType scaleType, int w, int h, Resampler resampler) {
+        final int srcW = src.getWidth();
+        final int srcH = src.getHeight();
+        final PointF scales = resolveScale(scaleType, w, h, srcW, srcH);
+        final int dstW = Math.max(1, Math.round(srcW * scales.x));
+        final int dstH = Math.max(1, Math.round(srcH * scales.y));
+
+        final int[] pixels = new int[srcW * srcH];
+        src.getPixels(pixels, 0, srcW, 0, 0, srcW, srcH);
+        final int[] resampled = resampler.resample(pixels, srcW, srcH, dstW, dstH);
+
+        final Bitmap ret = Bitmap.createBitmap(dstW, dstH, Bitmap.Config.ARGB_8888);
+        ret.setPixels(resampled, 0, dstW, 0, 0, dstW, dstH);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB_MR1)
+            ret.setHasAlpha(src.hasAlpha());
+
+        return ret;
+    }
+
+    /**
+     * Same as {@link #scale(byte[], ru.jango.j0util.BmpUtil.ScaleType, int, int)}, but the
+     * subsampled image is scaled with the {@link ru.jango.j0util.Resampler}. Memory budget is
+     * held till the end of resampling, as its pixel buffers are the largest part of the peak.
+     *
+     * @param resampler resampler with the needed filter
+     * @see #resample(android.graphics.Bitmap, ru.jango.j0util.BmpUtil.ScaleType, int, int, Resampler)
+     */
+    public static Bitmap resample(final byte[] data, final ScaleType scaleType, final int w, final int h,
+                                  final Resampler resampler) {
+        return decodeBudgetedQuietly(needsBudget() ? DecodePlan.resample(extractSize(data), scaleType, w, h) : null,
+                new Decoding<Bitmap>() {
+                    @Override
+                    public Bitmap run() {
+                        final Bitmap ssBmp = subsample(data, ScaleType.PROPORTIONAL_CROP, w, h);
+                        if (ssBmp == null) return null;
+
+                        final Bitmap ret = resample(ssBmp, scaleType, w, h, resampler);
+                        ssBmp.recycle();
+                        return ret;
+                    }
+                });
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////
+    //
+    //                      Other processing methods
+    //
+    //////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * More advanced scaling than simple
+     * {@link android.graphics.Bitmap#createScaledBitmap(android.graphics.Bitmap, int, int, boolean)}.
+     * <br /><br />
+     * <p/>
+     * Method will create totally new Bitmap, and the source Bitmap will stay safe
+     * ({@link android.graphics.Bitmap#recycle()} won't be called). So, if you don't need the source
+     * Bitmap after scaling, you should manually call {@link android.graphics.Bitmap#recycle()} for
+     * better memory usage.
+     *
+     * @param src       source image for scaling
+     * @param scaleType scaling option
+     * @param w         target image width
+     * @param h         target image height
+     * @return scaled image
+     *
+     * @see #subsample(byte[], ru.jango.j0util.BmpUtil.ScaleType, int, int)
+     * @see #scale(byte[], ru.jango.j0util.BmpUtil.ScaleType, int, int)
+     * @see android.graphics.Bitmap#createScaledBitmap(android.graphics.Bitmap, int, int, boolean)
+     * @see android.graphics.Bitmap#recycle()
+     */
+    public static Bitmap scale(Bitmap src, ScaleType scaleType, int w, int h) {
+        final PointF scales = resolveScale(scaleType, w, h, src.getWidth(), src.getHeight());
+
+        final Matrix m = new Matrix();
+        m.setScale(scales.x, scales.y);
+        return Bitmap.createBitmap(src, 0, 0, src.getWidth(), src.getHeight(), m, true);
+    }
+
+    /**
+     * More advanced rotation than with help of {@link android.graphics.Matrix}. After rotation
+     * source image could be automatically scaled according to the passed <b>scaleType</b>; width and
+     * height of the source image will be treated as target width and height for scaling.
+     * <br /><br />
+     * <b>scaleType</b> could be NULL, than the image would be just rotated without any post scaling.
+     * <br /><br />
+     * Method will create totally new Bitmap, and the source Bitmap will stay safe
+     * ({@link android.graphics.Bitmap#recycle()} won't be called). So, if you don't need the source
+     * Bitmap after rotation, you should manually call {@link android.graphics.Bitmap#recycle()} for
+     * better memory usage.
+     *
+     * @param src       source image for rotation
+     * @param scaleType scaling option, may be NULL
+     * @param degrees   rotation angle in degrees
+     * @return rotated image
+     *
+     * @see android.graphics.Bitmap#recycle()
+     */
+    public static Bitmap rotate(Bitmap src, ScaleType scaleType, int degrees) {
+        final Matrix m = genRotationMatrix(src, scaleType, degrees);
+        return Bitmap.createBitmap(src, 0, 0, src.getWidth(), src.getHeight(), m, true);
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////
+    //
+    //                      Other helper methods
+    //
+    //////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Generates matrix for {@link #rotate(android.graphics.Bitmap, ru.jango.j0util.BmpUtil.ScaleType, int)}.
+     */
+    protected static Matrix genRotationMatrix(Bitmap src, ScaleType scaleType, int degrees) {
+        degrees = degrees % 360;
+
+        final Matrix m = new Matrix();
+        m.setRotate(degrees, src.getWidth() / 2, src.getHeight() / 2);
+
+        if (scaleType != null) {
+            double radAngl = Math.toRadians(degrees);
+            int resultW = (int) (Math.abs(src.getWidth() * Math.cos(radAngl)) + Math.abs(src.getHeight() * Math.sin(radAngl)));
+            int resultH = (int) (Math.abs(src.getWidth() * Math.sin(radAngl)) + Math.abs(src.getHeight() * Math.cos(radAngl)));
+
+            final PointF scales = resolveScale(scaleType, src.getWidth(), src.getHeight(), resultW, resultH);
+            m.postScale(scales.x, scales.y);
+        }
+
+        return m;
+    }
+
+    /**
+     * Second step of the scale(...) methods: scales already subsampled image to the exact size
+     * with {@link android.graphics.Bitmap#createScaledBitmap(android.graphics.Bitmap, int, int, boolean)}.
+     * Subsampled image is recycled, if it is not returned.
+     */
+    protected static Bitmap scaleSubsampled(Bitmap ssBmp, ScaleType scaleType, int w, int h) {
+        final PointF scales = resolveScale(scaleType, w, h, ssBmp.getWidth(), ssBmp.getHeight());
+        final Bitmap ret = Bitmap.createScaledBitmap(ssBmp,
+                (int) (ssBmp.getWidth() * scales.x),
+                (int) (ssBmp.getHeight() * scales.y), true);
+
+        if (ret != ssBmp) ssBmp.recycle();
+        return ret;
+    }
+
+    /**
+     * Same as {@link #scaleSubsampled(android.graphics.Bitmap, ru.jango.j0util.BmpUtil.ScaleType, int, int)},
+     * but the resulting bitmap is taken from the pool, and the subsampled one is put back into it.
+     *
+     * @param pool pool of bitmaps for reusing, may be NULL
+     */
+    protected static Bitmap scaleSubsampled(Bitmap ssBmp, ScaleType scaleType, int w, int h, BitmapPool pool) {
+        final PointF scales = resolveScale(scaleType, w, h, ssBmp.getWidth(), ssBmp.getHeight());
+        final int dstW = (int) (ssBmp.getWidth() * scales.x);
+        final int dstH = (int) (ssBmp.getHeight() * scales.y);
+        if (dstW == ssBmp.getWidth() && dstH == ssBmp.getHeight()) return ssBmp;
+
+        final Bitmap ret = obtainBitmap(pool, dstW, dstH, getConfig(ssBmp));
+        new Canvas(ret).drawBitmap(ssBmp, null, new Rect(0, 0, dstW, dstH),
+                new Paint(Paint.FILTER_BITMAP_FLAG));
+
+        releaseBitmap(pool, ssBmp);
+        return ret;
+    }
+
+    /**
+     * Does the same as {@link android.graphics.Bitmap#createBitmap(android.graphics.Bitmap, int, int, int, int, android.graphics.Matrix, boolean)}
+     * with filtering, but draws into a bitmap from the pool.
+     *
+     * @param pool pool of bitmaps for reusing, may be NULL
+     */
+    protected static Bitmap drawTransformed(Bitmap src, Matrix m, BitmapPool pool) {
+        final RectF bounds = new RectF(0, 0, src.getWidth(), src.getHeight());
+        m.mapRect(bounds);
+
+        // not rectangular result requires transparent background
+        final boolean rect = m.rectStaysRect();
+        final Bitmap ret = obtainBitmap(pool,
+                Math.round(bounds.width()), Math.round(bounds.height()),
+                rect ? getConfig(src) : Bitmap.Config.ARGB_8888);
+        if (!rect && Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB_MR1)
+            ret.setHasAlpha(true);
+
+        final Canvas canvas = new Canvas(ret);
+        canvas.translate(-bounds.left, -bounds.top);
+        canvas.concat(m);
+        canvas.drawBitmap(src, 0, 0, new Paint(Paint.FILTER_BITMAP_FLAG));
+
+        return ret;
+    }
+
+    /**
+     * Decodes image with the options; if decoding into {@link android.graphics.BitmapFactory.Options#inBitmap}
+     * fails, it's put back into the pool and decoding is repeated without it.
+     */
+    private static Bitmap decode(byte[] data, BitmapFactory.Options ops, BitmapPool pool) {
+        Bitmap bmp;
+        try {
+            bmp = BitmapFactory.decodeByteArray(data, 0, data.length, ops);
+        } catch (IllegalArgumentException e) {
+            if (!releaseInBitmap(ops, pool)) throw e;
+            bmp = BitmapFactory.decodeByteArray(data, 0, data.length, ops);
+        }
+
+        if (bmp == null) releaseInBitmap(ops, pool);
+        return bmp;
+    }
+
+    /**
+     * Same as {@link #decode(byte[], android.graphics.BitmapFactory.Options, BitmapPool)}, but
+     * for the file.
+     */
+    private static Bitmap decode(File file, BitmapFactory.Options ops, BitmapPool pool) {
+        Bitmap bmp;
+        try {
+            bmp = BitmapFactory.decodeFile(file.getAbsolutePath(), ops);
+        } catch (IllegalArgumentException e) {
+            if (!releaseInBitmap(ops, pool)) throw e;
+            bmp = BitmapFactory.decodeFile(file.getAbsolutePath(), ops);
+        }
+
+        if (bmp == null) releaseInBitmap(ops, pool);
+        return bmp;
+    }
+
+    /**
+     * Same as {@link #decode(byte[], android.graphics.BitmapFactory.Options, BitmapPool)}, but
+     * for the image source; pool should be NULL for not repeatable sources.
+     */
+    private static Bitmap decode(ImageSource source, BitmapFactory.Options ops, BitmapPool pool) throws IOException {
+        Bitmap bmp;
+        try {
+            bmp = source.decode(ops);
+        } catch (IllegalArgumentException e) {
+            if (!releaseInBitmap(ops, pool)) throw e;
+            bmp = source.decode(ops);
+        }
+
+        if (bmp == null) releaseInBitmap(ops, pool);
+        return bmp;
+    }
+
+    /**
+     * Returns true, if the memory budget is set and the calling thread doesn't hold it yet.
+     */
+    private static boolean needsBudget() {
+        return memoryBudget != null && BUDGET_HELD.get() == null;
+    }
+
+    /**
+     * Runs the decoding within the memory budget: peak bytes of the plan are acquired before it
+     * and released after it, even if it fails. Nested calls (scale(...) calls subsample(...))
+     * don't acquire anything, as the calling thread already holds its part.
+     *
+     * @param plan     plan of the decoding; NULL, if the budget is not needed
+     * @param decoding what to do within the budget
+     * @throws InterruptedIOException if the thread was interrupted while waiting for the budget
+     * @see #needsBudget()
+     */
+    private static <T> T decodeBudgeted(DecodePlan plan, Decoding<T> decoding) throws IOException {
+        final MemoryBudget budget = memoryBudget;
+        if (plan == null || budget == null || BUDGET_HELD.get() != null) return decoding.run();
+
+        final long bytes = plan.getPeakBytes();
+        try {
+            budget.acquire(bytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for the memory budget");
+        }
+
+        BUDGET_HELD.set(Boolean.TRUE);
+        try {
+            return decoding.run();
+        } finally {
+            BUDGET_HELD.remove();
+            budget.release(bytes);
+        }
+    }
+
+    /**
+     * Same as {@link #decodeBudgeted(DecodePlan, ru.jango.j0util.BmpUtil.Decoding)} for the
+     * methods, that don't throw IOException: interruption is logged and NULL is returned.
+     */
+    private static <T> T decodeBudgetedQuietly(DecodePlan plan, Decoding<T> decoding) {
+        try {
+            return decodeBudgeted(plan, decoding);
+        } catch (InterruptedIOException e) {
+            LogUtil.w(BmpUtil.class, e.getMessage());
+            return null;
+        } catch (IOException e) {
+            // decoding of byte arrays, files and file descriptors doesn't throw it
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Plans subsampleToMaxSize(...) for the memory budget.
+     *
+     * @param maxSize maximum width and height in pixels
+     */
+    private static DecodePlan planToMaxSize(Point size, int maxSize) {
+        return DecodePlan.subsample(size, ScaleType.PROPORTIONAL_FIT, maxSize, maxSize, null);
+    }
+
+    /**
+     * Plans {@link #scaleOriented(byte[], ru.jango.j0util.BmpUtil.ScaleType, int, int, int, BitmapPool)}
+     * for the memory budget: pixel count of the result doesn't depend on the rotation, so it's
+     * planned as the usual scaling to the not rotated target.
+     *
+     * @param m orientation matrix without scaling
+     */
+    private static DecodePlan planOriented(Point size, Matrix m, ScaleType scaleType, int w, int h) {
+        final Point target = genOrientedTarget(size, m, scaleType, w, h);
+        return DecodePlan.scale(size, ScaleType.PROPORTIONAL_CROP, target.x, target.y, null);
+    }
+
+    private static boolean isTooBig(Point size, int maxSize) {
+        return size.x >= maxSize || size.y >= maxSize;
+    }
+
+    private static Bitmap obtainBitmap(BitmapPool pool, int w, int h, Bitmap.Config config) {
+        return pool != null ? pool.getOrCreate(w, h, config) : Bitmap.createBitmap(w, h, config);
+    }
+
+    private static void releaseBitmap(BitmapPool pool, Bitmap bmp) {
+        if (pool != null) pool.put(bmp);
+        else bmp.recycle();
+    }
+
+    /**
+     * Puts {@link android.graphics.BitmapFactory.Options#inBitmap} back into the pool, if decoding
+     * into it failed.
+     *
+     * @return true, if there was a bitmap to release
+     */
+    private static boolean releaseInBitmap(BitmapFactory.Options ops, BitmapPool pool) {
+        if (pool == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB || ops.inBitmap == null)
+            return false;
+
+        pool.put(ops.inBitmap);
+        ops.inBitmap = null;
+        return true;
+    }
+
+    private static Bitmap.Config getConfig(Bitmap bmp) {
+        return bmp.getConfig() != null ? bmp.getConfig() : Bitmap.Config.ARGB_8888;
+    }
+
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        final byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+        int read;
+        while ((read = in.read(buffer)) != -1) out.write(buffer, 0, read);
+    }
+
+    /**
+     * Wrapper for {@link ru.jango.j0util.BmpUtil.ScaleType#resolveScale(int, int, int, int)}, witch
+     * also checks bounds for {@link #getMaxTextureSize()}.
+     */
+    protected static PointF resolveScale(ScaleType scaleType, int destW, int destH, int srcW, int srcH) {
+        return resolveScale(scaleType, destW, destH, srcW, srcH, new PointF());
+    }
+
+    /**
+     * Same as {@link #resolveScale(ru.jango.j0util.BmpUtil.ScaleType, int, int, int, int)}, but
+     * writes scales into the passed object.
+     *
+     * @param out where to put the result
+     * @return <b>out</b>
+     */
+    protected static PointF resolveScale(ScaleType scaleType, int destW, int destH, int srcW, int srcH, PointF out) {
+        final int max = getMaxTextureSize();
+        destW = Math.min(destW, max);
+        destH = Math.min(destH, max);
+
+        scaleType.resolveScale(destW, destH, srcW, srcH, out);
+        if (srcW * out.x > max || srcH * out.y > max)
+            ScaleType.PROPORTIONAL_FIT.resolveScale(destW, destH, srcW, srcH, out);
+
+        return out;
+    }
+
+    /**
+     * Hides mark/reset support of the wrapped stream, so nobody could move its mark.
+     */
+    private static class UnmarkableInputStream extends FilterInputStream {
+
+        public UnmarkableInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public synchronized void mark(int readlimit) {
+            // nothing to do
+        }
+
+        @Override
+        public synchronized void reset() throws IOException {
+            throw new IOException("mark/reset not supported");
+        }
     }
 
 }
@@ -0,0 +1,110 @@
+/*
+ * The MIT License Copyright (c) 2014 Krayushkin Konstantin (jangokvk@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ru.jango.j0util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Growable byte buffer, witch gives access to its content without copying. It's a
+ * {@link java.io.ByteArrayOutputStream}, so anything could be written into it (for example,
+ * {@link android.graphics.Bitmap#compress(android.graphics.Bitmap.CompressFormat, int, java.io.OutputStream)}),
+ * but unlike {@link java.io.ByteArrayOutputStream#toByteArray()} the content could be read right
+ * from the internal array with {@link #getBuffer()} and {@link #size()}.
+ * <br /><br />
+ * <p/>
+ * The point is to keep one buffer and {@link #reset()} it for every new portion of data, so the
+ * array is allocated once and only grows, when needed. If one huge portion makes the array too
+ * big to keep, {@link #reset(int)} drops it.
+ * <br /><br />
+ * <p/>
+ * Buffer is not thread safe (though {@link java.io.ByteArrayOutputStream} methods are
+ * synchronized), so keep one per thread.
+ */
+public class ByteArrayBuffer extends ByteArrayOutputStream {
+
+    public ByteArrayBuffer() {
+        super();
+    }
+
+    /**
+     * @param capacity initial array size
+     */
+    public ByteArrayBuffer(int capacity) {
+        super(capacity);
+    }
+
+    /**
+     * Returns the internal array. Only first {@link #size()} bytes are valid. Array is changed by
+     * the following writes, and may be replaced by a larger one, so don't keep it.
+     */
+    public byte[] getBuffer() {
+        return buf;
+    }
+
+    /**
+     * Returns current size of the internal array.
+     */
+    public int getCapacity() {
+        return buf.length;
+    }
+
+    /**
+     * Grows internal array (if needed), so that <b>capacity</b> bytes could be written without
+     * reallocation.
+     */
+    public void ensureCapacity(int capacity) {
+        if (capacity <= buf.length) return;
+
+        final byte[] newBuf = new byte[Math.max(capacity, buf.length << 1)];
+        System.arraycopy(buf, 0, newBuf, 0, count);
+        buf = newBuf;
+    }
+
+    /**
+     * Same as {@link #reset()}, but also drops the internal array, if it's larger than
+     * <b>maxCapacity</b>, so that one huge image doesn't stay in memory forever.
+     */
+    public void reset(int maxCapacity) {
+        reset();
+        if (buf.length > maxCapacity) buf = new byte[maxCapacity];
+    }
+
+    /**
+     * Returns stream, witch reads current content without copying. Stream is valid until the next
+     * write into the buffer.
+     */
+    public InputStream toInputStream() {
+        return new ByteArrayInputStream(buf, 0, count);
+    }
+
+    /**
+     * Writes current content into the channel without copying.
+     */
+    public void writeTo(WritableByteChannel channel) throws IOException {
+        final ByteBuffer src = ByteBuffer.wrap(buf, 0, count);
+        while (src.hasRemaining()) channel.write(src);
+    }
+
+}
@@ -0,0 +1,539 @@
+/*
+ * The MIT License Copyright (c) 2014 Krayushkin Konstantin (jangokvk@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ru.jango.j0util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persistent index of file contents: file path + size + modification time -> digest. Rescans
+ * hash only new and changed files, and {@link #findDuplicates(java.util.Collection)} hashes only
+ * files, that have the same size as some other file.
+ * <br /><br />
+ * <p/>
+ * Index is kept in memory in an open addressing hash map of primitive arrays, keyed by 64 bit
+ * {@link ru.jango.j0util.XxHash64} of the absolute path, so hundreds of thousands of files take
+ * just a few megabytes. On disk it's an append-only file of fixed size binary records, that is
+ * rewritten from time to time to stay compact. Records are buffered: call {@link #flush()} or
+ * {@link #close()} to save them; records lost in a crash just mean re-hashing of some files.
+ * <br /><br />
+ * <p/>
+ * Files are hashed with any algorithm of {@link ru.jango.j0util.SecurityUtil}, crypto or fast
+ * ones. Index is thread safe; hashing itself is done outside of the lock.
+ */
+public class ContentIndex {
+
+    static final String MAGIC = "ru.jango.j0util.ContentIndex";
+    static final int VERSION = 1;
+
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+
+    private static final int REDUNDANT_RECORD_COMPACT_THRESHOLD = 2000;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File file;
+    private final String algorithm;
+    private final int digestLength;
+    private final int recordLength;
+    private final EntryMap entries;
+
+    private DataOutputStream out;
+    /** Count of records in the file, including overwritten and removed ones. */
+    private int recordCount;
+
+    private int hitCount;
+    private int missCount;
+
+    private ContentIndex(File file, String algorithm, int digestLength) {
+        this.file = file;
+        this.algorithm = algorithm;
+        this.digestLength = digestLength;
+        this.recordLength = 1 + 8 + 8 + 8 + digestLength;
+        this.entries = new EntryMap(digestLength);
+    }
+
+    /**
+     * Opens the index from the file, or creates a new one. If the file is corrupted, or was
+     * created with another algorithm, the index starts from scratch.
+     *
+     * @param file      index file
+     * @param algorithm any algorithm of {@link ru.jango.j0util.SecurityUtil#newHasher(String)}
+     * @throws IllegalArgumentException if the algorithm is not supported
+     */
+    public static ContentIndex open(File file, String algorithm) throws IOException {
+        final Hasher hasher = SecurityUtil.newHasher(algorithm);
+        if (hasher == null) throw new IllegalArgumentException("algorithm " + algorithm + " is not supported");
+
+        final ContentIndex index = new ContentIndex(file, algorithm, hasher.getDigestLength());
+        if (file.exists()) {
+            try {
+                index.read();
+                index.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+                return index;
+            } catch (IOException e) {
+                LogUtil.w(ContentIndex.class, "index " + file + " is corrupted, cleaning: " + e);
+                index.entries.clear();
+            }
+        }
+
+        index.rebuild();
+        return index;
+    }
+
+    /**
+     * Returns digest of the file from the index, or NULL if the file is not indexed or has
+     * changed since then.
+     */
+    public byte[] get(File f) {
+        final long key = key(f);
+        final long size = f.length();
+        final long modified = f.lastModified();
+
+        synchronized (this) {
+            checkNotClosed();
+
+            final int slot = entries.find(key);
+            if (slot < 0 || entries.sizes[slot] != size || entries.modified[slot] != modified) {
+                missCount++;
+                return null;
+            }
+
+            hitCount++;
+            return entries.getDigest(slot);
+        }
+    }
+
+    /**
+     * Returns digest of the file: from the index, if the file hasn't changed, otherwise the
+     * file is hashed and the index is updated.
+     */
+    public byte[] digest(File f) throws IOException {
+        final byte[] cached = get(f);
+        if (cached != null) return cached;
+
+        // size and time are taken before hashing: if the file changes meanwhile, it will be
+        // hashed again next time
+        final long size = f.length();
+        final long modified = f.lastModified();
+        final byte[] digest = SecurityUtil.newHasher(algorithm).update(f).digest();
+        final long key = key(f);
+
+        synchronized (this) {
+            checkNotClosed();
+            put(key, size, modified, digest);
+        }
+
+        return digest;
+    }
+
+    /**
+     * Same as {@link #digest(java.io.File)}, but returns the digest as a hex string.
+     */
+    public String digestHex(File f) throws IOException {
+        return SecurityUtil.toHex(digest(f));
+    }
+
+    /**
+     * Removes the file from the index, for example after it was deleted.
+     *
+     * @return true if the file was indexed
+     */
+    public boolean remove(File f) throws IOException {
+        final long key = key(f);
+        synchronized (this) {
+            checkNotClosed();
+            if (!entries.remove(key)) return false;
+
+            writeRecord(REMOVE, key, 0, 0, null);
+            compactIfNeeded();
+            return true;
+        }
+    }
+
+    /**
+     * Groups files with the same contents. Files are hashed only if there is another file of
+     * the same size, and the hashes are taken from the index, if possible. Index is flushed in
+     * the end.
+     *
+     * @return groups of two or more files with the same digest, by hex digest
+     */
+    public Map<String, List<File>> findDuplicates(Collection<File> files) throws IOException {
+        final Map<Long, List<File>> bySize = new HashMap<Long, List<File>>();
+        for (File f : files) {
+            if (!f.isFile()) continue;
+
+            final Long size = f.length();
+            List<File> group = bySize.get(size);
+            if (group == null) bySize.put(size, group = new ArrayList<File>(1));
+            group.add(f);
+        }
+
+        final Map<String, List<File>> ret = new LinkedHashMap<String, List<File>>();
+        for (List<File> group : bySize.values()) {
+            if (group.size() < 2) continue;
+
+            final Map<String, List<File>> byDigest = new HashMap<String, List<File>>();
+            for (File f : group) {
+                final String digest = digestHex(f);
+                List<File> same = byDigest.get(digest);
+                if (same == null) byDigest.put(digest, same = new ArrayList<File>(2));
+                same.add(f);
+            }
+
+            for (Map.Entry<String, List<File>> entry : byDigest.entrySet())
+                if (entry.getValue().size() > 1) ret.put(entry.getKey(), entry.getValue());
+        }
+
+        flush();
+        return ret;
+    }
+
+    /**
+     * Writes buffered records to the file system.
+     */
+    public synchronized void flush() throws IOException {
+        checkNotClosed();
+        out.flush();
+    }
+
+    public synchronized void close() throws IOException {
+        if (out == null) return;
+
+        out.close();
+        out = null;
+    }
+
+    public synchronized boolean isClosed() {
+        return out == null;
+    }
+
+    /**
+     * Rewrites the index file, leaving only actual records.
+     */
+    public synchronized void compact() throws IOException {
+        checkNotClosed();
+        rebuild();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    public synchronized int getCount() {
+        return entries.count;
+    }
+
+    public synchronized int getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return missCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ContentIndex[" + file + ", " + algorithm + ", count=" + entries.count + ", hits=" +
+                hitCount + ", misses=" + missCount + "]";
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////
+    //
+    //                      Index file
+    //
+    //////////////////////////////////////////////////////////////////////////////////////////////
+
+    private void writeHeader(DataOutputStream out) throws IOException {
+        out.writeUTF(MAGIC);
+        out.writeInt(VERSION);
+        out.writeUTF(algorithm);
+        out.writeInt(digestLength);
+    }
+
+    private void read() throws IOException {
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        long validLength;
+        recordCount = 0;
+
+        try {
+            if (!MAGIC.equals(in.readUTF()) || in.readInt() != VERSION ||
+                    !algorithm.equals(in.readUTF()) || in.readInt() != digestLength)
+                throw new IOException("unexpected index header");
+
+            final long headerLength = 2 + UTF_8.encode(MAGIC).remaining() + 4 +
+                    2 + UTF_8.encode(algorithm).remaining() + 4;
+            validLength = headerLength;
+
+            final byte[] digest = new byte[digestLength];
+            while (true) {
+                final byte type;
+                final long key, size, modified;
+                try {
+                    type = in.readByte();
+                    key = in.readLong();
+                    size = in.readLong();
+                    modified = in.readLong();
+                    in.readFully(digest);
+                } catch (EOFException e) {
+                    // last record may be partially written in a crash
+                    break;
+                }
+
+                if (type == PUT) entries.put(key, size, modified, digest);
+                else if (type == REMOVE) entries.remove(key);
+                else throw new IOException("unexpected index record type " + type);
+
+                validLength += recordLength;
+                recordCount++;
+            }
+        } finally {
+            in.close();
+        }
+
+        if (file.length() != validLength) {
+            final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.setLength(validLength);
+            } finally {
+                raf.close();
+            }
+        }
+    }
+
+    /**
+     * Writes a new compact file. Current stream stays usable, until the new file replaces the
+     * old one - if writing fails (no space left, for example), the index works on as before.
+     */
+    private void rebuild() throws IOException {
+        final File tmp = new File(file.getPath() + ".tmp");
+        boolean renamed = false;
+        try {
+            final DataOutputStream tmpOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            try {
+                writeHeader(tmpOut);
+                final byte[] digest = new byte[digestLength];
+                for (int slot = 0; slot < entries.keys.length; slot++) {
+                    if (entries.keys[slot] == 0) continue;
+
+                    System.arraycopy(entries.digests, slot * digestLength, digest, 0, digestLength);
+                    writeRecord(tmpOut, PUT, entries.keys[slot], entries.sizes[slot], entries.modified[slot], digest);
+                }
+            } finally {
+                tmpOut.close();
+            }
+
+            if (!tmp.renameTo(file)) throw new IOException("can't rename " + tmp);
+            renamed = true;
+        } finally {
+            if (!renamed && tmp.exists() && !tmp.delete())
+                LogUtil.w(ContentIndex.class, "failed to delete " + tmp);
+        }
+
+        final DataOutputStream oldOut = out;
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+        recordCount = entries.count;
+
+        // old file is already replaced, its records are in the new one
+        if (oldOut != null) {
+            try {
+                oldOut.close();
+            } catch (IOException e) {
+                LogUtil.w(ContentIndex.class, "failed to close replaced index file: " + e);
+            }
+        }
+    }
+
+    private void put(long key, long size, long modified, byte[] digest) throws IOException {
+        entries.put(key, size, modified, digest);
+        writeRecord(PUT, key, size, modified, digest);
+        compactIfNeeded();
+    }
+
+    private void writeRecord(byte type, long key, long size, long modified, byte[] digest) throws IOException {
+        writeRecord(out, type, key, size, modified, digest);
+        recordCount++;
+    }
+
+    private void writeRecord(DataOutputStream out, byte type, long key, long size, long modified,
+                             byte[] digest) throws IOException {
+        out.writeByte(type);
+        out.writeLong(key);
+        out.writeLong(size);
+        out.writeLong(modified);
+        if (digest != null) out.write(digest);
+        else for (int i = 0; i < digestLength; i++) out.writeByte(0);
+    }
+
+    private void compactIfNeeded() throws IOException {
+        final int redundantRecordCount = recordCount - entries.count;
+        if (redundantRecordCount >= REDUNDANT_RECORD_COMPACT_THRESHOLD && redundantRecordCount >= entries.count)
+            rebuild();
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////
+    //
+    //                      Helpers
+    //
+    //////////////////////////////////////////////////////////////////////////////////////////////
+
+    private void checkNotClosed() {
+        if (out == null) throw new IllegalStateException("index is closed");
+    }
+
+    /**
+     * 64 bit key of the file path; 0 marks empty slots, so it's never returned.
+     */
+    private static long key(File f) {
+        final long key = XxHash64.hash(f.getAbsolutePath().getBytes(UTF_8));
+        return key == 0 ? 1 : key;
+    }
+
+    /**
+     * Open addressing (linear probing) hash map from long keys to size, modification time and
+     * digest, kept in parallel primitive arrays.
+     */
+    private static class EntryMap {
+
+        private static final int INITIAL_CAPACITY = 1024;
+
+        private final int digestLength;
+        private long[] keys;
+        private long[] sizes;
+        private long[] modified;
+        private byte[] digests;
+        private int count;
+
+        public EntryMap(int digestLength) {
+            this.digestLength = digestLength;
+            clear();
+        }
+
+        public void clear() {
+            keys = new long[INITIAL_CAPACITY];
+            sizes = new long[INITIAL_CAPACITY];
+            modified = new long[INITIAL_CAPACITY];
+            digests = new byte[INITIAL_CAPACITY * digestLength];
+            count = 0;
+        }
+
+        /**
+         * Returns slot of the key, or -1.
+         */
+        public int find(long key) {
+            final int mask = keys.length - 1;
+            for (int slot = home(key, mask); keys[slot] != 0; slot = (slot + 1) & mask)
+                if (keys[slot] == key) return slot;
+
+            return -1;
+        }
+
+        public byte[] getDigest(int slot) {
+            final byte[] ret = new byte[digestLength];
+            System.arraycopy(digests, slot * digestLength, ret, 0, digestLength);
+            return ret;
+        }
+
+        public void put(long key, long size, long modified, byte[] digest) {
+            if ((count + 1) * 4 > keys.length * 3) grow();
+
+            final int mask = keys.length - 1;
+            int slot = home(key, mask);
+            while (keys[slot] != 0 && keys[slot] != key) slot = (slot + 1) & mask;
+
+            if (keys[slot] == 0) count++;
+            set(slot, key, size, modified, digest, 0);
+        }
+
+        /**
+         * Removes the key with backward shift, so no tombstones are needed.
+         */
+        public boolean remove(long key) {
+            int hole = find(key);
+            if (hole < 0) return false;
+
+            final int mask = keys.length - 1;
+            for (int slot = (hole + 1) & mask; keys[slot] != 0; slot = (slot + 1) & mask) {
+                // entry could be moved into the hole, if its home is not in (hole, slot]
+                final int home = home(keys[slot], mask);
+                if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+                    set(hole, keys[slot], sizes[slot], modified[slot], digests, slot * digestLength);
+                    hole = slot;
+                }
+            }
+
+            keys[hole] = 0;
+            count--;
+            return true;
+        }
+
+        private void set(int slot, long key, long size, long modified, byte[] digest, int digestOffset) {
+            keys[slot] = key;
+            sizes[slot] = size;
+            this.modified[slot] = modified;
+            System.arraycopy(digest, digestOffset, digests, slot * digestLength, digestLength);
+        }
+
+        private void grow() {
+            final long[] oldKeys = keys, oldSizes = sizes, oldModified = modified;
+            final byte[] oldDigests = digests;
+
+            final int capacity = oldKeys.length * 2;
+            keys = new long[capacity];
+            sizes = new long[capacity];
+            modified = new long[capacity];
+            digests = new byte[capacity * digestLength];
+
+            final int mask = capacity - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] == 0) continue;
+
+                int slot = home(oldKeys[i], mask);
+                while (keys[slot] != 0) slot = (slot + 1) & mask;
+                set(slot, oldKeys[i], oldSizes[i], oldModified[i], oldDigests, i * digestLength);
+            }
+        }
+
+        private static int home(long key, int mask) {
+            // keys are hashes already
+            return (int) (key ^ (key >>> 32)) & mask;
+        }
+    }
+
+}
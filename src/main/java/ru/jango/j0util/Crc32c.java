@@ -0,0 +1,142 @@
+/*
+ * The MIT License Copyright (c) 2014 Krayushkin Konstantin (jangokvk@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ru.jango.j0util;
+
+/**
+ * Pure java CRC32C (Castagnoli polynomial, as in iSCSI, ext4 and java.util.zip.CRC32C of
+ * Java 9, which is not available on Android): table-driven slicing-by-8 implementation.
+ * <br /><br />
+ * <p/>
+ * Static {@link #hash(byte[], int, int)} checksums an array at once without any allocations;
+ * object is an incremental {@link ru.jango.j0util.Hasher}, whose digest is 4 bytes big-endian.
+ *
+ * @see ru.jango.j0util.SecurityUtil#FAST_ALGORITHMS
+ */
+public class Crc32c extends Hasher {
+
+    public static final String ALGORITHM = "CRC32C";
+
+    private static final int POLYNOMIAL = 0x82F63B78;
+
+    /**
+     * TABLES[k][b] is CRC of the byte b followed by k zero bytes.
+     */
+    private static final int[][] TABLES = new int[8][256];
+    static {
+        for (int b = 0; b < 256; b++) {
+            int crc = b;
+            for (int i = 0; i < 8; i++) crc = (crc >>> 1) ^ (POLYNOMIAL & -(crc & 1));
+            TABLES[0][b] = crc;
+        }
+
+        for (int k = 1; k < 8; k++)
+            for (int b = 0; b < 256; b++)
+                TABLES[k][b] = (TABLES[k - 1][b] >>> 8) ^ TABLES[0][TABLES[k - 1][b] & 0xFF];
+    }
+
+    private int crc;
+
+    public Crc32c() {
+        reset();
+    }
+
+    /**
+     * Checksums part of the array at once.
+     */
+    public static int hash(byte[] data, int offset, int length) {
+        return ~update(~0, data, offset, length);
+    }
+
+    public static int hash(byte[] data) {
+        return hash(data, 0, data.length);
+    }
+
+    @Override
+    public String getAlgorithm() {
+        return ALGORITHM;
+    }
+
+    @Override
+    public int getDigestLength() {
+        return 4;
+    }
+
+    @Override
+    public Crc32c update(byte[] data, int offset, int length) {
+        crc = update(crc, data, offset, length);
+        return this;
+    }
+
+    /**
+     * Returns checksum of all fed data as int and resets the hasher.
+     */
+    public int digestInt() {
+        final int ret = ~crc;
+        reset();
+        return ret;
+    }
+
+    @Override
+    public byte[] digest() {
+        final byte[] ret = new byte[4];
+        putIntBE(ret, 0, digestInt());
+        return ret;
+    }
+
+    @Override
+    public int digest(byte[] dest, int offset) {
+        checkDigestDest(dest, offset);
+        putIntBE(dest, offset, digestInt());
+        return 4;
+    }
+
+    @Override
+    public Hasher reset() {
+        crc = ~0;
+        return this;
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////
+    //
+    //                      Helpers
+    //
+    //////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Updates not inverted CRC with the bytes.
+     */
+    private static int update(int crc, byte[] data, int offset, int length) {
+        final int[] t0 = TABLES[0], t1 = TABLES[1], t2 = TABLES[2], t3 = TABLES[3];
+        final int[] t4 = TABLES[4], t5 = TABLES[5], t6 = TABLES[6], t7 = TABLES[7];
+
+        final int end = offset + length;
+        int i = offset;
+        for (; i <= end - 8; i += 8) {
+            final int lo = crc ^ getIntLE(data, i);
+            final int hi = getIntLE(data, i + 4);
+            crc = t7[lo & 0xFF] ^ t6[(lo >>> 8) & 0xFF] ^ t5[(lo >>> 16) & 0xFF] ^ t4[lo >>> 24] ^
+                    t3[hi & 0xFF] ^ t2[(hi >>> 8) & 0xFF] ^ t1[(hi >>> 16) & 0xFF] ^ t0[hi >>> 24];
+        }
+
+        for (; i < end; i++) crc = (crc >>> 8) ^ t0[(crc ^ data[i]) & 0xFF];
+        return crc;
+    }
+
+}
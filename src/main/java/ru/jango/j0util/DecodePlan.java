@@ -0,0 +1,249 @@
+/*
+ * The MIT License Copyright (c) 2014 Krayushkin Konstantin (jangokvk@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ru.jango.j0util;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Point;
+import android.graphics.PointF;
+
+import java.io.IOException;
+
+/**
+ * Memory plan of the {@link ru.jango.j0util.BmpUtil} subsample(...) and scale(...) calls, made
+ * before any decoding: sample size, subsampled (intermediate) bitmap size, resulting bitmap size
+ * and the peak byte count, that the call allocates.
+ * <br /><br />
+ * <p/>
+ * Subsampled dimensions are rounded up, like the JPEG decoder does; other decoders may round
+ * down, so for them the plan is an upper bound by one pixel row or column.
+ *
+ * @see ru.jango.j0util.BmpUtil#setMemoryBudget(MemoryBudget)
+ * @see ru.jango.j0util.MemoryBudget
+ */
+public class DecodePlan {
+
+    private final int sourceWidth;
+    private final int sourceHeight;
+    private final int sampleSize;
+    private final int sampledWidth;
+    private final int sampledHeight;
+    private final int width;
+    private final int height;
+    private final Bitmap.Config config;
+    private final long workBytes;
+
+    private DecodePlan(int sourceWidth, int sourceHeight, int sampleSize, int sampledWidth, int sampledHeight,
+                       int width, int height, Bitmap.Config config) {
+        this(sourceWidth, sourceHeight, sampleSize, sampledWidth, sampledHeight, width, height, config, 0);
+    }
+
+    private DecodePlan(int sourceWidth, int sourceHeight, int sampleSize, int sampledWidth, int sampledHeight,
+                       int width, int height, Bitmap.Config config, long workBytes) {
+        this.sourceWidth = sourceWidth;
+        this.sourceHeight = sourceHeight;
+        this.sampleSize = sampleSize;
+        this.sampledWidth = sampledWidth;
+        this.sampledHeight = sampledHeight;
+        this.width = width;
+        this.height = height;
+        this.config = config;
+        this.workBytes = workBytes;
+    }
+
+    /**
+     * Plans {@link ru.jango.j0util.BmpUtil#subsample(byte[], ru.jango.j0util.BmpUtil.ScaleType, int, int)}
+     * and friends: resulting bitmap is the subsampled one.
+     *
+     * @param size   source image size, for example from BmpUtil.extractSize(...)
+     * @param config config of the decoded bitmap; NULL is treated as ARGB_8888
+     */
+    public static DecodePlan subsample(Point size, BmpUtil.ScaleType scaleType, int w, int h, Bitmap.Config config) {
+        if (size.x <= 0 || size.y <= 0) return new DecodePlan(0, 0, 1, 0, 0, 0, 0, config);
+
+        final BitmapFactory.Options ops = BmpUtil.genSubsampleOptions(size, scaleType, w, h);
+        final int sample = Math.max(1, ops.inSampleSize);
+        final int ssW = (size.x + sample - 1) / sample;
+        final int ssH = (size.y + sample - 1) / sample;
+
+        return new DecodePlan(size.x, size.y, sample, ssW, ssH, ssW, ssH, config);
+    }
+
+    /**
+     * Plans {@link ru.jango.j0util.BmpUtil#scale(byte[], ru.jango.j0util.BmpUtil.ScaleType, int, int)}
+     * and friends: image is subsampled with {@link ru.jango.j0util.BmpUtil.ScaleType#PROPORTIONAL_CROP}
+     * and then scaled into another bitmap, so at the peak both bitmaps are in memory.
+     *
+     * @param size   source image size, for example from BmpUtil.extractSize(...)
+     * @param config config of the decoded bitmap; NULL is treated as ARGB_8888
+     */
+    public static DecodePlan scale(Point size, BmpUtil.ScaleType scaleType, int w, int h, Bitmap.Config config) {
+        final DecodePlan ss = subsample(size, BmpUtil.ScaleType.PROPORTIONAL_CROP, w, h, config);
+        if (!ss.isValid()) return ss;
+
+        final PointF scales = BmpUtil.resolveScale(scaleType, w, h, ss.sampledWidth, ss.sampledHeight);
+        return new DecodePlan(ss.sourceWidth, ss.sourceHeight, ss.sampleSize, ss.sampledWidth, ss.sampledHeight,
+                (int) (ss.sampledWidth * scales.x), (int) (ss.sampledHeight * scales.y), config);
+    }
+
+    /**
+     * Plans {@link ru.jango.j0util.BmpUtil#resample(byte[], ru.jango.j0util.BmpUtil.ScaleType, int, int, Resampler)}:
+     * image is subsampled like for scaling, and then {@link ru.jango.j0util.Resampler} works with
+     * the copies of the pixels - both images as int arrays (plus the halved ones, for progressive
+     * filters) and the intermediate float buffer. Resulting bitmap is always a new ARGB_8888 one.
+     *
+     * @param size source image size, for example from BmpUtil.extractSize(...)
+     * @see #getWorkBytes()
+     */
+    public static DecodePlan resample(Point size, BmpUtil.ScaleType scaleType, int w, int h) {
+        final DecodePlan scaled = scale(size, scaleType, w, h, Bitmap.Config.ARGB_8888);
+        if (!scaled.isValid()) return scaled;
+
+        final long sampledPixels = ((long) scaled.sampledWidth) * scaled.sampledHeight;
+        long work = sampledPixels * 4 + sampledPixels * 4 / 3
+                + ((long) scaled.width) * scaled.sampledHeight * 4 * 4
+                + ((long) scaled.width) * scaled.height * 4;
+        if (!scaled.isScaled()) work += scaled.getBytes();
+
+        return new DecodePlan(scaled.sourceWidth, scaled.sourceHeight, scaled.sampleSize,
+                scaled.sampledWidth, scaled.sampledHeight, scaled.width, scaled.height, scaled.config, work);
+    }
+
+    /**
+     * Same as {@link #subsample(android.graphics.Point, ru.jango.j0util.BmpUtil.ScaleType, int, int, android.graphics.Bitmap.Config)},
+     * but the size and config are taken from the image source header.
+     *
+     * @see ru.jango.j0util.BmpUtil#subsample(ImageSource, ru.jango.j0util.BmpUtil.ScaleType, int, int, ru.jango.j0util.BmpUtil.ColorPolicy, BitmapPool)
+     */
+    public static DecodePlan subsample(ImageSource source, BmpUtil.ScaleType scaleType, int w, int h,
+                                       BmpUtil.ColorPolicy policy) throws IOException {
+        final ImageHeader header = source.readHeader();
+        return subsample(sizeOf(source, header), scaleType, w, h, policy.resolveConfig(header));
+    }
+
+    /**
+     * Same as {@link #scale(android.graphics.Point, ru.jango.j0util.BmpUtil.ScaleType, int, int, android.graphics.Bitmap.Config)},
+     * but the size and config are taken from the image source header.
+     *
+     * @see ru.jango.j0util.BmpUtil#scale(ImageSource, ru.jango.j0util.BmpUtil.ScaleType, int, int, ru.jango.j0util.BmpUtil.ColorPolicy, BitmapPool)
+     */
+    public static DecodePlan scale(ImageSource source, BmpUtil.ScaleType scaleType, int w, int h,
+                                   BmpUtil.ColorPolicy policy) throws IOException {
+        final ImageHeader header = source.readHeader();
+        return scale(sizeOf(source, header), scaleType, w, h, policy.resolveConfig(header));
+    }
+
+    /**
+     * Returns true, if the source image size is known.
+     */
+    public boolean isValid() {
+        return sourceWidth > 0 && sourceHeight > 0;
+    }
+
+    public int getSourceWidth() {
+        return sourceWidth;
+    }
+
+    public int getSourceHeight() {
+        return sourceHeight;
+    }
+
+    /**
+     * Returns BitmapFactory.Options.inSampleSize, that would be used.
+     */
+    public int getSampleSize() {
+        return sampleSize;
+    }
+
+    public int getSampledWidth() {
+        return sampledWidth;
+    }
+
+    public int getSampledHeight() {
+        return sampledHeight;
+    }
+
+    /**
+     * Returns width of the resulting bitmap.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returns height of the resulting bitmap.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    public Bitmap.Config getConfig() {
+        return config;
+    }
+
+    /**
+     * Returns true, if the subsampled bitmap is scaled into another one.
+     */
+    public boolean isScaled() {
+        return width != sampledWidth || height != sampledHeight;
+    }
+
+    /**
+     * Returns byte count of the subsampled bitmap.
+     */
+    public long getSampledBytes() {
+        return ((long) sampledWidth) * sampledHeight * BitmapPool.bytesPerPixel(config);
+    }
+
+    /**
+     * Returns byte count of the resulting bitmap.
+     */
+    public long getBytes() {
+        return ((long) width) * height * BitmapPool.bytesPerPixel(config);
+    }
+
+    /**
+     * Returns byte count of the temporary buffers besides the bitmaps, for example pixel arrays of
+     * the resampling.
+     */
+    public long getWorkBytes() {
+        return workBytes;
+    }
+
+    /**
+     * Returns maximum byte count, that is allocated at the same time: subsampled bitmap plus
+     * the resulting one, if they are different, plus the temporary buffers.
+     */
+    public long getPeakBytes() {
+        return (isScaled() ? getSampledBytes() + getBytes() : getSampledBytes()) + workBytes;
+    }
+
+    @Override
+    public String toString() {
+        return sourceWidth + "x" + sourceHeight + " / " + sampleSize + " -> " +
+                sampledWidth + "x" + sampledHeight + (isScaled() ? " -> " + width + "x" + height : "") +
+                ", " + config + ", peak " + getPeakBytes() + " bytes";
+    }
+
+    private static Point sizeOf(ImageSource source, ImageHeader header) throws IOException {
+        return header.isValid() ? new Point(header.getWidth(), header.getHeight()) : source.extractSize();
+    }
+
+}
@@ -0,0 +1,636 @@
+/*
+ * The MIT License Copyright (c) 2014 Krayushkin Konstantin (jangokvk@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ru.jango.j0util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Simple LRU disk cache limited by the total size of the cached files. Each entry is a single
+ * file in the cache directory.
+ * <br /><br />
+ * <p/>
+ * All operations are recorded into a journal file, so the cache survives process crashes:
+ * entries are written into temporary files and become visible only after
+ * {@link ru.jango.j0util.DiskCache.Editor#commit()}; unfinished edits are thrown away, when
+ * the cache is opened next time. Journal is rebuilt from time to time to stay compact.
+ * <br /><br />
+ * <p/>
+ * Keys must match [a-z0-9_-]{1,120}, for example hashes from {@link ru.jango.j0util.SecurityUtil};
+ * "journal" is reserved.
+ * Cache is thread safe.
+ */
+public class DiskCache {
+
+    static final String JOURNAL_FILE = "journal";
+    static final String JOURNAL_FILE_TMP = "journal.tmp";
+    static final String MAGIC = "ru.jango.j0util.DiskCache";
+    static final String VERSION = "1";
+
+    private static final String CLEAN = "CLEAN";
+    private static final String DIRTY = "DIRTY";
+    private static final String REMOVE = "REMOVE";
+    private static final String READ = "READ";
+
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final Pattern KEY_PATTERN = Pattern.compile("[a-z0-9_-]{1,120}");
+    private static final int REDUNDANT_OP_COMPACT_THRESHOLD = 2000;
+
+    private final File dir;
+    private final long maxSize;
+    private long size;
+
+    /** Key -> file length; in access order. */
+    private final LinkedHashMap<String, Long> entries;
+    private final Set<String> editing;
+
+    private Writer journal;
+    private int redundantOpCount;
+
+    private int hitCount;
+    private int missCount;
+    private int writeCount;
+    private int evictionCount;
+
+    private DiskCache(File dir, long maxSize) {
+        this.dir = dir;
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+        this.editing = new HashSet<String>();
+    }
+
+    /**
+     * Opens the cache in the directory, or creates a new one. If the journal is corrupted, the
+     * whole directory is cleaned; only the unfinished last record (crash while it was written)
+     * is just thrown away.
+     *
+     * @param dir     directory for the cache files; the cache should be the only user of it
+     * @param maxSize maximum total size of the cached files
+     */
+    public static DiskCache open(File dir, long maxSize) throws IOException {
+        if (maxSize <= 0) throw new IllegalArgumentException("maxSize <= 0");
+        if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("can't create " + dir);
+
+        final DiskCache cache = new DiskCache(dir, maxSize);
+        final File journalFile = new File(dir, JOURNAL_FILE);
+        if (journalFile.exists()) {
+            try {
+                final boolean truncated = cache.readJournal(journalFile);
+                cache.cleanDirectory();
+                // new records mustn't be appended to the broken line
+                if (truncated) cache.rebuildJournal();
+                else cache.journal = new BufferedWriter(new OutputStreamWriter(
+                        new FileOutputStream(journalFile, true), "US-ASCII"));
+                cache.trimToSize(maxSize);
+                return cache;
+            } catch (IOException e) {
+                LogUtil.w(DiskCache.class, "cache " + dir + " is corrupted, cleaning: " + e);
+                cache.entries.clear();
+                cache.size = 0;
+            }
+        }
+
+        cache.cleanDirectory();
+        cache.rebuildJournal();
+        return cache;
+    }
+
+    /**
+     * Returns stream for reading the cached data, or null, if there is no such entry. Stream
+     * should be closed by the caller.
+     */
+    public synchronized InputStream get(String key) throws IOException {
+        checkNotClosed();
+        checkKey(key);
+
+        // get() also moves the entry to the end of the access order
+        if (entries.get(key) == null) {
+            missCount++;
+            return null;
+        }
+
+        final InputStream in;
+        try {
+            in = new FileInputStream(entryFile(key));
+        } catch (FileNotFoundException e) {
+            // somebody deleted it
+            removeEntry(key);
+            missCount++;
+            return null;
+        }
+
+        hitCount++;
+        writeJournal(READ, key, null);
+        return in;
+    }
+
+    /**
+     * Returns true, if there is a cached entry for the key.
+     */
+    public synchronized boolean contains(String key) {
+        return entries.containsKey(key);
+    }
+
+    /**
+     * Starts editing the entry. Old value (if there is one) stays available until the edit
+     * is committed.
+     *
+     * @return editor, or null if the entry is already being edited
+     */
+    public synchronized Editor edit(String key) throws IOException {
+        checkNotClosed();
+        checkKey(key);
+
+        if (!editing.add(key)) return null;
+
+        writeJournal(DIRTY, key, null);
+        return new Editor(key);
+    }
+
+    /**
+     * Writes the whole entry at once.
+     *
+     * @return true, if the entry was written
+     */
+    public boolean put(String key, byte[] data) throws IOException {
+        final Editor editor = edit(key);
+        if (editor == null) return false;
+
+        try {
+            final OutputStream out = editor.newOutputStream();
+            try { out.write(data); }
+            finally { out.close(); }
+
+            return editor.commit();
+        } finally {
+            editor.abortUnlessCommitted();
+        }
+    }
+
+    /**
+     * Removes the entry, if it's not being edited now.
+     *
+     * @return true, if the entry was removed
+     */
+    public synchronized boolean remove(String key) throws IOException {
+        checkNotClosed();
+        checkKey(key);
+
+        if (editing.contains(key) || !entries.containsKey(key)) return false;
+
+        removeEntry(key);
+        return true;
+    }
+
+    /**
+     * Removes least recently used entries, until the total size is not greater
+     * than <b>maxSize</b>.
+     */
+    public synchronized void trimToSize(long maxSize) throws IOException {
+        checkNotClosed();
+
+        final Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+        while (size > maxSize && it.hasNext()) {
+            final Map.Entry<String, Long> entry = it.next();
+            final String key = entry.getKey();
+            if (editing.contains(key)) continue;
+
+            size -= entry.getValue();
+            it.remove();
+            deleteIfExists(entryFile(key));
+
+            evictionCount++;
+            writeJournal(REMOVE, key, null);
+        }
+    }
+
+    /**
+     * Writes buffered journal records to the file system.
+     */
+    public synchronized void flush() throws IOException {
+        checkNotClosed();
+        journal.flush();
+    }
+
+    /**
+     * Closes the cache. Unfinished edits are aborted.
+     */
+    public synchronized void close() throws IOException {
+        if (journal == null) return;
+
+        for (String key : new ArrayList<String>(editing)) abortEdit(key);
+        journal.close();
+        journal = null;
+    }
+
+    public synchronized boolean isClosed() {
+        return journal == null;
+    }
+
+    /**
+     * Closes the cache and deletes all its files.
+     */
+    public void delete() throws IOException {
+        close();
+
+        final File[] files = dir.listFiles();
+        if (files != null) for (File f : files) deleteIfExists(f);
+    }
+
+    public File getDirectory() {
+        return dir;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public synchronized int getCount() {
+        return entries.size();
+    }
+
+    public synchronized int getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return missCount;
+    }
+
+    public synchronized int getWriteCount() {
+        return writeCount;
+    }
+
+    public synchronized int getEvictionCount() {
+        return evictionCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "DiskCache[" + dir + ", size=" + size + ", maxSize=" + maxSize + ", count=" +
+                entries.size() + ", hits=" + hitCount + ", misses=" + missCount + ", writes=" +
+                writeCount + ", evictions=" + evictionCount + "]";
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////
+    //
+    //                      Editing
+    //
+    //////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Editor of a single entry. Exactly one of {@link #commit()} or {@link #abort()} should be
+     * called after writing.
+     */
+    public class Editor {
+
+        private final String key;
+        private boolean done;
+
+        private Editor(String key) {
+            this.key = key;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * Returns stream for writing new value of the entry. Stream should be closed before
+         * committing. I/O errors are not thrown, but make {@link #commit()} abort the edit.
+         */
+        public OutputStream newOutputStream() throws IOException {
+            synchronized (DiskCache.this) {
+                if (done) throw new IllegalStateException("edit is already finished");
+                return new FaultHidingOutputStream(new FileOutputStream(tmpFile(key)));
+            }
+        }
+
+        /**
+         * Makes the written value visible.
+         *
+         * @return true, if the value was committed; false, if writing failed and the edit
+         * was aborted
+         */
+        public boolean commit() throws IOException {
+            synchronized (DiskCache.this) {
+                if (done) throw new IllegalStateException("edit is already finished");
+                done = true;
+
+                if (hasErrors) {
+                    abortEdit(key);
+                    return false;
+                }
+
+                return commitEdit(key);
+            }
+        }
+
+        public void abort() throws IOException {
+            synchronized (DiskCache.this) {
+                if (done) throw new IllegalStateException("edit is already finished");
+                done = true;
+                abortEdit(key);
+            }
+        }
+
+        /**
+         * Aborts the edit, if it wasn't finished yet; useful in finally blocks.
+         */
+        public void abortUnlessCommitted() throws IOException {
+            synchronized (DiskCache.this) {
+                if (!done) abort();
+            }
+        }
+
+        private boolean hasErrors;
+
+        private class FaultHidingOutputStream extends FilterOutputStream {
+
+            private FaultHidingOutputStream(OutputStream out) {
+                super(out);
+            }
+
+            @Override
+            public void write(int oneByte) {
+                try { out.write(oneByte); }
+                catch (IOException e) { hasErrors = true; }
+            }
+
+            @Override
+            public void write(byte[] buffer, int offset, int length) {
+                try { out.write(buffer, offset, length); }
+                catch (IOException e) { hasErrors = true; }
+            }
+
+            @Override
+            public void flush() {
+                try { out.flush(); }
+                catch (IOException e) { hasErrors = true; }
+            }
+
+            @Override
+            public void close() {
+                try { out.close(); }
+                catch (IOException e) { hasErrors = true; }
+            }
+        }
+    }
+
+    private boolean commitEdit(String key) throws IOException {
+        editing.remove(key);
+
+        final File tmp = tmpFile(key);
+        final File file = entryFile(key);
+        if (!tmp.exists()) {
+            // nothing was written
+            abortEditRecord(key);
+            return false;
+        }
+
+        deleteIfExists(file);
+        if (!tmp.renameTo(file)) {
+            deleteIfExists(tmp);
+            abortEditRecord(key);
+            throw new IOException("can't rename " + tmp + " to " + file);
+        }
+
+        final long length = file.length();
+        final Long old = entries.put(key, length);
+        size += length - (old != null ? old : 0);
+        writeCount++;
+
+        writeJournal(CLEAN, key, length);
+        trimToSize(maxSize);
+        compactIfNeeded();
+        return true;
+    }
+
+    private void abortEdit(String key) throws IOException {
+        editing.remove(key);
+        deleteIfExists(tmpFile(key));
+        abortEditRecord(key);
+    }
+
+    private void abortEditRecord(String key) throws IOException {
+        // DIRTY record should be followed by CLEAN or REMOVE
+        final Long length = entries.get(key);
+        if (length != null) writeJournal(CLEAN, key, length);
+        else writeJournal(REMOVE, key, null);
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////
+    //
+    //                      Journal
+    //
+    //////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * @return true, if the last line was unfinished and ignored, so the journal should be rewritten
+     */
+    private boolean readJournal(File journalFile) throws IOException {
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(journalFile), "US-ASCII"));
+        boolean truncated = false;
+
+        try {
+            if (!MAGIC.equals(reader.readLine()) || !VERSION.equals(reader.readLine()) ||
+                    !"".equals(reader.readLine()))
+                throw new IOException("unexpected journal header");
+
+            int lineCount = 0;
+            String line = reader.readLine();
+            while (line != null) {
+                final String next = reader.readLine();
+                try {
+                    readJournalLine(line);
+                } catch (IOException e) {
+                    // crash while the record was written leaves it unfinished
+                    if (next != null) throw e;
+
+                    LogUtil.w(DiskCache.class, "ignoring unfinished journal record: " + line);
+                    truncated = true;
+                    break;
+                }
+
+                lineCount++;
+                line = next;
+            }
+
+            redundantOpCount = lineCount - entries.size();
+        } finally {
+            reader.close();
+        }
+
+        // interrupted edits are thrown away, old values stay available
+        editing.clear();
+
+        size = 0;
+        final Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            final Map.Entry<String, Long> entry = it.next();
+            final File file = entryFile(entry.getKey());
+            if (file.length() != entry.getValue()) {
+                deleteIfExists(file);
+                it.remove();
+            } else size += entry.getValue();
+        }
+
+        return truncated;
+    }
+
+    private void readJournalLine(String line) throws IOException {
+        final String[] parts = line.split(" ");
+        if (parts.length < 2) throw new IOException("unexpected journal line: " + line);
+
+        final String op = parts[0];
+        final String key = parts[1];
+        if (CLEAN.equals(op) && parts.length == 3) {
+            try {
+                entries.put(key, Long.parseLong(parts[2]));
+            } catch (NumberFormatException e) {
+                throw new IOException("unexpected journal line: " + line);
+            }
+            editing.remove(key);
+        } else if (DIRTY.equals(op) && parts.length == 2) {
+            editing.add(key);
+        } else if (REMOVE.equals(op) && parts.length == 2) {
+            entries.remove(key);
+            editing.remove(key);
+        } else if (READ.equals(op) && parts.length == 2) {
+            // just updates the access order
+            entries.get(key);
+        } else throw new IOException("unexpected journal line: " + line);
+    }
+
+    /**
+     * Deletes temporary files and files, that are not in the journal.
+     */
+    private void cleanDirectory() {
+        final File[] files = dir.listFiles();
+        if (files == null) return;
+
+        for (File f : files) {
+            final String name = f.getName();
+            if (name.equals(JOURNAL_FILE) || entries.containsKey(name)) continue;
+            deleteIfExists(f);
+        }
+    }
+
+    /**
+     * Writes a new compact journal: one record for each entry.
+     */
+    private void rebuildJournal() throws IOException {
+        if (journal != null) journal.close();
+
+        final File tmp = new File(dir, JOURNAL_FILE_TMP);
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(tmp), "US-ASCII"));
+        try {
+            writer.write(MAGIC + "\n" + VERSION + "\n\n");
+            for (Map.Entry<String, Long> entry : entries.entrySet()) {
+                if (editing.contains(entry.getKey())) continue;
+                writer.write(CLEAN + " " + entry.getKey() + " " + entry.getValue() + "\n");
+            }
+
+            for (String key : editing) writer.write(DIRTY + " " + key + "\n");
+        } finally {
+            writer.close();
+        }
+
+        final File journalFile = new File(dir, JOURNAL_FILE);
+        if (!tmp.renameTo(journalFile)) throw new IOException("can't rename " + tmp);
+
+        journal = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(journalFile, true), "US-ASCII"));
+        redundantOpCount = 0;
+    }
+
+    private void compactIfNeeded() throws IOException {
+        if (redundantOpCount >= REDUNDANT_OP_COMPACT_THRESHOLD && redundantOpCount >= entries.size())
+            rebuildJournal();
+    }
+
+    private void writeJournal(String op, String key, Long length) throws IOException {
+        journal.write(op + " " + key + (length != null ? " " + length : "") + "\n");
+        // DIRTY records are not flushed: if we crash before the CLEAN, nothing was visible anyway
+        if (!DIRTY.equals(op)) journal.flush();
+
+        redundantOpCount++;
+    }
+
+    private void removeEntry(String key) throws IOException {
+        final Long length = entries.remove(key);
+        if (length != null) size -= length;
+
+        deleteIfExists(entryFile(key));
+        writeJournal(REMOVE, key, null);
+        compactIfNeeded();
+    }
+
+    private File entryFile(String key) {
+        return new File(dir, key);
+    }
+
+    private File tmpFile(String key) {
+        return new File(dir, key + TMP_SUFFIX);
+    }
+
+    private void checkNotClosed() {
+        if (journal == null) throw new IllegalStateException("cache is closed");
+    }
+
+    private static void checkKey(String key) {
+        if (key == null || !KEY_PATTERN.matcher(key).matches())
+            throw new IllegalArgumentException("keys must match [a-z0-9_-]{1,120}: " + key);
+
+        // entry files and their temporary files would overwrite the journal
+        if (JOURNAL_FILE.equals(key))
+            throw new IllegalArgumentException("key is reserved: " + key);
+    }
+
+    private static void deleteIfExists(File f) {
+        //noinspection ResultOfMethodCallIgnored
+        f.delete();
+    }
+
+}
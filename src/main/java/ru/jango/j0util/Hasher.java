@@ -0,0 +1,227 @@
+/*
+ * The MIT License Copyright (c) 2014 Krayushkin Konstantin (jangokvk@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ru.jango.j0util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Incremental hasher: data is fed with update(...) methods in any number of parts, and
+ * {@link #digest()} returns the hash of everything fed since the last reset. Streams, channels
+ * and files are read through a reusable per-thread buffer, so even huge files are hashed
+ * without loading them into memory.
+ * <br /><br />
+ * <p/>
+ * Hasher is not thread safe. Instances are created with
+ * {@link ru.jango.j0util.SecurityUtil#newHasher(String)}, or directly for the fast
+ * non-cryptographic hashes.
+ *
+ * @see ru.jango.j0util.SecurityUtil
+ */
+public abstract class Hasher {
+
+    /**
+     * Size of the buffers, that streams, channels and files are read through.
+     */
+    public static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final ThreadLocal<byte[]> ARRAY_BUFFER = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[BUFFER_SIZE];
+        }
+    };
+
+    private static final ThreadLocal<ByteBuffer> DIRECT_BUFFER = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+    };
+
+    /**
+     * Returns name of the hash algorithm.
+     */
+    public abstract String getAlgorithm();
+
+    /**
+     * Returns length of the resulting hash in bytes.
+     */
+    public abstract int getDigestLength();
+
+    /**
+     * Feeds part of the array.
+     *
+     * @return this hasher
+     */
+    public abstract Hasher update(byte[] data, int offset, int length);
+
+    /**
+     * Returns the hash of all fed data and resets the hasher.
+     */
+    public abstract byte[] digest();
+
+    /**
+     * Same as {@link #digest()}, but writes the hash into the specified array.
+     *
+     * @param dest   array for the hash
+     * @param offset index in dest to start writing from
+     * @return length of the hash
+     * @throws IllegalArgumentException if the hash doesn't fit into dest
+     */
+    public int digest(byte[] dest, int offset) {
+        checkDigestDest(dest, offset);
+        final byte[] digest = digest();
+        System.arraycopy(digest, 0, dest, offset, digest.length);
+        return digest.length;
+    }
+
+    /**
+     * Forgets all fed data.
+     *
+     * @return this hasher
+     */
+    public abstract Hasher reset();
+
+    /**
+     * Feeds the whole array.
+     *
+     * @return this hasher
+     */
+    public Hasher update(byte[] data) {
+        return update(data, 0, data.length);
+    }
+
+    /**
+     * Feeds remaining bytes of the buffer; buffer position is moved to its limit.
+     *
+     * @return this hasher
+     */
+    public Hasher update(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            update(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            buffer.position(buffer.limit());
+            return this;
+        }
+
+        final byte[] chunk = ARRAY_BUFFER.get();
+        while (buffer.hasRemaining()) {
+            final int length = Math.min(buffer.remaining(), chunk.length);
+            buffer.get(chunk, 0, length);
+            update(chunk, 0, length);
+        }
+
+        return this;
+    }
+
+    /**
+     * Reads the stream till the end and feeds everything. Stream is not closed.
+     *
+     * @return this hasher
+     */
+    public Hasher update(InputStream in) throws IOException {
+        final byte[] buffer = ARRAY_BUFFER.get();
+        int read;
+        while ((read = in.read(buffer)) != -1) update(buffer, 0, read);
+
+        return this;
+    }
+
+    /**
+     * Reads the channel till the end into a direct buffer and feeds everything. Channel is not
+     * closed.
+     *
+     * @return this hasher
+     */
+    public Hasher update(ReadableByteChannel channel) throws IOException {
+        final ByteBuffer buffer = DIRECT_BUFFER.get();
+        buffer.clear();
+        while (channel.read(buffer) != -1) {
+            buffer.flip();
+            update(buffer);
+            buffer.clear();
+        }
+
+        return this;
+    }
+
+    /**
+     * Feeds the whole file, read through its {@link java.nio.channels.FileChannel}.
+     *
+     * @return this hasher
+     */
+    public Hasher update(File file) throws IOException {
+        final FileInputStream in = new FileInputStream(file);
+        try {
+            return update(in.getChannel());
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Same as {@link #digest()}, but returns the hash as a hex string.
+     */
+    public String digestHex() {
+        return SecurityUtil.toHex(digest());
+    }
+
+    @Override
+    public String toString() {
+        return "Hasher[" + getAlgorithm() + "]";
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////
+    //
+    //                      Helpers for implementations
+    //
+    //////////////////////////////////////////////////////////////////////////////////////////////
+
+    protected void checkDigestDest(byte[] dest, int offset) {
+        if (offset < 0 || dest.length - offset < getDigestLength())
+            throw new IllegalArgumentException(getDigestLength() + " bytes of hash don't fit into " +
+                    (dest.length - offset) + " bytes");
+    }
+
+    protected static int getIntLE(byte[] data, int i) {
+        return (data[i] & 0xFF) | (data[i + 1] & 0xFF) << 8 | (data[i + 2] & 0xFF) << 16 | data[i + 3] << 24;
+    }
+
+    protected static long getLongLE(byte[] data, int i) {
+        return (getIntLE(data, i) & 0xFFFFFFFFL) | ((long) getIntLE(data, i + 4)) << 32;
+    }
+
+    protected static void putLongLE(byte[] dest, int i, long value) {
+        for (int j = 0; j < 8; j++) dest[i + j] = (byte) (value >>> (j * 8));
+    }
+
+    protected static void putLongBE(byte[] dest, int i, long value) {
+        for (int j = 0; j < 8; j++) dest[i + j] = (byte) (value >>> (56 - j * 8));
+    }
+
+    protected static void putIntBE(byte[] dest, int i, int value) {
+        for (int j = 0; j < 4; j++) dest[i + j] = (byte) (value >>> (24 - j * 8));
+    }
+
+}
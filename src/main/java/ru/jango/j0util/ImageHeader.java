@@ -0,0 +1,705 @@
+/*
+ * The MIT License Copyright (c) 2014 Krayushkin Konstantin (jangokvk@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ru.jango.j0util;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Pure java image header parser: reads only the first bytes of the raw (not decoded) image data
+ * and extracts image dimensions, format, transparency, EXIF orientation and the position of the
+ * embedded EXIF thumbnail. Nothing is decoded, and the parser
+ * doesn't depend on Android, so it could be used anywhere.
+ * <br /><br />
+ * <p/>
+ * Supported formats are JPEG (SOFn markers and EXIF APP1), PNG (IHDR), GIF, WebP (VP8, VP8L and
+ * VP8X) and BMP. For other formats {@link #isValid()} returns false - in that case it's up to the
+ * caller to use something heavier, like {@link android.graphics.BitmapFactory}.
+ * <br /><br />
+ * <p/>
+ * Objects could be reused: {@link #read(byte[])} and others just overwrite the previous values.
+ * Objects are not thread safe.
+ *
+ * @see ru.jango.j0util.BmpUtil#extractSize(byte[])
+ */
+public class ImageHeader {
+
+    public enum Format { JPEG, PNG, GIF, WEBP, BMP, UNKNOWN }
+
+    /**
+     * Orientation is unknown: there were no EXIF data or the format doesn't support it.
+     */
+    public static final int ORIENTATION_UNDEFINED = 0;
+
+    /**
+     * EXIF orientation tag value, that means "no rotation needed". Others values are from 2 to 8
+     * as described in EXIF specification.
+     */
+    public static final int ORIENTATION_NORMAL = 1;
+
+    private static final int EXIF_ORIENTATION_TAG = 0x0112;
+    private static final int EXIF_THUMBNAIL_OFFSET_TAG = 0x0201;
+    private static final int EXIF_THUMBNAIL_LENGTH_TAG = 0x0202;
+    private static final int MAX_EXIF_SIZE = 64 * 1024;
+
+    /**
+     * How many bytes of PNG chunks before the image data could be scanned for the transparency
+     * chunk (tRNS); if the data starts later, image is treated as transparent.
+     */
+    private static final int MAX_PNG_SCAN_SIZE = 64 * 1024;
+
+    private Format format;
+    private int width;
+    private int height;
+    private int orientation;
+    private boolean alpha;
+    private int thumbnailOffset;
+    private int thumbnailLength;
+
+    private final ArrayReader arrayReader = new ArrayReader();
+    private final StreamReader streamReader = new StreamReader();
+    private byte[] exifBuffer;
+
+    public ImageHeader() {
+        clear();
+    }
+
+    /**
+     * Parses header from the raw (not decoded) image data.
+     *
+     * @return parsed header; if the format is not supported, {@link #isValid()} would be false
+     */
+    public static ImageHeader parse(byte[] data) {
+        final ImageHeader header = new ImageHeader();
+        header.read(data);
+        return header;
+    }
+
+    /**
+     * Parses header from the stream. Only the header is read from the stream, the stream is not
+     * closed or reset back.
+     *
+     * @return parsed header; if the format is not supported, {@link #isValid()} would be false
+     */
+    public static ImageHeader parse(InputStream in) throws IOException {
+        final ImageHeader header = new ImageHeader();
+        header.read(in);
+        return header;
+    }
+
+    /**
+     * Parses header from the file. Only the first bytes of the file are read.
+     *
+     * @return parsed header; if the format is not supported, {@link #isValid()} would be false
+     */
+    public static ImageHeader parse(File file) throws IOException {
+        final ImageHeader header = new ImageHeader();
+        header.read(file);
+        return header;
+    }
+
+    /**
+     * Same as {@link #parse(byte[])}, but reuses this object.
+     *
+     * @return true, if the header was parsed successfully
+     */
+    public boolean read(byte[] data) {
+        return read(data, 0, data.length);
+    }
+
+    /**
+     * Same as {@link #parse(byte[])}, but reuses this object and reads only the specified part
+     * of the array.
+     *
+     * @return true, if the header was parsed successfully
+     */
+    public boolean read(byte[] data, int offset, int length) {
+        arrayReader.reset(data, offset, length);
+        try {
+            return read(arrayReader);
+        } catch (IOException e) {
+            clear();
+            return false;
+        } finally {
+            arrayReader.reset(null, 0, 0);
+        }
+    }
+
+    /**
+     * Same as {@link #parse(java.io.InputStream)}, but reuses this object.
+     *
+     * @return true, if the header was parsed successfully
+     */
+    public boolean read(InputStream in) throws IOException {
+        streamReader.reset(in);
+        try {
+            return read(streamReader);
+        } catch (EOFException e) {
+            clear();
+            return false;
+        } finally {
+            streamReader.reset(null);
+        }
+    }
+
+    /**
+     * Same as {@link #parse(java.io.File)}, but reuses this object.
+     *
+     * @return true, if the header was parsed successfully
+     */
+    public boolean read(File file) throws IOException {
+        final InputStream in = new BufferedInputStream(new FileInputStream(file), 4096);
+        try {
+            return read(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    public void clear() {
+        format = Format.UNKNOWN;
+        width = height = 0;
+        orientation = ORIENTATION_UNDEFINED;
+        alpha = false;
+        thumbnailOffset = -1;
+        thumbnailLength = 0;
+    }
+
+    /**
+     * Returns true, if the image format was recognized and the dimensions were read.
+     */
+    public boolean isValid() {
+        return format != Format.UNKNOWN && width > 0 && height > 0;
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns EXIF orientation tag value (from 1 to 8), or {@link #ORIENTATION_UNDEFINED}.
+     */
+    public int getOrientation() {
+        return orientation;
+    }
+
+    /**
+     * Returns true, if the image may have transparent pixels. Answer is conservative: false means
+     * the image is surely opaque (JPEG, PNG without alpha channel and tRNS chunk, WebP without
+     * alpha, BMP less than 32 bits per pixel); GIF's are always treated as transparent.
+     */
+    public boolean hasAlpha() {
+        return alpha;
+    }
+
+    /**
+     * Returns true, if the image has an embedded JPEG thumbnail in EXIF data.
+     *
+     * @see #getThumbnailOffset()
+     */
+    public boolean hasThumbnail() {
+        return thumbnailOffset >= 0 && thumbnailLength > 0;
+    }
+
+    /**
+     * Returns offset of the embedded EXIF thumbnail from the start of the image data, or -1.
+     * Thumbnail is a complete JPEG image of {@link #getThumbnailLength()} bytes.
+     */
+    public int getThumbnailOffset() {
+        return thumbnailOffset;
+    }
+
+    /**
+     * Returns size of the embedded EXIF thumbnail in bytes, or 0.
+     */
+    public int getThumbnailLength() {
+        return thumbnailLength;
+    }
+
+    /**
+     * Returns image width after applying EXIF orientation.
+     */
+    public int getOrientedWidth() {
+        return isTransposed(orientation) ? height : width;
+    }
+
+    /**
+     * Returns image height after applying EXIF orientation.
+     */
+    public int getOrientedHeight() {
+        return isTransposed(orientation) ? width : height;
+    }
+
+    /**
+     * Returns clockwise rotation in degrees (0, 90, 180 or 270), that should be applied to the
+     * image according to the EXIF orientation. Rotation is applied before the mirroring.
+     *
+     * @param orientation EXIF orientation tag value
+     * @see #isMirrored(int)
+     */
+    public static int getRotationDegrees(int orientation) {
+        switch (orientation) {
+            case 3:
+            case 4:
+                return 180;
+
+            case 5:
+            case 6:
+                return 90;
+
+            case 7:
+            case 8:
+                return 270;
+
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Returns true, if the image should be mirrored horizontally (after rotation) according to
+     * the EXIF orientation.
+     *
+     * @param orientation EXIF orientation tag value
+     * @see #getRotationDegrees(int)
+     */
+    public static boolean isMirrored(int orientation) {
+        return orientation == 2 || orientation == 4 || orientation == 5 || orientation == 7;
+    }
+
+    /**
+     * Returns true, if width and height are swapped by the EXIF orientation.
+     *
+     * @param orientation EXIF orientation tag value
+     */
+    public static boolean isTransposed(int orientation) {
+        return orientation >= 5 && orientation <= 8;
+    }
+
+    @Override
+    public String toString() {
+        return format + " " + width + "x" + height + (alpha ? ", alpha" : "") + ", orientation " + orientation +
+                (hasThumbnail() ? ", thumbnail " + thumbnailLength + " bytes at " + thumbnailOffset : "");
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////
+    //
+    //                      Format parsers
+    //
+    //////////////////////////////////////////////////////////////////////////////////////////////
+
+    private boolean read(Reader r) throws IOException {
+        clear();
+
+        final int b0 = r.read();
+        final int b1 = r.read();
+        if (b0 == 0xFF && b1 == 0xD8) readJpeg(r);
+        else if (b0 == 0x89 && b1 == 'P') readPng(r);
+        else if (b0 == 'G' && b1 == 'I') readGif(r);
+        else if (b0 == 'R' && b1 == 'I') readWebP(r);
+        else if (b0 == 'B' && b1 == 'M') readBmp(r);
+
+        if (!isValid()) clear();
+        return isValid();
+    }
+
+    private void readJpeg(Reader r) throws IOException {
+        while (true) {
+            // looking for the marker: 0xFF, maybe some fill 0xFF's and the marker code
+            int marker = r.read();
+            if (marker != 0xFF) return;
+            while (marker == 0xFF) marker = r.read();
+
+            // standalone markers without length
+            if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD8)) continue;
+            // start of scan or end of image - no frame header was found
+            if (marker == 0xDA || marker == 0xD9) return;
+
+            final int length = r.readU16BE() - 2;
+            if (length < 0) return;
+
+            if (marker >= 0xC0 && marker <= 0xCF &&
+                    marker != 0xC4 && marker != 0xC8 && marker != 0xCC) {
+                // SOFn: precision, height, width
+                r.skip(1);
+                final int h = r.readU16BE();
+                final int w = r.readU16BE();
+
+                format = Format.JPEG;
+                width = w;
+                height = h;
+                return;
+            }
+
+            if (marker == 0xE1 && orientation == ORIENTATION_UNDEFINED && length <= MAX_EXIF_SIZE) {
+                if (exifBuffer == null || exifBuffer.length < length) exifBuffer = new byte[length];
+                final long start = r.position();
+                r.readFully(exifBuffer, length);
+                parseExif(exifBuffer, length, start);
+            } else r.skip(length);
+        }
+    }
+
+    /**
+     * Looks for the orientation tag in IFD0 and for the thumbnail in IFD1 of the EXIF APP1
+     * segment.
+     *
+     * @param start position of the segment data in the image data
+     */
+    private void parseExif(byte[] data, int length, long start) {
+        // "Exif\0\0" and TIFF header
+        if (length < 14 || data[0] != 'E' || data[1] != 'x' || data[2] != 'i' || data[3] != 'f' ||
+                data[4] != 0 || data[5] != 0) return;
+
+        final int tiff = 6;
+        final boolean le;
+        if (data[tiff] == 'I' && data[tiff + 1] == 'I') le = true;
+        else if (data[tiff] == 'M' && data[tiff + 1] == 'M') le = false;
+        else return;
+
+        if (u16(data, tiff + 2, le) != 42) return;
+
+        final long ifd0 = u32(data, tiff + 4, le);
+        if (ifd0 < 8 || tiff + ifd0 + 2 > length) return;
+
+        int ifd = tiff + (int) ifd0;
+        int count = u16(data, ifd, le);
+        for (int i = 0; i < count; i++) {
+            final int entry = ifd + 2 + i * 12;
+            if (entry + 12 > length) return;
+
+            if (u16(data, entry, le) == EXIF_ORIENTATION_TAG) {
+                // type SHORT, the value is stored right in the entry
+                final int value = u16(data, entry + 8, le);
+                if (value >= 1 && value <= 8) orientation = value;
+            }
+        }
+
+        // IFD1 describes the thumbnail
+        final int next = ifd + 2 + count * 12;
+        if (next + 4 > length) return;
+        final long ifd1 = u32(data, next, le);
+        if (ifd1 < 8 || tiff + ifd1 + 2 > length) return;
+
+        ifd = tiff + (int) ifd1;
+        count = u16(data, ifd, le);
+        long offset = -1;
+        long size = 0;
+        for (int i = 0; i < count; i++) {
+            final int entry = ifd + 2 + i * 12;
+            if (entry + 12 > length) return;
+
+            // type LONG
+            final int tag = u16(data, entry, le);
+            if (tag == EXIF_THUMBNAIL_OFFSET_TAG) offset = u32(data, entry + 8, le);
+            else if (tag == EXIF_THUMBNAIL_LENGTH_TAG) size = u32(data, entry + 8, le);
+        }
+
+        // thumbnail must lie inside the segment
+        if (offset < 0 || size <= 0 || tiff + offset + size > length) return;
+        thumbnailOffset = (int) (start + tiff + offset);
+        thumbnailLength = (int) size;
+    }
+
+    private void readPng(Reader r) throws IOException {
+        // rest of the signature
+        if (r.read() != 'N' || r.read() != 'G' || r.read() != 0x0D || r.read() != 0x0A ||
+                r.read() != 0x1A || r.read() != 0x0A) return;
+
+        // the first chunk must be IHDR
+        r.skip(4);
+        if (r.read() != 'I' || r.read() != 'H' || r.read() != 'D' || r.read() != 'R') return;
+
+        final long w = r.readU32BE();
+        final long h = r.readU32BE();
+        if (w > Integer.MAX_VALUE || h > Integer.MAX_VALUE) return;
+
+        format = Format.PNG;
+        width = (int) w;
+        height = (int) h;
+
+        try {
+            // bit depth, color type
+            r.skip(1);
+            final int colorType = r.read();
+            // grayscale with alpha or RGBA
+            alpha = colorType == 4 || colorType == 6 || hasTransparencyChunk(r);
+        } catch (EOFException e) {
+            // nothing more is known
+            alpha = true;
+        }
+    }
+
+    /**
+     * Looks through the PNG chunks after IHDR for tRNS, that makes other color types transparent.
+     */
+    private static boolean hasTransparencyChunk(Reader r) throws IOException {
+        // compression, filter, interlace and IHDR CRC
+        r.skip(3 + 4);
+
+        long scanned = 0;
+        while (scanned < MAX_PNG_SCAN_SIZE) {
+            final long length = r.readU32BE();
+            final int t0 = r.read();
+            final int t1 = r.read();
+            final int t2 = r.read();
+            final int t3 = r.read();
+
+            if (t0 == 't' && t1 == 'R' && t2 == 'N' && t3 == 'S') return true;
+            // tRNS must precede the image data
+            if ((t0 == 'I' && t1 == 'D' && t2 == 'A' && t3 == 'T') ||
+                    (t0 == 'I' && t1 == 'E' && t2 == 'N' && t3 == 'D')) return false;
+
+            // data and CRC
+            r.skip(length + 4);
+            scanned += length + 12;
+        }
+
+        return true;
+    }
+
+    private void readGif(Reader r) throws IOException {
+        if (r.read() != 'F' || r.read() != '8') return;
+        final int v = r.read();
+        if ((v != '7' && v != '9') || r.read() != 'a') return;
+
+        format = Format.GIF;
+        width = r.readU16LE();
+        height = r.readU16LE();
+        // transparency is set in graphic control extensions, that could be anywhere
+        alpha = true;
+    }
+
+    private void readWebP(Reader r) throws IOException {
+        if (r.read() != 'F' || r.read() != 'F') return;
+        r.skip(4);
+        if (r.read() != 'W' || r.read() != 'E' || r.read() != 'B' || r.read() != 'P') return;
+
+        final int c0 = r.read();
+        final int c1 = r.read();
+        final int c2 = r.read();
+        final int c3 = r.read();
+        if (c0 != 'V' || c1 != 'P' || c2 != '8') return;
+        r.skip(4);
+
+        if (c3 == ' ') {
+            // lossy: frame tag, start code and 14 bit dimensions
+            r.skip(3);
+            if (r.read() != 0x9D || r.read() != 0x01 || r.read() != 0x2A) return;
+            width = r.readU16LE() & 0x3FFF;
+            height = r.readU16LE() & 0x3FFF;
+        } else if (c3 == 'L') {
+            // lossless: signature and 14 bit (dimension - 1) values
+            if (r.read() != 0x2F) return;
+            final long bits = r.readU32LE();
+            width = (int) (bits & 0x3FFF) + 1;
+            height = (int) ((bits >> 14) & 0x3FFF) + 1;
+            alpha = ((bits >> 28) & 1) != 0;
+        } else if (c3 == 'X') {
+            // extended: flags, reserved and 24 bit (dimension - 1) values
+            alpha = (r.read() & 0x10) != 0;
+            r.skip(3);
+            width = r.readU24LE() + 1;
+            height = r.readU24LE() + 1;
+        } else return;
+
+        format = Format.WEBP;
+    }
+
+    private void readBmp(Reader r) throws IOException {
+        // file size, reserved, pixel data offset
+        r.skip(12);
+
+        final long headerSize = r.readU32LE();
+        if (headerSize == 12) {
+            width = r.readU16LE();
+            height = r.readU16LE();
+        } else if (headerSize >= 40) {
+            width = (int) r.readU32LE();
+            // negative height means top-down bitmap
+            height = Math.abs((int) r.readU32LE());
+        } else return;
+
+        format = Format.BMP;
+
+        try {
+            // planes, bits per pixel
+            r.skip(2);
+            alpha = r.readU16LE() == 32;
+        } catch (EOFException e) {
+            alpha = true;
+        }
+    }
+
+    private static int u16(byte[] data, int offset, boolean le) {
+        final int b0 = data[offset] & 0xFF;
+        final int b1 = data[offset + 1] & 0xFF;
+        return le ? (b1 << 8) | b0 : (b0 << 8) | b1;
+    }
+
+    private static long u32(byte[] data, int offset, boolean le) {
+        final long hi = u16(data, offset + (le ? 2 : 0), le);
+        final long lo = u16(data, offset + (le ? 0 : 2), le);
+        return (hi << 16) | lo;
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////
+    //
+    //                      Readers
+    //
+    //////////////////////////////////////////////////////////////////////////////////////////////
+
+    private static abstract class Reader {
+
+        /**
+         * Returns the next byte; throws {@link java.io.EOFException} at the end of data.
+         */
+        abstract int read() throws IOException;
+
+        abstract void skip(long n) throws IOException;
+
+        abstract void readFully(byte[] buffer, int length) throws IOException;
+
+        /**
+         * Returns count of bytes read or skipped since the start of the data.
+         */
+        abstract long position();
+
+        int readU16BE() throws IOException {
+            return (read() << 8) | read();
+        }
+
+        int readU16LE() throws IOException {
+            return read() | (read() << 8);
+        }
+
+        int readU24LE() throws IOException {
+            return read() | (read() << 8) | (read() << 16);
+        }
+
+        long readU32BE() throws IOException {
+            return ((long) readU16BE() << 16) | readU16BE();
+        }
+
+        long readU32LE() throws IOException {
+            return readU16LE() | ((long) readU16LE() << 16);
+        }
+    }
+
+    private static class ArrayReader extends Reader {
+        private byte[] data;
+        private int start;
+        private int pos;
+        private int end;
+
+        void reset(byte[] data, int offset, int length) {
+            this.data = data;
+            this.start = offset;
+            this.pos = offset;
+            this.end = offset + length;
+        }
+
+        @Override
+        long position() {
+            return pos - start;
+        }
+
+        @Override
+        int read() throws IOException {
+            if (pos >= end) throw new EOFException();
+            return data[pos++] & 0xFF;
+        }
+
+        @Override
+        void skip(long n) throws IOException {
+            if (n > end - pos) throw new EOFException();
+            pos += (int) n;
+        }
+
+        @Override
+        void readFully(byte[] buffer, int length) throws IOException {
+            if (length > end - pos) throw new EOFException();
+            System.arraycopy(data, pos, buffer, 0, length);
+            pos += length;
+        }
+    }
+
+    private static class StreamReader extends Reader {
+        private InputStream in;
+        private long pos;
+
+        void reset(InputStream in) {
+            this.in = in;
+            this.pos = 0;
+        }
+
+        @Override
+        long position() {
+            return pos;
+        }
+
+        @Override
+        int read() throws IOException {
+            final int b = in.read();
+            if (b == -1) throw new EOFException();
+            pos++;
+            return b;
+        }
+
+        @Override
+        void skip(long n) throws IOException {
+            while (n > 0) {
+                final long skipped = in.skip(n);
+                if (skipped > 0) {
+                    n -= skipped;
+                    pos += skipped;
+                } else {
+                    // skip() may return 0 without reaching the end, so check it by reading
+                    read();
+                    n--;
+                }
+            }
+        }
+
+        @Override
+        void readFully(byte[] buffer, int length) throws IOException {
+            int done = 0;
+            while (done < length) {
+                final int read = in.read(buffer, done, length - done);
+                if (read == -1) throw new EOFException();
+                done += read;
+            }
+            pos += length;
+        }
+    }
+
+}
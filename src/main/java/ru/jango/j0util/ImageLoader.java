@@ -0,0 +1,472 @@
+/*
+ * The MIT License Copyright (c) 2014 Krayushkin Konstantin (jangokvk@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ru.jango.j0util;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Asynchronous image loader around {@link ru.jango.j0util.BmpUtil#scale(java.io.File, ru.jango.j0util.BmpUtil.ScaleType, int, int)}
+ * and {@link ru.jango.j0util.BmpUtil#rotate(android.graphics.Bitmap, ru.jango.j0util.BmpUtil.ScaleType, int)}:
+ * <br />
+ * - requests for the same image with the same params are coalesced, so the image is decoded
+ * only once and delivered to all the listeners <br />
+ * - images are decoded on a bounded thread pool; requests with higher priority go first, so
+ * visible items could overtake the prefetched ones <br />
+ * - requests could be cancelled; image, witch nobody waits for any more, is not decoded at all
+ * (or is thrown away, if it's already being decoded) <br />
+ * - results are delivered through the {@link android.os.Handler} (main thread by default)
+ * <br /><br />
+ * <p/>
+ * For lists and grids pass the view as the request target: new request for the same target
+ * cancels the previous one, so recycled views don't get wrong images.
+ * <br /><br />
+ * <p/>
+ * If a {@link ru.jango.j0util.ScaledBitmapCache} is set, loaded images are cached there, and
+ * memory cache hits are delivered right away. Delivered bitmaps are shared between the listeners
+ * (and the cache), so don't recycle them. Loader is thread safe.
+ */
+public class ImageLoader {
+
+    public static final int PRIORITY_LOW = 0;
+    public static final int PRIORITY_NORMAL = 5;
+    public static final int PRIORITY_HIGH = 10;
+
+    public interface Listener {
+
+        /**
+         * Called on the delivery thread, when the image is ready.
+         */
+        public void onLoaded(Request request, Bitmap bmp);
+
+        /**
+         * Called on the delivery thread, when the image couldn't be loaded.
+         */
+        public void onFailed(Request request, Throwable error);
+
+    }
+
+    /**
+     * Handle for the requested image.
+     */
+    public static class Request {
+
+        private final ImageLoader loader;
+        private final Job job;
+        private final Object target;
+        private final Listener listener;
+        private int priority;
+        private volatile boolean cancelled;
+        private volatile boolean finished;
+
+        private Request(ImageLoader loader, Job job, Object target, Listener listener, int priority) {
+            this.loader = loader;
+            this.job = job;
+            this.target = target;
+            this.listener = listener;
+            this.priority = priority;
+        }
+
+        /**
+         * Cancels the request: listener won't be called (if it wasn't yet).
+         */
+        public void cancel() {
+            loader.cancelRequest(this);
+        }
+
+        /**
+         * Changes priority of the request; if the image is still waiting in the queue, it's moved.
+         */
+        public void setPriority(int priority) {
+            loader.setPriority(this, priority);
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * Returns true, if the listener was already called.
+         */
+        public boolean isFinished() {
+            return finished;
+        }
+
+        public Object getTarget() {
+            return target;
+        }
+
+        public String getSourceId() {
+            return job.sourceId;
+        }
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final ScaledBitmapCache cache;
+    private final AtomicLong sequence;
+
+    private final Map<String, Job> jobs;
+    private final Map<Object, Request> targets;
+    private Handler handler;
+    private boolean shutdown;
+
+    /**
+     * Creates loader without cache and with thread count equal to the CPU cores count.
+     */
+    public ImageLoader() {
+        this(Runtime.getRuntime().availableProcessors(), null);
+    }
+
+    /**
+     * @param threadCount maximum count of the images decoded at the same time
+     * @param cache       cache for the loaded images, may be NULL
+     */
+    public ImageLoader(int threadCount, ScaledBitmapCache cache) {
+        if (threadCount <= 0) throw new IllegalArgumentException("threadCount <= 0");
+
+        this.cache = cache;
+        this.sequence = new AtomicLong();
+        this.jobs = new HashMap<String, Job>();
+        this.targets = new WeakHashMap<Object, Request>();
+        this.handler = new Handler(Looper.getMainLooper());
+
+        this.executor = new ThreadPoolExecutor(threadCount, threadCount, 1, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread t = new Thread(r, "ImageLoader");
+                t.setPriority(Thread.NORM_PRIORITY - 1);
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Sets handler for calling listeners; by default listeners are called on the main thread.
+     */
+    public synchronized void setDeliveryHandler(Handler handler) {
+        this.handler = handler;
+    }
+
+    public ScaledBitmapCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Loads image from the file, scales and rotates it.
+     *
+     * @param file      raw (not decoded) image file
+     * @param scaleType scaling option
+     * @param w         target width
+     * @param h         target height
+     * @param rotation  rotation angle in degrees
+     * @param priority  request priority, the higher - the earlier
+     * @param target    object (usually view), witch the image is loaded for, may be NULL
+     * @param listener  result listener
+     * @return request handle
+     * @see ru.jango.j0util.BmpUtil#scale(java.io.File, ru.jango.j0util.BmpUtil.ScaleType, int, int)
+     */
+    public Request load(File file, BmpUtil.ScaleType scaleType, int w, int h, int rotation,
+                        int priority, Object target, Listener listener) {
+        return load(ScaledBitmapCache.genSourceId(file), file, null, scaleType, w, h, rotation,
+                priority, target, listener);
+    }
+
+    /**
+     * Same as {@link #load(java.io.File, ru.jango.j0util.BmpUtil.ScaleType, int, int, int, int, Object, ru.jango.j0util.ImageLoader.Listener)},
+     * but the image is decoded from the byte array.
+     *
+     * @param sourceId id of the image (url, etc.) for coalescing and caching
+     * @param data     raw (not decoded) image data as byte array
+     */
+    public Request load(String sourceId, byte[] data, BmpUtil.ScaleType scaleType, int w, int h,
+                        int rotation, int priority, Object target, Listener listener) {
+        return load(sourceId, null, data, scaleType, w, h, rotation, priority, target, listener);
+    }
+
+    /**
+     * Cancels the request for the target, if there is one.
+     */
+    public synchronized void cancel(Object target) {
+        final Request request = targets.get(target);
+        if (request != null) cancelLocked(request);
+    }
+
+    /**
+     * Cancels all requests; images, that are already being decoded, are thrown away.
+     */
+    public synchronized void cancelAll() {
+        for (Job job : new ArrayList<Job>(jobs.values()))
+            for (Request request : new ArrayList<Request>(job.requests))
+                cancelLocked(request);
+    }
+
+    /**
+     * Cancels all requests and stops the threads. Loader can't be used after that.
+     */
+    public synchronized void shutdown() {
+        cancelAll();
+        shutdown = true;
+        executor.shutdownNow();
+    }
+
+    /**
+     * Returns count of images, that are waiting or being decoded.
+     */
+    public synchronized int getPendingCount() {
+        return jobs.size();
+    }
+
+    /**
+     * Decodes image from the file; called on the worker thread.
+     *
+     * @return decoded image, or NULL
+     */
+    protected Bitmap decode(File file, BmpUtil.ScaleType scaleType, int w, int h, int rotation) {
+        if (cache != null) return cache.getOrScale(file, scaleType, w, h, rotation);
+        return rotate(BmpUtil.scale(file, scaleType, w, h), rotation);
+    }
+
+    /**
+     * Decodes image from the byte array; called on the worker thread.
+     *
+     * @return decoded image, or NULL
+     */
+    protected Bitmap decode(String sourceId, byte[] data, BmpUtil.ScaleType scaleType, int w, int h, int rotation) {
+        if (cache != null) return cache.getOrScale(sourceId, data, scaleType, w, h, rotation);
+        return rotate(BmpUtil.scale(data, scaleType, w, h), rotation);
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////
+    //
+    //                      Requests
+    //
+    //////////////////////////////////////////////////////////////////////////////////////////////
+
+    private Request load(String sourceId, File file, byte[] data, BmpUtil.ScaleType scaleType,
+                         int w, int h, int rotation, int priority, Object target, Listener listener) {
+        final String key = ScaledBitmapCache.genKey(sourceId, scaleType, w, h, rotation);
+        final Bitmap cached = cache != null ? cache.getMemoryCache().get(key) : null;
+
+        final Request request;
+        final Handler delivery;
+        synchronized (this) {
+            if (shutdown) throw new IllegalStateException("loader is shut down");
+            if (target != null) cancel(target);
+
+            Job job = jobs.get(key);
+            if (job == null) job = new Job(key, sourceId, file, data, scaleType, w, h, rotation);
+
+            request = new Request(this, job, target, listener, priority);
+            if (target != null) targets.put(target, request);
+            delivery = handler;
+
+            if (cached == null || cached.isRecycled()) {
+                job.requests.add(request);
+                if (!jobs.containsKey(key)) {
+                    jobs.put(key, job);
+                    job.priority = priority;
+                    executor.execute(job);
+                } else if (priority > job.priority) reschedule(job, priority);
+
+                return request;
+            }
+        }
+
+        // memory cache hit: on the delivery thread it's delivered right away, so list items don't
+        // blink with a placeholder
+        if (delivery.getLooper() == Looper.myLooper()) deliver(request, cached, null);
+        else post(delivery, request, cached, null);
+
+        return request;
+    }
+
+    private synchronized void cancelRequest(Request request) {
+        cancelLocked(request);
+    }
+
+    private void cancelLocked(Request request) {
+        if (request.cancelled || request.finished) return;
+        request.cancelled = true;
+
+        if (request.target != null && targets.get(request.target) == request)
+            targets.remove(request.target);
+
+        final Job job = request.job;
+        if (!job.requests.remove(request) || !job.requests.isEmpty()) return;
+
+        // nobody waits for the image: if it's still in the queue - don't decode at all, if it's
+        // already being decoded - result will be thrown away
+        if (executor.remove(job)) jobs.remove(job.key);
+    }
+
+    private synchronized void setPriority(Request request, int priority) {
+        request.priority = priority;
+        if (request.cancelled || request.finished || !request.job.requests.contains(request)) return;
+
+        int jobPriority = Integer.MIN_VALUE;
+        for (Request r : request.job.requests) jobPriority = Math.max(jobPriority, r.priority);
+        if (jobPriority != request.job.priority) reschedule(request.job, jobPriority);
+    }
+
+    /**
+     * {@link java.util.concurrent.PriorityBlockingQueue} doesn't resort its elements, so the job
+     * is removed and added again. Running jobs are not touched.
+     */
+    private void reschedule(Job job, int priority) {
+        if (executor.remove(job)) {
+            job.priority = priority;
+            executor.execute(job);
+        } else job.priority = priority;
+    }
+
+    private void jobFinished(Job job, Bitmap bmp, Throwable error) {
+        final List<Request> requests;
+        final Handler delivery;
+        synchronized (this) {
+            jobs.remove(job.key);
+            requests = new ArrayList<Request>(job.requests);
+            job.requests.clear();
+            delivery = handler;
+        }
+
+        if (requests.isEmpty()) {
+            // everybody has cancelled; cached bitmap still could be used by others
+            if (bmp != null && cache == null) bmp.recycle();
+            return;
+        }
+
+        for (Request request : requests) post(delivery, request, bmp, error);
+    }
+
+    private void post(Handler delivery, final Request request, final Bitmap bmp, final Throwable error) {
+        delivery.post(new Runnable() {
+            @Override
+            public void run() {
+                deliver(request, bmp, error);
+            }
+        });
+    }
+
+    private void deliver(Request request, Bitmap bmp, Throwable error) {
+        synchronized (this) {
+            // request could be cancelled after posting
+            if (request.cancelled || request.finished) return;
+            request.finished = true;
+
+            if (request.target != null && targets.get(request.target) == request)
+                targets.remove(request.target);
+        }
+
+        if (bmp != null) request.listener.onLoaded(request, bmp);
+        else request.listener.onFailed(request, error);
+    }
+
+    private static Bitmap rotate(Bitmap bmp, int rotation) {
+        if (bmp == null || rotation % 360 == 0) return bmp;
+
+        final Bitmap rotated = BmpUtil.rotate(bmp, null, rotation);
+        if (rotated != bmp) bmp.recycle();
+        return rotated;
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////
+    //
+    //                      Jobs
+    //
+    //////////////////////////////////////////////////////////////////////////////////////////////
+
+    private class Job implements Runnable, Comparable<Job> {
+
+        final String key;
+        final String sourceId;
+        final File file;
+        final byte[] data;
+        final BmpUtil.ScaleType scaleType;
+        final int w;
+        final int h;
+        final int rotation;
+        final List<Request> requests;
+        final long seq;
+        int priority;
+
+        Job(String key, String sourceId, File file, byte[] data, BmpUtil.ScaleType scaleType,
+            int w, int h, int rotation) {
+            this.key = key;
+            this.sourceId = sourceId;
+            this.file = file;
+            this.data = data;
+            this.scaleType = scaleType;
+            this.w = w;
+            this.h = h;
+            this.rotation = rotation;
+            this.requests = new ArrayList<Request>();
+            this.seq = sequence.incrementAndGet();
+        }
+
+        @Override
+        public void run() {
+            synchronized (ImageLoader.this) {
+                if (requests.isEmpty()) {
+                    jobs.remove(key);
+                    return;
+                }
+            }
+
+            Bitmap bmp = null;
+            Throwable error = null;
+            try {
+                bmp = file != null
+                        ? decode(file, scaleType, w, h, rotation)
+                        : decode(sourceId, data, scaleType, w, h, rotation);
+                if (bmp == null) error = new IllegalArgumentException("can't decode " + sourceId);
+            } catch (Throwable e) {
+                // OutOfMemoryError included
+                LogUtil.w(ImageLoader.class, "can't load " + sourceId + ": " + e);
+                error = e;
+            }
+
+            jobFinished(this, bmp, error);
+        }
+
+        @Override
+        public int compareTo(Job another) {
+            // higher priority first, then in order of requesting
+            if (priority != another.priority) return priority > another.priority ? -1 : 1;
+            return seq < another.seq ? -1 : (seq == another.seq ? 0 : 1);
+        }
+    }
+
+}
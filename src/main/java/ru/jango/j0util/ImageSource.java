@@ -0,0 +1,450 @@
+/*
+ * The MIT License Copyright (c) 2014 Krayushkin Konstantin (jangokvk@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ru.jango.j0util;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Point;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Raw (not decoded) image data for the {@link ru.jango.j0util.BmpUtil} methods: byte array,
+ * stream, file, file descriptor or {@link java.nio.ByteBuffer} (including memory-mapped files).
+ * <br /><br />
+ * <p/>
+ * Memory-mapped sources are the cheapest way to work with large local files: header probing
+ * touches only the first pages of the file, and decoding reads the mapped memory in small chunks
+ * without copying the whole file into a java byte array. See {@link #map(java.io.File)}.
+ * <br /><br />
+ * <p/>
+ * All sources, except streams, could be read several times. Stream source could be decoded only
+ * once, and bitmaps from {@link ru.jango.j0util.BitmapPool} are not used with it, as decoding
+ * can't be repeated, if the pooled bitmap doesn't fit.
+ */
+public abstract class ImageSource {
+
+    private static final int STREAM_BUFFER_SIZE = 16 * 1024;
+
+    /**
+     * Source for the byte array.
+     */
+    public static ImageSource of(byte[] data) {
+        return new ArraySource(data, 0, data.length);
+    }
+
+    /**
+     * Source for the part of the byte array.
+     */
+    public static ImageSource of(byte[] data, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > data.length)
+            throw new IndexOutOfBoundsException("offset " + offset + ", length " + length);
+
+        return new ArraySource(data, offset, length);
+    }
+
+    /**
+     * Source for the stream; stream is wrapped into {@link java.io.BufferedInputStream}, if it
+     * doesn't support mark/reset. Stream is not closed.
+     */
+    public static ImageSource of(InputStream in) {
+        return new StreamSource(in.markSupported() ? in : new BufferedInputStream(in, STREAM_BUFFER_SIZE));
+    }
+
+    /**
+     * Source for the file; file is opened by {@link android.graphics.BitmapFactory} for every
+     * decoding.
+     */
+    public static ImageSource of(File file) {
+        return new FileSource(file);
+    }
+
+    /**
+     * Source for the file descriptor; descriptor should be seekable (a regular file, not a pipe
+     * or socket).
+     */
+    public static ImageSource of(FileDescriptor fd) {
+        return new DescriptorSource(fd);
+    }
+
+    /**
+     * Source for the buffer content from its current position till its limit. Buffer's position
+     * is not changed by reading.
+     */
+    public static ImageSource of(ByteBuffer buffer) {
+        return new BufferSource(buffer.slice());
+    }
+
+    /**
+     * Maps the whole file into memory (read only). File is closed right away, mapping stays valid
+     * till the source is garbage collected.
+     *
+     * @see java.nio.channels.FileChannel#map(java.nio.channels.FileChannel.MapMode, long, long)
+     */
+    public static ImageSource map(File file) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            return map(raf.getChannel(), 0, raf.length());
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Maps the region of the file (read only), for example, an image inside a bigger container.
+     * Channel is not closed.
+     *
+     * @param channel  file channel
+     * @param position start of the image in the file
+     * @param size     image size in bytes, not more than Integer.MAX_VALUE
+     */
+    public static ImageSource map(FileChannel channel, long position, long size) throws IOException {
+        if (size > Integer.MAX_VALUE) throw new IllegalArgumentException("region is too large: " + size);
+        return new BufferSource(channel.map(FileChannel.MapMode.READ_ONLY, position, size));
+    }
+
+    /**
+     * Parses image header; only the first bytes of the data are read.
+     *
+     * @return parsed header; if the format is not supported, {@link ImageHeader#isValid()}
+     * would be false
+     */
+    public abstract ImageHeader readHeader() throws IOException;
+
+    /**
+     * Decodes image with {@link android.graphics.BitmapFactory}.
+     *
+     * @return decoded image, or NULL (see BitmapFactory docs)
+     */
+    public abstract Bitmap decode(BitmapFactory.Options ops) throws IOException;
+
+    /**
+     * Reads a part of the data, for example, the embedded EXIF thumbnail.
+     *
+     * @param offset offset from the start of the image data
+     * @param length byte count
+     * @return read bytes, or NULL, if the source doesn't support random reading (file
+     * descriptors) or the part is out of the data
+     * @see ru.jango.j0util.ImageHeader#getThumbnailOffset()
+     */
+    public abstract byte[] read(int offset, int length) throws IOException;
+
+    /**
+     * Returns true, if the source could be decoded several times.
+     */
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    /**
+     * Looks for the image size: known formats are parsed by {@link ru.jango.j0util.ImageHeader},
+     * for others only bounds are decoded with {@link android.graphics.BitmapFactory}.
+     *
+     * @see ru.jango.j0util.BmpUtil#extractSize(byte[])
+     */
+    public Point extractSize() throws IOException {
+        final ImageHeader header = readHeader();
+        if (header.isValid()) return new Point(header.getWidth(), header.getHeight());
+
+        final BitmapFactory.Options ops = new BitmapFactory.Options();
+        ops.inJustDecodeBounds = true;
+        decode(ops);
+
+        return new Point(ops.outWidth, ops.outHeight);
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////
+    //
+    //                      Implementations
+    //
+    //////////////////////////////////////////////////////////////////////////////////////////////
+
+    private static class ArraySource extends ImageSource {
+
+        private final byte[] data;
+        private final int offset;
+        private final int length;
+
+        ArraySource(byte[] data, int offset, int length) {
+            this.data = data;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public ImageHeader readHeader() {
+            final ImageHeader header = new ImageHeader();
+            header.read(data, offset, length);
+            return header;
+        }
+
+        @Override
+        public Bitmap decode(BitmapFactory.Options ops) {
+            return BitmapFactory.decodeByteArray(data, offset, length, ops);
+        }
+
+        @Override
+        public byte[] read(int offset, int length) {
+            if (offset < 0 || length < 0 || offset + length > this.length) return null;
+
+            final byte[] ret = new byte[length];
+            System.arraycopy(data, this.offset + offset, ret, 0, length);
+            return ret;
+        }
+    }
+
+    private static class StreamSource extends ImageSource {
+
+        private final InputStream in;
+
+        StreamSource(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public ImageHeader readHeader() throws IOException {
+            in.mark(BmpUtil.HEADER_MARK_LIMIT);
+            final ImageHeader header = ImageHeader.parse(in);
+            in.reset();
+
+            return header;
+        }
+
+        @Override
+        public Point extractSize() throws IOException {
+            // takes care of the stream's mark
+            return BmpUtil.extractSize(in);
+        }
+
+        @Override
+        public Bitmap decode(BitmapFactory.Options ops) {
+            return BitmapFactory.decodeStream(in, null, ops);
+        }
+
+        /**
+         * Works only within {@link ru.jango.j0util.BmpUtil#HEADER_MARK_LIMIT}; stream is reset
+         * back after reading.
+         */
+        @Override
+        public byte[] read(int offset, int length) throws IOException {
+            if (offset < 0 || length < 0 || (long) offset + length > BmpUtil.HEADER_MARK_LIMIT) return null;
+
+            in.mark(BmpUtil.HEADER_MARK_LIMIT);
+            try {
+                return readFully(in, offset, length);
+            } finally {
+                in.reset();
+            }
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return false;
+        }
+    }
+
+    private static class FileSource extends ImageSource {
+
+        private final File file;
+
+        FileSource(File file) {
+            this.file = file;
+        }
+
+        @Override
+        public ImageHeader readHeader() throws IOException {
+            return ImageHeader.parse(file);
+        }
+
+        @Override
+        public Bitmap decode(BitmapFactory.Options ops) {
+            return BitmapFactory.decodeFile(file.getAbsolutePath(), ops);
+        }
+
+        @Override
+        public byte[] read(int offset, int length) throws IOException {
+            final RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                if (offset < 0 || length < 0 || (long) offset + length > raf.length()) return null;
+
+                final byte[] ret = new byte[length];
+                raf.seek(offset);
+                raf.readFully(ret);
+                return ret;
+            } finally {
+                raf.close();
+            }
+        }
+    }
+
+    private static class DescriptorSource extends ImageSource {
+
+        private final FileDescriptor fd;
+
+        DescriptorSource(FileDescriptor fd) {
+            this.fd = fd;
+        }
+
+        @Override
+        public ImageHeader readHeader() {
+            // reading the header would move descriptor's offset
+            return new ImageHeader();
+        }
+
+        @Override
+        public Bitmap decode(BitmapFactory.Options ops) {
+            return BitmapFactory.decodeFileDescriptor(fd, null, ops);
+        }
+
+        @Override
+        public byte[] read(int offset, int length) {
+            return null;
+        }
+    }
+
+    private static class BufferSource extends ImageSource {
+
+        private final ByteBuffer buffer;
+
+        BufferSource(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public ImageHeader readHeader() throws IOException {
+            if (buffer.hasArray()) {
+                final ImageHeader header = new ImageHeader();
+                header.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                return header;
+            }
+
+            return ImageHeader.parse(new ByteBufferInputStream(buffer));
+        }
+
+        @Override
+        public Bitmap decode(BitmapFactory.Options ops) {
+            if (buffer.hasArray())
+                return BitmapFactory.decodeByteArray(buffer.array(),
+                        buffer.arrayOffset() + buffer.position(), buffer.remaining(), ops);
+
+            return BitmapFactory.decodeStream(new ByteBufferInputStream(buffer), null, ops);
+        }
+
+        @Override
+        public byte[] read(int offset, int length) {
+            if (offset < 0 || length < 0 || offset + length > buffer.remaining()) return null;
+
+            final ByteBuffer dup = buffer.duplicate();
+            dup.position(dup.position() + offset);
+            final byte[] ret = new byte[length];
+            dup.get(ret);
+            return ret;
+        }
+    }
+
+    /**
+     * Skips <b>offset</b> bytes and reads <b>length</b> bytes.
+     *
+     * @return read bytes, or NULL, if the stream has ended
+     */
+    private static byte[] readFully(InputStream in, int offset, int length) throws IOException {
+        long toSkip = offset;
+        while (toSkip > 0) {
+            final long skipped = in.skip(toSkip);
+            if (skipped > 0) toSkip -= skipped;
+            else if (in.read() == -1) return null;
+            else toSkip--;
+        }
+
+        final byte[] ret = new byte[length];
+        int done = 0;
+        while (done < length) {
+            final int read = in.read(ret, done, length - done);
+            if (read == -1) return null;
+            done += read;
+        }
+
+        return ret;
+    }
+
+    /**
+     * Reads the buffer without changing its position. Supports mark/reset, so
+     * {@link android.graphics.BitmapFactory} doesn't wrap it into one more buffer.
+     */
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+        private int mark;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer.duplicate();
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) return 0;
+            if (!buffer.hasRemaining()) return -1;
+
+            final int count = Math.min(len, buffer.remaining());
+            buffer.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            final int count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public synchronized void mark(int readlimit) {
+            mark = buffer.position();
+        }
+
+        @Override
+        public synchronized void reset() {
+            buffer.position(mark);
+        }
+    }
+
+}
@@ -0,0 +1,303 @@
+/*
+ * The MIT License Copyright (c) 2014 Krayushkin Konstantin (jangokvk@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ru.jango.j0util;
+
+import android.graphics.Bitmap;
+
+/**
+ * Encodes bitmaps into JPEG with the best quality, that fits into the byte limit. Quality is
+ * chosen by binary search (so it's about 3-7 compressions instead of trying every quality step
+ * by step), and the search stops early, when the result is close enough to the limit.
+ * <br /><br />
+ * <p/>
+ * If even the minimal quality doesn't fit, image is stepped down (scaled saving proportions, like
+ * {@link ru.jango.j0util.BmpUtil.ScaleType#PROPORTIONAL_FIT}) and searched again, until it fits
+ * or becomes smaller than the minimal dimension.
+ * <br /><br />
+ * <p/>
+ * Encoder keeps two {@link ru.jango.j0util.ByteArrayBuffer}'s for the current and the best
+ * attempts, so reusing one encoder for many images doesn't allocate output arrays. Encoder is
+ * not thread safe.
+ */
+public class JpegSizeEncoder {
+
+    public static final int DEFAULT_MIN_QUALITY = 30;
+    public static final int DEFAULT_MAX_QUALITY = 95;
+    public static final float DEFAULT_TOLERANCE = 0.05f;
+    public static final int DEFAULT_MIN_DIMENSION = 320;
+
+    /**
+     * Result of the {@link #encode(android.graphics.Bitmap, int)}. Data is kept in the encoder's
+     * buffer, so it's valid only until the next encoding.
+     */
+    public static class Result {
+        private final ByteArrayBuffer buffer;
+        private final boolean fits;
+        private final int quality;
+        private final int width;
+        private final int height;
+        private final int attempts;
+        private final long time;
+
+        private Result(ByteArrayBuffer buffer, boolean fits, int quality, int width, int height,
+                       int attempts, long time) {
+            this.buffer = buffer;
+            this.fits = fits;
+            this.quality = quality;
+            this.width = width;
+            this.height = height;
+            this.attempts = attempts;
+            this.time = time;
+        }
+
+        /**
+         * Returns false, if even the smallest attempt exceeded the limit; data is still available
+         * in this case.
+         */
+        public boolean fits() {
+            return fits;
+        }
+
+        /**
+         * Returns encoded image without copying; only first {@link #getSize()} bytes are valid.
+         *
+         * @see ru.jango.j0util.ByteArrayBuffer#getBuffer()
+         */
+        public ByteArrayBuffer getBuffer() {
+            return buffer;
+        }
+
+        /**
+         * Returns a copy of the encoded image.
+         */
+        public byte[] toByteArray() {
+            return buffer.toByteArray();
+        }
+
+        public int getSize() {
+            return buffer.size();
+        }
+
+        public int getQuality() {
+            return quality;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        /**
+         * Returns how many times the image was compressed.
+         */
+        public int getAttempts() {
+            return attempts;
+        }
+
+        /**
+         * Returns time spent in milliseconds, including scaling.
+         */
+        public long getTime() {
+            return time;
+        }
+    }
+
+    private int minQuality;
+    private int maxQuality;
+    private float tolerance;
+    private int minDimension;
+
+    private ByteArrayBuffer best;
+    private ByteArrayBuffer current;
+
+    public JpegSizeEncoder() {
+        this.minQuality = DEFAULT_MIN_QUALITY;
+        this.maxQuality = DEFAULT_MAX_QUALITY;
+        this.tolerance = DEFAULT_TOLERANCE;
+        this.minDimension = DEFAULT_MIN_DIMENSION;
+
+        this.best = new ByteArrayBuffer();
+        this.current = new ByteArrayBuffer();
+    }
+
+    /**
+     * Sets the range of JPEG qualities to search in, 0-100.
+     */
+    public JpegSizeEncoder setQualityRange(int minQuality, int maxQuality) {
+        if (minQuality < 0 || maxQuality > 100 || minQuality > maxQuality)
+            throw new IllegalArgumentException("bad quality range: " + minQuality + "-" + maxQuality);
+
+        this.minQuality = minQuality;
+        this.maxQuality = maxQuality;
+        return this;
+    }
+
+    /**
+     * Early cutoff: search stops, when the result is not smaller than (1 - tolerance) * limit,
+     * without trying to squeeze out one more quality step.
+     */
+    public JpegSizeEncoder setTolerance(float tolerance) {
+        if (tolerance < 0 || tolerance >= 1)
+            throw new IllegalArgumentException("tolerance should be in [0, 1)");
+
+        this.tolerance = tolerance;
+        return this;
+    }
+
+    /**
+     * Image won't be stepped down below this size (the larger side). Pass Integer.MAX_VALUE to
+     * disable stepping down at all.
+     */
+    public JpegSizeEncoder setMinDimension(int minDimension) {
+        this.minDimension = minDimension;
+        return this;
+    }
+
+    public int getMinQuality() {
+        return minQuality;
+    }
+
+    public int getMaxQuality() {
+        return maxQuality;
+    }
+
+    public float getTolerance() {
+        return tolerance;
+    }
+
+    public int getMinDimension() {
+        return minDimension;
+    }
+
+    /**
+     * Encodes image with the best quality, witch fits into <b>maxBytes</b>. Passed bitmap is not
+     * modified or recycled.
+     *
+     * @param bmp      image to encode
+     * @param maxBytes size limit for the encoded image
+     * @return the best attempt; check {@link Result#fits()}
+     */
+    public Result encode(Bitmap bmp, int maxBytes) {
+        if (maxBytes <= 0) throw new IllegalArgumentException("maxBytes <= 0");
+
+        final long start = System.nanoTime();
+        final int cutoff = (int) (maxBytes * (1 - tolerance));
+        int attempts = 0;
+
+        Bitmap scaled = bmp;
+        try {
+            while (true) {
+                int lo = minQuality;
+                int hi = maxQuality;
+                int bestQuality = -1;
+                int minSize = Integer.MAX_VALUE;
+                boolean first = true;
+
+                while (lo <= hi) {
+                    // the best quality is tried first - usually it just fits
+                    final int quality = first ? hi : (lo + hi) >>> 1;
+                    first = false;
+
+                    final int size = compress(scaled, quality);
+                    attempts++;
+
+                    if (size <= maxBytes) {
+                        swapBuffers();
+                        bestQuality = quality;
+                        if (size >= cutoff) break;
+
+                        lo = quality + 1;
+                    } else {
+                        minSize = Math.min(minSize, size);
+                        hi = quality - 1;
+                    }
+                }
+
+                if (bestQuality != -1)
+                    return result(true, bestQuality, scaled, attempts, start);
+
+                // minSize is the size at minQuality here: the search always ends up there, if
+                // nothing fits
+                final float factor = stepDownFactor(maxBytes, minSize);
+                final int w = (int) (scaled.getWidth() * factor);
+                final int h = (int) (scaled.getHeight() * factor);
+                if (Math.max(w, h) < minDimension || w < 1 || h < 1) {
+                    // nothing else to do - give away the smallest attempt
+                    swapBuffers();
+                    return result(false, minQuality, scaled, attempts, start);
+                }
+
+                final Bitmap next = stepDown(bmp, w, h);
+                if (scaled != bmp) scaled.recycle();
+                scaled = next;
+            }
+        } finally {
+            if (scaled != bmp) scaled.recycle();
+        }
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////
+    //
+    //                      Helpers
+    //
+    //////////////////////////////////////////////////////////////////////////////////////////////
+
+    private int compress(Bitmap bmp, int quality) {
+        BmpUtil.encode(bmp, Bitmap.CompressFormat.JPEG, quality, current);
+        return current.size();
+    }
+
+    private void swapBuffers() {
+        final ByteArrayBuffer tmp = best;
+        best = current;
+        current = tmp;
+    }
+
+    private Result result(boolean fits, int quality, Bitmap bmp, int attempts, long start) {
+        return new Result(best, fits, quality, bmp.getWidth(), bmp.getHeight(), attempts,
+                (System.nanoTime() - start) / 1000000);
+    }
+
+    /**
+     * JPEG size is roughly proportional to the pixel count, so the side is multiplied by
+     * sqrt(maxBytes / size), with a small margin. Clamped, so that one step never reduces image
+     * more than twice and always reduces it at least by 10%.
+     */
+    private static float stepDownFactor(int maxBytes, int size) {
+        final float factor = (float) Math.sqrt((double) maxBytes / size) * 0.95f;
+        return Math.max(0.5f, Math.min(0.9f, factor));
+    }
+
+    /**
+     * Scales the original image (not the previous step, to avoid accumulating blur) to fit into
+     * w*h saving proportions.
+     */
+    private static Bitmap stepDown(Bitmap bmp, int w, int h) {
+        final float scale = ScaleSolver.scaleX(BmpUtil.ScaleType.PROPORTIONAL_FIT, w, h,
+                bmp.getWidth(), bmp.getHeight());
+        return Bitmap.createScaledBitmap(bmp,
+                Math.max(1, (int) (bmp.getWidth() * scale)),
+                Math.max(1, (int) (bmp.getHeight() * scale)), true);
+    }
+
+}
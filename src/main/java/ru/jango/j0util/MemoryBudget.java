@@ -0,0 +1,132 @@
+/*
+ * The MIT License Copyright (c) 2014 Krayushkin Konstantin (jangokvk@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ru.jango.j0util;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Semaphore-like memory budget: before allocating something large (like a decoded bitmap) the
+ * caller acquires the needed byte count, and releases it after the memory is freed. So several
+ * concurrent operations together never exceed the budget.
+ * <br /><br />
+ * <p/>
+ * A request, larger than the whole budget, is not rejected - it is granted, when nothing else
+ * holds the budget, so it runs alone.
+ * <br /><br />
+ * <p/>
+ * Budget is thread safe.
+ */
+public class MemoryBudget {
+
+    /**
+     * Listener for those, who use {@link #tryAcquire(long)} and don't want to block waiting.
+     */
+    public interface ReleaseListener {
+
+        /**
+         * Called (outside the synchronization) after some bytes were released.
+         */
+        public void onReleased(MemoryBudget budget);
+
+    }
+
+    private final long capacity;
+    private long used;
+
+    private final CopyOnWriteArrayList<ReleaseListener> listeners;
+
+    /**
+     * @param capacity total byte count, that could be acquired at the same time
+     */
+    public MemoryBudget(long capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("capacity <= 0");
+        this.capacity = capacity;
+        this.listeners = new CopyOnWriteArrayList<ReleaseListener>();
+    }
+
+    /**
+     * Acquires the byte count, waiting until enough of the budget is released.
+     */
+    public synchronized void acquire(long bytes) throws InterruptedException {
+        checkBytes(bytes);
+        while (!canAcquire(bytes)) wait();
+        used += bytes;
+    }
+
+    /**
+     * Acquires the byte count only if it's available right now.
+     *
+     * @return true, if the bytes were acquired
+     */
+    public synchronized boolean tryAcquire(long bytes) {
+        checkBytes(bytes);
+        if (!canAcquire(bytes)) return false;
+
+        used += bytes;
+        return true;
+    }
+
+    /**
+     * Returns the byte count back into the budget.
+     */
+    public void release(long bytes) {
+        checkBytes(bytes);
+        synchronized (this) {
+            used = Math.max(0, used - bytes);
+            notifyAll();
+        }
+
+        for (ReleaseListener l : listeners) l.onReleased(this);
+    }
+
+    public void addReleaseListener(ReleaseListener listener) {
+        listeners.addIfAbsent(listener);
+    }
+
+    public void removeReleaseListener(ReleaseListener listener) {
+        listeners.remove(listener);
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public synchronized long getUsed() {
+        return used;
+    }
+
+    public synchronized long getAvailable() {
+        return Math.max(0, capacity - used);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "MemoryBudget[used=" + used + ", capacity=" + capacity + "]";
+    }
+
+    private boolean canAcquire(long bytes) {
+        return used == 0 || used + bytes <= capacity;
+    }
+
+    private static void checkBytes(long bytes) {
+        if (bytes < 0) throw new IllegalArgumentException("bytes < 0");
+    }
+
+}
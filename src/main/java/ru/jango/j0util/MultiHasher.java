@@ -0,0 +1,281 @@
+/*
+ * The MIT License Copyright (c) 2014 Krayushkin Konstantin (jangokvk@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ru.jango.j0util;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Feeds the same data to several hashers at once, so streams and files are read only once,
+ * even if they are hashed with several algorithms (like MD5 and SHA-256 for different servers).
+ * <br /><br />
+ * <p/>
+ * By default everything is hashed in the calling thread one hasher after another. In parallel
+ * mode ({@link #setParallel(boolean)}) every hasher, except the first, gets its own worker
+ * thread: data is copied once into a chunk, that is hashed by all hashers simultaneously, while
+ * the calling thread reads the next one. At most {@link #MAX_CHUNKS_IN_FLIGHT} chunks are in
+ * work, and chunks are reused, so memory usage is bounded.
+ * <br /><br />
+ * <p/>
+ * {@link #digest()} returns all hashes one after another; use {@link #digestAll()} or
+ * {@link #digestHexAll()} to get them separately. Like any hasher, MultiHasher is not thread
+ * safe.
+ *
+ * @see ru.jango.j0util.SecurityUtil#newMultiHasher(String...)
+ */
+public class MultiHasher extends Hasher {
+
+    /**
+     * Maximum count of chunks, that are copied, but not hashed yet in parallel mode.
+     */
+    public static final int MAX_CHUNKS_IN_FLIGHT = 4;
+
+    private final Hasher[] hashers;
+    private boolean parallel;
+
+    private ThreadPoolExecutor[] executors;
+    private final Semaphore inFlight = new Semaphore(MAX_CHUNKS_IN_FLIGHT);
+    private final ConcurrentLinkedQueue<byte[]> chunks = new ConcurrentLinkedQueue<byte[]>();
+    private volatile Throwable error;
+
+    public MultiHasher(Hasher... hashers) {
+        if (hashers.length == 0) throw new IllegalArgumentException("no hashers");
+        this.hashers = hashers.clone();
+    }
+
+    public int getHasherCount() {
+        return hashers.length;
+    }
+
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    /**
+     * Enables or disables hashing in worker threads: one per hasher, except the first one, that
+     * is fed in the calling thread. Makes sense for large data and slow algorithms.
+     */
+    public MultiHasher setParallel(boolean parallel) {
+        if (!parallel) shutdown();
+        this.parallel = parallel;
+        return this;
+    }
+
+    /**
+     * Waits for the fed data and stops worker threads; hasher could still be used after that.
+     */
+    public void shutdown() {
+        await();
+        parallel = false;
+        if (executors != null)
+            for (ThreadPoolExecutor executor : executors) executor.shutdown();
+        executors = null;
+    }
+
+    @Override
+    public String getAlgorithm() {
+        final StringBuilder ret = new StringBuilder();
+        for (Hasher hasher : hashers) ret.append(ret.length() == 0 ? "" : "+").append(hasher.getAlgorithm());
+        return ret.toString();
+    }
+
+    @Override
+    public int getDigestLength() {
+        int ret = 0;
+        for (Hasher hasher : hashers) ret += hasher.getDigestLength();
+        return ret;
+    }
+
+    @Override
+    public MultiHasher update(byte[] data, int offset, int length) {
+        if (!parallel || hashers.length == 1) {
+            for (Hasher hasher : hashers) hasher.update(data, offset, length);
+            return this;
+        }
+
+        while (length > 0) {
+            final byte[] chunk = takeChunk();
+            final int chunkLength = Math.min(length, chunk.length);
+            System.arraycopy(data, offset, chunk, 0, chunkLength);
+            dispatch(chunk, chunkLength);
+
+            offset += chunkLength;
+            length -= chunkLength;
+        }
+
+        return this;
+    }
+
+    /**
+     * In parallel mode bytes go directly from the buffer into the chunk, without any
+     * intermediate copies.
+     */
+    @Override
+    public Hasher update(ByteBuffer buffer) {
+        if (!parallel || hashers.length == 1) return super.update(buffer);
+
+        while (buffer.hasRemaining()) {
+            final byte[] chunk = takeChunk();
+            final int chunkLength = Math.min(buffer.remaining(), chunk.length);
+            buffer.get(chunk, 0, chunkLength);
+            dispatch(chunk, chunkLength);
+        }
+
+        return this;
+    }
+
+    /**
+     * Returns hashes of all fed data, in the order of hashers, and resets the hasher.
+     */
+    public byte[][] digestAll() {
+        await();
+        final byte[][] ret = new byte[hashers.length][];
+        for (int i = 0; i < hashers.length; i++) ret[i] = hashers[i].digest();
+        return ret;
+    }
+
+    /**
+     * Same as {@link #digestAll()}, but returns hashes as hex strings.
+     */
+    public String[] digestHexAll() {
+        await();
+        final String[] ret = new String[hashers.length];
+        for (int i = 0; i < hashers.length; i++) ret[i] = hashers[i].digestHex();
+        return ret;
+    }
+
+    @Override
+    public byte[] digest() {
+        final byte[] ret = new byte[getDigestLength()];
+        digest(ret, 0);
+        return ret;
+    }
+
+    @Override
+    public int digest(byte[] dest, int offset) {
+        checkDigestDest(dest, offset);
+        await();
+
+        int length = 0;
+        for (Hasher hasher : hashers) length += hasher.digest(dest, offset + length);
+        return length;
+    }
+
+    @Override
+    public Hasher reset() {
+        await();
+        for (Hasher hasher : hashers) hasher.reset();
+        return this;
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////
+    //
+    //                      Parallel mode
+    //
+    //////////////////////////////////////////////////////////////////////////////////////////////
+
+    private byte[] takeChunk() {
+        inFlight.acquireUninterruptibly();
+        final byte[] chunk = chunks.poll();
+        return chunk != null ? chunk : new byte[BUFFER_SIZE];
+    }
+
+    /**
+     * Hashes the chunk with the first hasher in the calling thread and with others in their
+     * workers; chunk is returned into the pool, when all of them are done.
+     */
+    private void dispatch(final byte[] chunk, final int length) {
+        final ThreadPoolExecutor[] executors = getExecutors();
+        final AtomicInteger pending = new AtomicInteger(hashers.length);
+
+        for (int i = 1; i < hashers.length; i++) {
+            final Hasher hasher = hashers[i];
+            executors[i - 1].execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        hasher.update(chunk, 0, length);
+                    } catch (Throwable e) {
+                        error = e;
+                    } finally {
+                        release(chunk, pending);
+                    }
+                }
+            });
+        }
+
+        try {
+            hashers[0].update(chunk, 0, length);
+        } finally {
+            release(chunk, pending);
+        }
+    }
+
+    private void release(byte[] chunk, AtomicInteger pending) {
+        if (pending.decrementAndGet() != 0) return;
+
+        chunks.offer(chunk);
+        inFlight.release();
+    }
+
+    /**
+     * Waits, until all dispatched chunks are hashed.
+     */
+    private void await() {
+        if (executors == null) return;
+
+        inFlight.acquireUninterruptibly(MAX_CHUNKS_IN_FLIGHT);
+        inFlight.release(MAX_CHUNKS_IN_FLIGHT);
+
+        final Throwable error = this.error;
+        if (error != null) {
+            this.error = null;
+            throw new IllegalStateException("hashing failed", error);
+        }
+    }
+
+    private ThreadPoolExecutor[] getExecutors() {
+        if (executors == null) {
+            executors = new ThreadPoolExecutor[hashers.length - 1];
+            for (int i = 0; i < executors.length; i++) {
+                // single thread per hasher keeps chunks in order
+                executors[i] = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        final Thread t = new Thread(r, "MultiHasher");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+                executors[i].allowCoreThreadTimeOut(true);
+            }
+        }
+
+        return executors;
+    }
+
+}
@@ -0,0 +1,205 @@
+/*
+ * The MIT License Copyright (c) 2014 Krayushkin Konstantin (jangokvk@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ru.jango.j0util;
+
+/**
+ * Pure java <a href="https://github.com/aappleby/smhasher">MurmurHash3</a> x64 128 bit variant:
+ * fast non-cryptographic hash, good for cache and dedup keys.
+ * <br /><br />
+ * <p/>
+ * Static {@link #hash64(byte[], int, int, int)} hashes an array at once and returns the first
+ * half of the hash as long without any allocations; object is an incremental
+ * {@link ru.jango.j0util.Hasher}, whose digest is 16 bytes in the reference byte order (like
+ * Guava's murmur3_128).
+ *
+ * @see ru.jango.j0util.SecurityUtil#FAST_ALGORITHMS
+ */
+public class MurmurHash3 extends Hasher {
+
+    public static final String ALGORITHM = "MURMUR3-128";
+
+    private static final long C1 = 0x87C37B91114253D5L;
+    private static final long C2 = 0x4CF5AD432745937FL;
+
+    private static final int BLOCK = 16;
+
+    private final int seed;
+    private final byte[] buffer = new byte[BLOCK];
+    private int bufferSize;
+    private long totalLength;
+    private long h1, h2;
+
+    public MurmurHash3() {
+        this(0);
+    }
+
+    public MurmurHash3(int seed) {
+        this.seed = seed;
+        reset();
+    }
+
+    public int getSeed() {
+        return seed;
+    }
+
+    /**
+     * Hashes part of the array at once.
+     *
+     * @return first 64 bits of the 128 bit hash
+     */
+    public static long hash64(byte[] data, int offset, int length, int seed) {
+        final int end = offset + length;
+        long h1 = seed & 0xFFFFFFFFL;
+        long h2 = h1;
+
+        int i = offset;
+        for (; i <= end - BLOCK; i += BLOCK) {
+            h1 ^= mixK1(getLongLE(data, i));
+            h1 = (Long.rotateLeft(h1, 27) + h2) * 5 + 0x52DCE729;
+            h2 ^= mixK2(getLongLE(data, i + 8));
+            h2 = (Long.rotateLeft(h2, 31) + h1) * 5 + 0x38495AB5;
+        }
+
+        h1 ^= mixK1(tail(data, i, Math.min(end, i + 8)));
+        h2 ^= mixK2(tail(data, i + 8, end));
+
+        h1 ^= length;
+        h2 ^= length;
+        h1 += h2;
+        h2 += h1;
+        return fmix(h1) + fmix(h2);
+    }
+
+    public static long hash64(byte[] data) {
+        return hash64(data, 0, data.length, 0);
+    }
+
+    @Override
+    public String getAlgorithm() {
+        return ALGORITHM;
+    }
+
+    @Override
+    public int getDigestLength() {
+        return 16;
+    }
+
+    @Override
+    public MurmurHash3 update(byte[] data, int offset, int length) {
+        final int end = offset + length;
+        totalLength += length;
+
+        if (bufferSize + length < BLOCK) {
+            System.arraycopy(data, offset, buffer, bufferSize, length);
+            bufferSize += length;
+            return this;
+        }
+
+        if (bufferSize > 0) {
+            final int fill = BLOCK - bufferSize;
+            System.arraycopy(data, offset, buffer, bufferSize, fill);
+            processBlock(buffer, 0);
+            offset += fill;
+            bufferSize = 0;
+        }
+
+        for (; offset <= end - BLOCK; offset += BLOCK) processBlock(data, offset);
+
+        bufferSize = end - offset;
+        System.arraycopy(data, offset, buffer, 0, bufferSize);
+        return this;
+    }
+
+    @Override
+    public byte[] digest() {
+        final byte[] ret = new byte[16];
+        digest(ret, 0);
+        return ret;
+    }
+
+    @Override
+    public int digest(byte[] dest, int offset) {
+        checkDigestDest(dest, offset);
+
+        long h1 = this.h1 ^ mixK1(tail(buffer, 0, Math.min(bufferSize, 8)));
+        long h2 = this.h2 ^ mixK2(tail(buffer, 8, bufferSize));
+
+        h1 ^= totalLength;
+        h2 ^= totalLength;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix(h1);
+        h2 = fmix(h2);
+        h1 += h2;
+        h2 += h1;
+
+        putLongLE(dest, offset, h1);
+        putLongLE(dest, offset + 8, h2);
+        reset();
+        return 16;
+    }
+
+    @Override
+    public Hasher reset() {
+        h1 = h2 = seed & 0xFFFFFFFFL;
+        totalLength = 0;
+        bufferSize = 0;
+        return this;
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////
+    //
+    //                      Helpers
+    //
+    //////////////////////////////////////////////////////////////////////////////////////////////
+
+    private void processBlock(byte[] data, int i) {
+        h1 ^= mixK1(getLongLE(data, i));
+        h1 = (Long.rotateLeft(h1, 27) + h2) * 5 + 0x52DCE729;
+        h2 ^= mixK2(getLongLE(data, i + 8));
+        h2 = (Long.rotateLeft(h2, 31) + h1) * 5 + 0x38495AB5;
+    }
+
+    /**
+     * Little-endian long of up to 8 bytes [from, to); 0 if there are no bytes.
+     */
+    private static long tail(byte[] data, int from, int to) {
+        long k = 0;
+        for (int i = to - 1; i >= from; i--) k = (k << 8) | (data[i] & 0xFF);
+        return k;
+    }
+
+    private static long mixK1(long k1) {
+        return Long.rotateLeft(k1 * C1, 31) * C2;
+    }
+
+    private static long mixK2(long k2) {
+        return Long.rotateLeft(k2 * C2, 33) * C1;
+    }
+
+    private static long fmix(long k) {
+        k ^= k >>> 33;
+        k *= 0xFF51AFD7ED558CCDL;
+        k ^= k >>> 33;
+        k *= 0xC4CEB9FE1A85EC53L;
+        return k ^ (k >>> 33);
+    }
+
+}
@@ -0,0 +1,516 @@
+/*
+ * The MIT License Copyright (c) 2014 Krayushkin Konstantin (jangokvk@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ru.jango.j0util;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pure java image resampler for ARGB pixels in int arrays (like from
+ * {@link android.graphics.Bitmap#getPixels(int[], int, int, int, int, int, int)}), so it works
+ * on a plain JVM too.
+ * <br /><br />
+ * <p/>
+ * Resampling is separable: rows are filtered first, then columns; weights for each output
+ * pixel are calculated once per call and stored in flat arrays with fixed stride, and inner
+ * loops run over contiguous memory. Colors are filtered premultiplied by alpha, so transparent
+ * pixels don't bleed into the opaque ones.
+ * <br /><br />
+ * <p/>
+ * Large downscales could be sped up with the progressive prepass: image is halved with 2x2 box
+ * filter while it's at least twice larger than needed, and only the rest is done with the
+ * selected filter. Rows could be processed in several threads.
+ * <br /><br />
+ * <p/>
+ * Resampler could be used from different threads at the same time; call {@link #shutdown()},
+ * when multithreaded resampler is not needed any more.
+ *
+ * @see ru.jango.j0util.BmpUtil#resample(android.graphics.Bitmap, ru.jango.j0util.BmpUtil.ScaleType, int, int, Resampler)
+ */
+public class Resampler {
+
+    public enum Filter {
+
+        /**
+         * Nearest pixels averaging; fastest, but gives blocky upscaling.
+         */
+        BOX(0.5) {
+            @Override
+            public double weight(double x) {
+                return (x >= -0.5 && x < 0.5) ? 1 : 0;
+            }
+        },
+
+        /**
+         * Triangle filter; same as bilinear interpolation for upscaling.
+         */
+        BILINEAR(1) {
+            @Override
+            public double weight(double x) {
+                x = Math.abs(x);
+                return x < 1 ? 1 - x : 0;
+            }
+        },
+
+        /**
+         * Mitchell-Netravali cubic filter with B = C = 1/3: smooth, with little ringing.
+         */
+        MITCHELL(2) {
+            @Override
+            public double weight(double x) {
+                final double b = 1.0 / 3;
+                final double c = 1.0 / 3;
+
+                x = Math.abs(x);
+                if (x < 1)
+                    return ((12 - 9 * b - 6 * c) * x * x * x + (-18 + 12 * b + 6 * c) * x * x + (6 - 2 * b)) / 6;
+                else if (x < 2)
+                    return ((-b - 6 * c) * x * x * x + (6 * b + 30 * c) * x * x + (-12 * b - 48 * c) * x + (8 * b + 24 * c)) / 6;
+                else return 0;
+            }
+        },
+
+        /**
+         * Lanczos filter with 3 lobes; sharpest, but slowest.
+         */
+        LANCZOS3(3) {
+            @Override
+            public double weight(double x) {
+                x = Math.abs(x);
+                if (x < 1e-8) return 1;
+                if (x >= 3) return 0;
+
+                final double px = Math.PI * x;
+                return 3 * Math.sin(px) * Math.sin(px / 3) / (px * px);
+            }
+        };
+
+        private final double support;
+
+        private Filter(double support) {
+            this.support = support;
+        }
+
+        /**
+         * Returns filter radius in source pixels (for scale 1).
+         */
+        public double getSupport() {
+            return support;
+        }
+
+        /**
+         * Returns filter value at distance x from the center.
+         */
+        public abstract double weight(double x);
+    }
+
+    private final Filter filter;
+    private boolean progressive;
+    private int threadCount;
+    private ThreadPoolExecutor executor;
+
+    /**
+     * Creates single threaded resampler with progressive prepass enabled.
+     */
+    public Resampler(Filter filter) {
+        this.filter = filter;
+        this.progressive = true;
+        this.threadCount = 1;
+    }
+
+    public Filter getFilter() {
+        return filter;
+    }
+
+    public synchronized boolean isProgressive() {
+        return progressive;
+    }
+
+    /**
+     * Enables or disables box-halving prepass for large downscales.
+     */
+    public synchronized Resampler setProgressive(boolean progressive) {
+        this.progressive = progressive;
+        return this;
+    }
+
+    public synchronized int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * Sets count of threads for processing rows; calling thread is one of them. By default
+     * resampling is single threaded.
+     */
+    public synchronized Resampler setThreadCount(int threadCount) {
+        if (threadCount <= 0) throw new IllegalArgumentException("threadCount <= 0");
+        this.threadCount = threadCount;
+
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+
+        return this;
+    }
+
+    /**
+     * Stops worker threads; resampler could still be used single threaded after that.
+     */
+    public synchronized void shutdown() {
+        threadCount = 1;
+        if (executor != null) executor.shutdown();
+        executor = null;
+    }
+
+    /**
+     * Resamples image into a new array.
+     *
+     * @param src  source ARGB pixels, row by row
+     * @param srcW source width
+     * @param srcH source height
+     * @param dstW target width
+     * @param dstH target height
+     * @return target ARGB pixels
+     */
+    public int[] resample(int[] src, int srcW, int srcH, int dstW, int dstH) {
+        final int[] dst = new int[dstW * dstH];
+        resample(src, srcW, srcH, dst, dstW, dstH);
+        return dst;
+    }
+
+    /**
+     * Resamples image into the passed array.
+     *
+     * @param src  source ARGB pixels, row by row
+     * @param srcW source width
+     * @param srcH source height
+     * @param dst  target ARGB pixels, at least dstW * dstH
+     * @param dstW target width
+     * @param dstH target height
+     */
+    public void resample(int[] src, int srcW, int srcH, int[] dst, int dstW, int dstH) {
+        if (srcW <= 0 || srcH <= 0 || dstW <= 0 || dstH <= 0)
+            throw new IllegalArgumentException("bad size: " + srcW + "x" + srcH + " -> " + dstW + "x" + dstH);
+        if (src.length < srcW * srcH) throw new IllegalArgumentException("src is too small");
+        if (dst.length < dstW * dstH) throw new IllegalArgumentException("dst is too small");
+
+        if (isProgressive())
+            while (srcW >= dstW * 2 || srcH >= dstH * 2) {
+                final int halfW = srcW >= dstW * 2 ? (srcW + 1) / 2 : srcW;
+                final int halfH = srcH >= dstH * 2 ? (srcH + 1) / 2 : srcH;
+                src = halve(src, srcW, srcH, halfW, halfH);
+                srcW = halfW;
+                srcH = halfH;
+            }
+
+        if (srcW == dstW && srcH == dstH) {
+            System.arraycopy(src, 0, dst, 0, dstW * dstH);
+            return;
+        }
+
+        final Weights horizontal = new Weights(filter, srcW, dstW);
+        final Weights vertical = new Weights(filter, srcH, dstH);
+        final float[] tmp = new float[dstW * srcH * 4];
+
+        runStriped(new HorizontalPass(src, srcW, tmp, dstW, horizontal), srcH);
+        runStriped(new VerticalPass(tmp, dst, dstW, vertical), dstH);
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////
+    //
+    //                      Passes
+    //
+    //////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Precalculated filter weights for one axis: each output pixel gets <b>n</b> contiguous
+     * source pixels starting from <b>start</b>, and their weights.
+     */
+    private static class Weights {
+
+        final int n;
+        final int[] start;
+        final float[] weights;
+
+        Weights(Filter filter, int srcLen, int dstLen) {
+            final double scale = ((double) dstLen) / srcLen;
+            // when downscaling, filter is stretched to cover all the source pixels
+            final double filterScale = Math.min(1, scale);
+            final double support = filter.getSupport() / filterScale;
+
+            n = Math.min(srcLen, (int) Math.ceil(support * 2) + 3);
+            start = new int[dstLen];
+            weights = new float[dstLen * n];
+
+            final double[] w = new double[n];
+            for (int i = 0; i < dstLen; i++) {
+                final double center = (i + 0.5) / scale - 0.5;
+                final int lo = (int) Math.floor(center - support);
+                final int hi = (int) Math.ceil(center + support);
+                final int first = Math.min(Math.max(lo, 0), srcLen - n);
+
+                Arrays.fill(w, 0);
+                double sum = 0;
+                for (int j = lo; j <= hi; j++) {
+                    final double weight = filter.weight((j - center) * filterScale);
+                    if (weight == 0) continue;
+
+                    // edge pixels are repeated
+                    final int index = Math.min(Math.max(j, 0), srcLen - 1) - first;
+                    w[index] += weight;
+                    sum += weight;
+                }
+
+                if (sum == 0) {
+                    w[Math.min(Math.max((int) Math.round(center), 0), srcLen - 1) - first] = 1;
+                    sum = 1;
+                }
+
+                start[i] = first;
+                for (int k = 0; k < n; k++) weights[i * n + k] = (float) (w[k] / sum);
+            }
+        }
+    }
+
+    private interface Stripe {
+        public void run(int from, int to);
+    }
+
+    /**
+     * Filters source rows into premultiplied float ARGB rows of the target width.
+     */
+    private static class HorizontalPass implements Stripe {
+
+        private final int[] src;
+        private final int srcW;
+        private final float[] tmp;
+        private final int dstW;
+        private final Weights weights;
+
+        HorizontalPass(int[] src, int srcW, float[] tmp, int dstW, Weights weights) {
+            this.src = src;
+            this.srcW = srcW;
+            this.tmp = tmp;
+            this.dstW = dstW;
+            this.weights = weights;
+        }
+
+        @Override
+        public void run(int from, int to) {
+            final int n = weights.n;
+            for (int y = from; y < to; y++) {
+                final int srcRow = y * srcW;
+                int out = y * dstW * 4;
+
+                for (int x = 0; x < dstW; x++) {
+                    final int first = srcRow + weights.start[x];
+                    final int wOffset = x * n;
+
+                    float a = 0, r = 0, g = 0, b = 0;
+                    for (int k = 0; k < n; k++) {
+                        final float w = weights.weights[wOffset + k];
+                        final int p = src[first + k];
+                        final float pa = (p >>> 24) * w;
+                        a += pa;
+                        r += ((p >> 16) & 0xFF) * pa;
+                        g += ((p >> 8) & 0xFF) * pa;
+                        b += (p & 0xFF) * pa;
+                    }
+
+                    tmp[out++] = a;
+                    tmp[out++] = r;
+                    tmp[out++] = g;
+                    tmp[out++] = b;
+                }
+            }
+        }
+    }
+
+    /**
+     * Filters intermediate columns and converts them back into ARGB ints.
+     */
+    private static class VerticalPass implements Stripe {
+
+        private final float[] tmp;
+        private final int[] dst;
+        private final int dstW;
+        private final Weights weights;
+
+        VerticalPass(float[] tmp, int[] dst, int dstW, Weights weights) {
+            this.tmp = tmp;
+            this.dst = dst;
+            this.dstW = dstW;
+            this.weights = weights;
+        }
+
+        @Override
+        public void run(int from, int to) {
+            final int n = weights.n;
+            final int rowLen = dstW * 4;
+            final float[] acc = new float[rowLen];
+
+            for (int y = from; y < to; y++) {
+                Arrays.fill(acc, 0);
+                for (int k = 0; k < n; k++) {
+                    final float w = weights.weights[y * n + k];
+                    if (w == 0) continue;
+
+                    final int row = (weights.start[y] + k) * rowLen;
+                    for (int i = 0; i < rowLen; i++) acc[i] += w * tmp[row + i];
+                }
+
+                int out = y * dstW;
+                for (int i = 0; i < rowLen; i += 4) dst[out++] = toArgb(acc[i], acc[i + 1], acc[i + 2], acc[i + 3]);
+            }
+        }
+    }
+
+    private void runStriped(final Stripe stripe, int rows) {
+        final ThreadPoolExecutor executor;
+        final int stripes;
+        synchronized (this) {
+            stripes = Math.min(threadCount, rows);
+            executor = stripes > 1 ? getExecutor() : null;
+        }
+
+        if (executor == null) {
+            stripe.run(0, rows);
+            return;
+        }
+
+        final CountDownLatch latch = new CountDownLatch(stripes - 1);
+        final Throwable[] error = new Throwable[1];
+        for (int i = 1; i < stripes; i++) {
+            final int from = rows * i / stripes;
+            final int to = rows * (i + 1) / stripes;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        stripe.run(from, to);
+                    } catch (Throwable e) {
+                        synchronized (error) {
+                            error[0] = e;
+                        }
+                    } finally {
+                        latch.countDown();
+                    }
+                }
+            });
+        }
+
+        // first stripe in the calling thread
+        stripe.run(0, rows / stripes);
+
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("resampling was interrupted", e);
+        }
+
+        synchronized (error) {
+            if (error[0] != null) throw new IllegalStateException("resampling failed", error[0]);
+        }
+    }
+
+    private ThreadPoolExecutor getExecutor() {
+        if (executor == null) {
+            executor = new ThreadPoolExecutor(threadCount - 1, threadCount - 1, 1, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    final Thread t = new Thread(r, "Resampler");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            executor.allowCoreThreadTimeOut(true);
+        }
+
+        return executor;
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////
+    //
+    //                      Helpers
+    //
+    //////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Downscales image twice (or keeps the size along one of the axes) averaging 2x2 pixels
+     * with alpha weights. Last row and column of odd sized images are repeated.
+     */
+    private static int[] halve(int[] src, int srcW, int srcH, int dstW, int dstH) {
+        final int[] dst = new int[dstW * dstH];
+        final int stepX = dstW == srcW ? 0 : 1;
+        final int stepY = dstH == srcH ? 0 : 1;
+
+        for (int y = 0; y < dstH; y++) {
+            final int y0 = stepY == 0 ? y : y * 2;
+            final int row0 = y0 * srcW;
+            final int row1 = Math.min(y0 + stepY, srcH - 1) * srcW;
+
+            for (int x = 0; x < dstW; x++) {
+                final int x0 = stepX == 0 ? x : x * 2;
+                final int x1 = Math.min(x0 + stepX, srcW - 1);
+
+                final int p0 = src[row0 + x0];
+                final int p1 = src[row0 + x1];
+                final int p2 = src[row1 + x0];
+                final int p3 = src[row1 + x1];
+
+                final int a0 = p0 >>> 24, a1 = p1 >>> 24, a2 = p2 >>> 24, a3 = p3 >>> 24;
+                final float a = (a0 + a1 + a2 + a3) * 0.25f;
+                final float r = (((p0 >> 16) & 0xFF) * a0 + ((p1 >> 16) & 0xFF) * a1 +
+                        ((p2 >> 16) & 0xFF) * a2 + ((p3 >> 16) & 0xFF) * a3) * 0.25f;
+                final float g = (((p0 >> 8) & 0xFF) * a0 + ((p1 >> 8) & 0xFF) * a1 +
+                        ((p2 >> 8) & 0xFF) * a2 + ((p3 >> 8) & 0xFF) * a3) * 0.25f;
+                final float b = ((p0 & 0xFF) * a0 + (p1 & 0xFF) * a1 + (p2 & 0xFF) * a2 + (p3 & 0xFF) * a3) * 0.25f;
+
+                dst[y * dstW + x] = toArgb(a, r, g, b);
+            }
+        }
+
+        return dst;
+    }
+
+    /**
+     * Converts premultiplied (by alpha from 0 to 255) color back into ARGB int.
+     */
+    private static int toArgb(float a, float r, float g, float b) {
+        if (a <= 0.5f) return 0;
+
+        final int ia = clamp(a);
+        return (ia << 24) | (clamp(r / a) << 16) | (clamp(g / a) << 8) | clamp(b / a);
+    }
+
+    private static int clamp(float value) {
+        if (value <= 0) return 0;
+        if (value >= 255) return 255;
+        return (int) (value + 0.5f);
+    }
+
+}
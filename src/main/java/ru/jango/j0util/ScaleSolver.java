@@ -0,0 +1,169 @@
+/*
+ * The MIT License Copyright (c) 2014 Krayushkin Konstantin (jangokvk@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ru.jango.j0util;
+
+/**
+ * Allocation free math behind {@link ru.jango.j0util.BmpUtil.ScaleType#resolveScale(int, int, int, int)}
+ * and BitmapFactory.Options.inSampleSize calculation in {@link ru.jango.j0util.BmpUtil}.
+ * <br /><br />
+ * <p/>
+ * Object itself is a reusable holder for the resolved scales: call
+ * {@link #solve(ru.jango.j0util.BmpUtil.ScaleType, int, int, int, int)} and read
+ * {@link #getScaleX()} and {@link #getScaleY()}. Holder is not thread safe, so keep one per
+ * thread. Sample size is a plain int, so {@link #sampleSize(ru.jango.j0util.BmpUtil.ScaleType, int, int, int, int)}
+ * is static.
+ * <br /><br />
+ * <p/>
+ * Results are bit-for-bit the same, as of the previous floating point implementation (with its
+ * rounding peculiarities), but the power of 2 math is done with integers.
+ */
+public class ScaleSolver {
+
+    /**
+     * Previous implementation treated sample sizes, witch were closer than 0.00001 to a power
+     * of 2 in log scale, as powers of 2 and didn't round them up. Here is the minimal distance
+     * from 2^i, that is rounded up to 2^(i+1), for each i.
+     */
+    private static final int[] ROUND_UP_DISTANCE = {
+            1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1,
+            2, 4, 8, 15, 30, 59, 117, 233, 466, 931, 1861, 3722, 7443 };
+
+    private float scaleX;
+    private float scaleY;
+
+    /**
+     * Resolves scales like {@link ru.jango.j0util.BmpUtil.ScaleType#resolveScale(int, int, int, int)}.
+     *
+     * @return this holder
+     */
+    public ScaleSolver solve(BmpUtil.ScaleType scaleType, int destW, int destH, int srcW, int srcH) {
+        if (scaleType == BmpUtil.ScaleType.FIT_XY) {
+            scaleX = ((float) destW) / ((float) srcW);
+            scaleY = ((float) destH) / ((float) srcH);
+        } else scaleX = scaleY = proportionalScale(scaleType, destW, destH, srcW, srcH);
+
+        return this;
+    }
+
+    /**
+     * Returns horizontal scale without any holder.
+     *
+     * @see #solve(ru.jango.j0util.BmpUtil.ScaleType, int, int, int, int)
+     */
+    public static float scaleX(BmpUtil.ScaleType scaleType, int destW, int destH, int srcW, int srcH) {
+        return scaleType == BmpUtil.ScaleType.FIT_XY
+                ? ((float) destW) / ((float) srcW)
+                : proportionalScale(scaleType, destW, destH, srcW, srcH);
+    }
+
+    /**
+     * Returns vertical scale without any holder.
+     *
+     * @see #solve(ru.jango.j0util.BmpUtil.ScaleType, int, int, int, int)
+     */
+    public static float scaleY(BmpUtil.ScaleType scaleType, int destW, int destH, int srcW, int srcH) {
+        return scaleType == BmpUtil.ScaleType.FIT_XY
+                ? ((float) destH) / ((float) srcH)
+                : proportionalScale(scaleType, destW, destH, srcW, srcH);
+    }
+
+    public float getScaleX() {
+        return scaleX;
+    }
+
+    public float getScaleY() {
+        return scaleY;
+    }
+
+    /**
+     * Calculates BitmapFactory.Options.inSampleSize: for {@link ru.jango.j0util.BmpUtil.ScaleType#PROPORTIONAL_CROP}
+     * power of 2 is chosen, if the resulting image square is closer to the target one, for other
+     * types sample size is rounded up to a power of 2.
+     *
+     * @return sample size, 1 or more
+     */
+    public static int sampleSize(BmpUtil.ScaleType scaleType, int destW, int destH, int srcW, int srcH) {
+        final float scale = scaleX(scaleType, destW, destH, srcW, srcH);
+        final int sampleSize = Math.max(1, (int) Math.ceil(1 / scale));
+        if (sampleSize == 1) return 1;
+
+        if (scaleType != BmpUtil.ScaleType.PROPORTIONAL_CROP) {
+            if ((sampleSize & (sampleSize - 1)) == 0) return sampleSize;
+
+            final int floorPow = 31 - Integer.numberOfLeadingZeros(sampleSize);
+            if (sampleSize - (1 << floorPow) < ROUND_UP_DISTANCE[floorPow]) return sampleSize;
+            return powerOf2(floorPow + 1);
+        }
+
+        // previous implementation got 30 for log2(2^29) because of the double rounding
+        final int ceilPow = sampleSize == (1 << 29) ? 30 : 32 - Integer.numberOfLeadingZeros(sampleSize - 1);
+
+        // squares of the resulting image with increased and not increased sample size; yes,
+        // it's divided by pow^2, not by (2^pow)^2 - kept as it always was
+        final int srcSquare = srcW * srcH;
+        final int destSquare = destH * destW;
+        final int largeSquare = srcSquare / (ceilPow * ceilPow);
+        final int smallSquare = ceilPow == 1 ? divideByZero(srcSquare) : srcSquare / ((ceilPow - 1) * (ceilPow - 1));
+
+        final boolean increase = Math.abs(destSquare - largeSquare) < Math.abs(destSquare - smallSquare) &&
+                destSquare <= largeSquare;
+        return increase ? powerOf2(ceilPow) : sampleSize;
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////
+    //
+    //                      Helpers
+    //
+    //////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Scale for {@link ru.jango.j0util.BmpUtil.ScaleType#PROPORTIONAL_FIT} and
+     * {@link ru.jango.j0util.BmpUtil.ScaleType#PROPORTIONAL_CROP}. Ratios are compared as floats,
+     * just like before.
+     */
+    private static float proportionalScale(BmpUtil.ScaleType scaleType, int destW, int destH, int srcW, int srcH) {
+        final float destRatio = ((float) destW) / ((float) destH);
+        final float srcRatio = ((float) srcW) / ((float) srcH);
+        final boolean byWidth = scaleType == BmpUtil.ScaleType.PROPORTIONAL_FIT
+                ? destRatio < srcRatio
+                : destRatio > srcRatio;
+
+        return byWidth
+                ? ((float) destW) / ((float) srcW)
+                : ((float) destH) / ((float) srcH);
+    }
+
+    /**
+     * 2^pow; 2^31 doesn't fit into int, so it's saturated like (int) Math.pow(2, 31).
+     */
+    private static int powerOf2(int pow) {
+        return pow >= 31 ? Integer.MAX_VALUE : 1 << pow;
+    }
+
+    /**
+     * Same as (int) (value / 0.0).
+     */
+    private static int divideByZero(int value) {
+        if (value > 0) return Integer.MAX_VALUE;
+        else if (value < 0) return Integer.MIN_VALUE;
+        else return 0;
+    }
+
+}
@@ -0,0 +1,289 @@
+/*
+ * The MIT License Copyright (c) 2014 Krayushkin Konstantin (jangokvk@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ru.jango.j0util;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Two-level cache for the results of {@link ru.jango.j0util.BmpUtil#scale(byte[], ru.jango.j0util.BmpUtil.ScaleType, int, int)}:
+ * decoded bitmaps are kept in the memory ({@link ru.jango.j0util.BitmapLruCache}), and the
+ * already scaled images are also stored encoded on the disk ({@link ru.jango.j0util.DiskCache}),
+ * so the repeated requests skip decoding and scaling of the original image.
+ * <br /><br />
+ * <p/>
+ * Entries are identified by the source id (any string, witch identifies the original image: url,
+ * file path, etc.), {@link ru.jango.j0util.BmpUtil.ScaleType}, target size and rotation; the
+ * key is MD5 of them, taken as UTF-8 (see {@link ru.jango.j0util.SecurityUtil#hashUtf8(String, String)}).
+ * <br /><br />
+ * <p/>
+ * Disk errors are just logged - cache is not the place to fail. Cache is thread safe.
+ */
+public class ScaledBitmapCache {
+
+    /**
+     * Quality for storing opaque images on the disk; images with alpha are stored as PNG.
+     */
+    public static final int DEFAULT_JPEG_QUALITY = 90;
+
+    private final BitmapLruCache memoryCache;
+    private final DiskCache diskCache;
+    private int jpegQuality;
+
+    private int memoryHitCount;
+    private int diskHitCount;
+    private int missCount;
+
+    /**
+     * Creates memory-only cache.
+     *
+     * @param memorySize maximum total byte count of the bitmaps in memory
+     */
+    public ScaledBitmapCache(long memorySize) {
+        this(memorySize, null);
+    }
+
+    /**
+     * @param memorySize maximum total byte count of the bitmaps in memory
+     * @param diskCache  disk cache for the encoded images, may be NULL
+     * @see ru.jango.j0util.DiskCache#open(java.io.File, long)
+     */
+    public ScaledBitmapCache(long memorySize, DiskCache diskCache) {
+        this.memoryCache = new BitmapLruCache(memorySize);
+        this.diskCache = diskCache;
+        this.jpegQuality = DEFAULT_JPEG_QUALITY;
+    }
+
+    /**
+     * Generates cache key for the scaled image. Rotation is normalized, so -90 and 270 degrees
+     * give the same key.
+     */
+    public static String genKey(String sourceId, BmpUtil.ScaleType scaleType, int w, int h, int rotation) {
+        return SecurityUtil.hashUtf8(sourceId + "|" + scaleType + "|" + w + "x" + h + "|" + normalizeRotation(rotation),
+                "MD5");
+    }
+
+    /**
+     * Generates source id for the file; it changes, when the file is modified.
+     */
+    public static String genSourceId(File file) {
+        return file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified();
+    }
+
+    /**
+     * Looks for the scaled image in memory, and than on the disk.
+     *
+     * @return cached image, or null
+     */
+    public Bitmap get(String sourceId, BmpUtil.ScaleType scaleType, int w, int h, int rotation) {
+        final String key = genKey(sourceId, scaleType, w, h, rotation);
+
+        Bitmap bmp = memoryCache.get(key);
+        if (bmp != null && !bmp.isRecycled()) {
+            countHit(true);
+            return bmp;
+        }
+
+        bmp = readFromDisk(key);
+        if (bmp != null) {
+            memoryCache.put(key, bmp);
+            countHit(false);
+            return bmp;
+        }
+
+        countMiss();
+        return null;
+    }
+
+    /**
+     * Puts the scaled image into memory and onto the disk.
+     */
+    public void put(String sourceId, BmpUtil.ScaleType scaleType, int w, int h, int rotation, Bitmap bmp) {
+        final String key = genKey(sourceId, scaleType, w, h, rotation);
+        memoryCache.put(key, bmp);
+        writeToDisk(key, bmp);
+    }
+
+    /**
+     * Returns cached image, or scales the original one with
+     * {@link ru.jango.j0util.BmpUtil#scale(byte[], ru.jango.j0util.BmpUtil.ScaleType, int, int)},
+     * rotates it, if needed, and caches the result.
+     *
+     * @param sourceId id of the original image
+     * @param data     raw (not decoded) original image data as byte array
+     * @param rotation rotation angle in degrees
+     */
+    public Bitmap getOrScale(String sourceId, byte[] data, BmpUtil.ScaleType scaleType,
+                             int w, int h, int rotation) {
+        Bitmap bmp = get(sourceId, scaleType, w, h, rotation);
+        if (bmp != null) return bmp;
+
+        bmp = rotate(BmpUtil.scale(data, scaleType, w, h), rotation);
+        if (bmp != null) put(sourceId, scaleType, w, h, rotation, bmp);
+
+        return bmp;
+    }
+
+    /**
+     * Same as {@link #getOrScale(String, byte[], ru.jango.j0util.BmpUtil.ScaleType, int, int, int)},
+     * but the original image is read from the file, and the source id is generated with
+     * {@link #genSourceId(java.io.File)}.
+     */
+    public Bitmap getOrScale(File file, BmpUtil.ScaleType scaleType, int w, int h, int rotation) {
+        final String sourceId = genSourceId(file);
+        Bitmap bmp = get(sourceId, scaleType, w, h, rotation);
+        if (bmp != null) return bmp;
+
+        bmp = rotate(BmpUtil.scale(file, scaleType, w, h), rotation);
+        if (bmp != null) put(sourceId, scaleType, w, h, rotation, bmp);
+
+        return bmp;
+    }
+
+    /**
+     * Removes all bitmaps from memory; disk cache stays untouched.
+     */
+    public void clearMemory() {
+        memoryCache.evictAll();
+    }
+
+    public BitmapLruCache getMemoryCache() {
+        return memoryCache;
+    }
+
+    public DiskCache getDiskCache() {
+        return diskCache;
+    }
+
+    public synchronized int getJpegQuality() {
+        return jpegQuality;
+    }
+
+    /**
+     * Sets quality for storing opaque images on the disk.
+     *
+     * @see #DEFAULT_JPEG_QUALITY
+     */
+    public synchronized void setJpegQuality(int jpegQuality) {
+        this.jpegQuality = jpegQuality;
+    }
+
+    public synchronized int getMemoryHitCount() {
+        return memoryHitCount;
+    }
+
+    public synchronized int getDiskHitCount() {
+        return diskHitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Returns part of the requests, that were served from memory or disk; from 0 to 1.
+     */
+    public synchronized float getHitRate() {
+        final int total = memoryHitCount + diskHitCount + missCount;
+        return total == 0 ? 0 : ((float) (memoryHitCount + diskHitCount)) / total;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ScaledBitmapCache[memoryHits=" + memoryHitCount + ", diskHits=" + diskHitCount +
+                ", misses=" + missCount + ", hitRate=" + getHitRate() + "; " + memoryCache +
+                (diskCache != null ? "; " + diskCache : "") + "]";
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////
+    //
+    //                      Helpers
+    //
+    //////////////////////////////////////////////////////////////////////////////////////////////
+
+    private Bitmap readFromDisk(String key) {
+        if (diskCache == null) return null;
+
+        try {
+            final InputStream in = diskCache.get(key);
+            if (in == null) return null;
+
+            try { return BitmapFactory.decodeStream(in); }
+            finally { in.close(); }
+        } catch (IOException e) {
+            LogUtil.w(ScaledBitmapCache.class, "failed to read " + key + ": " + e);
+            return null;
+        }
+    }
+
+    private void writeToDisk(String key, Bitmap bmp) {
+        if (diskCache == null) return;
+
+        try {
+            final DiskCache.Editor editor = diskCache.edit(key);
+            // somebody is already writing it
+            if (editor == null) return;
+
+            try {
+                final OutputStream out = editor.newOutputStream();
+                try {
+                    if (bmp.hasAlpha()) bmp.compress(Bitmap.CompressFormat.PNG, 100, out);
+                    else bmp.compress(Bitmap.CompressFormat.JPEG, getJpegQuality(), out);
+                } finally {
+                    out.close();
+                }
+
+                editor.commit();
+            } finally {
+                editor.abortUnlessCommitted();
+            }
+        } catch (IOException e) {
+            LogUtil.w(ScaledBitmapCache.class, "failed to write " + key + ": " + e);
+        }
+    }
+
+    private static int normalizeRotation(int rotation) {
+        final int normalized = rotation % 360;
+        return normalized < 0 ? normalized + 360 : normalized;
+    }
+
+    private static Bitmap rotate(Bitmap bmp, int rotation) {
+        if (bmp == null || rotation % 360 == 0) return bmp;
+
+        final Bitmap ret = BmpUtil.rotate(bmp, null, rotation);
+        if (ret != bmp) bmp.recycle();
+        return ret;
+    }
+
+    private synchronized void countHit(boolean memory) {
+        if (memory) memoryHitCount++;
+        else diskHitCount++;
+    }
+
+    private synchronized void countMiss() {
+        missCount++;
+    }
+
+}
@@ -19,11 +19,22 @@
 
 package ru.jango.j0util;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.DigestException;
 import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Utility class for simplifying {@link java.security.MessageDigest} usage for hashing
- * ({@link #ALGORITHMS}).
+ * ({@link #ALGORITHMS}) and fast non-cryptographic hashing ({@link #FAST_ALGORITHMS}). Strings,
+ * byte buffers, streams and files could be hashed at once, or fed part by part into a
+ * {@link ru.jango.j0util.Hasher}.
  * <br /><br/>
  *
  * http://www.sha1-online.com/
@@ -42,9 +53,49 @@ public class SecurityUtil {
     public static final String[] ALGORITHMS = { "MD2", "MD5", "SHA-1",
             "SHA-256", "SHA-384", "SHA-512" };
 
+    /**
+     * Non-cryptographic hash algorithms, implemented in pure java, so they are always
+     * supported. They are many times faster, than {@link #ALGORITHMS}, and are fine for cache and
+     * dedup keys, but not for anything security related. Accepted everywhere, where
+     * {@link #ALGORITHMS} are.
+     *
+     * @see ru.jango.j0util.Crc32c
+     * @see ru.jango.j0util.MurmurHash3
+     * @see ru.jango.j0util.XxHash64
+     */
+    public static final String[] FAST_ALGORITHMS = { Crc32c.ALGORITHM, MurmurHash3.ALGORITHM,
+            XxHash64.ALGORITHM };
+
+    /**
+     * Hashers by algorithm, cached per thread: MessageDigest.getInstance(...) is a provider
+     * lookup plus allocation, and hashers are not thread safe.
+     */
+    private static final ThreadLocal<Map<String, Hasher>> HASHERS = new ThreadLocal<Map<String, Hasher>>() {
+        @Override
+        protected Map<String, Hasher> initialValue() {
+            return new HashMap<String, Hasher>();
+        }
+    };
+
+    /**
+     * Algorithm chosen by {@link #smartHash(String)}; supported algorithms don't change at
+     * runtime, so it's resolved once.
+     */
+    private static volatile String smartAlgorithm;
+
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
     /**
      * Encodes a string with the specified algorithm and returns the result as a string, not a
      * byte array, as {@link java.security.MessageDigest} does.
+     * <br /><br />
+     * <p/>
+     * Text is taken as ISO-8859-1, so all non-Latin-1 characters are hashed as '?'. It's kept
+     * for compatibility with already stored hashes; use {@link #hashUtf8(String, String)} for
+     * arbitrary text.
      *
      * @param text text to encode
      * @param alg  name of algorithm
@@ -54,15 +105,62 @@ public class SecurityUtil {
      * @see #ALGORITHMS
      */
     public static String hash(String text, String alg) {
-        try {
-            final MessageDigest md = MessageDigest.getInstance(alg);
-            md.reset();
-            md.update(text.getBytes("iso-8859-1"));
+        return text == null ? null : hash(text.getBytes(ISO_8859_1), alg);
+    }
 
-            return convertToHex(md.digest());
-        } catch (Exception e) {
-            return null;
-        }
+    /**
+     * Same as {@link #hash(String, String)}, but text is taken as UTF-8, so any characters are
+     * hashed correctly.
+     */
+    public static String hashUtf8(String text, String alg) {
+        return text == null ? null : hash(text.getBytes(UTF_8), alg);
+    }
+
+    public static String hash(byte[] data, String alg) {
+        return hash(data, 0, data.length, alg);
+    }
+
+    /**
+     * Hashes part of the array.
+     *
+     * @param data   data to hash
+     * @param offset index of the first byte to hash
+     * @param length number of bytes to hash
+     * @param alg    name of algorithm
+     * @return hex-string of the hash, or NULL if the algorithm is not supported
+     */
+    public static String hash(byte[] data, int offset, int length, String alg) {
+        final byte[] hash = hashToBytes(data, offset, length, alg);
+        return hash == null ? null : toHex(hash);
+    }
+
+    public static byte[] hashToBytes(byte[] data, String alg) {
+        return hashToBytes(data, 0, data.length, alg);
+    }
+
+    /**
+     * Same as {@link #hash(byte[], int, int, String)}, but returns the raw hash.
+     *
+     * @return hash, or NULL if the algorithm is not supported
+     */
+    public static byte[] hashToBytes(byte[] data, int offset, int length, String alg) {
+        final Hasher hasher = getHasher(alg);
+        return hasher == null ? null : hasher.update(data, offset, length).digest();
+    }
+
+    /**
+     * Same as {@link #hashToBytes(byte[], int, int, String)}, but writes the hash into the
+     * specified array, so nothing is allocated. Together with
+     * {@link #toHex(byte[], int, int, char[], int)} gives hex-strings without any garbage.
+     *
+     * @param dest       array for the hash
+     * @param destOffset index in dest to start writing from
+     * @return length of the hash, or -1 if the algorithm is not supported
+     * @throws IllegalArgumentException if the hash doesn't fit into dest
+     */
+    public static int hashToBytes(byte[] data, int offset, int length, String alg, byte[] dest, int destOffset) {
+        final Hasher hasher = getHasher(alg);
+        return hasher == null ? -1 : hasher.update(data, offset, length).digest(dest, destOffset);
     }
 
     /**
@@ -80,12 +178,23 @@ public class SecurityUtil {
      * @see #hash(String, String)
      */
     public static String smartHash(String text) {
-        for (int i = ALGORITHMS.length - 1; i >= 0; i--) {
-            final String hash = hash(text, ALGORITHMS[i]);
-            if (hash != null) return hash;
-        }
+        final String alg = getSmartAlgorithm();
+        return alg == null ? null : hash(text, alg);
+    }
 
-        return null;
+    /**
+     * Returns the algorithm, that {@link #smartHash(String)} uses: the strongest supported one
+     * from {@link #ALGORITHMS}, or NULL if none is supported.
+     */
+    public static String getSmartAlgorithm() {
+        if (smartAlgorithm == null)
+            for (int i = ALGORITHMS.length - 1; i >= 0; i--)
+                if (getHasher(ALGORITHMS[i]) != null) {
+                    smartAlgorithm = ALGORITHMS[i];
+                    break;
+                }
+
+        return smartAlgorithm;
     }
 
     public static String md5(String text) {
@@ -100,18 +209,268 @@ public class SecurityUtil {
         return hash(text, "SHA-512");
     }
 
-    private static String convertToHex(byte[] hash) {
-        final StringBuilder buf = new StringBuilder();
-        for (byte i : hash) {
-            final String h = Integer.toHexString(0xFF & i);
-            if (h.length() == 0) buf.append("00");
-            else if (h.length() == 1) {
-                buf.append("0");
-                buf.append(h);
-            } else buf.append(h);
+    //////////////////////////////////////////////////////////////////////////////////////////////
+    //
+    //                      Streaming hashing
+    //
+    //////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Creates incremental hasher for the algorithm.
+     *
+     * @param alg name of algorithm
+     * @return new hasher, or NULL if the algorithm is not supported
+     * @see #ALGORITHMS
+     * @see #FAST_ALGORITHMS
+     */
+    public static Hasher newHasher(String alg) {
+        if (XxHash64.ALGORITHM.equals(alg)) return new XxHash64();
+        else if (MurmurHash3.ALGORITHM.equals(alg)) return new MurmurHash3();
+        else if (Crc32c.ALGORITHM.equals(alg)) return new Crc32c();
+
+        try {
+            return new DigestHasher(MessageDigest.getInstance(alg));
+        } catch (NoSuchAlgorithmException e) {
+            return null;
         }
+    }
+
+    /**
+     * Hashes everything till the end of the stream; stream is read part by part, so it may be
+     * of any size. Stream is not closed.
+     *
+     * @param in  data to hash
+     * @param alg name of algorithm
+     * @return hex-string of the hash, or NULL if the algorithm is not supported
+     * @see ru.jango.j0util.Hasher#update(java.io.InputStream)
+     */
+    public static String hash(InputStream in, String alg) throws IOException {
+        final Hasher hasher = newHasher(alg);
+        return hasher == null ? null : hasher.update(in).digestHex();
+    }
+
+    /**
+     * Hashes the file; it is read through a {@link java.nio.channels.FileChannel} into a reusable
+     * direct buffer, so it may be of any size.
+     *
+     * @param file file to hash
+     * @param alg  name of algorithm
+     * @return hex-string of the hash, or NULL if the algorithm is not supported
+     * @see ru.jango.j0util.Hasher#update(java.io.File)
+     */
+    public static String hash(File file, String alg) throws IOException {
+        final Hasher hasher = newHasher(alg);
+        return hasher == null ? null : hasher.update(file).digestHex();
+    }
 
-        return buf.toString();
+    /**
+     * Hashes remaining bytes of the buffer (heap, direct or memory-mapped). Buffer position is
+     * not changed.
+     *
+     * @param buffer data to hash
+     * @param alg    name of algorithm
+     * @return hex-string of the hash, or NULL if the algorithm is not supported
+     */
+    public static String hash(ByteBuffer buffer, String alg) {
+        final Hasher hasher = newHasher(alg);
+        return hasher == null ? null : hasher.update(buffer.duplicate()).digestHex();
+    }
+
+    /**
+     * Hashes the file as a Merkle tree of {@link ru.jango.j0util.TreeHasher#DEFAULT_CHUNK_SIZE}
+     * chunks, that are hashed in parallel on all available processors. Result differs from
+     * {@link #hash(java.io.File, String)}; use {@link ru.jango.j0util.TreeHasher} directly to
+     * get chunk hashes and re-verify changed files.
+     *
+     * @param file file to hash
+     * @param alg  name of algorithm
+     * @return hex-string of the root hash, or NULL if the algorithm is not supported
+     */
+    public static String hashTree(File file, String alg) throws IOException {
+        if (newHasher(alg) == null) return null;
+
+        final TreeHasher hasher = new TreeHasher(alg, TreeHasher.DEFAULT_CHUNK_SIZE)
+                .setThreadCount(Runtime.getRuntime().availableProcessors());
+        try {
+            return hasher.hash(file).getRootHex();
+        } finally {
+            hasher.shutdown();
+        }
+    }
+
+    /**
+     * Creates hasher, that feeds the same data to hashers of all specified algorithms.
+     *
+     * @param algs names of algorithms
+     * @return new hasher, or NULL if any of the algorithms is not supported
+     * @see ru.jango.j0util.MultiHasher
+     */
+    public static MultiHasher newMultiHasher(String... algs) {
+        final Hasher[] hashers = new Hasher[algs.length];
+        for (int i = 0; i < algs.length; i++) {
+            hashers[i] = newHasher(algs[i]);
+            if (hashers[i] == null) return null;
+        }
+
+        return new MultiHasher(hashers);
+    }
+
+    /**
+     * Hashes everything till the end of the stream with several algorithms, reading it only
+     * once. Stream is not closed.
+     *
+     * @param in   data to hash
+     * @param algs names of algorithms
+     * @return hex-strings of the hashes in the order of algorithms, or NULL if any of the
+     * algorithms is not supported
+     */
+    public static String[] hashAll(InputStream in, String... algs) throws IOException {
+        final MultiHasher hasher = newMultiHasher(algs);
+        if (hasher == null) return null;
+
+        hasher.update(in);
+        return hasher.digestHexAll();
+    }
+
+    /**
+     * Hashes the file with several algorithms, reading it only once.
+     *
+     * @param file file to hash
+     * @param algs names of algorithms
+     * @return hex-strings of the hashes in the order of algorithms, or NULL if any of the
+     * algorithms is not supported
+     */
+    public static String[] hashAll(File file, String... algs) throws IOException {
+        final MultiHasher hasher = newMultiHasher(algs);
+        if (hasher == null) return null;
+
+        hasher.update(file);
+        return hasher.digestHexAll();
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////
+    //
+    //                      Hex encoding
+    //
+    //////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Converts bytes into a lower-case hex-string, 2 chars per byte.
+     */
+    public static String toHex(byte[] bytes) {
+        return new String(toHex(bytes, 0, bytes.length, new char[bytes.length * 2], 0));
+    }
+
+    /**
+     * Writes lower-case hex chars of the bytes into the specified array; length * 2 chars are
+     * written.
+     *
+     * @param bytes      bytes to convert
+     * @param offset     index of the first byte to convert
+     * @param length     number of bytes to convert
+     * @param dest       array for the chars
+     * @param destOffset index in dest to start writing from
+     * @return dest
+     */
+    public static char[] toHex(byte[] bytes, int offset, int length, char[] dest, int destOffset) {
+        for (int i = offset, j = destOffset; i < offset + length; i++) {
+            dest[j++] = HEX_DIGITS[(bytes[i] >> 4) & 0xF];
+            dest[j++] = HEX_DIGITS[bytes[i] & 0xF];
+        }
+
+        return dest;
+    }
+
+    /**
+     * Appends lower-case hex chars of the bytes to the specified builder.
+     *
+     * @return dest
+     */
+    public static StringBuilder toHex(byte[] bytes, int offset, int length, StringBuilder dest) {
+        dest.ensureCapacity(dest.length() + length * 2);
+        for (int i = offset; i < offset + length; i++)
+            dest.append(HEX_DIGITS[(bytes[i] >> 4) & 0xF]).append(HEX_DIGITS[bytes[i] & 0xF]);
+
+        return dest;
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////
+    //
+    //                      Helpers
+    //
+    //////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Returns reset per-thread {@link ru.jango.j0util.Hasher} for the algorithm, or NULL if the
+     * algorithm is not supported. Hasher should be used and digested before the next call for
+     * the same algorithm on the same thread.
+     */
+    private static Hasher getHasher(String alg) {
+        final Map<String, Hasher> hashers = HASHERS.get();
+        Hasher hasher = hashers.get(alg);
+        if (hasher == null) {
+            hasher = newHasher(alg);
+            if (hasher == null) return null;
+
+            hashers.put(alg, hasher);
+        }
+
+        return hasher.reset();
+    }
+
+    /**
+     * {@link ru.jango.j0util.Hasher} over a {@link java.security.MessageDigest}.
+     */
+    private static class DigestHasher extends Hasher {
+
+        private final MessageDigest md;
+
+        public DigestHasher(MessageDigest md) {
+            this.md = md;
+        }
+
+        @Override
+        public String getAlgorithm() {
+            return md.getAlgorithm();
+        }
+
+        @Override
+        public int getDigestLength() {
+            return md.getDigestLength();
+        }
+
+        @Override
+        public Hasher update(byte[] data, int offset, int length) {
+            md.update(data, offset, length);
+            return this;
+        }
+
+        @Override
+        public Hasher update(ByteBuffer buffer) {
+            md.update(buffer);
+            return this;
+        }
+
+        @Override
+        public byte[] digest() {
+            return md.digest();
+        }
+
+        @Override
+        public int digest(byte[] dest, int offset) {
+            checkDigestDest(dest, offset);
+            try {
+                return md.digest(dest, offset, dest.length - offset);
+            } catch (DigestException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+
+        @Override
+        public Hasher reset() {
+            md.reset();
+            return this;
+        }
     }
 
 }
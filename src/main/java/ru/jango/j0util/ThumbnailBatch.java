@@ -0,0 +1,374 @@
+/*
+ * The MIT License Copyright (c) 2014 Krayushkin Konstantin (jangokvk@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ru.jango.j0util;
+
+import android.graphics.Bitmap;
+import android.graphics.Point;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generates thumbnails for a list of image files in parallel. Each image goes through the
+ * stages: probe (reading the size) -> subsample -> scale -> encode; stages run as separate tasks
+ * on a bounded thread pool (sized to the CPU cores by default), so different images could be at
+ * different stages at the same time.
+ * <br /><br />
+ * <p/>
+ * Before decoding, each image reserves the memory it's going to need (calculated from the
+ * image size) in a {@link ru.jango.j0util.MemoryBudget}; images, that don't fit, wait for the
+ * others to finish. Waiting images don't hold threads. Later stages are preferred over earlier
+ * ones, so the memory is released as soon as possible. Budget could be shared with other batches
+ * or anything else.
+ * <br /><br />
+ * <p/>
+ * Callbacks are called on the worker threads.
+ *
+ * @see ru.jango.j0util.BmpUtil#scale(java.io.File, ru.jango.j0util.BmpUtil.ScaleType, int, int)
+ */
+public class ThumbnailBatch implements MemoryBudget.ReleaseListener {
+
+    public interface Callback {
+
+        /**
+         * Called, when thumbnail for the source is ready.
+         *
+         * @param index     index of the source in the list
+         * @param source    source image file
+         * @param thumbnail encoded thumbnail
+         */
+        public void onItemDone(int index, File source, byte[] thumbnail);
+
+        /**
+         * Called, when thumbnail for the source couldn't be generated.
+         *
+         * @param index  index of the source in the list
+         * @param source source image file
+         * @param error  what's happened
+         */
+        public void onItemFailed(int index, File source, Throwable error);
+
+        /**
+         * Called once, when all the sources are processed, failed or cancelled.
+         *
+         * @param cancelled true, if the batch was cancelled
+         */
+        public void onBatchFinished(boolean cancelled);
+
+    }
+
+    private static final int STAGE_PROBE = 0;
+    private static final int STAGE_DECODE = 1;
+    private static final int STAGE_SCALE = 2;
+    private static final int STAGE_ENCODE = 3;
+
+    private final List<File> sources;
+    private final BmpUtil.ScaleType scaleType;
+    private final int w;
+    private final int h;
+
+    private Bitmap.CompressFormat format;
+    private int quality;
+    private int threadCount;
+    private MemoryBudget budget;
+
+    private ThreadPoolExecutor executor;
+    private Callback callback;
+    private final PriorityQueue<Item> admissionQueue;
+    private volatile boolean cancelled;
+    private int finishedCount;
+
+    /**
+     * @param sources   image files
+     * @param scaleType scaling option
+     * @param w         thumbnail width
+     * @param h         thumbnail height
+     */
+    public ThumbnailBatch(List<File> sources, BmpUtil.ScaleType scaleType, int w, int h) {
+        this.sources = new ArrayList<File>(sources);
+        this.scaleType = scaleType;
+        this.w = w;
+        this.h = h;
+
+        this.format = Bitmap.CompressFormat.JPEG;
+        this.quality = 85;
+        this.threadCount = Runtime.getRuntime().availableProcessors();
+        this.budget = new MemoryBudget(Runtime.getRuntime().maxMemory() / 4);
+        this.admissionQueue = new PriorityQueue<Item>();
+    }
+
+    /**
+     * Sets thumbnail encoding options; by default thumbnails are JPEG's with quality 85.
+     */
+    public synchronized ThumbnailBatch setFormat(Bitmap.CompressFormat format, int quality) {
+        checkNotStarted();
+        this.format = format;
+        this.quality = quality;
+        return this;
+    }
+
+    /**
+     * Sets count of worker threads; by default it's the count of CPU cores.
+     */
+    public synchronized ThumbnailBatch setThreadCount(int threadCount) {
+        checkNotStarted();
+        if (threadCount <= 0) throw new IllegalArgumentException("threadCount <= 0");
+
+        this.threadCount = threadCount;
+        return this;
+    }
+
+    /**
+     * Sets memory budget for the decoded bitmaps; by default it's a quarter of the maximum
+     * heap size.
+     */
+    public synchronized ThumbnailBatch setMemoryBudget(MemoryBudget budget) {
+        checkNotStarted();
+        this.budget = budget;
+        return this;
+    }
+
+    /**
+     * Starts processing; method returns immediately.
+     */
+    public synchronized void start(Callback callback) {
+        checkNotStarted();
+
+        this.callback = callback;
+        this.executor = new ThreadPoolExecutor(threadCount, threadCount, 1, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>());
+
+        if (sources.isEmpty()) {
+            finish();
+            return;
+        }
+
+        budget.addReleaseListener(this);
+        for (int i = 0; i < sources.size(); i++)
+            executor.execute(new Item(i, sources.get(i)));
+    }
+
+    /**
+     * Cancels processing: images, that are not ready yet, are skipped. Thumbnails, that are
+     * already being encoded, still could be delivered.
+     */
+    public void cancel() {
+        final List<Item> waiting;
+        synchronized (this) {
+            cancelled = true;
+            waiting = new ArrayList<Item>(admissionQueue);
+            admissionQueue.clear();
+        }
+
+        for (Item item : waiting) itemFinished(item, null, null);
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public synchronized boolean isFinished() {
+        return executor != null && finishedCount == sources.size();
+    }
+
+    /**
+     * Waits for the batch to finish.
+     *
+     * @param timeout timeout in milliseconds; 0 means wait forever
+     * @return true, if the batch is finished
+     */
+    public synchronized boolean await(long timeout) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + timeout;
+        while (!isFinished()) {
+            final long left = deadline - System.currentTimeMillis();
+            if (timeout == 0) wait();
+            else if (left > 0) wait(left);
+            else return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the byte count, that would be reserved for the image with the specified size:
+     * subsampled bitmap plus scaled bitmap.
+     */
+    protected long estimateBytes(Point size) {
+        return DecodePlan.scale(size, scaleType, w, h, Bitmap.Config.ARGB_8888).getPeakBytes();
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////
+    //
+    //                      Stages
+    //
+    //////////////////////////////////////////////////////////////////////////////////////////////
+
+    private class Item implements Runnable, Comparable<Item> {
+
+        final int index;
+        final File source;
+        int stage;
+        long reserved;
+        long estimate;
+        Bitmap bmp;
+        boolean finished;
+
+        Item(int index, File source) {
+            this.index = index;
+            this.source = source;
+            this.stage = STAGE_PROBE;
+        }
+
+        @Override
+        public void run() {
+            if (cancelled) {
+                itemFinished(this, null, null);
+                return;
+            }
+
+            try {
+                switch (stage) {
+                    case STAGE_PROBE:
+                        probe();
+                        break;
+
+                    case STAGE_DECODE:
+                        bmp = BmpUtil.subsample(source, BmpUtil.ScaleType.PROPORTIONAL_CROP, w, h);
+                        if (bmp == null) throw new IllegalArgumentException("can't decode " + source);
+                        next(STAGE_SCALE);
+                        break;
+
+                    case STAGE_SCALE:
+                        bmp = BmpUtil.scaleSubsampled(bmp, scaleType, w, h);
+                        next(STAGE_ENCODE);
+                        break;
+
+                    case STAGE_ENCODE:
+                        final byte[] data = BmpUtil.bmpToByte(bmp, format, quality);
+                        if (data == null) throw new IllegalStateException("can't encode " + source);
+                        itemFinished(this, data, null);
+                        break;
+                }
+            } catch (Throwable e) {
+                // OutOfMemoryError included
+                itemFinished(this, null, e);
+            }
+        }
+
+        private void probe() {
+            final Point size = BmpUtil.extractSize(source);
+            if (size.x <= 0 || size.y <= 0) throw new IllegalArgumentException("can't read " + source);
+
+            estimate = estimateBytes(size);
+            final boolean queued;
+            synchronized (ThumbnailBatch.this) {
+                // cancel() may have already cleaned the queue; once queued, the item is
+                // finished by cancel(), not here
+                queued = !cancelled;
+                if (queued) admissionQueue.add(this);
+            }
+
+            if (queued) admit();
+            else itemFinished(this, null, null);
+        }
+
+        private void next(int stage) {
+            this.stage = stage;
+            executor.execute(this);
+        }
+
+        @Override
+        public int compareTo(Item another) {
+            // later stages first, then in the list order
+            if (stage != another.stage) return stage > another.stage ? -1 : 1;
+            return index < another.index ? -1 : (index == another.index ? 0 : 1);
+        }
+    }
+
+    @Override
+    public void onReleased(MemoryBudget budget) {
+        admit();
+    }
+
+    /**
+     * Starts decoding of the waiting images, while they fit into the memory budget.
+     */
+    private void admit() {
+        while (true) {
+            final Item item;
+            synchronized (this) {
+                final Item next = admissionQueue.peek();
+                if (next == null || cancelled || !budget.tryAcquire(next.estimate)) return;
+
+                item = admissionQueue.poll();
+                item.reserved = item.estimate;
+            }
+
+            item.next(STAGE_DECODE);
+        }
+    }
+
+    private void itemFinished(Item item, byte[] data, Throwable error) {
+        synchronized (this) {
+            if (item.finished) return;
+            item.finished = true;
+        }
+
+        if (item.bmp != null) {
+            item.bmp.recycle();
+            item.bmp = null;
+        }
+
+        if (item.reserved > 0) {
+            budget.release(item.reserved);
+            item.reserved = 0;
+        }
+
+        if (data != null) callback.onItemDone(item.index, item.source, data);
+        else if (error != null && !cancelled) callback.onItemFailed(item.index, item.source, error);
+
+        final boolean last;
+        synchronized (this) {
+            last = ++finishedCount == sources.size();
+        }
+
+        if (last) finish();
+    }
+
+    private void finish() {
+        budget.removeReleaseListener(this);
+        executor.shutdown();
+        callback.onBatchFinished(cancelled);
+
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+    private void checkNotStarted() {
+        if (executor != null) throw new IllegalStateException("batch is already started");
+    }
+
+}
@@ -0,0 +1,462 @@
+/*
+ * The MIT License Copyright (c) 2014 Krayushkin Konstantin (jangokvk@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ru.jango.j0util;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Point;
+import android.graphics.Rect;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Decodes large images by tiles, so the image could be viewed with zoom without loosing details
+ * and without decoding the whole image at once (like {@link ru.jango.j0util.BmpUtil} does, limited
+ * by {@link ru.jango.j0util.BmpUtil#getMaxTextureSize()}).
+ * <br /><br />
+ * <p/>
+ * Image is split into square tiles of the {@link #getTileSize()} pixels <b>at the current sample
+ * size</b>: the more sample size is, the more source pixels one tile covers. Use
+ * {@link #sampleSizeFor(float)} to pick the sample size for the current zoom, and
+ * {@link #getTiles(android.graphics.Rect, int)} to get the tiles, witch cover the visible part of
+ * the image. Decoded tiles are kept in a {@link ru.jango.j0util.BitmapLruCache}, so memory usage
+ * is bounded by the cache size whatever the source size is. Tiles around the visible rectangle
+ * could be decoded in background with {@link #prefetch(android.graphics.Rect, int)}.
+ * <br /><br />
+ * <p/>
+ * Tiles are decoded with {@link android.graphics.BitmapRegionDecoder}. If it doesn't support the
+ * image format (it works only with JPEG and PNG), the whole image is subsampled at least to
+ * {@link ru.jango.j0util.BmpUtil#MAX_TEXTURE_SIZE} (or the device limit, if it's smaller) and
+ * tiles are cropped from it - so in that case tiles could have less pixels than they cover and
+ * zooming doesn't add any details.
+ * <br /><br />
+ * <p/>
+ * Tile bitmaps belong to the cache - don't recycle them. Call {@link #recycle()}, when the decoder
+ * is not needed any more. Decoder is thread safe.
+ */
+public class TileDecoder {
+
+    public static final int DEFAULT_TILE_SIZE = 256;
+
+    /**
+     * Decoded part of the image.
+     */
+    public static class Tile {
+
+        private final int sampleSize;
+        private final int column;
+        private final int row;
+        private final Rect rect;
+        private final Bitmap bitmap;
+
+        private Tile(int sampleSize, int column, int row, Rect rect, Bitmap bitmap) {
+            this.sampleSize = sampleSize;
+            this.column = column;
+            this.row = row;
+            this.rect = rect;
+            this.bitmap = bitmap;
+        }
+
+        public int getSampleSize() {
+            return sampleSize;
+        }
+
+        public int getColumn() {
+            return column;
+        }
+
+        public int getRow() {
+            return row;
+        }
+
+        /**
+         * Returns part of the source image, covered by the tile, in the source image pixels.
+         */
+        public Rect getRect() {
+            return rect;
+        }
+
+        /**
+         * Returns decoded tile; it should be drawn stretched onto {@link #getRect()}.
+         */
+        public Bitmap getBitmap() {
+            return bitmap;
+        }
+    }
+
+    private final File file;
+    private final byte[] data;
+    private final int width;
+    private final int height;
+    private final int tileSize;
+    private final BitmapLruCache cache;
+
+    private BitmapRegionDecoder regionDecoder;
+    private Bitmap fallbackImage;
+    private int fallbackSampleSize;
+
+    private final LinkedList<Runnable> prefetchQueue;
+    private Thread prefetchThread;
+    private volatile boolean recycled;
+
+    /**
+     * @param file      image file
+     * @param tileSize  tile size in pixels
+     * @param cacheSize maximum total byte count of the cached tiles
+     * @throws IOException if the image size couldn't be read
+     */
+    public TileDecoder(File file, int tileSize, long cacheSize) throws IOException {
+        this(file, null, BmpUtil.extractSize(file), tileSize, cacheSize);
+    }
+
+    /**
+     * @param data      raw (not decoded) image data as byte array
+     * @param tileSize  tile size in pixels
+     * @param cacheSize maximum total byte count of the cached tiles
+     * @throws IOException if the image size couldn't be read
+     */
+    public TileDecoder(byte[] data, int tileSize, long cacheSize) throws IOException {
+        this(null, data, BmpUtil.extractSize(data), tileSize, cacheSize);
+    }
+
+    private TileDecoder(File file, byte[] data, Point size, int tileSize, long cacheSize) throws IOException {
+        if (tileSize <= 0) throw new IllegalArgumentException("tileSize <= 0");
+        if (size.x <= 0 || size.y <= 0) throw new IOException("failed to read image size");
+
+        this.file = file;
+        this.data = data;
+        this.width = size.x;
+        this.height = size.y;
+        this.tileSize = tileSize;
+        this.cache = new BitmapLruCache(cacheSize);
+        this.prefetchQueue = new LinkedList<Runnable>();
+
+        try {
+            regionDecoder = file != null
+                    ? BitmapRegionDecoder.newInstance(file.getAbsolutePath(), false)
+                    : BitmapRegionDecoder.newInstance(data, 0, data.length, false);
+        } catch (IOException e) {
+            LogUtil.w(TileDecoder.class, "region decoding is not supported, falling back: " + e);
+            regionDecoder = null;
+        }
+    }
+
+    /**
+     * Returns sample size for displaying the image with the specified scale: maximum power of 2,
+     * witch doesn't loose any displayed pixels.
+     *
+     * @param scale displayed size / source size
+     */
+    public static int sampleSizeFor(float scale) {
+        if (scale <= 0) throw new IllegalArgumentException("scale <= 0");
+
+        int sampleSize = 1;
+        while (sampleSize < (1 << 30) && sampleSize * 2 * scale <= 1) sampleSize *= 2;
+
+        return sampleSize;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    public BitmapLruCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Returns true, if tiles are decoded with {@link android.graphics.BitmapRegionDecoder}, and
+     * false, if they are cropped from the subsampled image.
+     */
+    public boolean isRegionDecodingSupported() {
+        return regionDecoder != null;
+    }
+
+    public int getColumnCount(int sampleSize) {
+        return divCeil(width, tileSize * sampleSize);
+    }
+
+    public int getRowCount(int sampleSize) {
+        return divCeil(height, tileSize * sampleSize);
+    }
+
+    /**
+     * Returns part of the source image, covered by the tile, in the source image pixels.
+     */
+    public Rect getTileRect(int sampleSize, int column, int row) {
+        final int srcTileSize = tileSize * sampleSize;
+        return new Rect(column * srcTileSize, row * srcTileSize,
+                Math.min(width, (column + 1) * srcTileSize),
+                Math.min(height, (row + 1) * srcTileSize));
+    }
+
+    /**
+     * Returns the tile from cache, or decodes it.
+     *
+     * @param sampleSize sample size, better to be a power of 2
+     * @return decoded tile, or null, if it couldn't be decoded
+     * @see #sampleSizeFor(float)
+     */
+    public Tile getTile(int sampleSize, int column, int row) {
+        checkTile(sampleSize, column, row);
+
+        final Rect rect = getTileRect(sampleSize, column, row);
+        final String key = genKey(sampleSize, column, row);
+
+        Bitmap bmp = cache.get(key);
+        if (bmp == null || bmp.isRecycled()) {
+            bmp = decodeTile(sampleSize, rect);
+            if (bmp == null) return null;
+
+            cache.put(key, bmp);
+        }
+
+        return new Tile(sampleSize, column, row, rect, bmp);
+    }
+
+    /**
+     * Returns tiles, witch cover visible part of the image. Tiles, that couldn't be decoded, are
+     * skipped.
+     *
+     * @param visible    visible part of the image in the source image pixels
+     * @param sampleSize sample size, better to be a power of 2
+     * @see #sampleSizeFor(float)
+     */
+    public List<Tile> getTiles(Rect visible, int sampleSize) {
+        final Rect range = getTileRange(visible, sampleSize, 0);
+        final List<Tile> ret = new ArrayList<Tile>();
+        for (int row = range.top; row < range.bottom; row++)
+            for (int column = range.left; column < range.right; column++) {
+                final Tile tile = getTile(sampleSize, column, row);
+                if (tile != null) ret.add(tile);
+            }
+
+        return ret;
+    }
+
+    /**
+     * Decodes in background the tiles, that lay around the visible part of the image (one tile
+     * wide ring), so they'll be ready from cache, when the image is scrolled. Previously scheduled
+     * prefetches are cancelled.
+     *
+     * @param visible    visible part of the image in the source image pixels
+     * @param sampleSize sample size, better to be a power of 2
+     */
+    public void prefetch(Rect visible, final int sampleSize) {
+        final Rect inner = getTileRange(visible, sampleSize, 0);
+        final Rect outer = getTileRange(visible, sampleSize, 1);
+
+        synchronized (prefetchQueue) {
+            if (recycled) return;
+
+            prefetchQueue.clear();
+            for (int row = outer.top; row < outer.bottom; row++)
+                for (int column = outer.left; column < outer.right; column++) {
+                    if (row >= inner.top && row < inner.bottom &&
+                            column >= inner.left && column < inner.right)
+                        continue;
+
+                    final String key = genKey(sampleSize, column, row);
+                    if (cache.get(key) != null) continue;
+
+                    final int c = column;
+                    final int r = row;
+                    prefetchQueue.add(new Runnable() {
+                        @Override
+                        public void run() {
+                            getTile(sampleSize, c, r);
+                        }
+                    });
+                }
+
+            if (!prefetchQueue.isEmpty()) startPrefetchThread();
+            prefetchQueue.notifyAll();
+        }
+    }
+
+    /**
+     * Releases all the resources: stops prefetching, clears the cache and recycles the decoders.
+     * The decoder couldn't be used after that.
+     */
+    public void recycle() {
+        synchronized (prefetchQueue) {
+            recycled = true;
+            prefetchQueue.clear();
+            prefetchQueue.notifyAll();
+        }
+
+        synchronized (this) {
+            cache.evictAll();
+            if (regionDecoder != null) regionDecoder.recycle();
+            if (fallbackImage != null) fallbackImage.recycle();
+            regionDecoder = null;
+            fallbackImage = null;
+        }
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////
+    //
+    //                      Decoding
+    //
+    //////////////////////////////////////////////////////////////////////////////////////////////
+
+    private synchronized Bitmap decodeTile(int sampleSize, Rect rect) {
+        if (recycled) return null;
+
+        try {
+            if (regionDecoder != null) {
+                final BitmapFactory.Options ops = new BitmapFactory.Options();
+                ops.inSampleSize = sampleSize;
+                return regionDecoder.decodeRegion(rect, ops);
+            }
+
+            return cropTile(sampleSize, rect);
+        } catch (OutOfMemoryError e) {
+            LogUtil.w(TileDecoder.class, "not enough memory for a tile: " + e);
+            cache.evictAll();
+            return null;
+        }
+    }
+
+    /**
+     * Crops tile from the subsampled whole image; it's not less subsampled, than needed to fit
+     * into {@link ru.jango.j0util.BmpUtil#MAX_TEXTURE_SIZE}. Probed device limit could be 8192
+     * or more - such a whole image would take hundreds of megabytes out of the cache bounds.
+     */
+    private Bitmap cropTile(int sampleSize, Rect rect) {
+        final int maxSize = Math.min(BmpUtil.getMaxTextureSize(), BmpUtil.MAX_TEXTURE_SIZE);
+        int fullSampleSize = sampleSize;
+        while (width / fullSampleSize >= maxSize || height / fullSampleSize >= maxSize)
+            fullSampleSize *= 2;
+
+        if (fallbackImage == null || fallbackSampleSize != fullSampleSize) {
+            if (fallbackImage != null) fallbackImage.recycle();
+
+            final BitmapFactory.Options ops = new BitmapFactory.Options();
+            ops.inSampleSize = fullSampleSize;
+            fallbackImage = file != null
+                    ? BitmapFactory.decodeFile(file.getAbsolutePath(), ops)
+                    : BitmapFactory.decodeByteArray(data, 0, data.length, ops);
+            fallbackSampleSize = fullSampleSize;
+            if (fallbackImage == null) return null;
+        }
+
+        // decoder could round the size differently
+        final float scaleX = ((float) fallbackImage.getWidth()) / width;
+        final float scaleY = ((float) fallbackImage.getHeight()) / height;
+        final int left = Math.min(fallbackImage.getWidth() - 1, (int) (rect.left * scaleX));
+        final int top = Math.min(fallbackImage.getHeight() - 1, (int) (rect.top * scaleY));
+        final int right = Math.min(fallbackImage.getWidth(), Math.max(left + 1, (int) Math.ceil(rect.right * scaleX)));
+        final int bottom = Math.min(fallbackImage.getHeight(), Math.max(top + 1, (int) Math.ceil(rect.bottom * scaleY)));
+
+        final Bitmap tile = Bitmap.createBitmap(fallbackImage, left, top, right - left, bottom - top);
+        if (tile != fallbackImage) return tile;
+
+        // whole immutable bitmap is returned as is, but the tile mustn't share it - fallback image
+        // is recycled, when the sample size changes, while the tile could be still drawn
+        final Bitmap.Config config = fallbackImage.getConfig();
+        return fallbackImage.copy(config != null ? config : Bitmap.Config.ARGB_8888, false);
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////
+    //
+    //                      Prefetch
+    //
+    //////////////////////////////////////////////////////////////////////////////////////////////
+
+    private void startPrefetchThread() {
+        if (prefetchThread != null) return;
+
+        prefetchThread = new Thread("TileDecoder prefetch") {
+            @Override
+            public void run() {
+                while (true) {
+                    final Runnable task;
+                    synchronized (prefetchQueue) {
+                        try {
+                            while (prefetchQueue.isEmpty() && !recycled) prefetchQueue.wait();
+                        } catch (InterruptedException ignored) {
+                            prefetchThread = null;
+                            return;
+                        }
+
+                        if (recycled) {
+                            prefetchThread = null;
+                            return;
+                        }
+
+                        task = prefetchQueue.poll();
+                    }
+
+                    task.run();
+                }
+            }
+        };
+        prefetchThread.setPriority(Thread.MIN_PRIORITY);
+        prefetchThread.setDaemon(true);
+        prefetchThread.start();
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////
+    //
+    //                      Helpers
+    //
+    //////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Returns range of tiles as rect: left and top inclusive, right and bottom exclusive.
+     */
+    private Rect getTileRange(Rect visible, int sampleSize, int margin) {
+        final int srcTileSize = tileSize * sampleSize;
+        return new Rect(
+                Math.max(0, Math.max(0, visible.left) / srcTileSize - margin),
+                Math.max(0, Math.max(0, visible.top) / srcTileSize - margin),
+                Math.min(getColumnCount(sampleSize), divCeil(Math.min(width, visible.right), srcTileSize) + margin),
+                Math.min(getRowCount(sampleSize), divCeil(Math.min(height, visible.bottom), srcTileSize) + margin));
+    }
+
+    private void checkTile(int sampleSize, int column, int row) {
+        if (sampleSize <= 0) throw new IllegalArgumentException("sampleSize <= 0");
+        if (column < 0 || column >= getColumnCount(sampleSize) || row < 0 || row >= getRowCount(sampleSize))
+            throw new IllegalArgumentException("no tile " + column + "x" + row + " for sample size " + sampleSize);
+    }
+
+    private static String genKey(int sampleSize, int column, int row) {
+        return sampleSize + ":" + column + ":" + row;
+    }
+
+    private static int divCeil(int a, int b) {
+        return (a + b - 1) / b;
+    }
+
+}
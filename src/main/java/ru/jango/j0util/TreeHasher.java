@@ -0,0 +1,474 @@
+/*
+ * The MIT License Copyright (c) 2014 Krayushkin Konstantin (jangokvk@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ru.jango.j0util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Merkle tree hashing of large files: file is split into fixed size chunks, chunks are read
+ * with positional {@link java.nio.channels.FileChannel} reads and hashed in parallel, and chunk
+ * hashes are combined into the root hash. Chunk hashes are kept in the resulting
+ * {@link ru.jango.j0util.TreeHasher.Tree}, so a partially changed file could be re-verified or
+ * re-hashed by reading only the changed chunks.
+ * <br /><br />
+ * <p/>
+ * Tree is built like in RFC 6962: leaf is hash(0x00 + chunk), node is hash(0x01 + left + right),
+ * and the left subtree of n leaves holds the largest power of 2 less than n of them. Empty file
+ * has hash of nothing as root. So the root depends on the algorithm and the chunk size, and is
+ * not the plain hash of the file.
+ * <br /><br />
+ * <p/>
+ * TreeHasher could be used from different threads at the same time; call {@link #shutdown()},
+ * when it's not needed any more.
+ *
+ * @see ru.jango.j0util.SecurityUtil#hashTree(java.io.File, String)
+ */
+public class TreeHasher {
+
+    public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+
+    private static final byte[] LEAF_PREFIX = { 0 };
+    private static final byte[] NODE_PREFIX = { 1 };
+
+    private static final ThreadLocal<ByteBuffer> READ_BUFFER = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(Hasher.BUFFER_SIZE);
+        }
+    };
+
+    private final String algorithm;
+    private final int chunkSize;
+    private final ThreadLocal<Hasher> hashers;
+
+    private int threadCount;
+    private ThreadPoolExecutor executor;
+
+    /**
+     * Creates single threaded tree hasher.
+     *
+     * @param algorithm any algorithm, supported by {@link ru.jango.j0util.SecurityUtil#newHasher(String)}
+     * @param chunkSize size of chunks in bytes
+     * @throws IllegalArgumentException if the algorithm is not supported
+     */
+    public TreeHasher(final String algorithm, int chunkSize) {
+        if (chunkSize <= 0) throw new IllegalArgumentException("chunkSize <= 0");
+        if (SecurityUtil.newHasher(algorithm) == null)
+            throw new IllegalArgumentException("algorithm " + algorithm + " is not supported");
+
+        this.algorithm = algorithm;
+        this.chunkSize = chunkSize;
+        this.threadCount = 1;
+        this.hashers = new ThreadLocal<Hasher>() {
+            @Override
+            protected Hasher initialValue() {
+                return SecurityUtil.newHasher(algorithm);
+            }
+        };
+    }
+
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public synchronized int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * Sets count of threads for hashing chunks; calling thread is one of them. By default
+     * hashing is single threaded.
+     */
+    public synchronized TreeHasher setThreadCount(int threadCount) {
+        if (threadCount <= 0) throw new IllegalArgumentException("threadCount <= 0");
+        this.threadCount = threadCount;
+
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+
+        return this;
+    }
+
+    /**
+     * Stops worker threads; hasher could still be used single threaded after that.
+     */
+    public synchronized void shutdown() {
+        threadCount = 1;
+        if (executor != null) executor.shutdown();
+        executor = null;
+    }
+
+    /**
+     * Hashes the whole file.
+     */
+    public Tree hash(File file) throws IOException {
+        final FileInputStream in = new FileInputStream(file);
+        try {
+            final FileChannel channel = in.getChannel();
+            final long length = channel.size();
+            final byte[][] chunks = new byte[chunkCount(length)][];
+
+            hashChunks(channel, length, allChunks(chunks.length), chunks);
+            return new Tree(algorithm, chunkSize, length, chunks);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Re-hashes only the specified chunks of a partially changed file, taking other chunk hashes
+     * from the previous tree. If file length has changed, chunks from the old end of the file
+     * are re-hashed too.
+     *
+     * @param previous    tree of the file before changes
+     * @param dirtyChunks indexes of the changed chunks
+     * @see ru.jango.j0util.TreeHasher.Tree#getChunkIndex(long)
+     */
+    public Tree update(File file, Tree previous, int... dirtyChunks) throws IOException {
+        checkTree(previous);
+
+        final FileInputStream in = new FileInputStream(file);
+        try {
+            final FileChannel channel = in.getChannel();
+            final long length = channel.size();
+            final int count = chunkCount(length);
+
+            final byte[][] chunks = Arrays.copyOf(previous.chunks, count);
+            final boolean[] dirty = new boolean[count];
+            for (int chunk : dirtyChunks)
+                if (chunk >= 0 && chunk < count) dirty[chunk] = true;
+            if (length != previous.length)
+                for (int i = (int) (Math.min(length, previous.length) / chunkSize); i < count; i++) dirty[i] = true;
+
+            int dirtyCount = 0;
+            for (boolean d : dirty) if (d) dirtyCount++;
+            final int[] indexes = new int[dirtyCount];
+            for (int i = 0, j = 0; i < count; i++) if (dirty[i]) indexes[j++] = i;
+
+            hashChunks(channel, length, indexes, chunks);
+            return new Tree(algorithm, chunkSize, length, chunks);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Re-hashes the specified chunks and compares them with the expected tree.
+     *
+     * @param expected tree of the correct file
+     * @param chunks   indexes of the chunks to check; if none are specified, all chunks are
+     *                 checked
+     * @return indexes of the chunks, that don't match (including missing or extra chunks, if
+     * file length differs); empty array means the checked chunks are fine
+     */
+    public int[] verify(File file, Tree expected, int... chunks) throws IOException {
+        checkTree(expected);
+
+        final FileInputStream in = new FileInputStream(file);
+        try {
+            final FileChannel channel = in.getChannel();
+            final long length = channel.size();
+            final int count = chunkCount(length);
+            final int maxCount = Math.max(count, expected.getChunkCount());
+
+            final int[] indexes = chunks.length == 0 ? allChunks(maxCount) : chunks.clone();
+            final boolean[] bad = new boolean[maxCount];
+            int toHash = 0;
+            for (int i = 0; i < indexes.length; i++) {
+                final int chunk = indexes[i];
+                if (chunk < 0 || chunk >= maxCount) continue;
+
+                // length of the chunk differs, no need to read it
+                if (chunk >= count || chunk >= expected.getChunkCount() ||
+                        chunkLength(chunk, length) != chunkLength(chunk, expected.length)) bad[chunk] = true;
+                else indexes[toHash++] = chunk;
+            }
+
+            final byte[][] actual = new byte[count][];
+            hashChunks(channel, length, Arrays.copyOf(indexes, toHash), actual);
+            for (int i = 0; i < count; i++)
+                if (actual[i] != null && !Arrays.equals(actual[i], expected.chunks[i])) bad[i] = true;
+
+            int badCount = 0;
+            for (boolean b : bad) if (b) badCount++;
+            final int[] ret = new int[badCount];
+            for (int i = 0, j = 0; i < maxCount; i++) if (bad[i]) ret[j++] = i;
+            return ret;
+        } finally {
+            in.close();
+        }
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////
+    //
+    //                      Tree
+    //
+    //////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Immutable result of tree hashing: root hash and hashes of all chunks.
+     */
+    public static class Tree {
+
+        private final String algorithm;
+        private final int chunkSize;
+        private final long length;
+        private final byte[][] chunks;
+        private final byte[] root;
+
+        private Tree(String algorithm, int chunkSize, long length, byte[][] chunks) {
+            this.algorithm = algorithm;
+            this.chunkSize = chunkSize;
+            this.length = length;
+            this.chunks = chunks;
+
+            final Hasher hasher = SecurityUtil.newHasher(algorithm);
+            this.root = chunks.length == 0 ? hasher.digest() : root(hasher, chunks, 0, chunks.length);
+        }
+
+        public String getAlgorithm() {
+            return algorithm;
+        }
+
+        public int getChunkSize() {
+            return chunkSize;
+        }
+
+        /**
+         * Returns length of the hashed file.
+         */
+        public long getLength() {
+            return length;
+        }
+
+        public int getChunkCount() {
+            return chunks.length;
+        }
+
+        /**
+         * Returns index of the chunk, that holds the specified position in file.
+         */
+        public int getChunkIndex(long position) {
+            return (int) (position / chunkSize);
+        }
+
+        /**
+         * Returns leaf hash of the chunk: hash(0x00 + chunk).
+         */
+        public byte[] getChunkHash(int index) {
+            return chunks[index].clone();
+        }
+
+        public byte[] getRootHash() {
+            return root.clone();
+        }
+
+        public String getRootHex() {
+            return SecurityUtil.toHex(root);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Tree)) return false;
+
+            final Tree tree = (Tree) o;
+            return chunkSize == tree.chunkSize && length == tree.length &&
+                    algorithm.equals(tree.algorithm) && Arrays.equals(root, tree.root);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(root);
+        }
+
+        @Override
+        public String toString() {
+            return "Tree[" + algorithm + ", " + chunks.length + " chunks, " + getRootHex() + "]";
+        }
+
+        private static byte[] root(Hasher hasher, byte[][] chunks, int from, int to) {
+            if (to - from == 1) return chunks[from];
+
+            // largest power of 2 less than count
+            final int split = Integer.highestOneBit(to - from - 1);
+            final byte[] left = root(hasher, chunks, from, from + split);
+            final byte[] right = root(hasher, chunks, from + split, to);
+            return hasher.update(NODE_PREFIX).update(left).update(right).digest();
+        }
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////
+    //
+    //                      Helpers
+    //
+    //////////////////////////////////////////////////////////////////////////////////////////////
+
+    private void checkTree(Tree tree) {
+        if (!algorithm.equals(tree.algorithm) || chunkSize != tree.chunkSize)
+            throw new IllegalArgumentException(tree + " was built with other algorithm or chunk size");
+    }
+
+    private int chunkCount(long length) {
+        final long ret = (length + chunkSize - 1) / chunkSize;
+        if (ret > Integer.MAX_VALUE) throw new IllegalArgumentException("too many chunks, use bigger chunkSize");
+        return (int) ret;
+    }
+
+    private long chunkLength(int chunk, long length) {
+        return Math.max(0, Math.min(chunkSize, length - (long) chunk * chunkSize));
+    }
+
+    private static int[] allChunks(int count) {
+        final int[] ret = new int[count];
+        for (int i = 0; i < count; i++) ret[i] = i;
+        return ret;
+    }
+
+    /**
+     * Hashes chunks with the specified indexes into dest, in parallel if there are threads.
+     */
+    private void hashChunks(final FileChannel channel, final long length, final int[] indexes,
+                            final byte[][] dest) throws IOException {
+
+        final ThreadPoolExecutor executor;
+        final int workers;
+        synchronized (this) {
+            workers = Math.min(threadCount, indexes.length);
+            executor = workers > 1 ? getExecutor() : null;
+        }
+
+        final AtomicInteger next = new AtomicInteger();
+        final IOException[] error = new IOException[1];
+        final Runnable worker = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = next.getAndIncrement(); i < indexes.length; i = next.getAndIncrement()) {
+                        synchronized (error) {
+                            if (error[0] != null) return;
+                        }
+
+                        dest[indexes[i]] = hashChunk(channel, length, indexes[i]);
+                    }
+                } catch (IOException e) {
+                    synchronized (error) {
+                        error[0] = e;
+                    }
+                } catch (RuntimeException e) {
+                    final IOException failure = new IOException("hashing failed");
+                    failure.initCause(e);
+                    synchronized (error) {
+                        error[0] = failure;
+                    }
+                }
+            }
+        };
+
+        if (executor == null) {
+            worker.run();
+        } else {
+            final CountDownLatch latch = new CountDownLatch(workers - 1);
+            for (int i = 1; i < workers; i++)
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            worker.run();
+                        } finally {
+                            latch.countDown();
+                        }
+                    }
+                });
+
+            worker.run();
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                synchronized (error) {
+                    error[0] = new InterruptedIOException("hashing was interrupted");
+                }
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        synchronized (error) {
+            if (error[0] != null) throw error[0];
+        }
+    }
+
+    private byte[] hashChunk(FileChannel channel, long length, int chunk) throws IOException {
+        final Hasher hasher = hashers.get().reset();
+        final ByteBuffer buffer = READ_BUFFER.get();
+
+        hasher.update(LEAF_PREFIX);
+        long position = (long) chunk * chunkSize;
+        final long end = position + chunkLength(chunk, length);
+        while (position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+
+            final int read = channel.read(buffer, position);
+            if (read < 0) throw new IOException("file was truncated while hashing");
+
+            buffer.flip();
+            hasher.update(buffer);
+            position += read;
+        }
+
+        return hasher.digest();
+    }
+
+    private ThreadPoolExecutor getExecutor() {
+        if (executor == null) {
+            executor = new ThreadPoolExecutor(threadCount - 1, threadCount - 1, 1, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    final Thread t = new Thread(r, "TreeHasher");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            executor.allowCoreThreadTimeOut(true);
+        }
+
+        return executor;
+    }
+
+}
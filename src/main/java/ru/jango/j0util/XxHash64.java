@@ -0,0 +1,221 @@
+/*
+ * The MIT License Copyright (c) 2014 Krayushkin Konstantin (jangokvk@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ru.jango.j0util;
+
+/**
+ * Pure java <a href="https://github.com/Cyan4973/xxHash">xxHash64</a>: very fast
+ * non-cryptographic 64 bit hash, good for cache and dedup keys.
+ * <br /><br />
+ * <p/>
+ * Static {@link #hash(byte[], int, int, long)} hashes an array at once and returns the hash as
+ * long without any allocations; object is an incremental {@link ru.jango.j0util.Hasher}, whose
+ * digest is the canonical (big-endian) 8 bytes representation.
+ *
+ * @see ru.jango.j0util.SecurityUtil#FAST_ALGORITHMS
+ */
+public class XxHash64 extends Hasher {
+
+    public static final String ALGORITHM = "XXH64";
+
+    private static final long PRIME1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME3 = 0x165667B19E3779F9L;
+    private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME5 = 0x27D4EB2F165667C5L;
+
+    private static final int STRIPE = 32;
+
+    private final long seed;
+    private final byte[] buffer = new byte[STRIPE];
+    private int bufferSize;
+    private long totalLength;
+    private long v1, v2, v3, v4;
+
+    public XxHash64() {
+        this(0);
+    }
+
+    public XxHash64(long seed) {
+        this.seed = seed;
+        reset();
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Hashes part of the array at once.
+     *
+     * @return 64 bit hash
+     */
+    public static long hash(byte[] data, int offset, int length, long seed) {
+        final int end = offset + length;
+        int i = offset;
+        long h;
+
+        if (length >= STRIPE) {
+            long v1 = seed + PRIME1 + PRIME2;
+            long v2 = seed + PRIME2;
+            long v3 = seed;
+            long v4 = seed - PRIME1;
+
+            final int limit = end - STRIPE;
+            do {
+                v1 = round(v1, getLongLE(data, i));
+                v2 = round(v2, getLongLE(data, i + 8));
+                v3 = round(v3, getLongLE(data, i + 16));
+                v4 = round(v4, getLongLE(data, i + 24));
+                i += STRIPE;
+            } while (i <= limit);
+
+            h = converge(v1, v2, v3, v4);
+        } else h = seed + PRIME5;
+
+        return finish(h + length, data, i, end);
+    }
+
+    public static long hash(byte[] data) {
+        return hash(data, 0, data.length, 0);
+    }
+
+    @Override
+    public String getAlgorithm() {
+        return ALGORITHM;
+    }
+
+    @Override
+    public int getDigestLength() {
+        return 8;
+    }
+
+    @Override
+    public XxHash64 update(byte[] data, int offset, int length) {
+        final int end = offset + length;
+        totalLength += length;
+
+        if (bufferSize + length < STRIPE) {
+            System.arraycopy(data, offset, buffer, bufferSize, length);
+            bufferSize += length;
+            return this;
+        }
+
+        if (bufferSize > 0) {
+            final int fill = STRIPE - bufferSize;
+            System.arraycopy(data, offset, buffer, bufferSize, fill);
+            processStripe(buffer, 0);
+            offset += fill;
+            bufferSize = 0;
+        }
+
+        for (; offset <= end - STRIPE; offset += STRIPE) processStripe(data, offset);
+
+        bufferSize = end - offset;
+        System.arraycopy(data, offset, buffer, 0, bufferSize);
+        return this;
+    }
+
+    /**
+     * Returns the hash of all fed data as long and resets the hasher.
+     */
+    public long digestLong() {
+        final long h = totalLength >= STRIPE ? converge(v1, v2, v3, v4) : seed + PRIME5;
+        final long ret = finish(h + totalLength, buffer, 0, bufferSize);
+        reset();
+        return ret;
+    }
+
+    @Override
+    public byte[] digest() {
+        final byte[] ret = new byte[8];
+        putLongBE(ret, 0, digestLong());
+        return ret;
+    }
+
+    @Override
+    public int digest(byte[] dest, int offset) {
+        checkDigestDest(dest, offset);
+        putLongBE(dest, offset, digestLong());
+        return 8;
+    }
+
+    @Override
+    public Hasher reset() {
+        v1 = seed + PRIME1 + PRIME2;
+        v2 = seed + PRIME2;
+        v3 = seed;
+        v4 = seed - PRIME1;
+        totalLength = 0;
+        bufferSize = 0;
+        return this;
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////
+    //
+    //                      Helpers
+    //
+    //////////////////////////////////////////////////////////////////////////////////////////////
+
+    private void processStripe(byte[] data, int i) {
+        v1 = round(v1, getLongLE(data, i));
+        v2 = round(v2, getLongLE(data, i + 8));
+        v3 = round(v3, getLongLE(data, i + 16));
+        v4 = round(v4, getLongLE(data, i + 24));
+    }
+
+    private static long round(long acc, long input) {
+        return Long.rotateLeft(acc + input * PRIME2, 31) * PRIME1;
+    }
+
+    private static long mergeRound(long acc, long value) {
+        return (acc ^ round(0, value)) * PRIME1 + PRIME4;
+    }
+
+    private static long converge(long v1, long v2, long v3, long v4) {
+        long h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+        h = mergeRound(h, v1);
+        h = mergeRound(h, v2);
+        h = mergeRound(h, v3);
+        return mergeRound(h, v4);
+    }
+
+    /**
+     * Mixes in the last (less than a stripe) bytes and avalanches.
+     */
+    private static long finish(long h, byte[] data, int i, int end) {
+        for (; i <= end - 8; i += 8)
+            h = Long.rotateLeft(h ^ round(0, getLongLE(data, i)), 27) * PRIME1 + PRIME4;
+
+        if (i <= end - 4) {
+            h = Long.rotateLeft(h ^ (getIntLE(data, i) & 0xFFFFFFFFL) * PRIME1, 23) * PRIME2 + PRIME3;
+            i += 4;
+        }
+
+        for (; i < end; i++)
+            h = Long.rotateLeft(h ^ (data[i] & 0xFF) * PRIME5, 11) * PRIME1;
+
+        h ^= h >>> 33;
+        h *= PRIME2;
+        h ^= h >>> 29;
+        h *= PRIME3;
+        return h ^ (h >>> 32);
+    }
+
+}